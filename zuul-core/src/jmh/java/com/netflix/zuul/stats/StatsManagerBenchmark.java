@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+package com.netflix.zuul.stats;
+
+import com.netflix.zuul.context.SessionContext;
+import com.netflix.zuul.message.Headers;
+import com.netflix.zuul.message.http.HttpQueryParams;
+import com.netflix.zuul.message.http.HttpRequestMessageImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request cost of StatsManager counting. Status codes in 0-599 take the indexed path; 600 and above still
+ * build a "status_" key and look it up in the named map, as every status code did before, so the two route
+ * benchmarks compare the indexed and keyed lookups on the same instance.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class StatsManagerBenchmark {
+
+    private StatsManager statsManager;
+    private HttpRequestMessageImpl request;
+
+    @Setup
+    public void setUp() {
+        statsManager = new StatsManager();
+
+        final Headers headers = new Headers();
+        headers.set("host", "api.netflix.com:443");
+        headers.set("x-forwarded-proto", "https");
+        headers.set("x-forwarded-for", "10.0.0.1, 10.0.0.2");
+        request = new HttpRequestMessageImpl(new SessionContext(), "HTTP/1.1", "GET", "/api/users/1",
+                new HttpQueryParams(), headers, "10.0.0.2", "https", 443, "localhost");
+
+        // register the monitors up front so the benchmarks only measure the steady state.
+        statsManager.collectRouteStats("api/users", 200);
+        statsManager.collectRouteStats("api/users", 600);
+        statsManager.collectRequestStats(request);
+    }
+
+    @Benchmark
+    public void collectRouteStatsIndexed() {
+        statsManager.collectRouteStats("api/users", 200);
+    }
+
+    @Benchmark
+    public void collectRouteStatsKeyed() {
+        statsManager.collectRouteStats("api/users", 600);
+    }
+
+    @Benchmark
+    public void collectRequestStats() {
+        statsManager.collectRequestStats(request);
+    }
+}
@@ -17,6 +17,7 @@
 package com.netflix.netty.common;
 
 import com.netflix.config.CachedDynamicLongProperty;
+import com.netflix.netty.common.time.CoarseClock;
 import com.netflix.zuul.netty.ChannelUtils;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
@@ -54,7 +55,7 @@ public abstract class AbstrHttpConnectionExpiryHandler extends ChannelOutboundHa
         this.maxRequests = maxRequests;
 
         this.maxExpiry = maxExpiry;
-        this.connectionStartTime = System.currentTimeMillis();
+        this.connectionStartTime = CoarseClock.INSTANCE.currentTimeMillis();
         long randomDelta = ThreadLocalRandom.current().nextLong(MAX_EXPIRY_DELTA.get());
         this.connectionExpiryTime = connectionStartTime + maxExpiry + randomDelta;
     }
@@ -77,10 +78,10 @@ public abstract class AbstrHttpConnectionExpiryHandler extends ChannelOutboundHa
     }
 
     protected boolean isConnectionExpired(ChannelHandlerContext ctx) {
-        boolean expired = requestCount >= maxRequests(ctx.channel()) ||
-                System.currentTimeMillis() > connectionExpiryTime;
+        final long now = CoarseClock.INSTANCE.currentTimeMillis();
+        boolean expired = requestCount >= maxRequests(ctx.channel()) || now > connectionExpiryTime;
         if (expired) {
-            long lifetime = System.currentTimeMillis() - connectionStartTime;
+            long lifetime = now - connectionStartTime;
             LOG.info("Connection is expired. requestCount={}, lifetime={}, {}",
                     requestCount, lifetime, ChannelUtils.channelInfoForLogging(ctx.channel()));
         }
@@ -27,11 +27,10 @@ import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.util.AttributeKey;
 import com.netflix.netty.common.HttpLifecycleChannelHandler;
+import com.netflix.netty.common.time.CoarseClock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.time.LocalDateTime;
-
 /**
  * User: michaels@netflix.com
  * Date: 4/14/16
@@ -92,7 +91,7 @@ public class AccessLogChannelHandler extends CombinedChannelDuplexHandler
                             state.request != null ? state.request.method() : "-");
                 }
 
-                publisher.log(ctx.channel(), state.request, state.response, state.dateTime, localPort, remoteIp, durationNs,
+                publisher.log(ctx.channel(), state.request, state.response, state.startTimeMillis, localPort, remoteIp, durationNs,
                         state.responseBodySize);
             }
 
@@ -122,7 +121,7 @@ public class AccessLogChannelHandler extends CombinedChannelDuplexHandler
 
     private static class RequestState
     {
-        LocalDateTime dateTime = LocalDateTime.now();
+        long startTimeMillis = CoarseClock.INSTANCE.currentTimeMillis();
         HttpRequest request;
         HttpResponse response;
         long startTimeNs;
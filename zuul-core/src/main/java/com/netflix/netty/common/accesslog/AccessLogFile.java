@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.netty.common.accesslog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A buffered, append-only FileChannel with size based rotation: when the current file reaches maxFileSize, it is
+ * renamed to file.1 (shifting older files up to file.maxFiles, and dropping the oldest) and a new file is started.
+ *
+ * Rotation only happens in endRecord(), so a record is never split across two files.
+ *
+ * NOTE: Not threadsafe. Owned by the single writer thread of an AsyncAccessLogPublisher.
+ */
+public class AccessLogFile implements Closeable
+{
+    private final Path path;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private FileChannel channel;
+    private long fileSize;
+
+    public AccessLogFile(Path path, int bufferSize, long maxFileSize, int maxFiles) throws IOException
+    {
+        this.path = path;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        open();
+    }
+
+    public Path getPath()
+    {
+        return path;
+    }
+
+    public void write(ByteBuffer src) throws IOException
+    {
+        while (src.hasRemaining()) {
+            if (! buffer.hasRemaining()) {
+                flush();
+            }
+            if (src.remaining() <= buffer.remaining()) {
+                buffer.put(src);
+            }
+            else {
+                final int limit = src.limit();
+                src.limit(src.position() + buffer.remaining());
+                buffer.put(src);
+                src.limit(limit);
+            }
+        }
+    }
+
+    public void write(byte b) throws IOException
+    {
+        if (! buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put(b);
+    }
+
+    /**
+     * Writes the chars as UTF-8, without an intermediate String or byte[].
+     */
+    public void write(CharSequence chars) throws IOException
+    {
+        final CharBuffer in = CharBuffer.wrap(chars);
+        encoder.reset();
+        while (encoder.encode(in, buffer, true).isOverflow()) {
+            flush();
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            flush();
+        }
+    }
+
+    /**
+     * Marks the end of a record, rotating the file if it has reached its maximum size.
+     *
+     * @return true if the file was rotated, so that the next record will be the first in a new file
+     */
+    public boolean endRecord() throws IOException
+    {
+        if (fileSize + buffer.position() < maxFileSize) {
+            return false;
+        }
+        rotate();
+        return true;
+    }
+
+    public void flush() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            fileSize += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public long size()
+    {
+        return fileSize + buffer.position();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            flush();
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    private void open() throws IOException
+    {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileSize = channel.size();
+    }
+
+    /**
+     * Starts a new file now, regardless of the size of the current one.
+     */
+    public void rotate() throws IOException
+    {
+        flush();
+        channel.close();
+        if (maxFiles < 1) {
+            Files.deleteIfExists(path);
+        }
+        else {
+            Files.deleteIfExists(rotated(maxFiles));
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                final Path from = rotated(i);
+                if (Files.exists(from)) {
+                    Files.move(from, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(path, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        open();
+    }
+
+    private Path rotated(int idx)
+    {
+        return Paths.get(path.toString() + "." + idx);
+    }
+}
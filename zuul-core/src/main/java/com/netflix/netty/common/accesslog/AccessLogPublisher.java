@@ -17,14 +17,19 @@
 package com.netflix.netty.common.accesslog;
 
 import com.netflix.config.DynamicStringListProperty;
+import com.netflix.config.DynamicStringProperty;
 import io.netty.channel.Channel;
 import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.function.BiFunction;
@@ -34,9 +39,9 @@ public class AccessLogPublisher
     private final static char DELIM = '\t';
     private final static DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
 
-    private final static List<String> LOG_REQ_HEADERS =
+    final static List<String> LOG_REQ_HEADERS =
             new DynamicStringListProperty("zuul.access.log.requestheaders", "host,x-forwarded-for,x-forwarded-proto,x-forwarded-host,x-forwarded-port,user-agent").get();
-    private final static List<String> LOG_RESP_HEADERS =
+    final static List<String> LOG_RESP_HEADERS =
             new DynamicStringListProperty("zuul.access.log.responseheaders", "server,via,content-type").get();
 
     private final Logger logger;
@@ -44,77 +49,169 @@ public class AccessLogPublisher
 
     private static final Logger LOG = LoggerFactory.getLogger(AccessLogPublisher.class);
 
+    private static final DynamicStringProperty PUBLISHER_TYPE =
+            new DynamicStringProperty("zuul.access.log.publisher", "logger");
+    private static final DynamicStringProperty LOG_FILE =
+            new DynamicStringProperty("zuul.access.log.file", "logs/access.log");
+
     public AccessLogPublisher(String loggerName, BiFunction<Channel, HttpRequest, String> requestIdProvider)
     {
         this.logger = LoggerFactory.getLogger(loggerName);
         this.requestIdProvider = requestIdProvider;
     }
 
+    /**
+     * Creates the publisher selected by zuul.access.log.publisher:
+     * <ul>
+     *     <li>logger (default): tab-delimited lines, written synchronously to the named logger</li>
+     *     <li>async: tab-delimited lines, written to zuul.access.log.file by an AsyncAccessLogPublisher</li>
+     *     <li>binary: compact binary records, written to zuul.access.log.file by a BinaryAccessLogPublisher</li>
+     * </ul>
+     */
+    public static AccessLogPublisher fromConfig(String loggerName, BiFunction<Channel, HttpRequest, String> requestIdProvider)
+    {
+        String type = PUBLISHER_TYPE.get();
+        switch (type) {
+            case "logger":
+                return new AccessLogPublisher(loggerName, requestIdProvider);
+            case "async":
+                return new AsyncAccessLogPublisher(new File(LOG_FILE.get()), requestIdProvider);
+            case "binary":
+                return new BinaryAccessLogPublisher(new File(LOG_FILE.get()), requestIdProvider);
+            default:
+                throw new IllegalArgumentException("Unknown zuul.access.log.publisher: " + type);
+        }
+    }
+
+    /**
+     * Called by AccessLogChannelHandler when a request completes, with the wall clock time the request started at.
+     */
+    public void log(Channel channel, HttpRequest request, HttpResponse response, long startTimeMillis, Integer localPort,
+                    String remoteIp, Long durationNs, Integer responseBodySize)
+    {
+        LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(startTimeMillis), ZoneId.systemDefault());
+        log(channel, request, response, dateTime, localPort, remoteIp, durationNs, responseBodySize);
+    }
+
     public void log(Channel channel, HttpRequest request, HttpResponse response, LocalDateTime dateTime, Integer localPort, String remoteIp,
                     Long durationNs, Integer responseBodySize)
     {
         StringBuilder sb = new StringBuilder();
+        String requestId = getRequestId(channel, request);
 
-        String dateTimeStr = dateTime != null ? dateTime.format(DATE_TIME_FORMATTER) : "-----T-:-:-";
-        String remoteIpStr = (remoteIp != null && !remoteIp.isEmpty()) ? remoteIp : "-";
-        String port = localPort != null ? localPort.toString() : "-";
-        String method = request != null ? request.method().toString().toUpperCase() : "-";
-        String uri = request != null ? request.uri() : "-";
-        String status = response != null ? String.valueOf(response.status().code()) : "-";
+        appendLine(sb, dateTime, remoteIp, localPort != null ? localPort : -1,
+                request != null ? request.method() : null, request != null ? request.uri() : null,
+                response != null ? response.status().code() : -1,
+                durationNs != null ? durationNs : -1, responseBodySize != null ? responseBodySize : -1, requestId,
+                request != null ? request.headers() : null, response != null ? response.headers() : null);
 
-        String requestId = null;
+        // Write to logger.
+        final String access = sb.toString();
+        logger.info(access);
+        LOG.debug(access);
+    }
+
+    protected String getRequestId(Channel channel, HttpRequest request)
+    {
         try {
-            requestId = requestIdProvider.apply(channel, request);
+            return requestIdProvider.apply(channel, request);
         } catch (Exception ex) {
-            LOG.error("requestIdProvider failed in AccessLogPublisher method={}, uri={}, status={}", method, uri, status);
+            LOG.error("requestIdProvider failed in AccessLogPublisher method={}, uri={}",
+                    request != null ? request.method() : "-", request != null ? request.uri() : "-");
+            return null;
+        }
+    }
+
+    /**
+     * Appends a tab-delimited access log line, without a trailing newline. Negative numbers and nulls are written
+     * as "-".
+     */
+    static void appendLine(StringBuilder sb, LocalDateTime dateTime, String remoteIp, int localPort, HttpMethod method,
+                           String uri, int status, long durationNs, int responseBodySize, String requestId,
+                           HttpHeaders requestHeaders, HttpHeaders responseHeaders)
+    {
+        if (dateTime != null) {
+            DATE_TIME_FORMATTER.formatTo(dateTime, sb);
         }
-        requestId = requestId != null ? requestId : "-";
+        else {
+            sb.append("-----T-:-:-");
+        }
+
+        sb.append(DELIM).append((remoteIp != null && !remoteIp.isEmpty()) ? remoteIp : "-");
+        sb.append(DELIM);
+        appendNumber(sb, localPort);
+        sb.append(DELIM).append(method != null ? method.name().toUpperCase() : "-");
+        sb.append(DELIM).append(uri != null ? uri : "-");
+        sb.append(DELIM);
+        appendNumber(sb, status);
 
         // Convert duration to microseconds.
-        String durationStr = (durationNs != null && durationNs.longValue() > 0) ? String.valueOf(durationNs / 1000) : "-";
-
-        String responseBodySizeStr = (responseBodySize != null && responseBodySize.intValue() > 0) ? responseBodySize.toString() : "-";
-
-
-        // Build the line.
-        sb
-                .append(dateTimeStr)
-                .append(DELIM).append(remoteIpStr)
-                .append(DELIM).append(port)
-                .append(DELIM).append(method)
-                .append(DELIM).append(uri)
-                .append(DELIM).append(status)
-                .append(DELIM).append(durationStr)
-                .append(DELIM).append(responseBodySizeStr)
-                .append(DELIM).append(requestId)
-                ;
-
-        if (request != null && request.headers() != null) {
-            includeMatchingHeaders(sb, LOG_REQ_HEADERS, request.headers());
+        sb.append(DELIM);
+        if (durationNs > 0) {
+            sb.append(durationNs / 1000);
+        }
+        else {
+            sb.append('-');
         }
 
-        if (response != null && response.headers() != null) {
-            includeMatchingHeaders(sb, LOG_RESP_HEADERS, response.headers());
+        sb.append(DELIM);
+        if (responseBodySize > 0) {
+            sb.append(responseBodySize);
+        }
+        else {
+            sb.append('-');
         }
 
-        // Write to logger.
-        final String access = sb.toString();
-        logger.info(access);
-        LOG.debug(access);
+        sb.append(DELIM).append(requestId != null ? requestId : "-");
+
+        if (requestHeaders != null) {
+            includeMatchingHeaders(sb, LOG_REQ_HEADERS, requestHeaders);
+        }
+
+        if (responseHeaders != null) {
+            includeMatchingHeaders(sb, LOG_RESP_HEADERS, responseHeaders);
+        }
     }
 
-    void includeMatchingHeaders(StringBuilder builder, List<String> requiredHeaders, HttpHeaders headers)
+    private static void appendNumber(StringBuilder sb, long value)
+    {
+        if (value >= 0) {
+            sb.append(value);
+        }
+        else {
+            sb.append('-');
+        }
+    }
+
+    static void includeMatchingHeaders(StringBuilder builder, List<String> requiredHeaders, HttpHeaders headers)
     {
         for (String headerName : requiredHeaders)
         {
-            String value = headerAsString(headers, headerName);
-            builder.append(DELIM).append('\"').append(value).append('\"');
+            builder.append(DELIM).append('\"');
+            appendHeader(builder, headers, headerName);
+            builder.append('\"');
         }
     }
 
-    String headerAsString(HttpHeaders headers, String headerName)
+    static String headerAsString(HttpHeaders headers, String headerName)
+    {
+        StringBuilder sb = new StringBuilder();
+        appendHeader(sb, headers, headerName);
+        return sb.toString();
+    }
+
+    private static void appendHeader(StringBuilder builder, HttpHeaders headers, String headerName)
     {
         List<String> values = headers.getAll(headerName);
-        return (values.size() == 0) ? "-" : String.join(",", values);
+        if (values.isEmpty()) {
+            builder.append('-');
+            return;
+        }
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(values.get(i));
+        }
     }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.netty.common.accesslog;
+
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+
+/**
+ * A fixed-layout access log entry, preallocated in the slots of AsyncAccessLogPublisher's ring buffers and reused
+ * for every request.
+ *
+ * Only references and primitives are captured on the event loop. Anything that costs allocation to render (the
+ * timestamp, the selected header values) is left for the writer thread. Negative numbers mean "not known".
+ */
+public final class AccessLogRecord
+{
+    long startTimeMillis;
+    String remoteIp;
+    int localPort;
+    HttpMethod method;
+    String uri;
+    int status;
+    long durationNs;
+    int responseBodySize;
+    String requestId;
+    HttpHeaders requestHeaders;
+    HttpHeaders responseHeaders;
+
+    void set(long startTimeMillis, String remoteIp, Integer localPort, HttpRequest request, HttpResponse response,
+             Long durationNs, Integer responseBodySize, String requestId)
+    {
+        this.startTimeMillis = startTimeMillis;
+        this.remoteIp = remoteIp;
+        this.localPort = localPort != null ? localPort : -1;
+        this.method = request != null ? request.method() : null;
+        this.uri = request != null ? request.uri() : null;
+        this.status = response != null ? response.status().code() : -1;
+        this.durationNs = durationNs != null ? durationNs : -1;
+        this.responseBodySize = responseBodySize != null ? responseBodySize : -1;
+        this.requestId = requestId;
+        this.requestHeaders = request != null ? request.headers() : null;
+        this.responseHeaders = response != null ? response.headers() : null;
+    }
+
+    /**
+     * Drop references once written, so that a quiet ring does not keep old requests' headers reachable.
+     */
+    void clear()
+    {
+        remoteIp = null;
+        method = null;
+        uri = null;
+        requestId = null;
+        requestHeaders = null;
+        responseHeaders = null;
+    }
+
+    public long getStartTimeMillis()
+    {
+        return startTimeMillis;
+    }
+
+    public String getRemoteIp()
+    {
+        return remoteIp;
+    }
+
+    public int getLocalPort()
+    {
+        return localPort;
+    }
+
+    public HttpMethod getMethod()
+    {
+        return method;
+    }
+
+    public String getUri()
+    {
+        return uri;
+    }
+
+    public int getStatus()
+    {
+        return status;
+    }
+
+    public long getDurationNs()
+    {
+        return durationNs;
+    }
+
+    public int getResponseBodySize()
+    {
+        return responseBodySize;
+    }
+
+    public String getRequestId()
+    {
+        return requestId;
+    }
+
+    public HttpHeaders getRequestHeaders()
+    {
+        return requestHeaders;
+    }
+
+    public HttpHeaders getResponseHeaders()
+    {
+        return responseHeaders;
+    }
+}
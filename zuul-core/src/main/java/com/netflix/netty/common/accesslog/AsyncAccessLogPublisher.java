@@ -0,0 +1,426 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.netty.common.accesslog;
+
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.Spectator;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.concurrent.FastThreadLocal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * An AccessLogPublisher that never blocks the event loop on logging.
+ *
+ * Each thread that publishes (ie. each event loop) gets its own single-producer ring of preallocated
+ * AccessLogRecords, so publishing a request is a few field writes and an ordered store, with no locks, no
+ * formatting and no allocation. A single background writer thread drains all the rings in batches into a buffered
+ * FileChannel with size based rotation. If a ring is full because the writer has fallen behind, the record is
+ * dropped and counted instead of waiting.
+ *
+ * The lines written are the same as those of AccessLogPublisher. Subclasses can write a different format by
+ * overriding writeRecord().
+ */
+public class AsyncAccessLogPublisher extends AccessLogPublisher implements Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncAccessLogPublisher.class);
+
+    private static final DynamicIntProperty RING_SIZE =
+            new DynamicIntProperty("zuul.access.log.async.ring.size", 8192);
+    private static final DynamicIntProperty BATCH_SIZE =
+            new DynamicIntProperty("zuul.access.log.async.batch.size", 1024);
+    private static final DynamicIntProperty BUFFER_SIZE =
+            new DynamicIntProperty("zuul.access.log.async.buffer.bytes", 256 * 1024);
+    private static final DynamicLongProperty MAX_FILE_SIZE =
+            new DynamicLongProperty("zuul.access.log.async.file.max.bytes", 256L * 1024 * 1024);
+    private static final DynamicIntProperty MAX_FILES =
+            new DynamicIntProperty("zuul.access.log.async.file.max.count", 10);
+    private static final DynamicIntProperty IDLE_WAIT_MS =
+            new DynamicIntProperty("zuul.access.log.async.idle.ms", 10);
+
+    private final AccessLogFile file;
+    private final int ringSize;
+    private final List<RecordRing> rings = new CopyOnWriteArrayList<>();
+    private final FastThreadLocal<RecordRing> threadRing;
+    private final StringBuilder line = new StringBuilder(512);
+    private final Thread writer;
+    private final AtomicBoolean writerStarted = new AtomicBoolean();
+    private volatile boolean running = true;
+
+    private final Counter droppedCounter;
+    private final Counter writtenCounter;
+    private final Counter errorCounter;
+
+    public AsyncAccessLogPublisher(File file, BiFunction<Channel, HttpRequest, String> requestIdProvider)
+    {
+        this(file, requestIdProvider, Spectator.globalRegistry());
+    }
+
+    protected AsyncAccessLogPublisher(File file, BiFunction<Channel, HttpRequest, String> requestIdProvider,
+                                      Registry registry)
+    {
+        this(file, requestIdProvider, RING_SIZE.get(), MAX_FILE_SIZE.get(), MAX_FILES.get(), registry);
+    }
+
+    protected AsyncAccessLogPublisher(File file, BiFunction<Channel, HttpRequest, String> requestIdProvider,
+                                      int ringSize, long maxFileSize, int maxFiles, Registry registry)
+    {
+        super(AsyncAccessLogPublisher.class.getName(), requestIdProvider);
+        try {
+            this.file = new AccessLogFile(file.toPath(), BUFFER_SIZE.get(), maxFileSize, maxFiles);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Unable to open access log file " + file, e);
+        }
+        this.ringSize = ringSize;
+        this.threadRing = new FastThreadLocal<RecordRing>() {
+            @Override
+            protected RecordRing initialValue()
+            {
+                RecordRing ring = new RecordRing(AsyncAccessLogPublisher.this.ringSize);
+                rings.add(ring);
+                startWriter();
+                return ring;
+            }
+        };
+        this.droppedCounter = registry.counter("zuul.accesslog.dropped");
+        this.writtenCounter = registry.counter("zuul.accesslog.written");
+        this.errorCounter = registry.counter("zuul.accesslog.errors");
+
+        this.writer = new Thread(this::runWriter, "zuul-accesslog-writer");
+        this.writer.setDaemon(true);
+    }
+
+    @Override
+    public void log(Channel channel, HttpRequest request, HttpResponse response, long startTimeMillis, Integer localPort,
+                    String remoteIp, Long durationNs, Integer responseBodySize)
+    {
+        final RecordRing ring = threadRing.get();
+        final AccessLogRecord record = ring.claim();
+        if (record == null || ! running) {
+            droppedCounter.increment();
+            return;
+        }
+        record.set(startTimeMillis, remoteIp, localPort, request, response, durationNs, responseBodySize,
+                getRequestId(channel, request));
+        ring.publish();
+    }
+
+    @Override
+    public void log(Channel channel, HttpRequest request, HttpResponse response, LocalDateTime dateTime, Integer localPort,
+                    String remoteIp, Long durationNs, Integer responseBodySize)
+    {
+        long startTimeMillis = dateTime != null
+                ? dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : System.currentTimeMillis();
+        log(channel, request, response, startTimeMillis, localPort, remoteIp, durationNs, responseBodySize);
+    }
+
+    /**
+     * Writes one record to the file. Called only on the writer thread.
+     */
+    protected void writeRecord(AccessLogRecord record, AccessLogFile out) throws IOException
+    {
+        line.setLength(0);
+        appendLine(line,
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(record.startTimeMillis), ZoneId.systemDefault()),
+                record.remoteIp, record.localPort, record.method, record.uri, record.status, record.durationNs,
+                record.responseBodySize, record.requestId, record.requestHeaders, record.responseHeaders);
+        line.append('\n');
+        out.write(line);
+    }
+
+    /**
+     * Called on the writer thread after the file has been rotated, before the first record of the new file.
+     */
+    protected void fileRotated(AccessLogFile out) throws IOException
+    {
+    }
+
+    /**
+     * Stops the writer thread once it has written out everything already published, and closes the file.
+     */
+    @Override
+    public void close()
+    {
+        running = false;
+        if (writerStarted.compareAndSet(false, true)) {
+            // Nothing was ever published.
+            closeFile();
+            return;
+        }
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWriter()
+    {
+        try {
+            while (running) {
+                if (drain() == 0) {
+                    flush();
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(IDLE_WAIT_MS.get()));
+                }
+            }
+            while (drain() > 0) {
+                // Write out whatever was published before close().
+            }
+        }
+        finally {
+            closeFile();
+        }
+    }
+
+    /**
+     * The writer is started by the first publishing thread rather than in the constructor, so that it never
+     * observes a partially constructed subclass.
+     */
+    private void startWriter()
+    {
+        if (writerStarted.compareAndSet(false, true)) {
+            writer.start();
+        }
+    }
+
+    private void closeFile()
+    {
+        try {
+            file.close();
+        }
+        catch (IOException e) {
+            LOG.error("Error closing access log file {}", file.getPath(), e);
+        }
+    }
+
+    private int drain()
+    {
+        final int batchSize = BATCH_SIZE.get();
+        int drained = 0;
+        for (RecordRing ring : rings) {
+            AccessLogRecord record;
+            for (int i = 0; i < batchSize && (record = ring.peek()) != null; i++) {
+                try {
+                    writeRecord(record, file);
+                    if (file.endRecord()) {
+                        fileRotated(file);
+                    }
+                    writtenCounter.increment();
+                }
+                catch (Exception e) {
+                    errorCounter.increment();
+                    LOG.debug("Error writing access log record", e);
+                }
+                finally {
+                    record.clear();
+                    ring.release();
+                }
+                drained++;
+            }
+        }
+        return drained;
+    }
+
+    private void flush()
+    {
+        try {
+            file.flush();
+        }
+        catch (IOException e) {
+            errorCounter.increment();
+            LOG.debug("Error flushing access log file {}", file.getPath(), e);
+        }
+    }
+
+    /**
+     * Bounded single-producer, single-consumer ring of reused records. The producer claims the slot at tail, fills
+     * it in, and publishes it with an ordered store of the new tail; the consumer reads the slot at head, and frees it
+     * with an ordered store of the new head.
+     */
+    static final class RecordRing
+    {
+        private final AccessLogRecord[] slots;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        RecordRing(int requestedSize)
+        {
+            int size = Integer.highestOneBit(Math.max(2, requestedSize - 1)) << 1;
+            this.slots = new AccessLogRecord[size];
+            for (int i = 0; i < size; i++) {
+                slots[i] = new AccessLogRecord();
+            }
+            this.mask = size - 1;
+        }
+
+        /** Producer only. Returns the next free slot, or null if the ring is full. */
+        AccessLogRecord claim()
+        {
+            final long t = tail.get();
+            if (t - head.get() >= slots.length) {
+                return null;
+            }
+            return slots[(int) t & mask];
+        }
+
+        /** Producer only. Makes the last claimed slot visible to the consumer. */
+        void publish()
+        {
+            tail.lazySet(tail.get() + 1);
+        }
+
+        /** Consumer only. Returns the oldest published slot, or null if the ring is empty. */
+        AccessLogRecord peek()
+        {
+            final long h = head.get();
+            if (h >= tail.get()) {
+                return null;
+            }
+            return slots[(int) h & mask];
+        }
+
+        /** Consumer only. Frees the slot returned by peek(). */
+        void release()
+        {
+            head.lazySet(head.get() + 1);
+        }
+
+        int capacity()
+        {
+            return slots.length;
+        }
+    }
+
+    @RunWith(MockitoJUnitRunner.class)
+    public static class UnitTest
+    {
+        private Path dir;
+
+        @Before
+        public void setup() throws IOException
+        {
+            dir = Files.createTempDirectory("accesslog");
+        }
+
+        @After
+        public void tearDown() throws IOException
+        {
+            for (File f : dir.toFile().listFiles()) {
+                f.delete();
+            }
+            Files.delete(dir);
+        }
+
+        @Test
+        public void testRingDropsWhenFull()
+        {
+            RecordRing ring = new RecordRing(3);
+            assertEquals(4, ring.capacity());
+            for (int i = 0; i < 4; i++) {
+                assertTrue(ring.claim() != null);
+                ring.publish();
+            }
+            assertEquals(null, ring.claim());
+
+            ring.peek();
+            ring.release();
+            assertTrue(ring.claim() != null);
+        }
+
+        @Test
+        public void testWritesSameLineAsSyncPublisher() throws IOException
+        {
+            File logFile = new File(dir.toFile(), "access.log");
+            AsyncAccessLogPublisher publisher = new AsyncAccessLogPublisher(logFile, (channel, request) -> "abc",
+                    16, 1024 * 1024, 2, Spectator.globalRegistry());
+
+            HttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/some/path");
+            request.headers().add("host", "api.netflix.com");
+            HttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+            long startTimeMillis = 1531180800000L;
+
+            publisher.log(null, request, response, startTimeMillis, 7001, "10.0.0.1", 5000L, 42);
+            publisher.close();
+
+            StringBuilder expected = new StringBuilder();
+            appendLine(expected, LocalDateTime.ofInstant(Instant.ofEpochMilli(startTimeMillis), ZoneId.systemDefault()),
+                    "10.0.0.1", 7001, HttpMethod.GET, "/some/path", 200, 5000L, 42, "abc",
+                    request.headers(), response.headers());
+            assertEquals(expected.toString() + "\n", new String(Files.readAllBytes(logFile.toPath()), StandardCharsets.UTF_8));
+            assertTrue(expected.toString().startsWith("2018-07-"));
+        }
+
+        @Test
+        public void testRotatesBySize() throws IOException
+        {
+            File logFile = new File(dir.toFile(), "access.log");
+            AsyncAccessLogPublisher publisher = new AsyncAccessLogPublisher(logFile, (channel, request) -> null,
+                    16, 1, 2, Spectator.globalRegistry());
+            HttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+            for (int i = 0; i < 4; i++) {
+                publisher.log(null, request, null, System.currentTimeMillis(), null, null, null, null);
+            }
+            publisher.close();
+
+            // Every record fills a file, and only 2 rotated files are kept.
+            assertTrue(new File(dir.toFile(), "access.log.1").length() > 0);
+            assertTrue(new File(dir.toFile(), "access.log.2").length() > 0);
+            assertEquals(false, new File(dir.toFile(), "access.log.3").exists());
+            assertEquals(0, logFile.length());
+        }
+    }
+}
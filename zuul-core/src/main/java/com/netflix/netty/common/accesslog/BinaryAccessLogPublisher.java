@@ -0,0 +1,301 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.netty.common.accesslog;
+
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.Spectator;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.NetUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * An AsyncAccessLogPublisher that writes compact binary records instead of tab-delimited lines. The files are read
+ * back with BinaryAccessLogReader, which can also convert them to TSV or JSON from the command line.
+ *
+ * <pre>
+ * file    := MAGIC version:varint reqHeaderCount:varint reqHeaderName:string* respHeaderCount:varint
+ *            respHeaderName:string* (path | record)*
+ * path    := TYPE_PATH path:string                 -- defines the next path id, starting at 0 in every file
+ * record  := TYPE_RECORD timestampDelta:zigzag ip port:varint+1 method uri status:varint+1 durationMicros:varint+1
+ *            responseBodySize:varint+1 requestId:string reqHeaderValue:string* respHeaderValue:string*
+ * ip      := 0 | 4 byte[4] | 16 byte[16] | 1 string
+ * method  := ordinal+1 in METHODS:varint | 0 | OTHER_METHOD string
+ * uri     := 0 | 1 path:string query:string | (pathId+2):varint query:string
+ * string  := 0 (null) | (utf8Length+1):varint utf8
+ * </pre>
+ *
+ * Timestamps are epoch micros, encoded as the difference from the previous record in the file. All the varint+1
+ * fields encode "not known" as 0. The URI path dictionary is reset at the start of every file, so that each rotated
+ * file can be decoded on its own.
+ */
+public class BinaryAccessLogPublisher extends AsyncAccessLogPublisher
+{
+    static final byte[] MAGIC = {'Z', 'A', 'L', 'B'};
+    static final int VERSION = 1;
+
+    static final int TYPE_RECORD = 0;
+    static final int TYPE_PATH = 1;
+
+    static final HttpMethod[] METHODS = {
+            HttpMethod.GET, HttpMethod.POST, HttpMethod.PUT, HttpMethod.DELETE, HttpMethod.HEAD,
+            HttpMethod.OPTIONS, HttpMethod.PATCH, HttpMethod.TRACE, HttpMethod.CONNECT
+    };
+    static final int OTHER_METHOD = 15;
+
+    static final int IP_STRING = 1;
+    static final int URI_LITERAL = 1;
+    static final int URI_FIRST_ID = 2;
+
+    private static final DynamicIntProperty MAX_PATHS =
+            new DynamicIntProperty("zuul.access.log.binary.paths.max", 50000);
+
+    private final List<String> requestHeaderNames;
+    private final List<String> responseHeaderNames;
+    private final HashMap<String, Integer> pathIds = new HashMap<>();
+    private final RecordBuffer out = new RecordBuffer();
+    private long lastTimestampMicros;
+    private boolean headerWritten;
+
+    public BinaryAccessLogPublisher(File file, BiFunction<Channel, HttpRequest, String> requestIdProvider)
+    {
+        super(file, requestIdProvider, Spectator.globalRegistry());
+        this.requestHeaderNames = LOG_REQ_HEADERS;
+        this.responseHeaderNames = LOG_RESP_HEADERS;
+    }
+
+    BinaryAccessLogPublisher(File file, BiFunction<Channel, HttpRequest, String> requestIdProvider,
+                             List<String> requestHeaderNames, List<String> responseHeaderNames, int ringSize,
+                             long maxFileSize, int maxFiles, Registry registry)
+    {
+        super(file, requestIdProvider, ringSize, maxFileSize, maxFiles, registry);
+        this.requestHeaderNames = requestHeaderNames;
+        this.responseHeaderNames = responseHeaderNames;
+    }
+
+    @Override
+    protected void writeRecord(AccessLogRecord record, AccessLogFile file) throws IOException
+    {
+        out.clear();
+        if (! headerWritten) {
+            // Appending to an existing file continues its dictionary ids, so always start a fresh file instead.
+            if (file.size() > 0) {
+                file.rotate();
+            }
+            pathIds.clear();
+            lastTimestampMicros = 0;
+            writeFileHeader();
+        }
+
+        final String uri = record.uri;
+        final int queryIdx = uri != null ? uri.indexOf('?') : -1;
+        final String path = queryIdx >= 0 ? uri.substring(0, queryIdx) : uri;
+        int uriTag = 0;
+        boolean newPath = false;
+        if (path != null) {
+            Integer pathId = pathIds.get(path);
+            if (pathId == null && pathIds.size() < MAX_PATHS.get()) {
+                pathId = pathIds.size();
+                newPath = true;
+                out.writeVarint(TYPE_PATH);
+                out.writeString(path);
+            }
+            uriTag = pathId != null ? pathId + URI_FIRST_ID : URI_LITERAL;
+        }
+
+        out.writeVarint(TYPE_RECORD);
+
+        final long timestampMicros = record.startTimeMillis * 1000;
+        out.writeZigZag(timestampMicros - lastTimestampMicros);
+
+        writeIp(record.remoteIp);
+        out.writeVarint(record.localPort + 1);
+        writeMethod(record.method);
+
+        out.writeVarint(uriTag);
+        if (uriTag == URI_LITERAL) {
+            out.writeString(path);
+        }
+        if (uriTag != 0) {
+            out.writeString(queryIdx >= 0 ? uri.substring(queryIdx + 1) : null);
+        }
+
+        out.writeVarint(record.status + 1);
+        out.writeVarint(record.durationNs >= 0 ? record.durationNs / 1000 + 1 : 0);
+        out.writeVarint(record.responseBodySize + 1);
+        out.writeString(record.requestId);
+        writeHeaderValues(requestHeaderNames, record.requestHeaders);
+        writeHeaderValues(responseHeaderNames, record.responseHeaders);
+
+        // The dictionary and timestamp base only move on once the record is written, as the records after it are
+        // decoded against them. If the write fails, part of the record may have reached the file, so start the next
+        // record in a fresh file rather than after the partial one.
+        try {
+            file.write(out.asByteBuffer());
+        }
+        catch (IOException | RuntimeException e) {
+            headerWritten = false;
+            throw e;
+        }
+        headerWritten = true;
+        if (newPath) {
+            pathIds.put(path, pathIds.size());
+        }
+        lastTimestampMicros = timestampMicros;
+    }
+
+    @Override
+    protected void fileRotated(AccessLogFile file) throws IOException
+    {
+        pathIds.clear();
+        lastTimestampMicros = 0;
+        out.clear();
+        writeFileHeader();
+        file.write(out.asByteBuffer());
+        out.clear();
+    }
+
+    private void writeFileHeader()
+    {
+        out.writeBytes(MAGIC);
+        out.writeVarint(VERSION);
+        out.writeVarint(requestHeaderNames.size());
+        for (String name : requestHeaderNames) {
+            out.writeString(name);
+        }
+        out.writeVarint(responseHeaderNames.size());
+        for (String name : responseHeaderNames) {
+            out.writeString(name);
+        }
+    }
+
+    private void writeIp(String remoteIp)
+    {
+        if (remoteIp == null || remoteIp.isEmpty()) {
+            out.writeVarint(0);
+            return;
+        }
+        final byte[] bytes = NetUtil.createByteArrayFromIpAddressString(remoteIp);
+        if (bytes == null) {
+            out.writeVarint(IP_STRING);
+            out.writeString(remoteIp);
+        }
+        else {
+            out.writeVarint(bytes.length);
+            out.writeBytes(bytes);
+        }
+    }
+
+    private void writeMethod(HttpMethod method)
+    {
+        if (method == null) {
+            out.writeVarint(0);
+            return;
+        }
+        for (int i = 0; i < METHODS.length; i++) {
+            if (METHODS[i].equals(method)) {
+                out.writeVarint(i + 1);
+                return;
+            }
+        }
+        out.writeVarint(OTHER_METHOD);
+        out.writeString(method.name());
+    }
+
+    private void writeHeaderValues(List<String> names, HttpHeaders headers)
+    {
+        for (String name : names) {
+            List<String> values = headers != null ? headers.getAll(name) : null;
+            out.writeString(values == null || values.isEmpty() ? null : String.join(",", values));
+        }
+    }
+
+    /**
+     * Growable scratch buffer that a whole record is encoded into before being copied to the file.
+     */
+    static final class RecordBuffer
+    {
+        private byte[] bytes = new byte[512];
+        private int length;
+
+        void clear()
+        {
+            length = 0;
+        }
+
+        ByteBuffer asByteBuffer()
+        {
+            return ByteBuffer.wrap(bytes, 0, length);
+        }
+
+        void writeByte(int b)
+        {
+            ensureCapacity(1);
+            bytes[length++] = (byte) b;
+        }
+
+        void writeBytes(byte[] src)
+        {
+            ensureCapacity(src.length);
+            System.arraycopy(src, 0, bytes, length, src.length);
+            length += src.length;
+        }
+
+        void writeVarint(long value)
+        {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        void writeZigZag(long value)
+        {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String value)
+        {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            final byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(utf8.length + 1);
+            writeBytes(utf8);
+        }
+
+        private void ensureCapacity(int extra)
+        {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+    }
+}
@@ -0,0 +1,537 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.netty.common.accesslog;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.netflix.spectator.api.DefaultRegistry;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.NetUtil;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Decodes files written by BinaryAccessLogPublisher, either as a library (next() until null), or from the command
+ * line:
+ *
+ * <pre>
+ *     java com.netflix.netty.common.accesslog.BinaryAccessLogReader [--json] file...
+ * </pre>
+ *
+ * which prints one line per record, as TSV in the same layout as AccessLogPublisher by default, or as JSON.
+ */
+public class BinaryAccessLogReader implements Closeable
+{
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+    private static final ObjectMapper JACKSON_MAPPER = new ObjectMapper();
+
+    private final DataInputStream in;
+    private final String[] requestHeaderNames;
+    private final String[] responseHeaderNames;
+    private final List<String> paths = new ArrayList<>();
+    private long lastTimestampMicros;
+
+    public BinaryAccessLogReader(InputStream in) throws IOException
+    {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+
+        byte[] magic = new byte[BinaryAccessLogPublisher.MAGIC.length];
+        this.in.readFully(magic);
+        if (! Arrays.equals(magic, BinaryAccessLogPublisher.MAGIC)) {
+            throw new IOException("Not a binary access log");
+        }
+        int version = (int) readVarint();
+        if (version != BinaryAccessLogPublisher.VERSION) {
+            throw new IOException("Unsupported binary access log version " + version);
+        }
+        this.requestHeaderNames = readStrings();
+        this.responseHeaderNames = readStrings();
+    }
+
+    public String[] getRequestHeaderNames()
+    {
+        return requestHeaderNames.clone();
+    }
+
+    public String[] getResponseHeaderNames()
+    {
+        return responseHeaderNames.clone();
+    }
+
+    /**
+     * @return the next record, or null at the end of the file
+     */
+    public Entry next() throws IOException
+    {
+        while (true) {
+            int type = in.read();
+            if (type < 0) {
+                return null;
+            }
+            if (type == BinaryAccessLogPublisher.TYPE_PATH) {
+                paths.add(readString());
+            }
+            else if (type == BinaryAccessLogPublisher.TYPE_RECORD) {
+                return readEntry();
+            }
+            else {
+                throw new IOException("Unknown record type " + type);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        in.close();
+    }
+
+    private Entry readEntry() throws IOException
+    {
+        Entry entry = new Entry();
+        long delta = readVarint();
+        lastTimestampMicros += (delta >>> 1) ^ -(delta & 1);
+        entry.timestampMicros = lastTimestampMicros;
+
+        int ipTag = (int) readVarint();
+        if (ipTag == BinaryAccessLogPublisher.IP_STRING) {
+            entry.remoteIp = readString();
+        }
+        else if (ipTag > 0) {
+            byte[] ip = new byte[ipTag];
+            in.readFully(ip);
+            entry.remoteIp = NetUtil.bytesToIpAddress(ip);
+        }
+
+        entry.localPort = (int) readVarint() - 1;
+
+        int methodTag = (int) readVarint();
+        if (methodTag == BinaryAccessLogPublisher.OTHER_METHOD) {
+            entry.method = readString();
+        }
+        else if (methodTag > 0) {
+            entry.method = BinaryAccessLogPublisher.METHODS[methodTag - 1].name();
+        }
+
+        int uriTag = (int) readVarint();
+        if (uriTag == BinaryAccessLogPublisher.URI_LITERAL) {
+            entry.path = readString();
+        }
+        else if (uriTag >= BinaryAccessLogPublisher.URI_FIRST_ID) {
+            entry.path = paths.get(uriTag - BinaryAccessLogPublisher.URI_FIRST_ID);
+        }
+        if (uriTag != 0) {
+            entry.query = readString();
+        }
+
+        entry.status = (int) readVarint() - 1;
+        entry.durationMicros = readVarint() - 1;
+        entry.responseBodySize = (int) readVarint() - 1;
+        entry.requestId = readString();
+        entry.requestHeaderValues = readValues(requestHeaderNames.length);
+        entry.responseHeaderValues = readValues(responseHeaderNames.length);
+        return entry;
+    }
+
+    private String[] readStrings() throws IOException
+    {
+        return readValues((int) readVarint());
+    }
+
+    private String[] readValues(int count) throws IOException
+    {
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = readString();
+        }
+        return values;
+    }
+
+    private String readString() throws IOException
+    {
+        int length = (int) readVarint();
+        if (length == 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length - 1];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private long readVarint() throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated binary access log");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    public final class Entry
+    {
+        long timestampMicros;
+        String remoteIp;
+        int localPort;
+        String method;
+        String path;
+        String query;
+        int status;
+        long durationMicros;
+        int responseBodySize;
+        String requestId;
+        String[] requestHeaderValues;
+        String[] responseHeaderValues;
+
+        public long getTimestampMicros()
+        {
+            return timestampMicros;
+        }
+
+        public String getRemoteIp()
+        {
+            return remoteIp;
+        }
+
+        public int getLocalPort()
+        {
+            return localPort;
+        }
+
+        public String getMethod()
+        {
+            return method;
+        }
+
+        public String getUri()
+        {
+            return path == null || query == null ? path : path + "?" + query;
+        }
+
+        public int getStatus()
+        {
+            return status;
+        }
+
+        public long getDurationMicros()
+        {
+            return durationMicros;
+        }
+
+        public int getResponseBodySize()
+        {
+            return responseBodySize;
+        }
+
+        public String getRequestId()
+        {
+            return requestId;
+        }
+
+        public String getRequestHeader(String name)
+        {
+            return headerValue(requestHeaderNames, requestHeaderValues, name);
+        }
+
+        public String getResponseHeader(String name)
+        {
+            return headerValue(responseHeaderNames, responseHeaderValues, name);
+        }
+
+        public LocalDateTime getDateTime()
+        {
+            Instant instant = Instant.ofEpochSecond(timestampMicros / 1_000_000, (timestampMicros % 1_000_000) * 1000);
+            return LocalDateTime.ofInstant(instant, ZoneId.systemDefault());
+        }
+
+        /**
+         * Same layout as the lines written by AccessLogPublisher.
+         */
+        public String toTsv()
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append(getDateTime().format(DATE_TIME_FORMATTER));
+            appendField(sb, remoteIp != null && ! remoteIp.isEmpty() ? remoteIp : null);
+            appendField(sb, localPort >= 0 ? String.valueOf(localPort) : null);
+            appendField(sb, method);
+            appendField(sb, getUri());
+            appendField(sb, status >= 0 ? String.valueOf(status) : null);
+            appendField(sb, durationMicros > 0 ? String.valueOf(durationMicros) : null);
+            appendField(sb, responseBodySize > 0 ? String.valueOf(responseBodySize) : null);
+            appendField(sb, requestId);
+            for (String value : requestHeaderValues) {
+                sb.append('\t').append('"').append(value != null ? value : "-").append('"');
+            }
+            for (String value : responseHeaderValues) {
+                sb.append('\t').append('"').append(value != null ? value : "-").append('"');
+            }
+            return sb.toString();
+        }
+
+        public ObjectNode toJsonNode()
+        {
+            ObjectNode node = JACKSON_MAPPER.createObjectNode();
+            node.put("timestamp", getDateTime().format(DATE_TIME_FORMATTER));
+            node.put("timestampMicros", timestampMicros);
+            node.put("remoteIp", remoteIp);
+            if (localPort >= 0) {
+                node.put("localPort", localPort);
+            }
+            node.put("method", method);
+            node.put("uri", getUri());
+            if (status >= 0) {
+                node.put("status", status);
+            }
+            if (durationMicros >= 0) {
+                node.put("durationMicros", durationMicros);
+            }
+            if (responseBodySize >= 0) {
+                node.put("responseBodySize", responseBodySize);
+            }
+            node.put("requestId", requestId);
+            putHeaders(node.putObject("requestHeaders"), requestHeaderNames, requestHeaderValues);
+            putHeaders(node.putObject("responseHeaders"), responseHeaderNames, responseHeaderValues);
+            return node;
+        }
+
+        public String toJson()
+        {
+            return toJsonNode().toString();
+        }
+
+        @Override
+        public String toString()
+        {
+            return toTsv();
+        }
+    }
+
+    private static void appendField(StringBuilder sb, String value)
+    {
+        sb.append('\t').append(value != null ? value : "-");
+    }
+
+    private static void putHeaders(ObjectNode node, String[] names, String[] values)
+    {
+        for (int i = 0; i < names.length; i++) {
+            if (values[i] != null) {
+                node.put(names[i], values[i]);
+            }
+        }
+    }
+
+    private static String headerValue(String[] names, String[] values, String name)
+    {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(name)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        boolean json = false;
+        List<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if ("--json".equals(arg)) {
+                json = true;
+            }
+            else {
+                files.add(arg);
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: BinaryAccessLogReader [--json] file...");
+            System.exit(1);
+        }
+
+        PrintStream out = System.out;
+        for (String file : files) {
+            try (BinaryAccessLogReader reader = new BinaryAccessLogReader(new FileInputStream(file))) {
+                Entry entry;
+                while ((entry = reader.next()) != null) {
+                    out.println(json ? entry.toJson() : entry.toTsv());
+                }
+            }
+        }
+        out.flush();
+    }
+
+    @RunWith(MockitoJUnitRunner.class)
+    public static class UnitTest
+    {
+        @Test
+        public void testRoundTrip() throws Exception
+        {
+            File dir = Files.createTempDirectory("accesslog").toFile();
+            File logFile = new File(dir, "access.bin");
+            try {
+                BinaryAccessLogPublisher publisher = new BinaryAccessLogPublisher(logFile, (channel, request) -> "req-1",
+                        Collections.singletonList("host"), Collections.singletonList("content-type"), 16,
+                        1024 * 1024, 1, new DefaultRegistry());
+
+                HttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/api/items?id=1");
+                request.headers().add("host", "api.netflix.com");
+                HttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+                long startTimeMillis = 1531180800123L;
+
+                publisher.log(null, request, response, startTimeMillis, 7001, "10.0.0.1", 5_000_000L, 42);
+                publisher.log(null, new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, new HttpMethod("PURGE"), "/api/items"),
+                        null, startTimeMillis - 5, null, "::1", null, null);
+                publisher.close();
+
+                try (BinaryAccessLogReader reader = new BinaryAccessLogReader(new FileInputStream(logFile))) {
+                    assertArrayEquals(new String[] {"host"}, reader.getRequestHeaderNames());
+
+                    Entry first = reader.next();
+                    assertEquals(startTimeMillis * 1000, first.getTimestampMicros());
+                    assertEquals("10.0.0.1", first.getRemoteIp());
+                    assertEquals(7001, first.getLocalPort());
+                    assertEquals("GET", first.getMethod());
+                    assertEquals("/api/items?id=1", first.getUri());
+                    assertEquals(200, first.getStatus());
+                    assertEquals(5000, first.getDurationMicros());
+                    assertEquals(42, first.getResponseBodySize());
+                    assertEquals("req-1", first.getRequestId());
+                    assertEquals("api.netflix.com", first.getRequestHeader("host"));
+                    assertNull(first.getResponseHeader("content-type"));
+
+                    StringBuilder expected = new StringBuilder();
+                    AccessLogPublisher.appendLine(expected, first.getDateTime(), "10.0.0.1", 7001, HttpMethod.GET,
+                            "/api/items?id=1", 200, 5_000_000L, 42, "req-1", request.headers(), response.headers());
+                    // The sync publisher's header selection is configured separately, so compare up to the headers.
+                    assertEquals(expected.toString().split("\t\"")[0], first.toTsv().split("\t\"")[0]);
+
+                    Entry second = reader.next();
+                    assertEquals((startTimeMillis - 5) * 1000, second.getTimestampMicros());
+                    assertEquals(NetUtil.bytesToIpAddress(NetUtil.createByteArrayFromIpAddressString("::1")),
+                            second.getRemoteIp());
+                    assertEquals(-1, second.getLocalPort());
+                    assertEquals("PURGE", second.getMethod());
+                    assertEquals("/api/items", second.getUri());
+                    assertEquals(-1, second.getStatus());
+
+                    assertNull(reader.next());
+                }
+            }
+            finally {
+                for (File f : dir.listFiles()) {
+                    f.delete();
+                }
+                dir.delete();
+            }
+        }
+
+        @Test
+        public void testFailedWriteStartsAFreshFile() throws Exception
+        {
+            // The publisher's own file is left unused, as its writes are made to the mock below.
+            File logFile = Files.createTempFile("accesslog", ".bin").toFile();
+            BinaryAccessLogPublisher publisher = new BinaryAccessLogPublisher(logFile,
+                    (channel, request) -> null, Collections.emptyList(), Collections.emptyList(), 16,
+                    1024 * 1024, 1, new DefaultRegistry());
+            publisher.close();
+            logFile.delete();
+
+            AccessLogFile file = mock(AccessLogFile.class);
+            ByteArrayOutputStream written = new ByteArrayOutputStream();
+            boolean[] fail = {true};
+            doAnswer(invocation -> {
+                if (fail[0]) {
+                    throw new IOException("disk full");
+                }
+                ByteBuffer src = (ByteBuffer) invocation.getArguments()[0];
+                byte[] bytes = new byte[src.remaining()];
+                src.get(bytes);
+                written.write(bytes);
+                return null;
+            }).when(file).write(any(ByteBuffer.class));
+            when(file.size()).thenReturn(0L, 10L);
+
+            AccessLogRecord record = new AccessLogRecord();
+            record.set(1000L, null, null, new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/a"),
+                    null, null, null, null);
+            try {
+                publisher.writeRecord(record, file);
+            }
+            catch (IOException expected) {
+            }
+            fail[0] = false;
+            publisher.writeRecord(record, file);
+            record.set(2000L, null, null, new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/a"),
+                    null, null, null, null);
+            publisher.writeRecord(record, file);
+            verify(file).rotate();
+
+            try (BinaryAccessLogReader reader = new BinaryAccessLogReader(
+                    new ByteArrayInputStream(written.toByteArray()))) {
+                assertEquals("/a", reader.next().getUri());
+                Entry second = reader.next();
+                assertEquals("/a", second.getUri());
+                assertEquals(2000L * 1000, second.getTimestampMicros());
+                assertNull(reader.next());
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.netty.common.time;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Source of the current time, so that hot paths can choose between precise clock reads (SYSTEM) and the cheaper,
+ * millisecond-grade per event loop cache (CoarseClock.INSTANCE).
+ */
+public interface ClockSource
+{
+    ClockSource SYSTEM = new ClockSource() {
+        @Override
+        public long currentTimeMillis()
+        {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long nanoTime()
+        {
+            return System.nanoTime();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "SYSTEM";
+        }
+    };
+
+    /**
+     * @return milliseconds since the epoch, as System.currentTimeMillis()
+     */
+    long currentTimeMillis();
+
+    /**
+     * @return a monotonic time in nanoseconds, only meaningful relative to other values from the same source
+     */
+    long nanoTime();
+
+    /**
+     * @return a Guava Ticker reading nanoTime() from this source
+     */
+    default Ticker asTicker()
+    {
+        final ClockSource source = this;
+        return new Ticker() {
+            @Override
+            public long read()
+            {
+                return source.nanoTime();
+            }
+        };
+    }
+}
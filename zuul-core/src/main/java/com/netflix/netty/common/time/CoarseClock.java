@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.netty.common.time;
+
+import com.google.common.base.Ticker;
+import com.netflix.config.DynamicIntProperty;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.FastThreadLocal;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A ClockSource that reads a time cached per event loop thread, instead of the system clock.
+ *
+ * Once install() has been called for an event loop group, each of its loops refreshes its own cached time from a
+ * scheduled task every zuul.clock.coarse.resolution.ms (1ms by default), so reads on the loop are a thread local
+ * lookup. The task only reschedules itself while the time is being read, so an idle loop stops waking up for it
+ * after one tick; the next read on that loop refreshes the time and starts it again. On any other thread, reads fall
+ * through to the system clock. The cached times lag the real ones by up to the resolution, plus however long the
+ * loop is busy, so this is only suitable for millisecond-grade uses such as expiry checks and log timestamps, not
+ * for measuring short spans.
+ */
+public final class CoarseClock implements ClockSource
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CoarseClock.class);
+
+    private static final DynamicIntProperty RESOLUTION_MS =
+            new DynamicIntProperty("zuul.clock.coarse.resolution.ms", 1);
+
+    public static final CoarseClock INSTANCE = new CoarseClock();
+
+    public static final Ticker TICKER = INSTANCE.asTicker();
+
+    /** The loop's cached time, or null on threads the clock isn't installed on */
+    private static final FastThreadLocal<LoopTime> CACHED = new FastThreadLocal<LoopTime>();
+
+    private CoarseClock()
+    {
+    }
+
+    /**
+     * Starts keeping a cached time on each of the group's executors. Call once per group, after creating it.
+     */
+    public static void install(EventExecutorGroup group)
+    {
+        for (EventExecutor executor : group) {
+            executor.execute(() -> {
+                final LoopTime time = new LoopTime(executor);
+                CACHED.set(time);
+                time.start();
+            });
+        }
+        LOG.info("Installed coarse clock with {}ms resolution", RESOLUTION_MS.get());
+    }
+
+    private static LoopTime read()
+    {
+        final LoopTime time = CACHED.get();
+        if (time != null) {
+            if (! time.ticking) {
+                time.start();
+            }
+            time.read = true;
+        }
+        return time;
+    }
+
+    @Override
+    public long currentTimeMillis()
+    {
+        final LoopTime time = read();
+        return time != null ? time.millis : System.currentTimeMillis();
+    }
+
+    @Override
+    public long nanoTime()
+    {
+        final LoopTime time = read();
+        return time != null ? time.nanos : System.nanoTime();
+    }
+
+    /**
+     * Only accessed from its own loop.
+     */
+    private static final class LoopTime
+    {
+        final EventExecutor executor;
+        long millis;
+        long nanos;
+        boolean ticking;
+        boolean read;
+
+        LoopTime(EventExecutor executor)
+        {
+            this.executor = executor;
+        }
+
+        void start()
+        {
+            ticking = true;
+            read = false;
+            refresh();
+            schedule();
+        }
+
+        void tick()
+        {
+            if (! read) {
+                ticking = false;
+                return;
+            }
+            read = false;
+            refresh();
+            schedule();
+        }
+
+        void refresh()
+        {
+            millis = System.currentTimeMillis();
+            nanos = System.nanoTime();
+        }
+
+        void schedule()
+        {
+            executor.schedule(this::tick, Math.max(1, RESOLUTION_MS.get()), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "COARSE";
+    }
+
+    @RunWith(MockitoJUnitRunner.class)
+    public static class UnitTest
+    {
+        @Test
+        public void fallsBackToSystemClockOffLoop()
+        {
+            long before = System.currentTimeMillis();
+            long now = INSTANCE.currentTimeMillis();
+            assertTrue(now >= before && now <= System.currentTimeMillis());
+        }
+
+        @Test
+        public void readsCachedTimeOnInstalledLoop() throws Exception
+        {
+            DefaultEventLoop loop = new DefaultEventLoop();
+            try {
+                install(loop);
+                // let the first refresh run
+                loop.schedule(() -> null, 5, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+                // Within a single task the cached time doesn't move, however long the task takes.
+                long[] reads = loop.submit(() -> {
+                    long first = INSTANCE.nanoTime();
+                    Thread.sleep(5);
+                    return new long[] {first, INSTANCE.nanoTime(), INSTANCE.currentTimeMillis()};
+                }).get(5, TimeUnit.SECONDS);
+                assertEquals(reads[0], reads[1]);
+                assertTrue(Math.abs(System.currentTimeMillis() - reads[2]) < 1000);
+            }
+            finally {
+                loop.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+            }
+        }
+
+        @Test
+        public void stopsTickingOnIdleLoop() throws Exception
+        {
+            DefaultEventLoop loop = new DefaultEventLoop();
+            try {
+                install(loop);
+                // nothing reads the time, so the first tick is the last.
+                loop.schedule(() -> null, 50, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+                assertFalse(loop.submit(() -> CACHED.get().ticking).get(5, TimeUnit.SECONDS));
+
+                // a read restarts it, with a fresh time.
+                long before = System.nanoTime();
+                long[] read = loop.submit(() -> new long[] {INSTANCE.nanoTime(), CACHED.get().ticking ? 1 : 0})
+                        .get(5, TimeUnit.SECONDS);
+                assertTrue(read[0] >= before);
+                assertEquals(1, read[1]);
+            }
+            finally {
+                loop.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+            }
+        }
+    }
+}
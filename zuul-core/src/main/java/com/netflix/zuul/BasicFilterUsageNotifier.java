@@ -16,18 +16,38 @@
 
 package com.netflix.zuul;
 
-import com.netflix.servo.monitor.DynamicCounter;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.Spectator;
+import com.netflix.zuul.filters.FilterMetrics;
 import com.netflix.zuul.filters.ZuulFilter;
 
+import javax.inject.Inject;
+
 /**
- * Publishes a counter metric for each filter on each use.
+ * Publishes a counter metric, and a latency timer when the execution time is known, for each filter on each use.
+ * The meters are pre-registered per filter (see FilterMetrics), so no metric names are built per request.
  */
 public class BasicFilterUsageNotifier implements FilterUsageNotifier {
-    private static final String METRIC_PREFIX = "zuul.filter-";
+
+    private final Registry registry;
+
+    public BasicFilterUsageNotifier() {
+        this(Spectator.globalRegistry());
+    }
+
+    @Inject
+    public BasicFilterUsageNotifier(Registry registry) {
+        this.registry = registry;
+    }
 
     @Override
     public void notify(ZuulFilter filter, ExecutionStatus status) {
-        DynamicCounter.increment(METRIC_PREFIX + filter.getClass().getSimpleName(), "status", status.name(), "filtertype", filter.filterType().toString());
+        FilterMetrics.of(registry, filter).increment(status);
+    }
+
+    @Override
+    public void notify(ZuulFilter filter, ExecutionStatus status, long execTimeNanos) {
+        FilterMetrics.of(registry, filter).record(status, execTimeNanos);
     }
 }
 
@@ -15,6 +15,7 @@
  */
 package com.netflix.zuul;
 
+import com.netflix.config.DynamicBooleanProperty;
 import com.netflix.config.DynamicIntProperty;
 import com.netflix.zuul.groovy.GroovyFileFilter;
 import org.apache.commons.lang3.concurrent.BasicThreadFactory;
@@ -37,8 +38,18 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -49,7 +60,12 @@ import static org.mockito.Mockito.*;
 /**
  * This class manages the directory polling for changes and new Groovy filters.
  * Polling interval and directories are specified in the initialization of the class, and a poller will check
- * for changes and additions.
+ * for changes, additions and deletions.
+ *
+ * If zuul.filterloader.watch.enabled is set, the directories are additionally watched for file system events, so
+ * that changes are picked up within milliseconds. Events arriving within zuul.filterloader.watch.batch.ms of each
+ * other are applied as one batch, and so published as a single new filter chain. The poller still runs, as a
+ * safety net for any missed events.
  *
  * @author Mikey Cohen
  *         Date: 12/7/11
@@ -59,11 +75,19 @@ import static org.mockito.Mockito.*;
 public class FilterFileManager {
 
     private static final Logger LOG = LoggerFactory.getLogger(FilterFileManager.class);
-    private static final DynamicIntProperty FILE_PROCESSOR_THREADS = new DynamicIntProperty("zuul.filterloader.threads", 1);
+    private static final DynamicIntProperty FILE_PROCESSOR_THREADS = new DynamicIntProperty("zuul.filterloader.threads",
+            Runtime.getRuntime().availableProcessors());
     private static final DynamicIntProperty FILE_PROCESSOR_TASKS_TIMEOUT_SECS = new DynamicIntProperty("zuul.filterloader.tasks.timeout", 120);
+    private static final DynamicBooleanProperty WATCH_ENABLED = new DynamicBooleanProperty("zuul.filterloader.watch.enabled", false);
+    private static final DynamicIntProperty WATCH_BATCH_MS = new DynamicIntProperty("zuul.filterloader.watch.batch.ms", 50);
 
     Thread poller;
-    boolean bRunning = true;
+    Thread watcher;
+    volatile boolean bRunning = true;
+    private WatchService watchService;
+
+    /** Files that filters have been loaded from, so that deleted files can be unloaded. */
+    private final Set<File> knownFiles = ConcurrentHashMap.newKeySet();
 
     private final FilterFileManagerConfig config;
     private final FilterLoader filterLoader;
@@ -90,10 +114,19 @@ public class FilterFileManager {
     public void init() throws Exception
     {
         long startTime = System.currentTimeMillis();
-        
-        filterLoader.putFiltersForClasses(config.getClassNames());
-        manageFiles();
+
+        filterLoader.beginUpdateBatch();
+        try {
+            filterLoader.putFiltersForClasses(config.getClassNames());
+            manageFiles();
+        }
+        finally {
+            filterLoader.endUpdateBatch();
+        }
         startPoller();
+        if (WATCH_ENABLED.get()) {
+            startWatcher();
+        }
         
         LOG.warn("Finished loading all zuul filters. Duration = " + (System.currentTimeMillis() - startTime) + " ms.");
     }
@@ -109,6 +142,14 @@ public class FilterFileManager {
 
     void stopPoller() {
         bRunning = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            }
+            catch (IOException e) {
+                LOG.warn("Error closing filter directory watch service.", e);
+            }
+        }
     }
 
     void startPoller() {
@@ -128,6 +169,81 @@ public class FilterFileManager {
         poller.start();
     }
 
+    void startWatcher() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        for (String sDirectory : config.getDirectories()) {
+            if (sDirectory != null) {
+                getDirectory(sDirectory).toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+
+        watcher = new Thread("GroovyFilterFileManagerWatcher") {
+            public void run() {
+                while (bRunning) {
+                    try {
+                        processWatchEvents(watchService.take());
+                    }
+                    catch (ClosedWatchServiceException | InterruptedException e) {
+                        break;
+                    }
+                    catch (Exception e) {
+                        LOG.error("Error loading filter files from Watcher thread.", e);
+                    }
+                }
+            }
+        };
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Collects the events from the given key, and any further keys signalled within the batch window, then applies
+     * all the changed files as a single update.
+     */
+    void processWatchEvents(WatchKey firstKey) throws Exception {
+        final Set<File> changedFiles = new HashSet<>();
+        boolean overflowed = false;
+        WatchKey key = firstKey;
+        while (key != null) {
+            final Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    overflowed = true;
+                }
+                else {
+                    final File file = dir.resolve((Path) event.context()).toFile();
+                    if (config.getFilenameFilter().accept(file.getParentFile(), file.getName())) {
+                        changedFiles.add(file);
+                    }
+                }
+            }
+            key.reset();
+            key = watchService.poll(WATCH_BATCH_MS.get(), TimeUnit.MILLISECONDS);
+        }
+
+        if (overflowed) {
+            LOG.warn("Filter directory watch events overflowed, rescanning all filter files.");
+            manageFiles();
+        }
+        else if (!changedFiles.isEmpty()) {
+            LOG.info("Filter files changed: " + changedFiles);
+            List<File> existing = new ArrayList<>();
+            List<File> deleted = new ArrayList<>();
+            for (File file : changedFiles) {
+                (file.exists() ? existing : deleted).add(file);
+            }
+            filterLoader.beginUpdateBatch();
+            try {
+                processGroovyFiles(existing);
+                removeFiles(deleted);
+            }
+            finally {
+                filterLoader.endUpdateBatch();
+            }
+        }
+    }
+
     /**
      * Returns the directory File for a path. A Runtime Exception is thrown if the directory is in valid
      *
@@ -170,7 +286,8 @@ public class FilterFileManager {
     }
 
     /**
-     * puts files into the FilterLoader. The FilterLoader will only add new or changed filters
+     * puts files into the FilterLoader. The FilterLoader will only add new or changed filters. Files are compiled in
+     * parallel, across zuul.filterloader.threads threads (defaults to the number of cores).
      *
      * @param aFiles a List<File>
      * @throws IOException
@@ -183,6 +300,7 @@ public class FilterFileManager {
         for (File file : aFiles) {
             tasks.add(() -> {
                 try {
+                    knownFiles.add(file);
                     return filterLoader.putFilter(file);
                 }
                 catch(Exception e) {
@@ -194,17 +312,36 @@ public class FilterFileManager {
         processFilesService.invokeAll(tasks, FILE_PROCESSOR_TASKS_TIMEOUT_SECS.get(), TimeUnit.SECONDS);
     }
 
+    /**
+     * Unloads any filters that were loaded from the given, now deleted, files.
+     */
+    void removeFiles(List<File> aFiles) {
+        for (File file : aFiles) {
+            if (knownFiles.remove(file)) {
+                filterLoader.removeFilter(file);
+            }
+        }
+    }
+
     void manageFiles()
     {
+        filterLoader.beginUpdateBatch();
         try {
             List<File> aFiles = getFiles();
             processGroovyFiles(aFiles);
+
+            List<File> deleted = new ArrayList<>(knownFiles);
+            deleted.removeAll(aFiles);
+            removeFiles(deleted);
         }
         catch (Exception e) {
             String msg = "Error updating groovy filters from disk!";
             LOG.error(msg, e);
             throw new RuntimeException(msg, e);
         }
+        finally {
+            filterLoader.endUpdateBatch();
+        }
     }
 
 
@@ -273,5 +410,24 @@ public class FilterFileManager {
             verify(manager, times(1)).startPoller();
             assertNotNull(manager.poller);
         }
+
+        @Test
+        public void testDeletedFilesAreRemoved() throws Exception
+        {
+            FilterFileManagerConfig config = new FilterFileManagerConfig(new String[]{"test"}, new String[]{}, 1);
+            FilterFileManager manager = spy(new FilterFileManager(config, filterLoader));
+            List<File> files = new ArrayList<>(Arrays.asList(groovyFile));
+            doReturn(files).when(manager).getFiles();
+
+            manager.manageFiles();
+            verify(filterLoader).putFilter(groovyFile);
+            verify(filterLoader, never()).removeFilter(groovyFile);
+
+            files.clear();
+            manager.manageFiles();
+            verify(filterLoader).removeFilter(groovyFile);
+            verify(filterLoader, times(2)).beginUpdateBatch();
+            verify(filterLoader, times(2)).endUpdateBatch();
+        }
     }
 }
@@ -15,6 +15,8 @@
  */
 package com.netflix.zuul;
 
+import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.Spectator;
 import com.netflix.zuul.filters.*;
 import com.netflix.zuul.message.ZuulMessage;
 import com.netflix.zuul.groovy.GroovyCompiler;
@@ -32,6 +34,9 @@ import java.io.IOException;
 import java.lang.reflect.Modifier;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -56,6 +61,10 @@ public class FilterLoader
     private final ConcurrentHashMap<String, String> filterCheck = new ConcurrentHashMap<String, String>();
     private final ConcurrentHashMap<FilterType, List<ZuulFilter>> hashFiltersByType = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, ZuulFilter> filtersByNameAndType = new ConcurrentHashMap<>();
+    private final EnumMap<FilterType, AtomicReference<FilterChain>> filterChains = new EnumMap<>(FilterType.class);
+    private final AtomicLong filterChainVersion = new AtomicLong();
+    private final AtomicInteger updateBatchDepth = new AtomicInteger();
+    private final Set<FilterType> pendingFilterChainRebuilds = ConcurrentHashMap.newKeySet();
 
     private final FilterRegistry filterRegistry;
 
@@ -63,15 +72,28 @@ public class FilterLoader
     
     private final FilterFactory filterFactory;
 
+    private final Registry metricsRegistry;
+
     public FilterLoader() {
         this(new FilterRegistry(), new GroovyCompiler(), new DefaultFilterFactory());
     }
 
-    @Inject
     public FilterLoader(FilterRegistry filterRegistry, DynamicCodeCompiler compiler, FilterFactory filterFactory) {
+        this(filterRegistry, compiler, filterFactory, Spectator.globalRegistry());
+    }
+
+    @Inject
+    public FilterLoader(FilterRegistry filterRegistry, DynamicCodeCompiler compiler, FilterFactory filterFactory,
+                        Registry metricsRegistry) {
         this.filterRegistry = filterRegistry;
         this.compiler = compiler;
         this.filterFactory = filterFactory;
+        this.metricsRegistry = metricsRegistry;
+
+        for (FilterType filterType : FilterType.values()) {
+            filterChains.put(filterType, new AtomicReference<>(
+                    FilterChain.create(0, filterType, Collections.<ZuulFilter>emptyList())));
+        }
     }
 
     /**
@@ -124,11 +146,13 @@ public class FilterLoader
      */
     public boolean putFilter(File file) throws Exception
     {
+        // Batched so that a reloaded filter is swapped into its chain in one go, rather than removed and re-added.
+        beginUpdateBatch();
         try {
             String sName = file.getAbsolutePath();
             if (filterClassLastModified.get(sName) != null && (file.lastModified() != filterClassLastModified.get(sName))) {
                 LOG.debug("reloading filter " + sName);
-                filterRegistry.remove(sName);
+                unlinkReplacedFilter(filterRegistry.remove(sName));
             }
             ZuulFilter filter = filterRegistry.get(sName);
             if (filter == null) {
@@ -144,10 +168,55 @@ public class FilterLoader
             LOG.error("Error loading filter! Continuing. file=" + String.valueOf(file), e);
             return false;
         }
+        finally {
+            endUpdateBatch();
+        }
 
         return false;
     }
 
+    /**
+     * Compiles the given source and registers the resulting filter under sName, replacing any filter previously
+     * registered under that name. This loads filters straight from a filter store, without going through disk.
+     *
+     * @param sName name to register the filter under, eg. the filter id in the store
+     * @param sCode source code
+     * @return the new filter, or null if the source compiled to an abstract class
+     * @throws Exception if the source fails to compile or the filter can't be instantiated
+     */
+    public ZuulFilter putFilter(String sName, String sCode) throws Exception
+    {
+        Class clazz = compiler.compile(sCode, sName);
+        if (Modifier.isAbstract(clazz.getModifiers())) {
+            return null;
+        }
+        ZuulFilter filter = filterFactory.newInstance(clazz);
+
+        beginUpdateBatch();
+        try {
+            unlinkReplacedFilter(filterRegistry.get(sName));
+            putFilter(sName, filter, System.currentTimeMillis());
+        }
+        finally {
+            endUpdateBatch();
+        }
+        filterClassCode.put(sName, sCode);
+        LOG.info("loaded filter " + sName);
+        return filter;
+    }
+
+    /**
+     * Unlinks a filter that is being replaced under the same name from its type's chain, which may not be the type of
+     * the filter replacing it.
+     */
+    private void unlinkReplacedFilter(ZuulFilter previous)
+    {
+        if (previous != null) {
+            filtersByNameAndType.remove(previous.filterType() + ":" + previous.filterName(), previous);
+            filterChainChanged(previous.filterType());
+        }
+    }
+
     void putFilter(String sName, ZuulFilter filter, long lastModified)
     {
         List<ZuulFilter> list = hashFiltersByType.get(filter.filterType());
@@ -155,11 +224,110 @@ public class FilterLoader
             hashFiltersByType.remove(filter.filterType()); //rebuild this list
         }
 
+        // Resolve the usage metrics once here, rather than per request in the filter runners.
+        if (filter instanceof BaseFilter) {
+            ((BaseFilter) filter).setFilterMetrics(FilterMetrics.forFilter(metricsRegistry, filter));
+        }
+
         String nameAndType = filter.filterType() + ":" + filter.filterName();
         filtersByNameAndType.put(nameAndType, filter);
 
         filterRegistry.put(sName, filter);
         filterClassLastModified.put(sName, lastModified);
+
+        filterChainChanged(filter.filterType());
+    }
+
+    /**
+     * Unregisters the filter that was loaded from the given file, if any.
+     *
+     * @param file
+     * @return true if a filter was loaded from this file and has been removed
+     */
+    public boolean removeFilter(File file)
+    {
+        return removeFilter(file.getAbsolutePath());
+    }
+
+    /**
+     * Unregisters the filter that was registered under the given name, if any.
+     *
+     * @param sName
+     * @return true if a filter was registered under this name and has been removed
+     */
+    public boolean removeFilter(String sName)
+    {
+        filterClassLastModified.remove(sName);
+        filterClassCode.remove(sName);
+        ZuulFilter filter = filterRegistry.remove(sName);
+        if (filter == null) {
+            return false;
+        }
+
+        String nameAndType = filter.filterType() + ":" + filter.filterName();
+        filtersByNameAndType.remove(nameAndType, filter);
+
+        LOG.info("removed filter " + sName);
+        filterChainChanged(filter.filterType());
+        return true;
+    }
+
+    /**
+     * Starts a batch of filter updates. Until the matching endUpdateBatch(), added or removed filters are registered
+     * but the filter chains are not rebuilt, so that a burst of changes is published as a single new chain per type.
+     * Batches may be nested, and started from different threads.
+     */
+    public void beginUpdateBatch()
+    {
+        updateBatchDepth.incrementAndGet();
+    }
+
+    /**
+     * Ends a batch started with beginUpdateBatch(), publishing new filter chains for any changes made during it
+     * once the last open batch has ended.
+     */
+    public void endUpdateBatch()
+    {
+        if (updateBatchDepth.decrementAndGet() == 0) {
+            rebuildPendingFilterChains();
+        }
+    }
+
+    private void filterChainChanged(FilterType filterType)
+    {
+        pendingFilterChainRebuilds.add(filterType);
+        if (updateBatchDepth.get() == 0) {
+            rebuildPendingFilterChains();
+        }
+    }
+
+    private synchronized void rebuildPendingFilterChains()
+    {
+        for (FilterType filterType : FilterType.values()) {
+            if (pendingFilterChainRebuilds.remove(filterType)) {
+                rebuildFilterChain(filterType);
+            }
+        }
+    }
+
+    /**
+     * Builds a new immutable FilterChain from the currently registered filters of the given type, and publishes it
+     * for subsequent requests to pick up. Synchronized so that concurrent filter loads can't publish out of order.
+     */
+    synchronized void rebuildFilterChain(FilterType filterType) {
+        hashFiltersByType.remove(filterType);
+        final List<ZuulFilter> filters = getFiltersByType(filterType);
+        final FilterChain chain = FilterChain.create(filterChainVersion.incrementAndGet(), filterType, filters);
+        filterChains.get(filterType).set(chain);
+        LOG.debug("Published new filter chain {}", chain);
+    }
+
+    /**
+     * Returns the current, immutable chain of filters of the given type. This is cheap to call per request, and
+     * always reflects the latest loaded filters.
+     */
+    public <T extends ZuulMessage> FilterChain<T> getFilterChain(FilterType filterType) {
+        return filterChains.get(filterType).get();
     }
 
     /**
@@ -264,6 +432,13 @@ public class FilterLoader
     }
 
 
+    public static class TestOutboundZuulFilter extends TestZuulFilter {
+        @Override
+        public FilterType filterType() {
+            return FilterType.OUTBOUND;
+        }
+    }
+
     public static class UnitTest {
 
         @Mock
@@ -304,6 +479,14 @@ public class FilterLoader
             verify(registry).put(any(String.class), any(BaseFilter.class));
         }
 
+        @Test
+        public void testPutFilterRegistersMetrics() throws Exception {
+            ZuulFilter filter = loader.putFilterForClassName(TestZuulFilter.class.getName());
+            FilterMetrics metrics = ((BaseFilter) filter).getFilterMetrics();
+            assertNotNull(metrics);
+            assertTrue(metrics == FilterMetrics.forFilter(Spectator.globalRegistry(), new TestZuulFilter()));
+        }
+
         @Test
         public void testPutFiltersForClassesException() throws Exception {
             Exception caught = null;
@@ -336,6 +519,66 @@ public class FilterLoader
         }
 
 
+        @Test
+        public void testFilterChainRebuiltOnPut() throws Exception {
+            FilterChain<ZuulMessage> before = loader.getFilterChain(FilterType.INBOUND);
+            assertTrue(before.size() == 0);
+
+            final List<ZuulFilter> filters = new ArrayList<ZuulFilter>();
+            filters.add(filter);
+            when(registry.getAllFilters()).thenReturn(filters);
+            assertTrue(loader.putFilter(file));
+
+            FilterChain<ZuulMessage> after = loader.getFilterChain(FilterType.INBOUND);
+            assertTrue(after.getVersion() > before.getVersion());
+            assertTrue(after.size() == 1);
+            assertTrue(after.isSync(0));
+            assertTrue(!after.mayNeedBodyBuffered(0));
+            assertTrue(loader.getFilterChain(FilterType.OUTBOUND).size() == 0);
+        }
+
+        @Test
+        public void testRemoveFilter() throws Exception {
+            assertTrue(loader.putFilter(file));
+            ZuulFilter loaded = loader.getFilterByNameAndType(filter.filterName(), FilterType.INBOUND);
+            assertNotNull(loaded);
+            when(registry.remove("/filters/in/SomeFilter.groovy")).thenReturn(loaded);
+            long version = loader.getFilterChain(FilterType.INBOUND).getVersion();
+
+            assertTrue(loader.removeFilter(file));
+            assertTrue(loader.getFilterChain(FilterType.INBOUND).getVersion() > version);
+            assertTrue(loader.getFilterByNameAndType(filter.filterName(), FilterType.INBOUND) == null);
+        }
+
+        @Test
+        public void testReloadWithNewTypeUnlinksOldType() throws Exception {
+            assertTrue(loader.putFilter(file));
+            ZuulFilter loaded = loader.getFilterByNameAndType(filter.filterName(), FilterType.INBOUND);
+            when(registry.remove("/filters/in/SomeFilter.groovy")).thenReturn(loaded);
+            long version = loader.getFilterChain(FilterType.INBOUND).getVersion();
+
+            when(file.lastModified()).thenReturn(1L);
+            doReturn(TestOutboundZuulFilter.class).when(compiler).compile(file);
+            assertTrue(loader.putFilter(file));
+
+            assertTrue(loader.getFilterByNameAndType(filter.filterName(), FilterType.INBOUND) == null);
+            assertTrue(loader.getFilterChain(FilterType.INBOUND).getVersion() > version);
+            assertNotNull(loader.getFilterByNameAndType(new TestOutboundZuulFilter().filterName(), FilterType.OUTBOUND));
+        }
+
+        @Test
+        public void testUpdateBatchPublishesOnce() throws Exception {
+            long version = loader.getFilterChain(FilterType.INBOUND).getVersion();
+
+            loader.beginUpdateBatch();
+            loader.putFilterForClassName(TestZuulFilter.class.getName());
+            loader.putFilter(file);
+            assertTrue(loader.getFilterChain(FilterType.INBOUND).getVersion() == version);
+            loader.endUpdateBatch();
+
+            assertTrue(loader.getFilterChain(FilterType.INBOUND).getVersion() == version + 1);
+        }
+
         @Test
         public void testGetFilterFromString() throws Exception {
             String string = "";
@@ -27,4 +27,11 @@ import com.netflix.zuul.filters.ZuulFilter;
  */
 public interface FilterUsageNotifier {
     public void notify(ZuulFilter filter, ExecutionStatus status);
+
+    /**
+     * Same as notify(filter, status), additionally passing the filter's execution time in nanoseconds.
+     */
+    default void notify(ZuulFilter filter, ExecutionStatus status, long execTimeNanos) {
+        notify(filter, status);
+    }
 }
@@ -0,0 +1,761 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.cache;
+
+import com.google.common.collect.ImmutableSet;
+import com.netflix.config.CachedDynamicBooleanProperty;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.netty.common.time.ClockSource;
+import com.netflix.netty.common.time.CoarseClock;
+import com.netflix.spectator.api.Counter;
+import com.netflix.zuul.message.Header;
+import com.netflix.zuul.message.HeaderName;
+import com.netflix.zuul.message.Headers;
+import com.netflix.zuul.message.http.HttpHeaderNames;
+import com.netflix.zuul.message.http.HttpRequestInfo;
+import com.netflix.zuul.netty.SpectatorUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import rx.Observable;
+import rx.subjects.AsyncSubject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * A memory bounded cache of origin responses, keyed by host and path and query, and by the values of the request
+ * headers named in the response's Vary header.
+ *
+ * Only responses that say how long they may be cached for with s-maxage or max-age, and don't forbid shared caching,
+ * are stored. Bodies are kept in pooled direct buffers, and each hit is handed its own reference to the stored body,
+ * so serving a hit copies nothing.
+ *
+ * Entries are split between segments by key, each a least recently used map with its share of the max bytes, so that
+ * lookups on different event loops rarely contend.
+ *
+ * Misses can be coalesced with beginFill() and awaitFill(): the first miss for a key fills it, and the others wait for
+ * that to finish before looking up the key again, so that only one request per key goes to the origin at a time.
+ */
+public class ResponseCache
+{
+    public static final CachedDynamicBooleanProperty ENABLED =
+            new CachedDynamicBooleanProperty("zuul.cache.enabled", false);
+
+    private static final int SEGMENTS = 16;
+    private static final int HEADER_SIZE_ESTIMATE = 64;
+    private static final Set<Integer> CACHEABLE_STATUSES = ImmutableSet.of(200, 203, 300, 301, 404, 410);
+    private static final Set<HeaderName> HOP_BY_HOP_HEADERS = ImmutableSet.of(
+            HttpHeaderNames.CONNECTION, HttpHeaderNames.KEEP_ALIVE, HttpHeaderNames.TRANSFER_ENCODING);
+
+    private final ClockSource clock;
+    private final int maxEntryBytes;
+    private final long coalesceTimeoutMs;
+    private final Segment[] segments;
+    private final ConcurrentHashMap<String, Fill> fills = new ConcurrentHashMap<>();
+    private final AtomicLong nextFillSweep = new AtomicLong();
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter coalescedCounter;
+    private final Counter storeCounter;
+
+    public ResponseCache(ClockSource clock, long maxBytes, int maxEntryBytes, long coalesceTimeoutMs)
+    {
+        this.clock = clock;
+        this.maxEntryBytes = maxEntryBytes;
+        this.coalesceTimeoutMs = coalesceTimeoutMs;
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxBytes / SEGMENTS);
+        }
+
+        this.hitCounter = SpectatorUtils.newCounter("zuul.cache", "hit");
+        this.missCounter = SpectatorUtils.newCounter("zuul.cache", "miss");
+        this.coalescedCounter = SpectatorUtils.newCounter("zuul.cache", "coalesced");
+        this.storeCounter = SpectatorUtils.newCounter("zuul.cache", "store");
+    }
+
+    /**
+     * The cache shared by ResponseCacheInboundFilter and ResponseCacheOutboundFilter, sized by "zuul.cache.max.bytes"
+     * and "zuul.cache.max.entry.bytes".
+     */
+    public static ResponseCache getDefault()
+    {
+        return DefaultHolder.INSTANCE;
+    }
+
+    private static final class DefaultHolder
+    {
+        static final ResponseCache INSTANCE = new ResponseCache(CoarseClock.INSTANCE,
+                new DynamicLongProperty("zuul.cache.max.bytes", 64L * 1024 * 1024).get(),
+                new DynamicIntProperty("zuul.cache.max.entry.bytes", 1024 * 1024).get(),
+                new DynamicIntProperty("zuul.cache.coalesce.timeout.ms", 5000).get());
+    }
+
+    public int getMaxEntryBytes()
+    {
+        return maxEntryBytes;
+    }
+
+    /**
+     * @return false if the request can't be answered from a shared cache, ie. isn't a GET, carries credentials, asks
+     * for a range, or asks not to be served from a cache
+     */
+    public static boolean isCacheable(HttpRequestInfo request)
+    {
+        if (!"GET".equalsIgnoreCase(request.getMethod())) {
+            return false;
+        }
+        final Headers headers = request.getHeaders();
+        if (headers.contains(HttpHeaderNames.AUTHORIZATION) || headers.contains(HttpHeaderNames.RANGE)) {
+            return false;
+        }
+        for (String directive : directives(headers, HttpHeaderNames.CACHE_CONTROL)) {
+            if (directive.equals("no-store") || directive.equals("no-cache")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return how many seconds a response may be cached for, or -1 if it mustn't be stored
+     */
+    public static long maxAgeSeconds(int status, Headers headers)
+    {
+        if (!CACHEABLE_STATUSES.contains(status) || headers.contains(HttpHeaderNames.SET_COOKIE)) {
+            return -1;
+        }
+        if (varyNames(headers).contains("*")) {
+            return -1;
+        }
+
+        long maxAge = -1;
+        long sharedMaxAge = -1;
+        for (String directive : directives(headers, HttpHeaderNames.CACHE_CONTROL)) {
+            if (directive.startsWith("no-store") || directive.startsWith("no-cache") || directive.startsWith("private")) {
+                return -1;
+            }
+            if (directive.startsWith("s-maxage=")) {
+                sharedMaxAge = parseSeconds(directive.substring("s-maxage=".length()));
+            }
+            else if (directive.startsWith("max-age=")) {
+                maxAge = parseSeconds(directive.substring("max-age=".length()));
+            }
+        }
+        final long seconds = sharedMaxAge >= 0 ? sharedMaxAge : maxAge;
+        return seconds > 0 ? seconds : -1;
+    }
+
+    private static long parseSeconds(String value)
+    {
+        try {
+            return Long.parseLong(value.replace("\"", "").trim());
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static List<String> directives(Headers headers, HeaderName name)
+    {
+        final List<String> values = headers.get(name);
+        if (values.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<String> directives = new ArrayList<>();
+        for (String value : values) {
+            for (String directive : value.split(",")) {
+                final String trimmed = directive.trim();
+                if (!trimmed.isEmpty()) {
+                    directives.add(trimmed.toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        return directives;
+    }
+
+    static List<String> varyNames(Headers responseHeaders)
+    {
+        final List<String> names = directives(responseHeaders, HttpHeaderNames.VARY);
+        if (names.size() > 1) {
+            Collections.sort(names);
+        }
+        return names;
+    }
+
+    static String variantKey(List<String> varyNames, Headers requestHeaders)
+    {
+        if (varyNames.isEmpty()) {
+            return "";
+        }
+        final StringBuilder key = new StringBuilder();
+        for (String name : varyNames) {
+            key.append(name).append('=');
+            final List<String> values = requestHeaders.get(name);
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    key.append(',');
+                }
+                key.append(values.get(i));
+            }
+            key.append('\n');
+        }
+        return key.toString();
+    }
+
+    static String primaryKey(HttpRequestInfo request)
+    {
+        return request.getOriginalHost() + request.getPathAndQuery();
+    }
+
+    private Segment segmentFor(String primaryKey)
+    {
+        final int hash = primaryKey.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private String fillKey(HttpRequestInfo request)
+    {
+        final String primaryKey = primaryKey(request);
+        return primaryKey + '\n' + variantKey(segmentFor(primaryKey).varyNames(primaryKey), request.getHeaders());
+    }
+
+    /**
+     * @return the cached response for the request, whose body the caller then owns and must release, or null
+     */
+    public CachedResponse lookup(HttpRequestInfo request)
+    {
+        final String primaryKey = primaryKey(request);
+        final CachedResponse hit = segmentFor(primaryKey).lookup(primaryKey, request.getHeaders(),
+                clock.currentTimeMillis());
+        (hit != null ? hitCounter : missCounter).increment();
+        return hit;
+    }
+
+    /**
+     * Starts filling the cache for a request that missed it, unless another request is already filling the same key.
+     * Fills that haven't finished within the coalesce timeout are taken over.
+     *
+     * @return the fill to finish with store() or abandon(), or null if another request is filling the key
+     */
+    public Fill beginFill(HttpRequestInfo request)
+    {
+        final long now = clock.currentTimeMillis();
+        sweepStaleFillsIfDue(now);
+        final String key = fillKey(request);
+        final Fill fill = new Fill(primaryKey(request), key, request.getHeaders().clone(), now);
+
+        final Fill existing = fills.putIfAbsent(key, fill);
+        if (existing == null) {
+            return fill;
+        }
+        if (now - existing.startedAt >= coalesceTimeoutMs && fills.replace(key, existing, fill)) {
+            existing.finish(false);
+            return fill;
+        }
+        return null;
+    }
+
+    /**
+     * Abandons the fills that haven't finished within the coalesce timeout, at most once a timeout. The request filling
+     * a key may never get as far as the outbound filter, eg. because the client went away or an earlier filter
+     * answered it, and its fill would otherwise be kept until the next miss for the same key.
+     */
+    private void sweepStaleFillsIfDue(long now)
+    {
+        final long next = nextFillSweep.get();
+        if (now - next < 0 || !nextFillSweep.compareAndSet(next, now + coalesceTimeoutMs)) {
+            return;
+        }
+        for (Fill fill : fills.values()) {
+            if (now - fill.startedAt >= coalesceTimeoutMs) {
+                finish(fill, false);
+            }
+        }
+    }
+
+    /**
+     * @return emits whether the fill in progress for the request's key stored a response, or false if there is none
+     * or it didn't finish within the coalesce timeout
+     */
+    public Observable<Boolean> awaitFill(HttpRequestInfo request)
+    {
+        final Fill fill = fills.get(fillKey(request));
+        if (fill == null) {
+            return Observable.just(false);
+        }
+        coalescedCounter.increment();
+        final long remaining = Math.max(1, coalesceTimeoutMs - (clock.currentTimeMillis() - fill.startedAt));
+        return fill.done
+                .timeout(remaining, TimeUnit.MILLISECONDS)
+                .onErrorReturn(t -> false);
+    }
+
+    /**
+     * Stores a response, copying its body into a buffer owned by the cache, and finishes the fill.
+     */
+    public void store(Fill fill, int status, Headers headers, ByteBuf content, long maxAgeSeconds)
+    {
+        final int length = content.readableBytes();
+        final ByteBuf body = PooledByteBufAllocator.DEFAULT.directBuffer(length, length);
+        body.writeBytes(content, content.readerIndex(), length);
+
+        final Headers storedHeaders = new Headers();
+        for (Header header : headers.entries()) {
+            if (!HOP_BY_HOP_HEADERS.contains(header.getName())) {
+                storedHeaders.add(header.getKey(), header.getValue());
+            }
+        }
+        storedHeaders.set(HttpHeaderNames.CONTENT_LENGTH, Integer.toString(length));
+
+        final long now = clock.currentTimeMillis();
+        final List<String> varyNames = varyNames(headers);
+        final CachedResponse entry = new CachedResponse(status, storedHeaders.immutableCopy(), body, now,
+                now + TimeUnit.SECONDS.toMillis(maxAgeSeconds));
+        segmentFor(fill.primaryKey).store(fill.primaryKey, varyNames, variantKey(varyNames, fill.requestHeaders), entry);
+        storeCounter.increment();
+
+        finish(fill, true);
+    }
+
+    /**
+     * Finishes a fill without storing anything, eg. because the response wasn't cacheable.
+     */
+    public void abandon(Fill fill)
+    {
+        finish(fill, false);
+    }
+
+    private void finish(Fill fill, boolean stored)
+    {
+        fills.remove(fill.key, fill);
+        fill.finish(stored);
+    }
+
+    /**
+     * A miss that is being filled from the origin.
+     */
+    public static final class Fill
+    {
+        private final String primaryKey;
+        private final String key;
+        private final Headers requestHeaders;
+        private final long startedAt;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private final AsyncSubject<Boolean> done = AsyncSubject.create();
+
+        private Fill(String primaryKey, String key, Headers requestHeaders, long startedAt)
+        {
+            this.primaryKey = primaryKey;
+            this.key = key;
+            this.requestHeaders = requestHeaders;
+            this.startedAt = startedAt;
+        }
+
+        private void finish(boolean stored)
+        {
+            if (finished.compareAndSet(false, true)) {
+                done.onNext(stored);
+                done.onCompleted();
+            }
+        }
+    }
+
+    /**
+     * A stored response. Those returned by lookup() hold their own reference to the stored body.
+     */
+    public static final class CachedResponse
+    {
+        private final int status;
+        private final Headers headers;
+        private final ByteBuf body;
+        private final long storedAt;
+        private final long expiresAt;
+        private final long ageSeconds;
+
+        private CachedResponse(int status, Headers headers, ByteBuf body, long storedAt, long expiresAt)
+        {
+            this(status, headers, body, storedAt, expiresAt, 0);
+        }
+
+        private CachedResponse(int status, Headers headers, ByteBuf body, long storedAt, long expiresAt,
+                               long ageSeconds)
+        {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+            this.storedAt = storedAt;
+            this.expiresAt = expiresAt;
+            this.ageSeconds = ageSeconds;
+        }
+
+        public int getStatus()
+        {
+            return status;
+        }
+
+        /**
+         * @return the stored headers, which are immutable
+         */
+        public Headers getHeaders()
+        {
+            return headers;
+        }
+
+        public ByteBuf getBody()
+        {
+            return body;
+        }
+
+        public String getETag()
+        {
+            return headers.getFirst(HttpHeaderNames.ETAG);
+        }
+
+        /**
+         * @return how long the response had been cached for when it was looked up
+         */
+        public long getAgeSeconds()
+        {
+            return ageSeconds;
+        }
+
+        public void release()
+        {
+            body.release();
+        }
+
+        private int size()
+        {
+            return body.readableBytes() + headers.size() * HEADER_SIZE_ESTIMATE;
+        }
+
+        private CachedResponse retainedCopy(long now)
+        {
+            // Derived buffers of a pooled buffer have their own reference count, so whatever the caller does with
+            // theirs can't free the stored one.
+            return new CachedResponse(status, headers, body.retainedDuplicate(), storedAt, expiresAt,
+                    TimeUnit.MILLISECONDS.toSeconds(now - storedAt));
+        }
+    }
+
+    /**
+     * The responses for one primary key, by the values of the request headers they vary on.
+     */
+    private static final class Variants
+    {
+        final List<String> varyNames;
+        final HashMap<String, CachedResponse> entries = new HashMap<>(4);
+
+        Variants(List<String> varyNames)
+        {
+            this.varyNames = varyNames;
+        }
+    }
+
+    private static final class Segment extends LinkedHashMap<String, Variants>
+    {
+        private final long maxBytes;
+        private long bytes;
+
+        Segment(long maxBytes)
+        {
+            super(64, 0.75f, true);
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized List<String> varyNames(String primaryKey)
+        {
+            final Variants variants = get(primaryKey);
+            return variants == null ? Collections.emptyList() : variants.varyNames;
+        }
+
+        synchronized CachedResponse lookup(String primaryKey, Headers requestHeaders, long now)
+        {
+            final Variants variants = get(primaryKey);
+            if (variants == null) {
+                return null;
+            }
+            final String variantKey = variantKey(variants.varyNames, requestHeaders);
+            final CachedResponse entry = variants.entries.get(variantKey);
+            if (entry == null) {
+                return null;
+            }
+            if (now - entry.expiresAt >= 0) {
+                variants.entries.remove(variantKey);
+                discard(entry);
+                if (variants.entries.isEmpty()) {
+                    remove(primaryKey);
+                }
+                return null;
+            }
+            return entry.retainedCopy(now);
+        }
+
+        synchronized void store(String primaryKey, List<String> varyNames, String variantKey, CachedResponse entry)
+        {
+            Variants variants = get(primaryKey);
+            if (variants == null || !variants.varyNames.equals(varyNames)) {
+                // The origin changed what it varies on, so the old variants can't be looked up anymore.
+                if (variants != null) {
+                    discardAll(variants);
+                }
+                variants = new Variants(varyNames);
+                put(primaryKey, variants);
+            }
+            final CachedResponse previous = variants.entries.put(variantKey, entry);
+            if (previous != null) {
+                discard(previous);
+            }
+            bytes += entry.size();
+
+            final Iterator<Variants> it = values().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                discardAll(it.next());
+                it.remove();
+            }
+        }
+
+        private void discardAll(Variants variants)
+        {
+            for (CachedResponse entry : variants.entries.values()) {
+                discard(entry);
+            }
+        }
+
+        private void discard(CachedResponse entry)
+        {
+            bytes -= entry.size();
+            entry.release();
+        }
+    }
+
+    @RunWith(MockitoJUnitRunner.class)
+    public static class UnitTest
+    {
+        @Mock
+        private HttpRequestInfo request;
+
+        private final long[] now = {1000_000};
+        private final ClockSource clock = new ClockSource() {
+            @Override
+            public long currentTimeMillis()
+            {
+                return now[0];
+            }
+
+            @Override
+            public long nanoTime()
+            {
+                return TimeUnit.MILLISECONDS.toNanos(now[0]);
+            }
+        };
+
+        private ResponseCache cache;
+        private Headers requestHeaders;
+        private final List<CachedResponse> hits = new ArrayList<>();
+
+        @Before
+        public void setup()
+        {
+            cache = new ResponseCache(clock, 64 * 1024, 1024, 1000);
+            requestHeaders = new Headers();
+            when(request.getMethod()).thenReturn("GET");
+            when(request.getOriginalHost()).thenReturn("api.netflix.com");
+            when(request.getPathAndQuery()).thenReturn("/catalog?page=1");
+            when(request.getHeaders()).thenReturn(requestHeaders);
+        }
+
+        @After
+        public void releaseHits()
+        {
+            hits.forEach(CachedResponse::release);
+        }
+
+        private CachedResponse lookup()
+        {
+            final CachedResponse hit = cache.lookup(request);
+            if (hit != null) {
+                hits.add(hit);
+            }
+            return hit;
+        }
+
+        private static Headers responseHeaders(String cacheControl)
+        {
+            final Headers headers = new Headers();
+            headers.set(HttpHeaderNames.CACHE_CONTROL, cacheControl);
+            return headers;
+        }
+
+        private void fill(Headers responseHeaders, String body)
+        {
+            final Fill fill = cache.beginFill(request);
+            assertNotNull(fill);
+            final ByteBuf content = Unpooled.copiedBuffer(body, StandardCharsets.UTF_8);
+            cache.store(fill, 200, responseHeaders, content, maxAgeSeconds(200, responseHeaders));
+            content.release();
+        }
+
+        @Test
+        public void honorsCacheControl()
+        {
+            assertEquals(60, maxAgeSeconds(200, responseHeaders("public, max-age=60")));
+            assertEquals(300, maxAgeSeconds(200, responseHeaders("max-age=60, s-maxage=300")));
+            assertEquals(-1, maxAgeSeconds(200, responseHeaders("private, max-age=60")));
+            assertEquals(-1, maxAgeSeconds(200, responseHeaders("no-store")));
+            assertEquals(-1, maxAgeSeconds(200, responseHeaders("max-age=0")));
+            assertEquals(-1, maxAgeSeconds(200, new Headers()));
+            assertEquals(-1, maxAgeSeconds(500, responseHeaders("max-age=60")));
+
+            requestHeaders.set(HttpHeaderNames.CACHE_CONTROL, "no-cache");
+            assertFalse(isCacheable(request));
+        }
+
+        @Test
+        public void servesUntilExpired()
+        {
+            assertNull(lookup());
+            fill(responseHeaders("max-age=10"), "catalog");
+
+            now[0] += 4000;
+            final CachedResponse hit = lookup();
+            assertNotNull(hit);
+            assertEquals("catalog", hit.getBody().toString(StandardCharsets.UTF_8));
+            assertEquals("7", hit.getHeaders().getFirst(HttpHeaderNames.CONTENT_LENGTH));
+            assertEquals(4, hit.getAgeSeconds());
+
+            now[0] += 6000;
+            assertNull(lookup());
+        }
+
+        @Test
+        public void keysOnVaryHeaders()
+        {
+            final Headers headers = responseHeaders("max-age=10");
+            headers.set(HttpHeaderNames.VARY, "Accept-Encoding");
+            requestHeaders.set(HttpHeaderNames.ACCEPT_ENCODING, "gzip");
+            fill(headers, "zipped");
+
+            assertEquals("zipped", lookup().getBody().toString(StandardCharsets.UTF_8));
+            requestHeaders.remove(HttpHeaderNames.ACCEPT_ENCODING);
+            assertNull(lookup());
+        }
+
+        @Test
+        public void coalescesMisses()
+        {
+            final Fill fill = cache.beginFill(request);
+            assertNotNull(fill);
+            assertNull("already being filled", cache.beginFill(request));
+
+            final List<Boolean> results = new ArrayList<>();
+            cache.awaitFill(request).subscribe(results::add);
+            assertTrue(results.isEmpty());
+
+            final ByteBuf content = Unpooled.copiedBuffer("catalog", StandardCharsets.UTF_8);
+            cache.store(fill, 200, responseHeaders("max-age=10"), content, 10);
+            content.release();
+            assertEquals(Collections.singletonList(true), results);
+            assertNotNull(lookup());
+
+            assertNotNull("finished fills make way for the next", cache.beginFill(request));
+        }
+
+        @Test
+        public void takesOverStaleFills()
+        {
+            final Fill stale = cache.beginFill(request);
+            final List<Boolean> results = new ArrayList<>();
+            cache.awaitFill(request).subscribe(results::add);
+
+            now[0] += 1000;
+            assertNotNull(cache.beginFill(request));
+            assertEquals(Collections.singletonList(false), results);
+
+            cache.abandon(stale);
+        }
+
+        @Test
+        public void sweepsAbandonedFills()
+        {
+            assertNotNull(cache.beginFill(request));
+            final List<Boolean> results = new ArrayList<>();
+            cache.awaitFill(request).subscribe(results::add);
+
+            // A miss for another key, after the first fill's request has gone away without a response.
+            now[0] += 1000;
+            when(request.getPathAndQuery()).thenReturn("/catalog?page=2");
+            assertNotNull(cache.beginFill(request));
+
+            assertEquals(Collections.singletonList(false), results);
+            assertEquals(1, cache.fills.size());
+        }
+
+        @Test
+        public void evictsLeastRecentlyUsed()
+        {
+            final StringBuilder body = new StringBuilder();
+            for (int i = 0; i < 900; i++) {
+                body.append('x');
+            }
+            final Headers headers = responseHeaders("max-age=10");
+            for (int i = 0; i < 100; i++) {
+                when(request.getPathAndQuery()).thenReturn("/catalog?page=" + i);
+                fill(headers, body.toString());
+            }
+
+            when(request.getPathAndQuery()).thenReturn("/catalog?page=99");
+            assertNotNull("the most recent entry is kept", lookup());
+            int cached = 0;
+            for (int i = 0; i < 100; i++) {
+                when(request.getPathAndQuery()).thenReturn("/catalog?page=" + i);
+                if (lookup() != null) {
+                    cached++;
+                }
+            }
+            assertTrue(cached < 100);
+        }
+    }
+}
@@ -39,6 +39,8 @@ public class ZuulConstants {
     public static final String ZUUL_RIBBON_NAMESPACE = "zuul.ribbon.namespace";
     public static final String ZUUL_RIBBON_VIPADDRESS_TEMPLATE = "zuul.ribbon.vipAddress.template";
     public static final String ZUUL_CASSANDRA_CACHE_MAX_SIZE = "zuul.cassandra.cache.max-size";
+    public static final String ZUUL_CASSANDRA_CACHE_TTL_MS = "zuul.cassandra.cache.ttl-ms";
+    public static final String ZUUL_CASSANDRA_CACHE_REFRESH_MS = "zuul.cassandra.cache.refresh-ms";
     public static final String ZUUL_HTTPCLIENT = "zuul.httpClient.";
     public static final String ZUUL_USE_ACTIVE_FILTERS = "zuul.use.active.filters";
     public static final String ZUUL_USE_CANARY_FILTERS = "zuul.use.canary.filters";
@@ -46,6 +48,7 @@ public class ZuulConstants {
     public static final String ZUUL_FILTER_POST_PATH = "zuul.filter.post.path";
     public static final String ZUUL_FILTER_ROUTING_PATH = "zuul.filter.routing.path";
     public static final String ZUUL_FILTER_CUSTOM_PATH = "zuul.filter.custom.path";
+    public static final String ZUUL_FILTER_RECONCILE_INTERVAL_MS = "zuul.filter.reconcile.interval.ms";
     public static final String ZUUL_FILTER_ADMIN_ENABLED = "zuul.filter.admin.enabled";
     public static final String ZUUL_FILTER_ADMIN_REDIRECT = "zuul.filter.admin.redirect.path";
 
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.context;
+
+import java.util.ArrayList;
+
+/**
+ * Append-only record of the mutations made to a SessionContext and to the Headers of its messages during a request.
+ *
+ * Only created for requests with debugRouting enabled. Filter runners note the journal size before running a filter,
+ * and derive that filter's routing debug from the entries appended since, instead of snapshotting the message and
+ * context before each filter. Values are recorded by reference, and only converted to strings when debug output is
+ * rendered.
+ *
+ * NOTE: Not threadsafe, in the same way as SessionContext.
+ */
+public final class ChangeJournal {
+
+    public enum Source {
+        CONTEXT,
+        HEADER
+    }
+
+    public enum Operation {
+        ADDED,
+        CHANGED,
+        REMOVED
+    }
+
+    private final ArrayList<Entry> entries = new ArrayList<>();
+
+    public void record(Source source, Operation operation, Object key, Object value) {
+        entries.add(new Entry(source, operation, key, value));
+    }
+
+    /**
+     * @return the number of entries recorded so far, for use as a mark to read subsequent entries from
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public Entry get(int idx) {
+        return entries.get(idx);
+    }
+
+    public static final class Entry {
+        private final Source source;
+        private final Operation operation;
+        private final Object key;
+        private final Object value;
+
+        Entry(Source source, Operation operation, Object key, Object value) {
+            this.source = source;
+            this.operation = operation;
+            this.key = key;
+            this.value = value;
+        }
+
+        public Source getSource() {
+            return source;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public Object getKey() {
+            return key;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            final String prefix = (source == Source.HEADER ? "header " : "") + operation.name().toLowerCase() + " " + key;
+            return operation == Operation.REMOVED ? prefix : prefix + "=" + String.valueOf(value);
+        }
+    }
+}
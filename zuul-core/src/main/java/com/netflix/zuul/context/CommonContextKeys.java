@@ -16,6 +16,10 @@
 
 package com.netflix.zuul.context;
 
+import com.netflix.zuul.filters.ZuulFilter;
+import com.netflix.zuul.passport.CurrentPassport;
+import io.netty.channel.ChannelHandlerContext;
+
 /**
  * Common Context Keys
  *
@@ -48,6 +52,11 @@ public class CommonContextKeys {
     public static final String GZIPPER = "gzipper";
     public static final String OVERRIDE_GZIP_REQUESTED = "overrideGzipRequested";
 
+    public static final String RESPONSE_CACHE_FILL = "_response_cache_fill";
+    public static final String RESPONSE_CACHE_WRITER = "_response_cache_writer";
+
+    public static final String REQUEST_MIRROR_SAMPLED = "_request_mirror_sampled";
+
     /* Netty-specific keys */
     public static final String IS_NETTY_BUILD = "_is_netty_build";
     public static final String NETTY_HTTP_REQUEST = "_netty_http_request";
@@ -60,4 +69,19 @@ public class CommonContextKeys {
 
     public static final String PASSPORT = "_passport";
     public static final String ZUUL_USE_DECODED_URI = "zuul_use_decoded_uri";
+
+    /* Typed keys for the entries read on every request, which SessionContext keeps in fixed slots. */
+    public static final SessionContext.Key<ChannelHandlerContext> NETTY_SERVER_CHANNEL_HANDLER_CONTEXT_KEY =
+            new SessionContext.Key<>(NETTY_SERVER_CHANNEL_HANDLER_CONTEXT, 0);
+    public static final SessionContext.Key<CurrentPassport> PASSPORT_KEY = new SessionContext.Key<>(PASSPORT, 1);
+    public static final SessionContext.Key<ZuulFilter> ZUUL_ENDPOINT_KEY = new SessionContext.Key<>(ZUUL_ENDPOINT, 2);
+    public static final SessionContext.Key<Integer> ORIGIN_STATUS_KEY = new SessionContext.Key<>(ORIGIN_STATUS, 3);
+
+    /** All the slotted keys, each at the index of its slot. */
+    static final SessionContext.Key<?>[] SLOTS = {
+            NETTY_SERVER_CHANNEL_HANDLER_CONTEXT_KEY,
+            PASSPORT_KEY,
+            ZUUL_ENDPOINT_KEY,
+            ORIGIN_STATUS_KEY,
+    };
 }
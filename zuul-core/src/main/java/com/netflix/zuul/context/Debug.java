@@ -126,6 +126,45 @@ public class Debug {
     }
 
 
+    /**
+     * Starts recording changes made to the message's headers into the context's ChangeJournal, if it has one.
+     *
+     * @return the current size of the journal, to pass to addRoutingDebugForChanges() once the filter completes,
+     * or -1 if the context has no journal
+     */
+    public static int startChangeTracking(ZuulMessage msg) {
+        final ChangeJournal journal = msg.getContext().getChangeJournal();
+        if (journal == null) {
+            return -1;
+        }
+        final Headers headers = msg.getHeaders();
+        if (headers != null && headers.getChangeJournal() != journal) {
+            headers.setChangeJournal(journal);
+        }
+        return journal.size();
+    }
+
+    /**
+     * Adds debug details about the changes that a given filter made to the request context and message headers,
+     * as recorded in the context's ChangeJournal since the given mark.
+     */
+    public static void addRoutingDebugForChanges(String filterName, SessionContext context, int mark) {
+        final ChangeJournal journal = context.getChangeJournal();
+        if (journal == null || mark < 0) {
+            return;
+        }
+        // Adding routing debug can itself append to the journal, so only render the entries that exist up front.
+        final int end = journal.size();
+        for (int i = mark; i < end; i++) {
+            final ChangeJournal.Entry entry = journal.get(i);
+            if (entry.getSource() == ChangeJournal.Source.CONTEXT
+                    && ("routingDebug".equals(entry.getKey()) || "requestDebug".equals(entry.getKey()))) {
+                continue;
+            }
+            addRoutingDebug(context, "{" + filterName + "} " + entry);
+        }
+    }
+
     /**
      * Adds debug details about changes that a given filter made to the request context.
      * @param filterName
@@ -277,6 +316,21 @@ public class Debug {
             assertTrue(getRequestDebug(ctx).contains("test2"));
         }
 
+        @Test
+        public void testRoutingDebugForChanges() {
+            setDebugRouting(ctx, true);
+            int mark = startChangeTracking(request);
+            ctx.set("foo", "bar");
+            request.getHeaders().set("lah", "dedum");
+            addRoutingDebugForChanges("TestFilter", ctx, mark);
+
+            List<String> debugLines = getRoutingDebug(ctx);
+            assertEquals(3, debugLines.size());
+            assertEquals("{TestFilter} added foo=bar", debugLines.get(0));
+            assertEquals("{TestFilter} header removed lah", debugLines.get(1));
+            assertEquals("{TestFilter} header added lah=dedum", debugLines.get(2));
+        }
+
         @Test
         public void testWriteInboundRequestDebug()
         {
@@ -21,11 +21,13 @@ package com.netflix.zuul.context;
  * Time: 6:45 PM
  */
 
+import com.netflix.config.DynamicBooleanProperty;
 import com.netflix.config.DynamicPropertyFactory;
 import com.netflix.zuul.filters.FilterError;
 import com.netflix.zuul.message.http.HttpResponseMessage;
 import com.netflix.zuul.stats.Timings;
 import com.netflix.zuul.util.DeepCopy;
+import io.netty.util.Recycler;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
@@ -33,17 +35,25 @@ import org.mockito.runners.MockitoJUnitRunner;
 import java.io.NotSerializableException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Represents the context between client and origin server for the duration of the dedicated connection/session
  * between them. But we're currently still only modelling single request/response pair per session.
  *
+ * The entries in CommonContextKeys.SLOTS are also kept in fixed slots, so that they can be read per filter through
+ * get(Key) without hashing. The slots are kept in step by put(), remove(), putAll(), putIfAbsent() and clear(); values
+ * set through the map views or compute/merge are only visible to get(String).
+ *
  * NOTE: Not threadsafe, and not intended to be used concurrently.
  */
 // TODO: 2018/7/9 by zmyer
@@ -61,7 +71,27 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
     private boolean debugRequestHeadersOnly = false;
     private boolean cancelled = false;
 
-    private Timings timings = new Timings();
+    private Timings timings = null;
+    private ChangeJournal changeJournal = null;
+    private Object[] slots = new Object[CommonContextKeys.SLOTS.length];
+    private Recycler.Handle<SessionContext> recycleHandle;
+
+    private static final Map<String, Key<?>> KEYS_BY_NAME = new HashMap<>();
+    static {
+        for (Key<?> key : CommonContextKeys.SLOTS) {
+            KEYS_BY_NAME.put(key.name(), key);
+        }
+    }
+
+    private static final DynamicBooleanProperty RECYCLE_ENABLED =
+            DynamicPropertyFactory.getInstance().getBooleanProperty("zuul.context.recycle.enabled", false);
+
+    private static final Recycler<SessionContext> RECYCLER = new Recycler<SessionContext>() {
+        @Override
+        protected SessionContext newObject(Handle<SessionContext> handle) {
+            return new SessionContext(handle);
+        }
+    };
 
 
     private static final String KEY_UUID = "_uuid";
@@ -74,13 +104,47 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
     private static final String KEY_FILTER_EXECS = "_filter_executions";
 
     public SessionContext() {
+        this(null);
+    }
+
+    private SessionContext(Recycler.Handle<SessionContext> recycleHandle) {
         // Use a higher than default initial capacity for the hashmap as we generally have more than the default
         // 16 entries.
         super(INITIAL_SIZE);
+        this.recycleHandle = recycleHandle;
+    }
 
-        put(KEY_FILTER_EXECS, new StringBuilder());
-        put(KEY_EVENT_PROPS, new HashMap<String, Object>());
-        put(KEY_FILTER_ERRORS, new ArrayList<FilterError>());
+    /**
+     * Returns a new context for a request. When zuul.context.recycle.enabled is set, this is taken from a pool local
+     * to the calling thread, and must be handed back with recycle() once the request is complete.
+     */
+    public static SessionContext newInstance() {
+        return RECYCLE_ENABLED.get() ? RECYCLER.get() : new SessionContext();
+    }
+
+    /**
+     * Clears this context and returns it to the pool it was taken from by newInstance(). Nothing may use the context
+     * after this, as it will be handed out to another request.
+     *
+     * @return false if this context was not pooled, and so was left untouched
+     */
+    public boolean recycle() {
+        if (recycleHandle == null) {
+            return false;
+        }
+        changeJournal = null;
+        clear();
+        brownoutMode = false;
+        shouldStopFilterProcessing = false;
+        shouldSendErrorResponse = false;
+        errorResponseSent = false;
+        debugRouting = false;
+        debugRequest = false;
+        debugRequestHeadersOnly = false;
+        cancelled = false;
+        timings = null;
+        recycleHandle.recycle(this);
+        return true;
     }
 
     /**
@@ -90,7 +154,82 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
      */
     @Override
     public SessionContext clone() {
-        return (SessionContext) super.clone();
+        final SessionContext clone = (SessionContext) super.clone();
+        clone.slots = slots.clone();
+        // The clone is never pooled, as it doesn't own the recycle handle.
+        clone.recycleHandle = null;
+        return clone;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        final Object prev = super.put(key, value);
+        final Key<?> slotKey = KEYS_BY_NAME.get(key);
+        if (slotKey != null) {
+            slots[slotKey.slot] = value;
+        }
+        if (changeJournal != null && (prev == null || !prev.equals(value))) {
+            changeJournal.record(ChangeJournal.Source.CONTEXT,
+                    prev == null ? ChangeJournal.Operation.ADDED : ChangeJournal.Operation.CHANGED, key, value);
+        }
+        return prev;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> m) {
+        for (Map.Entry<? extends String, ?> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public Object putIfAbsent(String key, Object value) {
+        final Object prev = get(key);
+        if (prev == null) {
+            put(key, value);
+        }
+        return prev;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        final Object prev = super.remove(key);
+        final Key<?> slotKey = KEYS_BY_NAME.get(key);
+        if (slotKey != null) {
+            slots[slotKey.slot] = null;
+        }
+        if (changeJournal != null && prev != null) {
+            changeJournal.record(ChangeJournal.Source.CONTEXT, ChangeJournal.Operation.REMOVED, key, prev);
+        }
+        return prev;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        Arrays.fill(slots, null);
+    }
+
+    /**
+     * Returns the value of one of the CommonContextKeys.SLOTS entries, without a map lookup.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Key<T> key) {
+        return (T) slots[key.slot];
+    }
+
+    /**
+     * Sets one of the CommonContextKeys.SLOTS entries; a null value removes it.
+     */
+    public <T> void set(Key<T> key, T value) {
+        set(key.name(), value);
+    }
+
+    /**
+     * @return the journal of mutations made during this request, or null if debugRouting is not enabled
+     */
+    public ChangeJournal getChangeJournal() {
+        return changeJournal;
     }
 
     public String getString(String key) {
@@ -146,7 +285,8 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
     }
 
     /**
-     * Makes a copy of the SessionContext. This is used for debugging.
+     * Makes a copy of the SessionContext. This is expensive, as values are deep copied through java serialization;
+     * for tracking what filters changed, see getChangeJournal().
      *
      * @return
      */
@@ -162,9 +302,7 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
         copy.debugRequestHeadersOnly = debugRequestHeadersOnly;
         copy.timings = timings;
 
-        Iterator<String> it = keySet().iterator();
-        String key = it.next();
-        while (key != null) {
+        for (String key : keySet()) {
             Object orig = get(key);
             try {
                 Object copyValue = DeepCopy.copy(orig);
@@ -176,11 +314,6 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
             } catch (NotSerializableException e) {
                 copy.set(key, orig);
             }
-            if (it.hasNext()) {
-                key = it.next();
-            } else {
-                key = null;
-            }
         }
         return copy;
     }
@@ -236,6 +369,9 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
      */
     public void setDebugRouting(boolean bDebug) {
         this.debugRouting = bDebug;
+        if (bDebug && changeJournal == null) {
+            changeJournal = new ChangeJournal();
+        }
     }
 
     /**
@@ -320,7 +456,12 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
      * @return String that represents the filter execution history for the current request
      */
     public StringBuilder getFilterExecutionSummary() {
-        return (StringBuilder) get(KEY_FILTER_EXECS);
+        StringBuilder sb = (StringBuilder) get(KEY_FILTER_EXECS);
+        if (sb == null) {
+            sb = new StringBuilder();
+            super.put(KEY_FILTER_EXECS, sb);
+        }
+        return sb;
     }
 
 
@@ -406,14 +547,27 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
     }
 
     public Map<String, Object> getEventProperties() {
-        return (Map<String, Object>) this.get(KEY_EVENT_PROPS);
+        Map<String, Object> props = (Map<String, Object>) this.get(KEY_EVENT_PROPS);
+        if (props == null) {
+            props = new HashMap<String, Object>();
+            super.put(KEY_EVENT_PROPS, props);
+        }
+        return props;
     }
 
     public List<FilterError> getFilterErrors() {
-        return (List<FilterError>) get(KEY_FILTER_ERRORS);
+        List<FilterError> errors = (List<FilterError>) get(KEY_FILTER_ERRORS);
+        if (errors == null) {
+            errors = new ArrayList<FilterError>();
+            super.put(KEY_FILTER_ERRORS, errors);
+        }
+        return errors;
     }
 
     public Timings getTimings() {
+        if (timings == null) {
+            timings = new Timings();
+        }
         return timings;
     }
 
@@ -437,6 +591,28 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
         this.cancelled = true;
     }
 
+    /**
+     * A typed key for an entry that SessionContext keeps in a fixed slot. See CommonContextKeys.SLOTS.
+     */
+    public static final class Key<T> {
+        private final String name;
+        final int slot;
+
+        Key(String name, int slot) {
+            this.name = name;
+            this.slot = slot;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
     @RunWith(MockitoJUnitRunner.class)
     public static class UnitTest {
         @Test
@@ -446,5 +622,89 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
             assertEquals(context.getBoolean("boolean_test", true), true);
 
         }
+
+        @Test
+        public void testChangeJournal() {
+            SessionContext context = new SessionContext();
+            context.set("before", "x");
+            assertEquals(null, context.getChangeJournal());
+
+            context.setDebugRouting(true);
+            ChangeJournal journal = context.getChangeJournal();
+            context.set("key", "a");
+            context.set("key", "a");
+            context.set("key", "b");
+            context.remove("before");
+
+            assertEquals(3, journal.size());
+            assertEquals("added key=a", journal.get(0).toString());
+            assertEquals("changed key=b", journal.get(1).toString());
+            assertEquals("removed before", journal.get(2).toString());
+        }
+
+        @Test
+        public void testSlotsFollowMap() {
+            for (int i = 0; i < CommonContextKeys.SLOTS.length; i++) {
+                assertEquals(i, CommonContextKeys.SLOTS[i].slot);
+            }
+
+            SessionContext context = new SessionContext();
+            context.set(CommonContextKeys.ORIGIN_STATUS, 503);
+            assertEquals(Integer.valueOf(503), context.get(CommonContextKeys.ORIGIN_STATUS_KEY));
+
+            context.set(CommonContextKeys.ORIGIN_STATUS_KEY, 200);
+            assertEquals(200, context.get(CommonContextKeys.ORIGIN_STATUS));
+
+            SessionContext clone = context.clone();
+            context.remove(CommonContextKeys.ORIGIN_STATUS);
+            assertNull(context.get(CommonContextKeys.ORIGIN_STATUS_KEY));
+            assertEquals(Integer.valueOf(200), clone.get(CommonContextKeys.ORIGIN_STATUS_KEY));
+
+            clone.clear();
+            assertNull(clone.get(CommonContextKeys.ORIGIN_STATUS_KEY));
+        }
+
+        @Test
+        public void testLazyMembers() {
+            SessionContext context = new SessionContext();
+            assertTrue(context.isEmpty());
+
+            context.setEventProperty("k", "v");
+            context.addFilterExecutionSummary("f", "SUCCESS", 1);
+            assertEquals("v", context.getEventProperties().get("k"));
+            assertEquals("f[SUCCESS][1ms]", context.getFilterExecutionSummary().toString());
+            assertTrue(context.getFilterErrors().isEmpty());
+            assertSame(context.getTimings(), context.getTimings());
+        }
+
+        @Test
+        public void testRecycle() {
+            assertFalse(new SessionContext().recycle());
+
+            SessionContext context = RECYCLER.get();
+            context.set(CommonContextKeys.ORIGIN_STATUS, 503);
+            context.setDebugRouting(true);
+            context.cancel();
+            assertTrue(context.recycle());
+
+            assertTrue(context.isEmpty());
+            assertNull(context.get(CommonContextKeys.ORIGIN_STATUS_KEY));
+            assertNull(context.getChangeJournal());
+            assertFalse(context.debugRouting());
+            assertFalse(context.isCancelled());
+        }
+
+        @Test
+        public void testCloneKeepsTypeAndIsNotPooled() {
+            SessionContext context = RECYCLER.get();
+            context.setDebugRouting(true);
+            SessionContext clone = context.clone();
+            assertTrue(clone.debugRouting());
+            assertFalse(clone.recycle());
+            assertTrue(context.recycle());
+
+            SessionContext subclassed = new SessionContext() {};
+            assertSame(subclassed.getClass(), subclassed.clone().getClass());
+        }
     }
 }
\ No newline at end of file
@@ -51,8 +51,7 @@ public class ZuulSessionContextDecorator implements SessionContextDecorator {
     public SessionContext decorate(SessionContext ctx) {
         // TODO split out commons parts from BaseSessionContextDecorator
 
-        ChannelHandlerContext nettyCtx = (ChannelHandlerContext) ctx.get(
-                CommonContextKeys.NETTY_SERVER_CHANNEL_HANDLER_CONTEXT);
+        ChannelHandlerContext nettyCtx = ctx.get(CommonContextKeys.NETTY_SERVER_CHANNEL_HANDLER_CONTEXT_KEY);
         if (nettyCtx == null) {
             return null;
         }
@@ -77,7 +76,7 @@ public class ZuulSessionContextDecorator implements SessionContextDecorator {
                 HttpBodySizeRecordingChannelHandler.getCurrentResponseBodySize(channel));
 
         CurrentPassport passport = CurrentPassport.fromChannel(channel);
-        ctx.set(CommonContextKeys.PASSPORT, passport);
+        ctx.set(CommonContextKeys.PASSPORT_KEY, passport);
 
         ctx.setUUID(UUID_FACTORY.generateRandomUuid().toString());
 
@@ -13,33 +13,57 @@
  *      See the License for the specific language governing permissions and
  *      limitations under the License.
  */
+
 package com.netflix.zuul.dependency.cassandra;
 
 import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicLongProperty;
 import com.netflix.config.DynamicPropertyFactory;
 import com.netflix.zuul.constants.ZuulConstants;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 
 /**
- * Simple in memory cache implementation, backed by a Map.
+ * Bounded in memory cache, with a W-TinyLFU style admission and eviction policy.
+ *
+ * New entries go into a small LRU window. When the window overflows, its oldest entry is only admitted to the main
+ * segmented LRU (probation + protected) if it has been asked for more often than the entry it would evict, as
+ * estimated by a count-min sketch of recent lookups that is halved periodically. One-off queries therefore can't
+ * flush out the entries that are read repeatedly.
+ *
+ * Entries optionally expire a fixed time after they were stored, and, when a loader is given, are reloaded in the
+ * background when read after the refresh interval, so that hot entries don't expire from under their readers.
+ *
+ * Reads only take the policy lock if it is free, so under contention some accesses are not reflected in the
+ * ordering and frequencies, rather than readers queueing on the lock.
  */
 public class DefaultCassandraCache<K> implements CassandraCache<K> {
 
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultCassandraCache.class);
+
     /**
      * Bounds cache - 1000 feels like a safe number to start with.
      */
@@ -47,22 +71,50 @@ public class DefaultCassandraCache<K> implements CassandraCache<K> {
     private final static DynamicIntProperty maxCacheSize =
             DynamicPropertyFactory.getInstance().getIntProperty(ZuulConstants.ZUUL_CASSANDRA_CACHE_MAX_SIZE, 1000);
 
-    private final ConcurrentMap<String, K> cacheMap;
+    /**
+     * Entries expire this long after they were stored, or never if 0.
+     */
+    private final static DynamicLongProperty ttlMs =
+            DynamicPropertyFactory.getInstance().getLongProperty(ZuulConstants.ZUUL_CASSANDRA_CACHE_TTL_MS, 0);
+
+    /**
+     * Entries read this long after they were stored are reloaded in the background, if there is a loader. 0 disables.
+     */
+    private final static DynamicLongProperty refreshMs =
+            DynamicPropertyFactory.getInstance().getLongProperty(ZuulConstants.ZUUL_CASSANDRA_CACHE_REFRESH_MS, 0);
+
+    private final ConcurrentHashMap<CompositeKey, Node<K>> cacheMap = new ConcurrentHashMap<>();
 
-    private final AtomicLong cacheHits = new AtomicLong(0);
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final AccessOrderQueue<K> window = new AccessOrderQueue<>(Node.WINDOW);
+    private final AccessOrderQueue<K> probation = new AccessOrderQueue<>(Node.PROBATION);
+    private final AccessOrderQueue<K> protectedQueue = new AccessOrderQueue<>(Node.PROTECTED);
+    private final FrequencySketch sketch = new FrequencySketch();
 
-    private final AtomicLong cacheMisses = new AtomicLong(0);
+    private final Function<String[], K> loader;
+    private final Executor refreshExecutor;
+    private final LongSupplier ticker;
 
-    private float cacheHitRatio = 0;
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder cacheEvictions = new LongAdder();
 
-    private final String monitorName = this.getClass().getSimpleName();
+    public DefaultCassandraCache() {
+        this(null, null);
+    }
 
-    private DefaultCassandraCache() {
-        this(new ConcurrentHashMap<String, K>());
+    /**
+     * @param loader reloads an entry for the given keys, for refresh-ahead; returning null keeps the current value
+     * @param refreshExecutor runs the reloads
+     */
+    public DefaultCassandraCache(Function<String[], K> loader, Executor refreshExecutor) {
+        this(loader, refreshExecutor, System::nanoTime);
     }
 
-    private DefaultCassandraCache(ConcurrentMap<String, K> cacheMap) {
-        this.cacheMap = cacheMap;
+    DefaultCassandraCache(Function<String[], K> loader, Executor refreshExecutor, LongSupplier ticker) {
+        this.loader = loader;
+        this.refreshExecutor = refreshExecutor;
+        this.ticker = ticker;
     }
 
     /**
@@ -72,18 +124,34 @@ public class DefaultCassandraCache<K> implements CassandraCache<K> {
      * @return
      */
     public K fetchQuery(String... keys) {
-        final String key = buildKey(keys);
-        final K result = cacheMap.get(key);
+        final CompositeKey key = new CompositeKey(keys);
+        final Node<K> node = cacheMap.get(key);
+
+        if (node == null) {
+            cacheMisses.increment();
+            recordMiss(key);
+            return null;
+        }
 
-        if (result != null)
-            this.cacheHits.incrementAndGet();
-        else
-            this.cacheMisses.incrementAndGet();
+        final long now = ticker.getAsLong();
+        final long age = now - node.writeTime;
+        final long ttl = TimeUnit.MILLISECONDS.toNanos(getTtlMs());
+        if (ttl > 0 && age >= ttl) {
+            cacheMisses.increment();
+            expire(node);
+            return null;
+        }
 
-        final long currentHits = this.cacheHits.get();
-        this.cacheHitRatio = (float) currentHits / (currentHits + this.cacheMisses.get());
+        cacheHits.increment();
+        recordHit(node);
 
-        return result;
+        // Readers keep getting the current value while it is being refreshed.
+        final K value = node.value;
+        final long refresh = TimeUnit.MILLISECONDS.toNanos(getRefreshMs());
+        if (loader != null && refresh > 0 && age >= refresh) {
+            refresh(node, keys);
+        }
+        return value;
     }
 
     /**
@@ -93,57 +161,430 @@ public class DefaultCassandraCache<K> implements CassandraCache<K> {
      * @param keys
      */
     public void storeQuery(K response, String... keys) {
-        final String key = buildKey(keys);
-
-        if (!this.cacheMap.containsKey(key)) {
-            // checks if inserting this item will increase cache over desired size
-            final int removeCount = (this.cacheMap.size() + 1) - this.getMaxCacheSize();
-
-            if (removeCount > 0) {
-                // I am simply going to remove as many items as necessary in the order that the iterator returns them.
-                // in practice it will usually only need to remove one item, but if we updated the fast property
-                // to half the cache size there would be a lot more
-                final Iterator<String> it = this.cacheMap.keySet().iterator();
-                for (int i = 0; i < removeCount; i++) {
-                    if (it.hasNext()) {
-                        it.next();
-                        it.remove();
-                    }
-                }
+        final CompositeKey key = new CompositeKey(keys.clone());
+        final long now = ticker.getAsLong();
+
+        policyLock.lock();
+        try {
+            sketch().increment(key.hash);
+            final Node<K> existing = cacheMap.get(key);
+            if (existing != null) {
+                existing.value = response;
+                existing.writeTime = now;
+                onAccess(existing);
+                return;
             }
-        }
 
-        this.cacheMap.put(key, response);
+            final Node<K> node = new Node<>(key, response, now);
+            cacheMap.put(key, node);
+            window.addLast(node);
+            evict();
+        }
+        finally {
+            policyLock.unlock();
+        }
     }
 
     public long getCacheHits() {
-        return this.cacheHits.get();
+        return this.cacheHits.sum();
     }
 
     public long getCacheMisses() {
-        return this.cacheMisses.get();
+        return this.cacheMisses.sum();
+    }
+
+    public long getCacheEvictions() {
+        return this.cacheEvictions.sum();
     }
 
     public double getCacheHitRatio() {
-        return this.cacheHitRatio;
+        final long hits = getCacheHits();
+        final long total = hits + getCacheMisses();
+        return total == 0 ? 0 : (double) hits / total;
     }
 
     public long getCacheEntries() {
         return this.cacheMap.size();
     }
 
+    protected int getMaxCacheSize() {
+        return maxCacheSize.get();
+    }
+
+    protected long getTtlMs() {
+        return ttlMs.get();
+    }
+
+    protected long getRefreshMs() {
+        return refreshMs.get();
+    }
+
     /**
-     * We just concatenate the Strings.
+     * Must hold policyLock.
+     */
+    private FrequencySketch sketch() {
+        sketch.ensureCapacity(getMaxCacheSize());
+        return sketch;
+    }
+
+    private void recordMiss(CompositeKey key) {
+        if (policyLock.tryLock()) {
+            try {
+                sketch().increment(key.hash);
+            }
+            finally {
+                policyLock.unlock();
+            }
+        }
+    }
+
+    private void recordHit(Node<K> node) {
+        if (policyLock.tryLock()) {
+            try {
+                sketch().increment(node.key.hash);
+                onAccess(node);
+            }
+            finally {
+                policyLock.unlock();
+            }
+        }
+    }
+
+    private void expire(Node<K> node) {
+        policyLock.lock();
+        try {
+            if (cacheMap.remove(node.key, node)) {
+                unlink(node);
+            }
+        }
+        finally {
+            policyLock.unlock();
+        }
+    }
+
+    private void refresh(Node<K> node, String[] keys) {
+        if (! node.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        final String[] refreshKeys = keys.clone();
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    final K value = loader.apply(refreshKeys);
+                    if (value != null) {
+                        node.value = value;
+                        node.writeTime = ticker.getAsLong();
+                    }
+                }
+                catch (Exception e) {
+                    LOG.warn("Error refreshing cache entry {}", node.key, e);
+                }
+                finally {
+                    node.refreshing.set(false);
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            node.refreshing.set(false);
+            LOG.warn("Unable to schedule refresh of cache entry {}", node.key, e);
+        }
+    }
+
+    /**
+     * Moves an entry on access: within the window to its end, and from probation to protected, demoting the
+     * least recently used protected entry back to probation if protected is then over its share.
      *
-     * @param keys
-     * @return
+     * Must hold policyLock.
      */
-    private static final String buildKey(String... keys) {
-        return Arrays.toString(keys);
+    private void onAccess(Node<K> node) {
+        switch (node.queue) {
+            case Node.WINDOW:
+                window.moveToEnd(node);
+                break;
+            case Node.PROBATION:
+                probation.remove(node);
+                protectedQueue.addLast(node);
+                final int protectedMax = mainCapacity(getMaxCacheSize()) * 4 / 5;
+                while (protectedQueue.size() > protectedMax) {
+                    probation.addLast(protectedQueue.pollFirst());
+                }
+                break;
+            case Node.PROTECTED:
+                protectedQueue.moveToEnd(node);
+                break;
+            default:
+                // already removed
+                break;
+        }
     }
 
-    protected int getMaxCacheSize() {
-        return maxCacheSize.get();
+    /**
+     * Must hold policyLock.
+     */
+    private void evict() {
+        final int max = Math.max(1, getMaxCacheSize());
+        final int windowMax = windowCapacity(max);
+        final int mainMax = mainCapacity(max);
+
+        while (window.size() > windowMax) {
+            final Node<K> candidate = window.pollFirst();
+            if (probation.size() + protectedQueue.size() < mainMax) {
+                probation.addLast(candidate);
+                continue;
+            }
+
+            final Node<K> victim = probation.size() > 0 ? probation.peekFirst() : protectedQueue.peekFirst();
+            if (victim != null && sketch().frequency(candidate.key.hash) > sketch().frequency(victim.key.hash)) {
+                unlink(victim);
+                removeEvicted(victim);
+                probation.addLast(candidate);
+            }
+            else {
+                removeEvicted(candidate);
+            }
+        }
+
+        // In case the max size was reduced.
+        while (probation.size() + protectedQueue.size() > mainMax) {
+            removeEvicted(probation.size() > 0 ? probation.pollFirst() : protectedQueue.pollFirst());
+        }
+    }
+
+    private void removeEvicted(Node<K> node) {
+        cacheMap.remove(node.key, node);
+        cacheEvictions.increment();
+    }
+
+    private void unlink(Node<K> node) {
+        switch (node.queue) {
+            case Node.WINDOW:
+                window.remove(node);
+                break;
+            case Node.PROBATION:
+                probation.remove(node);
+                break;
+            case Node.PROTECTED:
+                protectedQueue.remove(node);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static int windowCapacity(int max) {
+        return Math.max(1, max / 100);
+    }
+
+    private static int mainCapacity(int max) {
+        return Math.max(0, max - windowCapacity(max));
+    }
+
+    /**
+     * The query keys, compared element by element rather than concatenated into a String.
+     */
+    static final class CompositeKey {
+        private final String[] keys;
+        private final int hash;
+
+        CompositeKey(String[] keys) {
+            this.keys = keys;
+            this.hash = Arrays.hashCode(keys);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CompositeKey)) return false;
+            final CompositeKey other = (CompositeKey) o;
+            return hash == other.hash && Arrays.equals(keys, other.keys);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(keys);
+        }
+    }
+
+    static final class Node<K> {
+        static final int NONE = 0;
+        static final int WINDOW = 1;
+        static final int PROBATION = 2;
+        static final int PROTECTED = 3;
+
+        final CompositeKey key;
+        volatile K value;
+        volatile long writeTime;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        // guarded by policyLock
+        int queue = NONE;
+        Node<K> prev;
+        Node<K> next;
+
+        Node(CompositeKey key, K value, long writeTime) {
+            this.key = key;
+            this.value = value;
+            this.writeTime = writeTime;
+        }
+    }
+
+    /**
+     * Intrusive doubly linked list of nodes, least recently used first. Guarded by policyLock.
+     */
+    static final class AccessOrderQueue<K> {
+        private final int id;
+        private Node<K> head;
+        private Node<K> tail;
+        private int size;
+
+        AccessOrderQueue(int id) {
+            this.id = id;
+        }
+
+        int size() {
+            return size;
+        }
+
+        Node<K> peekFirst() {
+            return head;
+        }
+
+        Node<K> pollFirst() {
+            final Node<K> node = head;
+            if (node != null) {
+                remove(node);
+            }
+            return node;
+        }
+
+        void addLast(Node<K> node) {
+            node.queue = id;
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            }
+            else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        void remove(Node<K> node) {
+            if (node.prev == null) {
+                head = node.next;
+            }
+            else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            }
+            else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            node.queue = Node.NONE;
+            size--;
+        }
+
+        void moveToEnd(Node<K> node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    /**
+     * Count-min sketch of 4 bit counters, 16 to a long, with 4 hash functions. Once the number of increments
+     * reaches 10 times the table size, all the counters are halved so that the frequencies follow recent traffic.
+     * Guarded by policyLock.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private long[] table = new long[0];
+        private int tableMask;
+        private int sampleSize;
+        private int additions;
+
+        int frequency(int keyHash) {
+            final int hash = spread(keyHash);
+            final int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                final int index = indexOf(hash, i);
+                final int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(int keyHash) {
+            final int hash = spread(keyHash);
+            final int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), start + i);
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        private boolean incrementAt(int index, int counter) {
+            final int offset = counter << 2;
+            final long mask = 0xfL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                return true;
+            }
+            return false;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions >>>= 1;
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return ((int) h) & tableMask;
+        }
+
+        /**
+         * Resizes, and so clears, the table if the cache's maximum size has changed since it was last sized.
+         */
+        void ensureCapacity(int maxCacheSize) {
+            final int max = Math.max(16, maxCacheSize);
+            final int size = Integer.highestOneBit(max - 1) << 1;
+            if (table.length != size) {
+                table = new long[size];
+                tableMask = size - 1;
+                sampleSize = 10 * size;
+                additions = 0;
+            }
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
     }
 
     public static final class UnitTest {
@@ -160,17 +601,15 @@ public class DefaultCassandraCache<K> implements CassandraCache<K> {
         @Mock
         HashMap<String, String> response2;
 
-        @Mock
-        ConcurrentMap<String, HashMap<String, String>> cacheMap;
-
         DefaultCassandraCache<HashMap<String, String>> cache;
 
+        AtomicLong time = new AtomicLong();
+
         @Before
         public void before() {
             MockitoAnnotations.initMocks(this);
 
-            cacheMap = new ConcurrentHashMap<String, HashMap<String, String>>();
-            cache = new DefaultCassandraCache<HashMap<String, String>>(cacheMap);
+            cache = new DefaultCassandraCache<HashMap<String, String>>(null, null, time::get);
             cache = spy(cache);
         }
 
@@ -178,37 +617,96 @@ public class DefaultCassandraCache<K> implements CassandraCache<K> {
         public void storesItemIfCacheIsNotFull() {
             when(cache.getMaxCacheSize()).thenReturn(5);
 
-            final String cacheKey1 = buildKey(DOMAIN, QUERY1);
-            final String cacheKey2 = buildKey(DOMAIN, QUERY2);
-
             cache.storeQuery(response1, DOMAIN, QUERY1);
             cache.storeQuery(response2, DOMAIN, QUERY2);
 
             assertSame(response1, cache.fetchQuery(DOMAIN, QUERY1));
-            assertSame(response1, cacheMap.get(cacheKey1));
-
             assertSame(response2, cache.fetchQuery(DOMAIN, QUERY2));
-            assertSame(response2, cacheMap.get(cacheKey2));
+            assertEquals(2, cache.getCacheEntries());
+            assertEquals(2, cache.getCacheHits());
         }
 
         @Test
         public void removesItemIfCacheIsFull() {
             when(cache.getMaxCacheSize()).thenReturn(1);
 
-            final String cacheKey1 = buildKey(DOMAIN, QUERY1);
-            final String cacheKey2 = buildKey(DOMAIN, QUERY2);
-
             cache.storeQuery(response1, DOMAIN, QUERY1);
             assertSame(response1, cache.fetchQuery(DOMAIN, QUERY1));
-            assertSame(response1, cacheMap.get(cacheKey1));
-            assertEquals(1, cacheMap.size());
+            assertEquals(1, cache.getCacheEntries());
 
             cache.storeQuery(response2, DOMAIN, QUERY2);
             assertSame(response2, cache.fetchQuery(DOMAIN, QUERY2));
-            assertSame(response2, cacheMap.get(cacheKey2));
-            assertEquals(1, cacheMap.size());
+            assertEquals(1, cache.getCacheEntries());
+            assertEquals(1, cache.getCacheEvictions());
+        }
+
+        @Test
+        public void frequentlyReadItemSurvivesOneOffQueries() {
+            when(cache.getMaxCacheSize()).thenReturn(3);
+
+            cache.storeQuery(response1, DOMAIN, QUERY1);
+            for (int i = 0; i < 5; i++) {
+                cache.fetchQuery(DOMAIN, QUERY1);
+            }
+            for (int i = 0; i < 20; i++) {
+                cache.storeQuery(response2, DOMAIN, "one-off-" + i);
+            }
+
+            assertSame(response1, cache.fetchQuery(DOMAIN, QUERY1));
+            assertEquals(3, cache.getCacheEntries());
+        }
+
+        @Test
+        public void sizesSketchFromMaxCacheSize() {
+            when(cache.getMaxCacheSize()).thenReturn(100);
+            cache.storeQuery(response1, DOMAIN, QUERY1);
+            assertEquals(128, cache.sketch.table.length);
+
+            when(cache.getMaxCacheSize()).thenReturn(1000);
+            cache.fetchQuery(DOMAIN, QUERY1);
+            assertEquals(1024, cache.sketch.table.length);
+        }
+
+        @Test
+        public void expiresAfterTtl() {
+            when(cache.getMaxCacheSize()).thenReturn(5);
+            when(cache.getTtlMs()).thenReturn(100L);
+
+            cache.storeQuery(response1, DOMAIN, QUERY1);
+            time.addAndGet(TimeUnit.MILLISECONDS.toNanos(99));
+            assertSame(response1, cache.fetchQuery(DOMAIN, QUERY1));
+
+            time.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+            assertNull(cache.fetchQuery(DOMAIN, QUERY1));
+            assertEquals(0, cache.getCacheEntries());
+            assertEquals(0.5, cache.getCacheHitRatio(), 0.001);
+        }
+
+        @Test
+        public void refreshesAheadOfExpiry() {
+            final AtomicInteger loads = new AtomicInteger();
+            cache = spy(new DefaultCassandraCache<HashMap<String, String>>(keys -> {
+                loads.incrementAndGet();
+                return response2;
+            }, Runnable::run, time::get));
+            when(cache.getMaxCacheSize()).thenReturn(5);
+            when(cache.getTtlMs()).thenReturn(100L);
+            when(cache.getRefreshMs()).thenReturn(50L);
+
+            cache.storeQuery(response1, DOMAIN, QUERY1);
+            time.addAndGet(TimeUnit.MILLISECONDS.toNanos(49));
+            assertSame(response1, cache.fetchQuery(DOMAIN, QUERY1));
+            assertEquals(0, loads.get());
+
+            time.addAndGet(TimeUnit.MILLISECONDS.toNanos(50));
+            // the stale value is returned while the refresh runs, and replaced by it
+            assertSame(response1, cache.fetchQuery(DOMAIN, QUERY1));
+            assertEquals(1, loads.get());
+
+            time.addAndGet(TimeUnit.MILLISECONDS.toNanos(50));
+            assertSame(response2, cache.fetchQuery(DOMAIN, QUERY1));
         }
 
     }
 
-}
\ No newline at end of file
+}
@@ -23,8 +23,6 @@ import com.netflix.astyanax.model.Rows;
 import com.netflix.astyanax.query.RowSliceQuery;
 import com.netflix.zuul.dependency.cassandra.CassandraCache;
 
-import java.util.Arrays;
-
 /**
  * Fetches values in multiple rows from Cassandra using row keys.
  * <p/>
@@ -44,6 +42,7 @@ public class HystrixCassandraGetRowsByKeys<RowKeyType> extends AbstractCassandra
     private String[] columns;
 
     private CassandraCache<Rows<RowKeyType, String>> fallbackCache = null;
+    private String[] cacheKeys;
 
     /**
      * Get rows specified by their row keys.
@@ -145,11 +144,7 @@ public class HystrixCassandraGetRowsByKeys<RowKeyType> extends AbstractCassandra
             if (fallbackCache != null) {
                 try {
                     /* store the response in the cache for fallback if we have a cache */
-                    if (columns != null) {
-                        fallbackCache.storeQuery(result, keyspace.toString(), columnFamily.getName(), Arrays.toString(rowKeys), String.valueOf(startKey), String.valueOf(endKey), startToken, endToken, String.valueOf(maxRows), Arrays.toString(columns));
-                    } else {
-                        fallbackCache.storeQuery(result, keyspace.toString(), columnFamily.getName(), Arrays.toString(rowKeys), String.valueOf(startKey), String.valueOf(endKey), startToken, endToken, String.valueOf(maxRows));
-                    }
+                    fallbackCache.storeQuery(result, cacheKeys());
                 } catch (Exception e) {
                     // don't blow up on cache population since this is non-essential
                 }
@@ -170,6 +165,7 @@ public class HystrixCassandraGetRowsByKeys<RowKeyType> extends AbstractCassandra
      */
     public HystrixCassandraGetRowsByKeys<RowKeyType> withColumns(String... columns) {
         this.columns = columns;
+        this.cacheKeys = null;
         return this;
     }
 
@@ -188,7 +184,41 @@ public class HystrixCassandraGetRowsByKeys<RowKeyType> extends AbstractCassandra
 
     @Override
     protected Rows<RowKeyType, String> getFallback() {
-        return this.fallbackCache.fetchQuery();
+        return (this.fallbackCache != null) ? this.fallbackCache.fetchQuery(cacheKeys()) : super.getFallback();
+    }
+
+    /**
+     * The fallback cache keys for this query, one element per part so that no key String is built from the row keys,
+     * range or columns: keyspace, column family, "rows" or "range", the number of columns, the columns, and then the
+     * row keys or the range bounds.
+     */
+    private String[] cacheKeys() {
+        if (cacheKeys != null) {
+            return cacheKeys;
+        }
+        final int columnCount = columns == null ? 0 : columns.length;
+        final int tail = rowKeys != null ? rowKeys.length : 5;
+        final String[] keys = new String[4 + columnCount + tail];
+        keys[0] = keyspace.toString();
+        keys[1] = columnFamily.getName();
+        keys[2] = rowKeys != null ? "rows" : "range";
+        keys[3] = Integer.toString(columnCount);
+        int i = 4;
+        for (int c = 0; c < columnCount; c++) {
+            keys[i++] = columns[c];
+        }
+        if (rowKeys != null) {
+            for (RowKeyType rowKey : rowKeys) {
+                keys[i++] = String.valueOf(rowKey);
+            }
+        } else {
+            keys[i++] = String.valueOf(startKey);
+            keys[i++] = String.valueOf(endKey);
+            keys[i++] = startToken;
+            keys[i++] = endToken;
+            keys[i] = Integer.toString(maxRows);
+        }
+        return cacheKeys = keys;
     }
 
 }
@@ -98,7 +98,7 @@ public class HystrixCassandraGetRowsByQuery<RowKeyType> extends AbstractCassandr
 
     @Override
     protected Rows<RowKeyType, String> getFallback() {
-        return (this.fallbackCache != null) ? this.fallbackCache.fetchQuery() : null;
+        return (this.fallbackCache != null) ? this.fallbackCache.fetchQuery(keyspace.toString(), columnFamily.getName(), cql) : null;
     }
 
 }
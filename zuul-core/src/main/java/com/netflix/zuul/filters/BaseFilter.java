@@ -58,6 +58,8 @@ public abstract class BaseFilter<I extends ZuulMessage, O extends ZuulMessage> i
     private final CachedDynamicBooleanProperty filterDisabled;
     private final CachedDynamicIntProperty filterConcurrencyLimit;
 
+    private volatile FilterMetrics filterMetrics;
+
     private static final CachedDynamicBooleanProperty concurrencyProtectEnabled = new CachedDynamicBooleanProperty("zuul.filter.concurrency.protect.enabled", true);
 
 
@@ -136,6 +138,17 @@ public abstract class BaseFilter<I extends ZuulMessage, O extends ZuulMessage> i
         return chunk;
     }
 
+    /**
+     * Usage metrics pre-registered for this filter by FilterLoader, or null if it was not loaded through it.
+     */
+    public FilterMetrics getFilterMetrics() {
+        return filterMetrics;
+    }
+
+    public void setFilterMetrics(FilterMetrics filterMetrics) {
+        this.filterMetrics = filterMetrics;
+    }
+
     @Override
     public void incrementConcurrency() throws ZuulFilterConcurrencyExceededException {
         final int limit = filterConcurrencyLimit.get();
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.filters;
+
+import com.netflix.zuul.message.ZuulMessage;
+
+import javax.annotation.concurrent.Immutable;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * An immutable, ordered snapshot of the filters of one FilterType.
+ *
+ * A new FilterChain is built by FilterLoader only when the set of loaded filters changes, and is published through
+ * an atomic reference that the filter runners read once at the start of each request. Everything that does not
+ * depend on the message (sync vs async, whether a filter can ever ask for a buffered body) is resolved up front.
+ */
+@Immutable
+public final class FilterChain<T extends ZuulMessage> {
+
+    private final long version;
+    private final FilterType filterType;
+    private final ZuulFilter<T, T>[] filters;
+    private final boolean[] syncFilters;
+    private final boolean[] bodyBufferingFilters;
+    private final List<ZuulFilter<T, T>> filterList;
+
+    @SuppressWarnings("unchecked")
+    private FilterChain(long version, FilterType filterType, ZuulFilter[] filters) {
+        this.version = version;
+        this.filterType = filterType;
+        this.filters = filters;
+        this.syncFilters = new boolean[filters.length];
+        this.bodyBufferingFilters = new boolean[filters.length];
+        for (int i = 0; i < filters.length; i++) {
+            syncFilters[i] = filters[i].getSyncType() == FilterSyncType.SYNC;
+            bodyBufferingFilters[i] = mayNeedBodyBuffered(filters[i]);
+        }
+        this.filterList = Collections.unmodifiableList(Arrays.asList(this.filters));
+    }
+
+    /**
+     * @param version monotonically increasing version of the filter set this chain was built from
+     * @param filterType type of all the filters in the chain
+     * @param filters filters, already sorted by filterOrder()
+     */
+    public static <T extends ZuulMessage> FilterChain<T> create(long version, FilterType filterType,
+                                                                Collection<? extends ZuulFilter> filters) {
+        return new FilterChain<>(version, filterType, filters.toArray(new ZuulFilter[filters.size()]));
+    }
+
+    /**
+     * Returns a chain of the same version with the given filters added at the start and end, eg. for
+     * passport stamping.
+     */
+    public FilterChain<T> bracketedBy(ZuulFilter<T, T> first, ZuulFilter<T, T> last) {
+        final ZuulFilter[] bracketed = new ZuulFilter[filters.length + 2];
+        bracketed[0] = first;
+        System.arraycopy(filters, 0, bracketed, 1, filters.length);
+        bracketed[bracketed.length - 1] = last;
+        return new FilterChain<>(version, filterType, bracketed);
+    }
+
+    /**
+     * Returns a supplier of the current chain from source, bracketed by the given filters. The bracketed chain is
+     * only rebuilt when the version of the source chain changes.
+     */
+    public static <T extends ZuulMessage> Supplier<FilterChain<T>> bracketed(Supplier<FilterChain<T>> source,
+                                                                             ZuulFilter<T, T> first,
+                                                                             ZuulFilter<T, T> last) {
+        final AtomicReference<FilterChain<T>> cached = new AtomicReference<>();
+        return () -> {
+            final FilterChain<T> current = source.get();
+            final FilterChain<T> prev = cached.get();
+            if (prev != null && prev.version == current.version) {
+                return prev;
+            }
+            final FilterChain<T> next = current.bracketedBy(first, last);
+            cached.compareAndSet(prev, next);
+            return next;
+        };
+    }
+
+    /**
+     * Wraps a fixed array of filters in a chain that never changes.
+     */
+    public static <T extends ZuulMessage> FilterChain<T> fixed(ZuulFilter<T, T>[] filters) {
+        return new FilterChain<>(0, filters.length > 0 ? filters[0].filterType() : null, filters.clone());
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public FilterType getFilterType() {
+        return filterType;
+    }
+
+    public int size() {
+        return filters.length;
+    }
+
+    public ZuulFilter<T, T> get(int idx) {
+        return filters[idx];
+    }
+
+    public boolean isSync(int idx) {
+        return syncFilters[idx];
+    }
+
+    /**
+     * False if the filter at idx never overrides needsBodyBuffered(), in which case it need not be called per request.
+     */
+    public boolean mayNeedBodyBuffered(int idx) {
+        return bodyBufferingFilters[idx];
+    }
+
+    public List<ZuulFilter<T, T>> asList() {
+        return filterList;
+    }
+
+    @Override
+    public String toString() {
+        return "FilterChain{type=" + filterType + ", version=" + version + ", size=" + filters.length + "}";
+    }
+
+    private static boolean mayNeedBodyBuffered(ZuulFilter filter) {
+        // Only the base classes' implementations are known to always return false.
+        for (Class<?> c = filter.getClass();
+             c != null && c != BaseFilter.class && c != SyncZuulFilterAdapter.class; c = c.getSuperclass()) {
+            for (Method m : c.getDeclaredMethods()) {
+                if (m.getName().equals("needsBodyBuffered")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.filters;
+
+import com.google.common.collect.MapMaker;
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.Timer;
+import com.netflix.spectator.api.histogram.PercentileTimer;
+import com.netflix.zuul.ExecutionStatus;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pre-registered usage counters and latency timers for a single filter class, one of each per ExecutionStatus.
+ *
+ * Resolving the meters happens once when the filter is loaded, so that recording a filter execution on the hot
+ * path is just an array lookup by status ordinal instead of building metric names and tags per request.
+ */
+public final class FilterMetrics {
+    private static final String COUNTER_PREFIX = "zuul.filter-";
+    private static final String LATENCY_NAME = "zuul.filter.latency";
+
+    private static final ExecutionStatus[] STATUSES = ExecutionStatus.values();
+    private static final int FILTER_TYPES = FilterType.values().length;
+    /**
+     * Per registry, per filter class, by filter type. A ClassValue is attached to the class itself, so reloaded
+     * classes and their loaders aren't held, and looking up a class costs no key building.
+     */
+    private static final ConcurrentMap<Registry, ClassValue<AtomicReferenceArray<FilterMetrics>>> METRICS_BY_REGISTRY =
+            new MapMaker().weakKeys().makeMap();
+
+    private final Counter[] counters;
+    private final Timer[] timers;
+
+    private FilterMetrics(Registry registry, Class<?> filterClass, FilterType filterType) {
+        final String filterName = filterClass.getSimpleName();
+        final String type = String.valueOf(filterType);
+        counters = new Counter[STATUSES.length];
+        timers = new Timer[STATUSES.length];
+        for (ExecutionStatus status : STATUSES) {
+            counters[status.ordinal()] = registry.counter(COUNTER_PREFIX + filterName,
+                    "status", status.name(), "filtertype", type);
+            timers[status.ordinal()] = PercentileTimer.get(registry, registry.createId(LATENCY_NAME,
+                    "filter", filterName, "status", status.name(), "filtertype", type));
+        }
+    }
+
+    /**
+     * Returns the shared metrics in the registry for the class of the given filter, registering them on first use.
+     * Metrics are keyed by class rather than instance so that filters instantiated per request (eg.
+     * ProxyEndpoint) and reloaded filters report into the same meters.
+     */
+    public static FilterMetrics forFilter(Registry registry, ZuulFilter filter) {
+        ClassValue<AtomicReferenceArray<FilterMetrics>> byClass = METRICS_BY_REGISTRY.get(registry);
+        if (byClass == null) {
+            byClass = METRICS_BY_REGISTRY.computeIfAbsent(registry, r -> new MetricsByType());
+        }
+        final Class<?> filterClass = filter.getClass();
+        final FilterType filterType = filter.filterType();
+        final AtomicReferenceArray<FilterMetrics> byType = byClass.get(filterClass);
+        final int idx = filterType == null ? FILTER_TYPES : filterType.ordinal();
+        FilterMetrics metrics = byType.get(idx);
+        if (metrics == null) {
+            // Meters are deduplicated by the registry, so losing this race only costs an extra lookup of each.
+            byType.compareAndSet(idx, null, new FilterMetrics(registry, filterClass, filterType));
+            metrics = byType.get(idx);
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the metrics stored on the filter instance when it was loaded, falling back to the class keyed lookup
+     * for filters that were not loaded through FilterLoader.
+     */
+    public static FilterMetrics of(Registry registry, ZuulFilter filter) {
+        if (filter instanceof BaseFilter) {
+            final FilterMetrics metrics = ((BaseFilter) filter).getFilterMetrics();
+            if (metrics != null) {
+                return metrics;
+            }
+        }
+        return forFilter(registry, filter);
+    }
+
+    private static final class MetricsByType extends ClassValue<AtomicReferenceArray<FilterMetrics>> {
+        @Override
+        protected AtomicReferenceArray<FilterMetrics> computeValue(Class<?> type) {
+            // One more slot for filters without a type.
+            return new AtomicReferenceArray<>(FILTER_TYPES + 1);
+        }
+    }
+
+    public void increment(ExecutionStatus status) {
+        counters[status.ordinal()].increment();
+    }
+
+    public void record(ExecutionStatus status, long durationNanos) {
+        final int idx = status.ordinal();
+        counters[idx].increment();
+        timers[idx].record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+}
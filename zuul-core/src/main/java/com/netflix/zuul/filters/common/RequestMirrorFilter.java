@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.filters.common;
+
+import com.netflix.netty.common.time.ClockSource;
+import com.netflix.zuul.context.CommonContextKeys;
+import com.netflix.zuul.context.SessionContext;
+import com.netflix.zuul.filters.BaseFilterTest;
+import com.netflix.zuul.filters.http.HttpInboundSyncFilter;
+import com.netflix.zuul.message.http.HttpHeaderNames;
+import com.netflix.zuul.message.http.HttpRequestMessage;
+import com.netflix.zuul.mirror.RequestMirror;
+import com.netflix.zuul.netty.filter.ZuulEndPointRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Mirrors a sample of requests to the shadow origin of a RequestMirror, when "zuul.mirror.sample.rate" is above zero
+ * and "zuul.mirror.vip" is set. With the rate at zero, the default, it costs one property read per request.
+ *
+ * Sampled requests are never held for their body. Those without a body are always mirrored, and those with one only
+ * if it has already arrived in full by the time this filter runs, and is no larger than "zuul.mirror.max.body.bytes".
+ *
+ * Runs late in the inbound chain, so that requests that are rejected, or answered, by earlier filters aren't mirrored.
+ * Only requests routed to the ProxyEndpoint are mirrored, as those handled by other endpoints never reach an origin.
+ */
+public class RequestMirrorFilter extends HttpInboundSyncFilter
+{
+    private final RequestMirror mirror;
+
+    public RequestMirrorFilter() {
+        this(RequestMirror.getDefault());
+    }
+
+    public RequestMirrorFilter(RequestMirror mirror) {
+        this.mirror = mirror;
+    }
+
+    @Override
+    public int filterOrder() {
+        return 95;
+    }
+
+    @Override
+    public boolean shouldFilter(HttpRequestMessage request) {
+        final double rate = mirror.getSampleRate();
+        if (!(rate > 0)) {
+            return false;
+        }
+
+        // May be called more than once for a request, so it's only sampled the first time.
+        final SessionContext context = request.getContext();
+        Boolean sampled = (Boolean) context.get(CommonContextKeys.REQUEST_MIRROR_SAMPLED);
+        if (sampled == null) {
+            sampled = context.getStaticResponse() == null
+                    && ZuulEndPointRunner.PROXY_ENDPOINT_FILTER_NAME.equals(context.getEndpoint())
+                    && !mirror.getVip().isEmpty()
+                    && ThreadLocalRandom.current().nextDouble() < rate;
+            context.set(CommonContextKeys.REQUEST_MIRROR_SAMPLED, sampled);
+        }
+        return sampled;
+    }
+
+    @Override
+    public HttpRequestMessage apply(HttpRequestMessage request) {
+        mirror.send(request);
+        return request;
+    }
+
+    @RunWith(MockitoJUnitRunner.class)
+    public static class TestUnit extends BaseFilterTest {
+        private double rate;
+        private RequestMirrorFilter filter;
+
+        @Before
+        public void setup() {
+            super.setup();
+            rate = 1;
+            context.setEndpoint(ZuulEndPointRunner.PROXY_ENDPOINT_FILTER_NAME);
+            filter = new RequestMirrorFilter(new RequestMirror(ClockSource.SYSTEM, 10, 1000, 1024) {
+                @Override
+                public String getVip() {
+                    return "shadow";
+                }
+
+                @Override
+                public double getSampleRate() {
+                    return rate;
+                }
+            });
+        }
+
+        @Test
+        public void skipsAllAtZeroRate() {
+            rate = 0;
+            assertFalse(filter.shouldFilter(request));
+            assertNull(context.get(CommonContextKeys.REQUEST_MIRROR_SAMPLED));
+        }
+
+        @Test
+        public void samplesOncePerRequest() {
+            assertTrue(filter.shouldFilter(request));
+            rate = 0.000001;
+            assertTrue(filter.shouldFilter(request));
+        }
+
+        @Test
+        public void skipsRequestsNotProxiedToAnOrigin() {
+            context.setEndpoint("StaticResponseEndpoint");
+            assertFalse(filter.shouldFilter(request));
+        }
+
+        @Test
+        public void neverHoldsRequestsForTheirBody() {
+            assertFalse(filter.needsBodyBuffered(request));
+
+            when(request.hasBody()).thenReturn(true);
+            requestHeaders.set(HttpHeaderNames.CONTENT_LENGTH, "1024");
+            assertFalse(filter.needsBodyBuffered(request));
+        }
+    }
+}
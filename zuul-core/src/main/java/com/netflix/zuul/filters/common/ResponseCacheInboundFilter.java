@@ -0,0 +1,208 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.filters.common;
+
+import com.netflix.netty.common.time.ClockSource;
+import com.netflix.zuul.cache.ResponseCache;
+import com.netflix.zuul.context.CommonContextKeys;
+import com.netflix.zuul.context.SessionContext;
+import com.netflix.zuul.filters.BaseFilterTest;
+import com.netflix.zuul.filters.http.HttpInboundFilter;
+import com.netflix.zuul.message.Headers;
+import com.netflix.zuul.message.http.HttpHeaderNames;
+import com.netflix.zuul.message.http.HttpRequestMessage;
+import com.netflix.zuul.message.http.HttpResponseMessage;
+import com.netflix.zuul.message.http.HttpResponseMessageImpl;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+import rx.Observable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.when;
+
+/**
+ * Serves cacheable GET requests from a ResponseCache when "zuul.cache.enabled" is set, by setting the cached response
+ * as the request's static response. Use with ResponseCacheOutboundFilter, which stores the responses to misses.
+ *
+ * The first miss for a key goes on to the origin, and any others that arrive while it's in flight wait for its
+ * response to be stored and are then served from the cache, or go on to the origin themselves if it wasn't cacheable.
+ *
+ * Runs late in the inbound chain, so that requests that are rejected by earlier filters aren't served from the cache.
+ */
+public class ResponseCacheInboundFilter extends HttpInboundFilter
+{
+    private final ResponseCache cache;
+
+    public ResponseCacheInboundFilter() {
+        this(ResponseCache.getDefault());
+    }
+
+    public ResponseCacheInboundFilter(ResponseCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public int filterOrder() {
+        return 90;
+    }
+
+    @Override
+    public boolean shouldFilter(HttpRequestMessage request) {
+        return ResponseCache.ENABLED.get() && ResponseCache.isCacheable(request);
+    }
+
+    @Override
+    public Observable<HttpRequestMessage> applyAsync(HttpRequestMessage request) {
+        if (serveFromCache(request)) {
+            return Observable.just(request);
+        }
+
+        final ResponseCache.Fill fill = cache.beginFill(request);
+        if (fill != null) {
+            request.getContext().set(CommonContextKeys.RESPONSE_CACHE_FILL, fill);
+            return Observable.just(request);
+        }
+
+        return cache.awaitFill(request).map(stored -> {
+            if (stored) {
+                serveFromCache(request);
+            }
+            return request;
+        });
+    }
+
+    private boolean serveFromCache(HttpRequestMessage request) {
+        final ResponseCache.CachedResponse hit = cache.lookup(request);
+        if (hit == null) {
+            return false;
+        }
+
+        final SessionContext context = request.getContext();
+        final HttpResponseMessage response;
+        final String etag = hit.getETag();
+        if (etag != null && matches(etag, request.getHeaders().getFirst(HttpHeaderNames.IF_NONE_MATCH))) {
+            hit.release();
+            response = new HttpResponseMessageImpl(context, request, 304);
+            response.getHeaders().set(HttpHeaderNames.ETAG, etag);
+        }
+        else {
+            response = new HttpResponseMessageImpl(context, hit.getHeaders().clone(), request, hit.getStatus());
+            response.bufferBodyContents(new DefaultLastHttpContent(hit.getBody()));
+        }
+        response.getHeaders().set(HttpHeaderNames.AGE, Long.toString(hit.getAgeSeconds()));
+        context.setStaticResponse(response);
+        return true;
+    }
+
+    private static boolean matches(String etag, String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            final String trimmed = candidate.trim();
+            if (trimmed.equals("*") || trimmed.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @RunWith(MockitoJUnitRunner.class)
+    public static class TestUnit extends BaseFilterTest {
+        private ResponseCache cache;
+        private ResponseCacheInboundFilter filter;
+
+        @Before
+        public void setup() {
+            super.setup();
+            cache = new ResponseCache(ClockSource.SYSTEM, 1024 * 1024, 1024, TimeUnit.SECONDS.toMillis(5));
+            filter = new ResponseCacheInboundFilter(cache);
+            when(request.getMethod()).thenReturn("GET");
+            when(request.getOriginalHost()).thenReturn("api.netflix.com");
+            when(request.getPathAndQuery()).thenReturn("/catalog");
+        }
+
+        private void store(String etag) {
+            final ResponseCache.Fill fill = cache.beginFill(request);
+            final Headers headers = new Headers();
+            headers.set(HttpHeaderNames.CACHE_CONTROL, "max-age=60");
+            headers.set(HttpHeaderNames.ETAG, etag);
+            final ByteBuf content = Unpooled.copiedBuffer("catalog", StandardCharsets.UTF_8);
+            cache.store(fill, 200, headers, content, 60);
+            content.release();
+        }
+
+        @Test
+        public void marksMissesToBeFilled() {
+            filter.applyAsync(request).toBlocking().single();
+
+            assertNull(context.getStaticResponse());
+            assertNotNull(context.get(CommonContextKeys.RESPONSE_CACHE_FILL));
+        }
+
+        @Test
+        public void servesHits() {
+            store("\"v1\"");
+            filter.applyAsync(request).toBlocking().single();
+
+            final HttpResponseMessage response = context.getStaticResponse();
+            assertEquals(200, response.getStatus());
+            assertEquals("catalog", response.getBodyAsText());
+            assertEquals("7", response.getHeaders().getFirst(HttpHeaderNames.CONTENT_LENGTH));
+            response.disposeBufferedBody();
+        }
+
+        @Test
+        public void revalidatesWithETag() {
+            store("\"v1\"");
+            requestHeaders.set(HttpHeaderNames.IF_NONE_MATCH, "\"v0\", \"v1\"");
+            filter.applyAsync(request).toBlocking().single();
+
+            final HttpResponseMessage response = context.getStaticResponse();
+            assertEquals(304, response.getStatus());
+            assertEquals("\"v1\"", response.getHeaders().getFirst(HttpHeaderNames.ETAG));
+        }
+
+        @Test
+        public void waitsForFillInFlight() {
+            final ResponseCache.Fill fill = cache.beginFill(request);
+            final HttpRequestMessage[] result = new HttpRequestMessage[1];
+            filter.applyAsync(request).subscribe(r -> result[0] = r);
+            assertNull(result[0]);
+
+            final Headers headers = new Headers();
+            headers.set(HttpHeaderNames.CACHE_CONTROL, "max-age=60");
+            final ByteBuf content = Unpooled.copiedBuffer("catalog", StandardCharsets.UTF_8);
+            cache.store(fill, 200, headers, content, 60);
+            content.release();
+
+            assertNotNull(result[0]);
+            assertEquals("catalog", context.getStaticResponse().getBodyAsText());
+            context.getStaticResponse().disposeBufferedBody();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.filters.common;
+
+import com.netflix.netty.common.time.ClockSource;
+import com.netflix.zuul.cache.ResponseCache;
+import com.netflix.zuul.context.CommonContextKeys;
+import com.netflix.zuul.context.SessionContext;
+import com.netflix.zuul.filters.BaseFilterTest;
+import com.netflix.zuul.filters.http.HttpOutboundSyncFilter;
+import com.netflix.zuul.message.Headers;
+import com.netflix.zuul.message.ZuulMessage;
+import com.netflix.zuul.message.http.HttpHeaderNames;
+import com.netflix.zuul.message.http.HttpResponseMessage;
+import com.netflix.zuul.util.HttpUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Stores the responses to requests that ResponseCacheInboundFilter found missing from the cache, if they are cacheable
+ * and no bigger than the cache's max entry size.
+ *
+ * The body is copied as it streams through, without holding it back from the client, into a heap buffer that is only
+ * copied into the cache once the last chunk has arrived. So a response that never completes, eg. because the client
+ * went away, leaves nothing to release. Runs first in the outbound chain, so that what's cached is the origin's
+ * response rather than one already modified, eg. gzipped, for this particular client.
+ */
+public class ResponseCacheOutboundFilter extends HttpOutboundSyncFilter
+{
+    private final ResponseCache cache;
+
+    public ResponseCacheOutboundFilter() {
+        this(ResponseCache.getDefault());
+    }
+
+    public ResponseCacheOutboundFilter(ResponseCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public int filterOrder() {
+        return 0;
+    }
+
+    @Override
+    public boolean shouldFilter(HttpResponseMessage response) {
+        final SessionContext context = response.getContext();
+        if (context.get(CommonContextKeys.RESPONSE_CACHE_WRITER) != null) {
+            return true;
+        }
+        final ResponseCache.Fill fill = (ResponseCache.Fill) context.remove(CommonContextKeys.RESPONSE_CACHE_FILL);
+        if (fill == null) {
+            return false;
+        }
+
+        // Decided here rather than in apply(), as any body buffered so far is run through processContentChunk()
+        // before apply() is called.
+        final long maxAgeSeconds = ResponseCache.maxAgeSeconds(response.getStatus(), response.getHeaders());
+        final Integer bodySize = HttpUtils.getBodySizeIfKnown(response);
+        if (maxAgeSeconds < 0 || (bodySize != null && bodySize > cache.getMaxEntryBytes())) {
+            cache.abandon(fill);
+            return false;
+        }
+        context.set(CommonContextKeys.RESPONSE_CACHE_WRITER,
+                new BodyWriter(fill, response.getStatus(), response.getHeaders().clone(), maxAgeSeconds));
+        return true;
+    }
+
+    @Override
+    public HttpResponseMessage apply(HttpResponseMessage response) {
+        if (!response.hasBody()) {
+            final BodyWriter writer = (BodyWriter) response.getContext().remove(CommonContextKeys.RESPONSE_CACHE_WRITER);
+            if (writer != null) {
+                cache.store(writer.fill, writer.status, writer.headers, Unpooled.EMPTY_BUFFER, writer.maxAgeSeconds);
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public HttpContent processContentChunk(ZuulMessage response, HttpContent chunk) {
+        final SessionContext context = response.getContext();
+        final BodyWriter writer = (BodyWriter) context.get(CommonContextKeys.RESPONSE_CACHE_WRITER);
+        if (writer == null) {
+            return chunk;
+        }
+
+        final ByteBuf content = chunk.content();
+        if (writer.body.readableBytes() + content.readableBytes() > cache.getMaxEntryBytes()) {
+            context.remove(CommonContextKeys.RESPONSE_CACHE_WRITER);
+            cache.abandon(writer.fill);
+            return chunk;
+        }
+        writer.body.writeBytes(content, content.readerIndex(), content.readableBytes());
+
+        if (chunk instanceof LastHttpContent) {
+            context.remove(CommonContextKeys.RESPONSE_CACHE_WRITER);
+            cache.store(writer.fill, writer.status, writer.headers, writer.body, writer.maxAgeSeconds);
+        }
+        return chunk;
+    }
+
+    private static final class BodyWriter {
+        final ResponseCache.Fill fill;
+        final int status;
+        final Headers headers;
+        final long maxAgeSeconds;
+        final ByteBuf body = Unpooled.buffer();
+
+        BodyWriter(ResponseCache.Fill fill, int status, Headers headers, long maxAgeSeconds) {
+            this.fill = fill;
+            this.status = status;
+            this.headers = headers;
+            this.maxAgeSeconds = maxAgeSeconds;
+        }
+    }
+
+    @RunWith(MockitoJUnitRunner.class)
+    public static class TestUnit extends BaseFilterTest {
+        private ResponseCache cache;
+        private ResponseCacheOutboundFilter filter;
+
+        @Before
+        public void setup() {
+            super.setup();
+            cache = new ResponseCache(ClockSource.SYSTEM, 1024 * 1024, 16, TimeUnit.SECONDS.toMillis(5));
+            filter = new ResponseCacheOutboundFilter(cache);
+            when(request.getMethod()).thenReturn("GET");
+            when(request.getOriginalHost()).thenReturn("api.netflix.com");
+            when(request.getPathAndQuery()).thenReturn("/catalog");
+            when(response.getStatus()).thenReturn(200);
+            when(response.hasBody()).thenReturn(true);
+            responseHeaders.set(HttpHeaderNames.CACHE_CONTROL, "max-age=60");
+
+            context.set(CommonContextKeys.RESPONSE_CACHE_FILL, cache.beginFill(request));
+        }
+
+        private void stream(String... chunks) {
+            assertTrue(filter.shouldFilter(response));
+            filter.apply(response);
+            for (int i = 0; i < chunks.length; i++) {
+                final ByteBuf content = Unpooled.copiedBuffer(chunks[i], StandardCharsets.UTF_8);
+                final HttpContent chunk = i == chunks.length - 1 ?
+                        new DefaultLastHttpContent(content) : new DefaultHttpContent(content);
+                if (filter.shouldFilter(response)) {
+                    filter.processContentChunk(response, chunk);
+                }
+                chunk.release();
+            }
+        }
+
+        @Test
+        public void storesCompleteResponse() {
+            stream("cat", "alog");
+
+            final ResponseCache.CachedResponse hit = cache.lookup(request);
+            assertNotNull(hit);
+            assertEquals("catalog", hit.getBody().toString(StandardCharsets.UTF_8));
+            hit.release();
+            assertNull(context.get(CommonContextKeys.RESPONSE_CACHE_WRITER));
+        }
+
+        @Test
+        public void skipsUncacheableResponse() {
+            responseHeaders.set(HttpHeaderNames.CACHE_CONTROL, "private, max-age=60");
+            assertFalse(filter.shouldFilter(response));
+            assertNull(cache.lookup(request));
+            assertNotNull("the fill was abandoned", cache.beginFill(request));
+        }
+
+        @Test
+        public void skipsOversizedResponse() {
+            stream("catalog", "catalog", "catalog");
+
+            assertNull(cache.lookup(request));
+            assertNotNull("the fill was abandoned", cache.beginFill(request));
+        }
+    }
+}
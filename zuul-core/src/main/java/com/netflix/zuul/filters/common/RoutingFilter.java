@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.filters.common;
+
+import com.netflix.config.DynamicStringProperty;
+import com.netflix.zuul.context.SessionContext;
+import com.netflix.zuul.filters.BaseFilterTest;
+import com.netflix.zuul.filters.http.HttpInboundSyncFilter;
+import com.netflix.zuul.message.http.HttpRequestMessage;
+import com.netflix.zuul.netty.filter.ZuulEndPointRunner;
+import com.netflix.zuul.routing.Route;
+import com.netflix.zuul.routing.RouteTable;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.when;
+
+/**
+ * Sets the endpoint and origin VIP of each request from the route table in "zuul.routes" (see Route.parse() for its
+ * form). The table is recompiled whenever the property changes, and swapped in whole, so a request sees either the old
+ * routes or the new ones. If the new routes don't parse, the old ones are kept.
+ *
+ * Requests that match no route are left for later filters to route. Override getRouteTable() to load the routes from
+ * somewhere else.
+ */
+public class RoutingFilter extends HttpInboundSyncFilter
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RoutingFilter.class);
+
+    private static final DynamicStringProperty ROUTES = new DynamicStringProperty("zuul.routes", "");
+    private static volatile RouteTable configuredRoutes = compile(ROUTES.get(), RouteTable.EMPTY);
+
+    static {
+        ROUTES.addCallback(() -> configuredRoutes = compile(ROUTES.get(), configuredRoutes));
+    }
+
+    static RouteTable compile(String routes, RouteTable current) {
+        try {
+            final RouteTable table = RouteTable.compile(Route.parse(routes));
+            LOG.info("Loaded {} routes", table.getRoutes().size());
+            return table;
+        }
+        catch (IllegalArgumentException e) {
+            LOG.error("Invalid routes in zuul.routes, keeping the previous ones", e);
+            return current;
+        }
+    }
+
+    protected RouteTable getRouteTable() {
+        return configuredRoutes;
+    }
+
+    @Override
+    public int filterOrder() {
+        return 0;
+    }
+
+    @Override
+    public boolean shouldFilter(HttpRequestMessage request) {
+        return !getRouteTable().isEmpty();
+    }
+
+    @Override
+    public HttpRequestMessage apply(HttpRequestMessage request) {
+        final Route route = getRouteTable().match(request);
+        if (route != null) {
+            final SessionContext context = request.getContext();
+            context.setEndpoint(route.getEndpoint());
+            if (route.getVip() != null) {
+                context.setRouteVIP(route.getVip());
+            }
+        }
+        return request;
+    }
+
+    @RunWith(MockitoJUnitRunner.class)
+    public static class TestUnit extends BaseFilterTest {
+
+        private RoutingFilter filter(String routes) {
+            final RouteTable table = compile(routes, RouteTable.EMPTY);
+            return new RoutingFilter() {
+                @Override
+                protected RouteTable getRouteTable() {
+                    return table;
+                }
+            };
+        }
+
+        @Test
+        public void setsEndpointAndVip() {
+            when(request.getPath()).thenReturn("/api/movies");
+            filter("healthcheck path=/healthcheck endpoint=Healthcheck; api path=/api/** vip=api").apply(request);
+
+            assertEquals(ZuulEndPointRunner.PROXY_ENDPOINT_FILTER_NAME, context.getEndpoint());
+            assertEquals("api", context.getRouteVIP());
+        }
+
+        @Test
+        public void keepsPreviousRoutesIfInvalid() {
+            final RouteTable current = RouteTable.compile(Route.parse("api path=/api/** vip=api"));
+            assertEquals(current, compile("api path=api vip=api", current));
+        }
+
+        @Test
+        public void leavesUnmatchedRequests() {
+            when(request.getPath()).thenReturn("/other");
+            filter("api path=/api/** vip=api").apply(request);
+
+            assertNull(context.getEndpoint());
+            assertNull(context.getRouteVIP());
+        }
+    }
+}
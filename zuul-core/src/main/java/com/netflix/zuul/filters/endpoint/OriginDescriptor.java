@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.filters.endpoint;
+
+import com.google.common.collect.MapMaker;
+import com.netflix.client.config.IClientConfig;
+import com.netflix.client.config.IClientConfigKey;
+import com.netflix.spectator.api.Counter;
+import com.netflix.zuul.netty.SpectatorUtils;
+import com.netflix.zuul.origins.NettyOrigin;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.concurrent.ConcurrentMap;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * The parts of proxying to an origin that are the same for every request to it, worked out once per origin and shared
+ * by all of its ProxyEndpoints, rather than looked up again by each of them.
+ *
+ * Descriptors are held weakly by their origin, so go away along with it. Whether the origin is secure is only read
+ * when its descriptor is created, as changing it also needs the origin's connection pool to be rebuilt.
+ */
+final class OriginDescriptor {
+
+    private static final ConcurrentMap<NettyOrigin, OriginDescriptor> DESCRIPTORS = new MapMaker().weakKeys().makeMap();
+
+    private final boolean secure;
+    private final Counter populatedSslRetryBody;
+
+    private OriginDescriptor(NettyOrigin origin) {
+        final IClientConfig config = origin.getClientConfig();
+        this.secure = config != null && config.get(IClientConfigKey.Keys.IsSecure, false);
+        this.populatedSslRetryBody = SpectatorUtils.newCounter("zuul.populated.ssl.retry.body", origin.getVip());
+    }
+
+    static OriginDescriptor forOrigin(NettyOrigin origin) {
+        final OriginDescriptor descriptor = DESCRIPTORS.get(origin);
+        return descriptor != null ? descriptor : DESCRIPTORS.computeIfAbsent(origin, OriginDescriptor::new);
+    }
+
+    boolean isSecure() {
+        return secure;
+    }
+
+    Counter getPopulatedSslRetryBody() {
+        return populatedSslRetryBody;
+    }
+
+    @RunWith(MockitoJUnitRunner.class)
+    public static class UnitTest {
+        @Mock
+        private NettyOrigin origin;
+        @Mock
+        private NettyOrigin other;
+        @Mock
+        private IClientConfig config;
+
+        @Test
+        public void sharedPerOrigin() {
+            when(origin.getVip()).thenReturn("api");
+            when(origin.getClientConfig()).thenReturn(config);
+            when(config.get(IClientConfigKey.Keys.IsSecure, false)).thenReturn(true);
+            when(other.getVip()).thenReturn("other");
+
+            final OriginDescriptor descriptor = forOrigin(origin);
+            assertTrue(descriptor.isSecure());
+            assertSame(descriptor, forOrigin(origin));
+            assertNotSame(descriptor, forOrigin(other));
+        }
+    }
+}
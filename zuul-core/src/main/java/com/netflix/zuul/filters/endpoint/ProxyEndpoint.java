@@ -19,10 +19,11 @@ package com.netflix.zuul.filters.endpoint;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 import com.netflix.client.ClientException;
+import com.netflix.client.config.DefaultClientConfigImpl;
 import com.netflix.client.config.IClientConfig;
 import com.netflix.client.config.IClientConfigKey;
 import com.netflix.config.CachedDynamicIntProperty;
-import com.netflix.config.DynamicBooleanProperty;
+import com.netflix.config.CachedDynamicBooleanProperty;
 import com.netflix.config.DynamicIntegerSetProperty;
 import com.netflix.loadbalancer.Server;
 import com.netflix.loadbalancer.reactive.ExecutionContext;
@@ -35,19 +36,20 @@ import com.netflix.zuul.exception.OutboundErrorType;
 import com.netflix.zuul.exception.OutboundException;
 import com.netflix.zuul.exception.ZuulException;
 import com.netflix.zuul.filters.SyncZuulFilterAdapter;
-import com.netflix.zuul.message.Header;
 import com.netflix.zuul.message.HeaderName;
 import com.netflix.zuul.message.Headers;
 import com.netflix.zuul.message.ZuulMessage;
 import com.netflix.zuul.message.http.HttpHeaderNames;
 import com.netflix.zuul.message.http.HttpQueryParams;
 import com.netflix.zuul.message.http.HttpRequestMessage;
+import com.netflix.zuul.message.http.HttpRequestMessageImpl;
 import com.netflix.zuul.message.http.HttpResponseMessage;
 import com.netflix.zuul.message.http.HttpResponseMessageImpl;
 import com.netflix.zuul.netty.ChannelUtils;
 import com.netflix.zuul.netty.NettyRequestAttemptFactory;
 import com.netflix.zuul.netty.SpectatorUtils;
 import com.netflix.zuul.netty.connectionpool.BasicRequestStat;
+import com.netflix.zuul.netty.connectionpool.OriginConnectException;
 import com.netflix.zuul.netty.connectionpool.PooledConnection;
 import com.netflix.zuul.netty.connectionpool.RequestStat;
 import com.netflix.zuul.netty.filter.FilterRunner;
@@ -56,6 +58,7 @@ import com.netflix.zuul.netty.server.OriginResponseReceiver;
 import com.netflix.zuul.niws.RequestAttempt;
 import com.netflix.zuul.niws.RequestAttempts;
 import com.netflix.zuul.origins.NettyOrigin;
+import com.netflix.zuul.origins.OriginConcurrencyExceededException;
 import com.netflix.zuul.origins.Origin;
 import com.netflix.zuul.origins.OriginManager;
 import com.netflix.zuul.passport.CurrentPassport;
@@ -67,44 +70,78 @@ import com.netflix.zuul.util.HttpUtils;
 import com.netflix.zuul.util.ProxyUtils;
 import com.netflix.zuul.util.VipUtils;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
+import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.DefaultLastHttpContent;
 import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.ImmediateEventExecutor;
 import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static com.netflix.client.config.CommonClientConfigKey.ReadTimeout;
+import static com.netflix.netty.common.HttpLifecycleChannelHandler.CompleteEvent;
+import static com.netflix.netty.common.HttpLifecycleChannelHandler.CompleteReason;
 import static com.netflix.zuul.netty.server.ClientRequestReceiver.ATTR_ZUUL_RESP;
 import static com.netflix.zuul.passport.PassportState.ORIGIN_CONN_ACQUIRE_END;
 import static com.netflix.zuul.passport.PassportState.ORIGIN_CONN_ACQUIRE_FAILED;
+import static com.netflix.zuul.passport.PassportState.ORIGIN_HEDGE_START;
 import static com.netflix.zuul.passport.PassportState.ORIGIN_RETRY_START;
 import static com.netflix.zuul.stats.status.ZuulStatusCategory.FAILURE_ORIGIN;
 import static com.netflix.zuul.stats.status.ZuulStatusCategory.FAILURE_ORIGIN_THROTTLED;
 import static com.netflix.zuul.stats.status.ZuulStatusCategory.SUCCESS;
 import static com.netflix.zuul.stats.status.ZuulStatusCategory.SUCCESS_LOCAL_NO_ROUTE;
 import static com.netflix.zuul.stats.status.ZuulStatusCategory.SUCCESS_NOT_FOUND;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Not thread safe! New instance of this class is created per HTTP/1.1 request proxied to the origin but NOT for each
  * attempt/retry. All the retry attempts for a given HTTP/1.1 request proxied share the same EdgeProxyEndpoint instance
+ * What's the same for every request to an origin is kept in its shared OriginDescriptor instead.
  * Created by saroskar on 5/31/17.
  */
 // TODO: 2018/7/10 by zmyer
@@ -119,6 +156,8 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
     private final HttpRequestMessage zuulRequest;
     private final SessionContext context;
     private final NettyOrigin origin;
+    private final OriginDescriptor originDescriptor;
+    private final boolean idempotent;
     private final RequestAttempts requestAttempts;
     private final CurrentPassport passport;
     private final NettyRequestAttemptFactory requestAttemptFactory;
@@ -137,10 +176,14 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
     private RequestStat requestStat;
     private final byte[] sslRetryBodyCache;
 
+    /* Hedged attempt related state */
+    private ScheduledFuture<?> hedgeTimer;
+    private HedgedAttempt hedge;
+
     public static final Set<String> IDEMPOTENT_HTTP_METHODS = Sets.newHashSet("GET", "HEAD", "OPTIONS");
     private static final DynamicIntegerSetProperty RETRIABLE_STATUSES_FOR_IDEMPOTENT_METHODS =
             new DynamicIntegerSetProperty("zuul.retry.allowed.statuses.idempotent", "500");
-    private static final DynamicBooleanProperty ENABLE_CACHING_SSL_BODIES = new DynamicBooleanProperty(
+    private static final CachedDynamicBooleanProperty ENABLE_CACHING_SSL_BODIES = new CachedDynamicBooleanProperty(
             "zuul.cache.ssl.bodies", true);
 
     private static final CachedDynamicIntProperty MAX_OUTBOUND_READ_TIMEOUT = new CachedDynamicIntProperty(
@@ -155,12 +198,16 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
     private static final Counter NO_RETRY_INCOMPLETE_BODY = SpectatorUtils.newCounter("zuul.no.retry",
             "incomplete_body");
     private static final Counter NO_RETRY_RESP_STARTED = SpectatorUtils.newCounter("zuul.no.retry", "resp_started");
-    private final Counter populatedSslRetryBody;
+    private static final Counter NO_RETRY_BUDGET_EXHAUSTED = SpectatorUtils.newCounter("zuul.no.retry",
+            "budget_exhausted");
+    private static final Counter HEDGE_SENT = SpectatorUtils.newCounter("zuul.hedge", "sent");
+    private static final Counter HEDGE_WON = SpectatorUtils.newCounter("zuul.hedge", "won");
+    private static final NettyRequestAttemptFactory DEFAULT_REQUEST_ATTEMPT_FACTORY = new NettyRequestAttemptFactory();
 
 
     public ProxyEndpoint(final HttpRequestMessage inMesg, final ChannelHandlerContext ctx,
             final FilterRunner<HttpResponseMessage, ?> filters, MethodBinding<?> methodBinding) {
-        this(inMesg, ctx, filters, methodBinding, new NettyRequestAttemptFactory());
+        this(inMesg, ctx, filters, methodBinding, DEFAULT_REQUEST_ATTEMPT_FACTORY);
     }
 
     public ProxyEndpoint(final HttpRequestMessage inMesg, final ChannelHandlerContext ctx,
@@ -171,13 +218,13 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
         zuulRequest = transformRequest(inMesg);
         context = zuulRequest.getContext();
         origin = getOrigin(zuulRequest);
+        originDescriptor = origin == null ? null : OriginDescriptor.forOrigin(origin);
+        idempotent = IDEMPOTENT_HTTP_METHODS.contains(zuulRequest.getMethod().toUpperCase());
         requestAttempts = RequestAttempts.getFromSessionContext(context);
         passport = CurrentPassport.fromSessionContext(context);
         chosenServer = new AtomicReference<>();
 
         this.sslRetryBodyCache = preCacheBodyForRetryingSslRequests();
-        this.populatedSslRetryBody = SpectatorUtils.newCounter("zuul.populated.ssl.retry.body",
-                origin == null ? "null" : origin.getVip());
 
         this.methodBinding = methodBinding;
         this.requestAttemptFactory = requestAttemptFactory;
@@ -228,6 +275,7 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
     }
 
     public void finish(boolean error) {
+        cancelHedge();
         final Channel origCh = unlinkFromOrigin();
 
         while (concurrentReqCount > 0) {
@@ -295,7 +343,11 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 
     public void invokeNext(final HttpResponseMessage zuulResponse) {
         try {
-            methodBinding.bind(() -> filterResponse(zuulResponse));
+            if (methodBinding == MethodBinding.NO_OP_BINDING) {
+                filterResponse(zuulResponse);
+            } else {
+                methodBinding.bind(() -> filterResponse(zuulResponse));
+            }
         } catch (Exception ex) {
             unlinkFromOrigin();
             LOG.error("Error in invokeNext resp", ex);
@@ -313,7 +365,12 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 
     public void invokeNext(final HttpContent chunk) {
         try {
-            methodBinding.bind(() -> filterResponseChunk(chunk));
+            // Called for every chunk of the response, so don't allocate a binding when there's nothing to bind.
+            if (methodBinding == MethodBinding.NO_OP_BINDING) {
+                filterResponseChunk(chunk);
+            } else {
+                methodBinding.bind(() -> filterResponseChunk(chunk));
+            }
         } catch (Exception ex) {
             unlinkFromOrigin();
             LOG.error("Error in invokeNext content", ex);
@@ -357,6 +414,10 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
         try {
             attemptNum += 1;
             requestStat = createRequestStat();
+            // A retry has no server or attempt until connectToOrigin() picks one, so that if preRequestChecks()
+            // rejects it, the rejection isn't reported against the previous attempt and its server.
+            chosenServer.set(null);
+            currentRequestAttempt = null;
             origin.preRequestChecks(zuulRequest);
             concurrentReqCount++;
             promise = origin.connectToOrigin(zuulRequest, channelCtx.channel().eventLoop(), attemptNum, passport,
@@ -499,21 +560,21 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 
     private byte[] preCacheBodyForRetryingSslRequests() {
         // Netty SSL handler clears body ByteBufs, so we need to cache the body if we want to retry POSTs
-        if (ENABLE_CACHING_SSL_BODIES.get() && origin != null &&
+        if (ENABLE_CACHING_SSL_BODIES.get() && originDescriptor != null &&
                 // only cache requests if already buffered
-                origin.getClientConfig().get(IClientConfigKey.Keys.IsSecure, false) && zuulRequest.hasCompleteBody()) {
+                originDescriptor.isSecure() && zuulRequest.hasCompleteBody()) {
             return zuulRequest.getBody();
         }
         return null;
     }
 
-    private void repopulateRetryBody() {
+    private void repopulateRetryBody(int attemptNum) {
         // if SSL origin request body is cached and has been cleared by Netty SslHandler, set it from cache
         // note: it's not null but is empty because the content chunks exist but the actual readable bytes are 0
         if (sslRetryBodyCache != null && attemptNum > 1 && zuulRequest.getBody() != null &&
                 zuulRequest.getBody().length == 0) {
             zuulRequest.setBody(sslRetryBodyCache);
-            populatedSslRetryBody.increment();
+            originDescriptor.getPopulatedSslRetryBody().increment();
         }
     }
 
@@ -532,7 +593,7 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
                 originResponseReceiver);
 
         // check if body needs to be repopulated for retry
-        repopulateRetryBody();
+        repopulateRetryBody(attemptNum);
 
         ch.write(zuulRequest);
         writeBufferedBodyContent(zuulRequest, ch);
@@ -543,6 +604,111 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 
         originConn = conn;
         channelCtx.read();
+
+        scheduleHedge();
+    }
+
+    /**
+     * If the origin hedges this request, starts the timer for sending a second copy of it to another server, in case
+     * this first attempt is slow. Only idempotent requests with a fully buffered body are hedged, as the same request
+     * has to be written twice.
+     */
+    private void scheduleHedge() {
+        if (attemptNum != 1 || hedgeTimer != null || proxiedRequestWithoutBuffering || !zuulRequest.hasCompleteBody()
+                || !idempotent) {
+            return;
+        }
+        final long delayMs = origin.getHedgeDelayMs(zuulRequest);
+        if (delayMs >= 0) {
+            hedgeTimer = channelCtx.executor().schedule(this::onHedgeTimer, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void onHedgeTimer() {
+        hedgeTimer = null;
+        try {
+            methodBinding.bind(this::sendHedge);
+        } catch (Exception ex) {
+            LOG.warn("Error sending hedged request to origin " + origin.getName(), ex);
+            cancelHedge();
+        }
+    }
+
+    private void sendHedge() {
+        // Only hedge while the first attempt is still waiting on its response.
+        if (originConn == null || hedge != null || startedSendingResponseToClient || context.isCancelled()) {
+            return;
+        }
+        if (!origin.tryAcquireRetryPermit()) {
+            return;
+        }
+        try {
+            origin.preRequestChecks(zuulRequest);
+        } catch (Exception ex) {
+            // At the origin's concurrency limit, so leave it to the first attempt.
+            origin.releaseRetryPermit();
+            return;
+        }
+        concurrentReqCount++;
+        HEDGE_SENT.increment();
+        passport.add(ORIGIN_HEDGE_START);
+
+        hedge = new HedgedAttempt(attemptNum + 1);
+        hedge.connect();
+    }
+
+    /**
+     * Cancels any pending or in flight hedged attempt, eg. because the first attempt has responded.
+     */
+    private void cancelHedge() {
+        if (hedgeTimer != null) {
+            hedgeTimer.cancel(false);
+            hedgeTimer = null;
+        }
+        final HedgedAttempt h = hedge;
+        if (h != null) {
+            hedge = null;
+            if (concurrentReqCount > 0) {
+                origin.recordProxyRequestEnd();
+                concurrentReqCount--;
+            }
+            h.cancel();
+        }
+    }
+
+    /**
+     * The hedged attempt has responded first, so cancel the first attempt and carry on with the hedge as the current
+     * attempt.
+     */
+    private void promoteHedge(final HedgedAttempt winner) {
+        hedge = null;
+        HEDGE_WON.increment();
+
+        final PooledConnection loser = originConn;
+        if (requestStat != null) {
+            requestStat.finishIfNotAlready();
+            if (currentRequestAttempt != null) {
+                currentRequestAttempt.complete(-1, requestStat.duration(), null);
+            }
+        }
+        unlinkFromOrigin();
+        if (loser != null) {
+            loser.flagShouldClose();
+            loser.release();
+        }
+
+        attemptNum = winner.attemptNum;
+        chosenServer.set(winner.server.get());
+        requestStat = winner.requestStat;
+        RequestStat.putInSessionContext(requestStat, context);
+        currentRequestAttempt = winner.requestAttempt;
+        requestAttempts.add(currentRequestAttempt);
+        logOriginRequestInfo();
+
+        context.set("_origin_channel", winner.conn.getChannel());
+        context.set(POOLED_ORIGIN_CONNECTION_KEY, winner.conn);
+        originConn = winner.conn;
+        originResponseReceiver = winner.receiver;
     }
 
     protected OriginResponseReceiver getOriginResponseReceiver() {
@@ -554,8 +720,10 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
     }
 
     private static void writeBufferedBodyContent(final HttpRequestMessage zuulRequest, final Channel channel) {
+        // Write duplicates, so that writing them out doesn't move the reader indexes of the buffered chunks, which a
+        // hedged attempt or a retry may still have to write again.
         zuulRequest.getBodyContents().forEach((chunk) -> {
-            channel.write(chunk.retain());
+            channel.write(chunk.retainedDuplicate());
         });
     }
 
@@ -571,6 +739,8 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
     }
 
     public void errorFromOrigin(final Throwable ex) {
+        // Let the usual retry handling deal with this, rather than also waiting on a hedge.
+        cancelHedge();
         try {
             // Flag that there was an origin server related error for the loadbalancer to choose
             // whether to circuit-trip this server.
@@ -626,7 +796,7 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
                 origin.onRequestExceptionWithServer(zuulRequest, chosenServer.get(), attemptNum, niwsEx);
             }
 
-            if ((isBelowRetryLimit()) && (isRetryable(err))) {
+            if ((isBelowRetryLimit()) && (isRetryable(err)) && (isWithinRetryBudget())) {
                 //retry request with different origin
                 passport.add(ORIGIN_RETRY_START);
                 proxyRequestToOrigin();
@@ -697,13 +867,23 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
     protected boolean isRetryable(final ErrorType err) {
         if ((err == OutboundErrorType.RESET_CONNECTION) ||
                 (err == OutboundErrorType.CONNECT_ERROR) ||
-                (err == OutboundErrorType.READ_TIMEOUT && IDEMPOTENT_HTTP_METHODS.contains(
-                        zuulRequest.getMethod().toUpperCase()))) {
+                (err == OutboundErrorType.READ_TIMEOUT && idempotent)) {
             return isRequestReplayable();
         }
         return false;
     }
 
+    /**
+     * Checked last before retrying, as it uses up one of the origin's retry budget tokens.
+     */
+    protected boolean isWithinRetryBudget() {
+        if (origin.tryAcquireRetryPermit()) {
+            return true;
+        }
+        NO_RETRY_BUDGET_EXHAUSTED.increment();
+        return false;
+    }
+
     /**
      * Request is replayable on a different origin IFF
      *   A) we have not started to send response back to the client  AND
@@ -722,8 +902,13 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
     }
 
     public void responseFromOrigin(final HttpResponse originResponse) {
+        cancelHedge();
         try {
-            methodBinding.bind(() -> processResponseFromOrigin(originResponse));
+            if (methodBinding == MethodBinding.NO_OP_BINDING) {
+                processResponseFromOrigin(originResponse);
+            } else {
+                methodBinding.bind(() -> processResponseFromOrigin(originResponse));
+            }
         } catch (Exception ex) {
             unlinkFromOrigin();
             LOG.error("Error in responseFromOrigin", ex);
@@ -815,7 +1000,9 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
     }
 
     private HttpResponseMessage transformResponse(HttpResponseMessage resp) {
-        RESPONSE_HEADERS_TO_REMOVE.stream().forEach(s -> resp.getHeaders().remove(s));
+        for (HeaderName name : RESPONSE_HEADERS_TO_REMOVE) {
+            resp.getHeaders().remove(name);
+        }
         return resp;
     }
 
@@ -863,11 +1050,16 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
                     new ClientException(ClientException.ErrorType.SERVER_THROTTLED));
         }
 
-        if ((isBelowRetryLimit()) && (isRetryable5xxResponse(zuulRequest, originResponse))) {
+        if ((isBelowRetryLimit()) && (isRetryable5xxResponse(zuulRequest, originResponse)) && (isWithinRetryBudget())) {
             LOG.debug(
                     "Retrying: status={}, attemptNum={}, maxRetries={}, startedSendingResponseToClient={}, hasCompleteBody={}, method={}",
                     respStatus, attemptNum, origin.getMaxRetriesForRequest(context),
                     startedSendingResponseToClient, zuulRequest.hasCompleteBody(), zuulRequest.getMethod());
+            // A 503 has already been reported above, and the final response is reported once it is sent to the client,
+            // but otherwise this attempt's outcome would never reach the origin.
+            if (statusCategory != FAILURE_ORIGIN_THROTTLED) {
+                origin.onRequestExceptionWithServer(zuulRequest, chosenServer, attemptNum, obe);
+            }
             //detach from current origin.
             unlinkFromOrigin();
             //retry request with different origin
@@ -913,11 +1105,8 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
         requestMsg = massageRequestURI(requestMsg);
 
         final Headers headers = requestMsg.getHeaders();
-        for (Header entry : headers.entries()) {
-            String headerName = entry.getName().getNormalised();
-            if (REQUEST_HEADERS_TO_REMOVE.contains(headerName)) {
-                headers.remove(entry.getKey());
-            }
+        for (HeaderName name : REQUEST_HEADERS_TO_REMOVE) {
+            headers.remove(name);
         }
 
         addCustomRequestHeaders(headers);
@@ -1091,5 +1280,340 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
         // override for metrics or custom processing
     }
 
-}
+    /**
+     * A second copy of the first attempt, sent to another server when the first is slow to respond. Whichever
+     * responds first is kept, and the other is cancelled.
+     */
+    private final class HedgedAttempt implements GenericFutureListener<Future<PooledConnection>> {
+        private final int attemptNum;
+        private final AtomicReference<Server> server = new AtomicReference<>();
+        private final RequestStat requestStat;
+        private RequestAttempt requestAttempt;
+        private PooledConnection conn;
+        private HedgeResponseReceiver receiver;
+
+        HedgedAttempt(int attemptNum) {
+            this.attemptNum = attemptNum;
+            this.requestStat = createRequestStat();
+            // createRequestStat() stores the new stat on the context, but the first attempt is still the current one.
+            RequestStat.putInSessionContext(ProxyEndpoint.this.requestStat, context);
+        }
 
+        void connect() {
+            final Promise<PooledConnection> promise = origin.connectToOrigin(zuulRequest,
+                    channelCtx.channel().eventLoop(), attemptNum, passport, server);
+            requestAttempt = origin.newRequestAttempt(server.get(), context, attemptNum);
+            if (promise.isDone()) {
+                operationComplete(promise);
+            } else {
+                promise.addListener(this);
+            }
+        }
+
+        @Override
+        public void operationComplete(final Future<PooledConnection> connectResult) {
+            if (!connectResult.isSuccess()) {
+                origin.releaseRetryPermit();
+                if (hedge == this) {
+                    cancelHedge();
+                    failed(connectResult.cause());
+                }
+                return;
+            }
+
+            final PooledConnection c = connectResult.getNow();
+            if (hedge != this || context.isCancelled() || c.getServer().equals(chosenServer.get())) {
+                // Cancelled while connecting, or no better than the first attempt, so nothing has been written yet
+                // and the connection can go straight back to the pool, and the permit back to the retry budget.
+                c.release();
+                origin.releaseRetryPermit();
+                if (hedge == this) {
+                    cancelHedge();
+                }
+                return;
+            }
+
+            conn = c;
+            requestStat.server(server.get());
+            conn.startReadTimeoutHandler(currentRequestAttempt.getReadTimeout());
+            requestAttempt.setReadTimeout(currentRequestAttempt.getReadTimeout());
+
+            final Channel ch = conn.getChannel();
+            passport.setOnChannel(ch);
+            receiver = new HedgeResponseReceiver(this);
+            ch.pipeline().addBefore("connectionPoolHandler", OriginResponseReceiver.CHANNEL_HANDLER_NAME, receiver);
+
+            repopulateRetryBody(attemptNum);
+            ch.write(zuulRequest);
+            writeBufferedBodyContent(zuulRequest, ch);
+            ch.flush();
+            ch.read();
+        }
+
+        void cancel() {
+            if (receiver != null) {
+                receiver.unlinkFromClientRequest();
+            }
+            if (conn != null) {
+                // A request is outstanding on this connection, so it can't be reused.
+                conn.flagShouldClose();
+                conn.release();
+            }
+            requestStat.finishIfNotAlready();
+        }
+
+        /**
+         * Reports the dropped hedge to the origin as a failed attempt, as the first attempt's errors are, so that its
+         * server's outlier detection sees it.
+         */
+        void failed(Throwable cause) {
+            final Server s = server.get();
+            if (s == null || requestAttempt == null) {
+                return;
+            }
+            requestAttempt.complete(-1, requestStat.duration(), cause);
+            requestAttempts.add(requestAttempt);
+            origin.onRequestExceptionWithServer(zuulRequest, s, attemptNum, cause);
+        }
+    }
+
+    /**
+     * Promotes its hedged attempt when the response headers arrive ahead of the first attempt's, and until then keeps
+     * the hedge's errors from being treated as errors of the request.
+     */
+    private final class HedgeResponseReceiver extends OriginResponseReceiver {
+        private final HedgedAttempt attempt;
+
+        HedgeResponseReceiver(HedgedAttempt attempt) {
+            super(ProxyEndpoint.this);
+            this.attempt = attempt;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof HttpResponse && hedge == attempt) {
+                promoteHedge(attempt);
+            }
+            super.channelRead(ctx, msg);
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof CompleteEvent) {
+                final CompleteReason reason = ((CompleteEvent) evt).getReason();
+                abandonIfPending(reason == CompleteReason.SESSION_COMPLETE ? null
+                        : new ZuulException("CompleteEvent", reason.name(), true));
+            } else if (evt instanceof IdleStateEvent) {
+                abandonIfPending(new OutboundException(OutboundErrorType.READ_TIMEOUT, requestAttempts));
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            abandonIfPending(cause);
+            super.exceptionCaught(ctx, cause);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            abandonIfPending(new OriginConnectException("Origin server inactive", OutboundErrorType.RESET_CONNECTION));
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        protected void fireWriteError(String requestPart, Throwable cause, ChannelHandlerContext ctx)
+                throws Exception {
+            abandonIfPending(cause);
+            super.fireWriteError(requestPart, cause, ctx);
+        }
+
+        private void abandonIfPending(Throwable cause) {
+            // The first attempt is still the current one, so just drop the hedge, and report why it failed, if it did.
+            if (hedge == attempt) {
+                cancelHedge();
+                if (cause != null) {
+                    attempt.failed(cause);
+                }
+            }
+        }
+    }
+
+    @RunWith(MockitoJUnitRunner.class)
+    public static class UnitTest {
+        @Mock
+        private OriginManager<NettyOrigin> originManager;
+        @Mock
+        private NettyOrigin origin;
+        @Mock
+        private ChannelHandlerContext channelCtx;
+        @Mock
+        private Channel clientChannel;
+        @Mock
+        private EventLoop eventLoop;
+        @Mock
+        private PooledConnection firstConn;
+        @Mock
+        private PooledConnection hedgeConn;
+
+        private final Server first = new Server("first", 7001);
+        private final Server second = new Server("second", 7001);
+        private ByteBuf content;
+        private Promise<PooledConnection> hedgeConnect;
+        private ProxyEndpoint endpoint;
+
+        @Before
+        public void setup() {
+            final SessionContext context = new SessionContext();
+            context.setRouteVIP("api");
+            context.set(CommonContextKeys.ORIGIN_MANAGER, originManager);
+            context.set(CommonContextKeys.REQUEST_ATTEMPTS, new RequestAttempts());
+            context.set(CommonContextKeys.PASSPORT_KEY, CurrentPassport.create());
+
+            when(originManager.getOrigin(anyString(), anyString(), anyString(), any(SessionContext.class)))
+                    .thenReturn(origin);
+            when(origin.getName()).thenReturn("api");
+            when(origin.getVip()).thenReturn("api");
+            when(origin.getClientConfig()).thenReturn(new DefaultClientConfigImpl());
+            when(origin.tryAcquireRetryPermit()).thenReturn(true);
+            when(origin.newRequestAttempt(any(Server.class), any(SessionContext.class), anyInt()))
+                    .thenReturn(mock(RequestAttempt.class));
+            hedgeConnect = ImmediateEventExecutor.INSTANCE.newPromise();
+            when(origin.connectToOrigin(any(HttpRequestMessage.class), any(EventLoop.class), anyInt(),
+                    any(CurrentPassport.class), any(AtomicReference.class))).thenAnswer(invocation -> {
+                        ((AtomicReference<Server>) invocation.getArguments()[4]).set(second);
+                        return hedgeConnect;
+                    });
+            when(channelCtx.channel()).thenReturn(clientChannel);
+            when(clientChannel.eventLoop()).thenReturn(eventLoop);
+
+            final HttpRequestMessage request = new HttpRequestMessageImpl(context, "HTTP/1.1", "GET", "/api",
+                    new HttpQueryParams(), new Headers(), "127.0.0.1", "http", 7001, "localhost");
+            content = Unpooled.copiedBuffer("body", StandardCharsets.UTF_8);
+            request.bufferBodyContents(new DefaultLastHttpContent(content));
+
+            endpoint = new ProxyEndpoint(request, channelCtx, null, MethodBinding.NO_OP_BINDING);
+            // As if the first attempt has been written, and is waiting on its response.
+            endpoint.attemptNum = 1;
+            endpoint.chosenServer.set(first);
+            endpoint.originConn = firstConn;
+            endpoint.currentRequestAttempt = mock(RequestAttempt.class);
+            endpoint.requestStat = new BasicRequestStat("api");
+        }
+
+        @After
+        public void teardown() {
+            content.release(content.refCnt());
+        }
+
+        @Test
+        public void hedgeNotSentWithoutPermit() {
+            when(origin.tryAcquireRetryPermit()).thenReturn(false);
+            endpoint.sendHedge();
+
+            assertNull(endpoint.hedge);
+            verify(origin, never()).preRequestChecks(any(HttpRequestMessage.class));
+            verify(origin, never()).releaseRetryPermit();
+        }
+
+        @Test
+        public void returnsPermitWhenAtConcurrencyLimit() {
+            doThrow(new RuntimeException("at limit")).when(origin).preRequestChecks(any(HttpRequestMessage.class));
+            endpoint.sendHedge();
+
+            assertNull(endpoint.hedge);
+            assertEquals(0, endpoint.concurrentReqCount);
+            verify(origin).releaseRetryPermit();
+        }
+
+        @Test
+        public void retryRejectedAtConcurrencyLimitIsNotReportedAgainstPreviousServer() {
+            // As if the first attempt has failed, and is being retried.
+            final RequestAttempt firstAttempt = endpoint.currentRequestAttempt;
+            endpoint.originConn = null;
+            doThrow(new OriginConcurrencyExceededException("api")).when(origin)
+                    .preRequestChecks(any(HttpRequestMessage.class));
+
+            endpoint.proxyRequestToOrigin();
+
+            assertEquals(2, endpoint.attemptNum);
+            assertNull(endpoint.chosenServer.get());
+            assertEquals(0, endpoint.concurrentReqCount);
+            verify(origin, never()).onRequestExceptionWithServer(any(HttpRequestMessage.class), any(Server.class),
+                    anyInt(), any(Throwable.class));
+            verify(firstAttempt, never()).complete(anyInt(), anyLong(), any(Throwable.class));
+        }
+
+        @Test
+        public void returnsPermitWhenHedgeGetsSameServer() {
+            when(hedgeConn.getServer()).thenReturn(first);
+            endpoint.sendHedge();
+            hedgeConnect.setSuccess(hedgeConn);
+
+            assertNull(endpoint.hedge);
+            verify(hedgeConn).release();
+            verify(hedgeConn, never()).getChannel();
+            verify(origin).releaseRetryPermit();
+            verify(origin).recordProxyRequestEnd();
+            assertEquals(0, endpoint.concurrentReqCount);
+        }
+
+        @Test
+        public void returnsPermitWhenHedgeFailsToConnect() {
+            endpoint.sendHedge();
+            final RuntimeException cause = new RuntimeException("connect failed");
+            hedgeConnect.setFailure(cause);
+
+            assertNull(endpoint.hedge);
+            verify(origin).releaseRetryPermit();
+            verify(origin).recordProxyRequestEnd();
+            verify(origin).onRequestExceptionWithServer(any(HttpRequestMessage.class), eq(second), eq(2), eq(cause));
+            assertEquals(1, endpoint.requestAttempts.size());
+        }
+
+        @Test
+        public void reportsHedgeFailingBeforeItsResponse() {
+            final EmbeddedChannel hedgeChannel = new EmbeddedChannel();
+            hedgeChannel.pipeline().addLast("connectionPoolHandler", new ChannelInboundHandlerAdapter());
+            when(hedgeConn.getServer()).thenReturn(second);
+            when(hedgeConn.getChannel()).thenReturn(hedgeChannel);
+
+            endpoint.sendHedge();
+            hedgeConnect.setSuccess(hedgeConn);
+            hedgeChannel.close();
+
+            assertNull(endpoint.hedge);
+            assertEquals(firstConn, endpoint.originConn);
+            verify(origin).onRequestExceptionWithServer(any(HttpRequestMessage.class), eq(second), eq(2),
+                    any(OriginConnectException.class));
+            verify(hedgeConn).flagShouldClose();
+            hedgeChannel.finishAndReleaseAll();
+        }
+
+        @Test
+        public void hedgeWritesDuplicatesOfBufferedBody() {
+            final EmbeddedChannel hedgeChannel = new EmbeddedChannel();
+            hedgeChannel.pipeline().addLast("connectionPoolHandler", new ChannelInboundHandlerAdapter());
+            when(hedgeConn.getServer()).thenReturn(second);
+            when(hedgeConn.getChannel()).thenReturn(hedgeChannel);
+
+            endpoint.sendHedge();
+            hedgeConnect.setSuccess(hedgeConn);
+
+            assertNotNull(endpoint.hedge);
+            verify(origin, never()).releaseRetryPermit();
+            assertTrue(hedgeChannel.readOutbound() instanceof HttpRequest);
+            final HttpContent written = hedgeChannel.readOutbound();
+            assertEquals(2, content.refCnt());
+
+            // Writing out the hedge's copy leaves the buffered body intact, for a retry.
+            written.content().skipBytes(written.content().readableBytes());
+            written.release();
+            assertEquals(1, content.refCnt());
+            assertEquals(4, content.readableBytes());
+
+            endpoint.finish(false);
+            hedgeChannel.finishAndReleaseAll();
+        }
+    }
+}
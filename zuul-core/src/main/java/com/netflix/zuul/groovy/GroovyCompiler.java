@@ -16,10 +16,23 @@
 
 package com.netflix.zuul.groovy;
 
+import com.google.common.hash.Hashing;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicStringProperty;
 import com.netflix.zuul.DynamicCodeCompiler;
+import com.google.common.hash.Hasher;
 import groovy.lang.GroovyClassLoader;
 import groovy.lang.GroovyObject;
+import groovy.lang.GroovySystem;
+import org.apache.commons.io.FileUtils;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.tools.GroovyClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.slf4j.Logger;
@@ -27,12 +40,33 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.spy;
 
 /**
  * Groovy code compiler
+ *
+ * Compiled classes are cached by a hash of their source, so that re-processing an unchanged filter does not
+ * recompile it. If zuul.groovy.compiler.cache.dir is set, the generated bytecode is also persisted under that
+ * directory, and unchanged filters are loaded from there on restart instead of being compiled again. The hash also
+ * covers the Groovy version and a fingerprint of the classpath, so a deploy that changes either recompiles.
+ *
+ * A source's previous entry is deleted from the directory once it has been recompiled, and the directory is kept to
+ * zuul.groovy.compiler.cache.max.entries by deleting the least recently used entries that no filter is using, eg.
+ * those left by an earlier deploy.
+ *
  * User: mcohen
  * Date: 5/30/13
  * Time: 11:38 AM
@@ -41,6 +75,35 @@ import static org.mockito.Mockito.spy;
 public class GroovyCompiler implements DynamicCodeCompiler {
 
     private static final Logger LOG = LoggerFactory.getLogger(GroovyCompiler.class);
+    private static final DynamicStringProperty CACHE_DIR = new DynamicStringProperty("zuul.groovy.compiler.cache.dir", "");
+    private static final DynamicIntProperty CACHE_MAX_ENTRIES =
+            new DynamicIntProperty("zuul.groovy.compiler.cache.max.entries", 1000);
+    private static final String MAIN_CLASS_FILE = "main-class";
+    private static final String CLASS_FILE_SUFFIX = ".class";
+
+    /** Groovy version and classpath, which the bytecode compiled from a source also depends on. */
+    private static final String BUILD_FINGERPRINT = buildFingerprint();
+
+    /** Last compiled class per source, keyed so that at most one version per filter is held. */
+    private final ConcurrentHashMap<String, CompiledSource> compiledByName = new ConcurrentHashMap<>();
+    private final File cacheDirectory;
+    private final int maxCacheEntries;
+
+    public GroovyCompiler() {
+        this(CACHE_DIR.get().isEmpty() ? null : new File(CACHE_DIR.get()));
+    }
+
+    /**
+     * @param cacheDirectory directory to persist compiled bytecode in, or null to only cache in memory
+     */
+    public GroovyCompiler(File cacheDirectory) {
+        this(cacheDirectory, CACHE_MAX_ENTRIES.get());
+    }
+
+    GroovyCompiler(File cacheDirectory, int maxCacheEntries) {
+        this.cacheDirectory = cacheDirectory;
+        this.maxCacheEntries = maxCacheEntries;
+    }
 
     /**
      * Compiles Groovy code and returns the Class of the compiles code.
@@ -50,9 +113,33 @@ public class GroovyCompiler implements DynamicCodeCompiler {
      * @return
      */
     public Class compile(String sCode, String sName) {
-        GroovyClassLoader loader = getGroovyClassLoader();
-        LOG.warn("Compiling filter: " + sName);
-        Class groovyClass = loader.parseClass(sCode, sName);
+        return compile(sCode, sName, sName);
+    }
+
+    /**
+     * @param cacheKey identifies the source, eg. its file's path, so that only its latest compiled class is held
+     */
+    private Class compile(String sCode, String sName, String cacheKey) {
+        final String hash = hash(sCode, sName);
+        final CompiledSource cached = compiledByName.get(cacheKey);
+        if (cached != null && cached.hash.equals(hash)) {
+            LOG.debug("Using already compiled filter: " + sName);
+            return cached.clazz;
+        }
+
+        Class groovyClass = loadFromCacheDirectory(hash);
+        if (groovyClass != null) {
+            LOG.info("Loaded compiled filter from cache: " + sName);
+        }
+        else {
+            LOG.warn("Compiling filter: " + sName);
+            groovyClass = (cacheDirectory != null) ? compileToCacheDirectory(sCode, sName, hash)
+                    : getGroovyClassLoader().parseClass(sCode, sName);
+        }
+        compiledByName.put(cacheKey, new CompiledSource(hash, groovyClass));
+        if (cached != null) {
+            deleteFromCacheDirectoryIfUnused(cached.hash);
+        }
         return groovyClass;
     }
 
@@ -71,9 +158,191 @@ public class GroovyCompiler implements DynamicCodeCompiler {
      * @throws java.io.IOException
      */
     public Class compile(File file) throws IOException {
-        GroovyClassLoader loader = getGroovyClassLoader();
-        Class groovyClass = loader.parseClass(file);
-        return groovyClass;
+        // Keyed by path, as files in different directories may have the same name.
+        return compile(FileUtils.readFileToString(file, StandardCharsets.UTF_8), file.getName(),
+                file.getCanonicalPath());
+    }
+
+    private static String hash(String sCode, String sName) {
+        return Hashing.sha256().newHasher()
+                .putString(BUILD_FINGERPRINT, StandardCharsets.UTF_8)
+                .putString(sName, StandardCharsets.UTF_8)
+                .putString(sCode, StandardCharsets.UTF_8)
+                .hash()
+                .toString();
+    }
+
+    /**
+     * @return a hash of the Groovy version, and of the path, size and modification time of each classpath entry,
+     * including the one zuul-core was loaded from
+     */
+    static String buildFingerprint() {
+        final Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putString(GroovySystem.getVersion(), StandardCharsets.UTF_8);
+        for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+            putFile(hasher, new File(entry));
+        }
+        final CodeSource codeSource = GroovyCompiler.class.getProtectionDomain().getCodeSource();
+        final URL location = codeSource != null ? codeSource.getLocation() : null;
+        if (location != null && "file".equals(location.getProtocol())) {
+            putFile(hasher, FileUtils.toFile(location));
+        }
+        return hasher.hash().toString();
+    }
+
+    private static void putFile(Hasher hasher, File file) {
+        hasher.putString(file.getAbsolutePath(), StandardCharsets.UTF_8)
+                .putLong(file.length())
+                .putLong(file.lastModified());
+    }
+
+    private Class compileToCacheDirectory(String sCode, String sName, String hash) {
+        final GroovyClassLoader groovyLoader = getGroovyClassLoader();
+        final CompilationUnit unit = new CompilationUnit(CompilerConfiguration.DEFAULT, null, groovyLoader);
+        final SourceUnit source = unit.addSource(sName, sCode);
+        unit.compile(Phases.CLASS_GENERATION);
+
+        final String mainClassName = source.getAST().getClasses().get(0).getName();
+        final Map<String, byte[]> bytecode = new HashMap<>();
+        for (GroovyClass generated : (List<GroovyClass>) unit.getClasses()) {
+            bytecode.put(generated.getName(), generated.getBytes());
+        }
+
+        try {
+            writeToCacheDirectory(hash, mainClassName, bytecode);
+        }
+        catch (IOException e) {
+            LOG.warn("Error writing compiled filter to cache directory. name=" + sName, e);
+        }
+        return defineClasses(mainClassName, bytecode, groovyLoader);
+    }
+
+    private void writeToCacheDirectory(String hash, String mainClassName, Map<String, byte[]> bytecode)
+            throws IOException {
+        final File entryDir = new File(cacheDirectory, hash);
+        if (entryDir.isDirectory()) {
+            return;
+        }
+        // Write into a temp directory and rename it into place, so that readers never see a partial entry.
+        final File tmpDir = Files.createTempDirectory(cacheDirectory.toPath(), hash + ".tmp").toFile();
+        try {
+            for (Map.Entry<String, byte[]> entry : bytecode.entrySet()) {
+                Files.write(new File(tmpDir, entry.getKey() + CLASS_FILE_SUFFIX).toPath(), entry.getValue());
+            }
+            Files.write(new File(tmpDir, MAIN_CLASS_FILE).toPath(), mainClassName.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmpDir.toPath(), entryDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            if (tmpDir.exists()) {
+                FileUtils.deleteQuietly(tmpDir);
+            }
+        }
+        pruneCacheDirectory();
+    }
+
+    private boolean isInUse(String hash) {
+        for (CompiledSource compiled : compiledByName.values()) {
+            if (compiled.hash.equals(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void deleteFromCacheDirectoryIfUnused(String hash) {
+        if (cacheDirectory != null && !isInUse(hash)) {
+            FileUtils.deleteQuietly(new File(cacheDirectory, hash));
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries that no filter is using, while there are more than the max. Entries
+     * are marked as used by their modification time, which is updated when they are loaded.
+     */
+    private void pruneCacheDirectory() {
+        // Entries are named by their hash, and the temp directories they are written in have a suffix.
+        final File[] entries = cacheDirectory.listFiles(file -> file.isDirectory() && file.getName().indexOf('.') < 0);
+        if (entries == null || entries.length <= maxCacheEntries) {
+            return;
+        }
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        int excess = entries.length - maxCacheEntries;
+        for (int i = 0; i < entries.length && excess > 0; i++) {
+            if (!isInUse(entries[i].getName())) {
+                FileUtils.deleteQuietly(entries[i]);
+                excess--;
+            }
+        }
+    }
+
+    private Class loadFromCacheDirectory(String hash) {
+        if (cacheDirectory == null) {
+            return null;
+        }
+        final File entryDir = new File(cacheDirectory, hash);
+        final File mainClassFile = new File(entryDir, MAIN_CLASS_FILE);
+        if (!mainClassFile.isFile()) {
+            return null;
+        }
+        try {
+            final String mainClassName = FileUtils.readFileToString(mainClassFile, StandardCharsets.UTF_8);
+            final Map<String, byte[]> bytecode = new HashMap<>();
+            final File[] classFiles = entryDir.listFiles((dir, name) -> name.endsWith(CLASS_FILE_SUFFIX));
+            if (classFiles != null) {
+                for (File classFile : classFiles) {
+                    final String fileName = classFile.getName();
+                    bytecode.put(fileName.substring(0, fileName.length() - CLASS_FILE_SUFFIX.length()),
+                            Files.readAllBytes(classFile.toPath()));
+                }
+            }
+            final Class clazz = defineClasses(mainClassName, bytecode, getGroovyClassLoader());
+            entryDir.setLastModified(System.currentTimeMillis());
+            return clazz;
+        }
+        catch (Exception e) {
+            LOG.warn("Error loading compiled filter from cache directory, will recompile. entry=" + entryDir, e);
+            return null;
+        }
+    }
+
+    private static Class defineClasses(String mainClassName, Map<String, byte[]> bytecode, ClassLoader parent) {
+        try {
+            return new CompiledClassLoader(parent, bytecode).loadClass(mainClassName);
+        }
+        catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Compiled filter is missing its main class! class=" + mainClassName, e);
+        }
+    }
+
+    private static final class CompiledSource {
+        final String hash;
+        final Class clazz;
+
+        CompiledSource(String hash, Class clazz) {
+            this.hash = hash;
+            this.clazz = clazz;
+        }
+    }
+
+    /**
+     * Defines the classes generated for a single groovy source from their bytecode.
+     */
+    static final class CompiledClassLoader extends ClassLoader {
+        private final Map<String, byte[]> bytecode;
+
+        CompiledClassLoader(ClassLoader parent, Map<String, byte[]> bytecode) {
+            super(parent);
+            this.bytecode = bytecode;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            final byte[] bytes = bytecode.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
     }
 
     @RunWith(MockitoJUnitRunner.class)
@@ -100,6 +369,84 @@ public class GroovyCompiler implements DynamicCodeCompiler {
             }
 
         }
+
+        @Rule
+        public TemporaryFolder cacheDir = new TemporaryFolder();
+
+        @Test
+        public void testUnchangedSourceIsNotRecompiled() {
+            GroovyCompiler compiler = new GroovyCompiler();
+            String code = "class test2 { public String hello(){return \"hello\" } } ";
+
+            Class first = compiler.compile(code, "test2");
+            assertSame(first, compiler.compile(code, "test2"));
+            assertNotSame(first, compiler.compile(code + " ", "test2"));
+        }
+
+        @Test
+        public void testLoadFromCacheDirectory() throws Exception {
+            String code = "class test3 { public String hello(){ return [1, 2].collect { it * 2 }.toString() } } ";
+
+            Class compiled = new GroovyCompiler(cacheDir.getRoot()).compile(code, "test3");
+            Class loaded = new GroovyCompiler(cacheDir.getRoot()).compile(code, "test3");
+
+            assertNotSame(compiled, loaded);
+            assertEquals("test3", loaded.getName());
+            assertTrue(loaded.getClassLoader() instanceof CompiledClassLoader);
+            GroovyObject groovyObject = (GroovyObject) loaded.newInstance();
+            assertEquals("[2, 4]", groovyObject.invokeMethod("hello", new Object[]{}));
+        }
+
+        @Test
+        public void testSameFileNameInDifferentDirectories() throws Exception {
+            File a = new File(cacheDir.newFolder("a"), "Filter.groovy");
+            File b = new File(cacheDir.newFolder("b"), "Filter.groovy");
+            FileUtils.writeStringToFile(a, "class filterA { } ", StandardCharsets.UTF_8);
+            FileUtils.writeStringToFile(b, "class filterB { } ", StandardCharsets.UTF_8);
+
+            GroovyCompiler compiler = new GroovyCompiler();
+            Class first = compiler.compile(a);
+            assertEquals("filterB", compiler.compile(b).getName());
+            assertSame(first, compiler.compile(a));
+        }
+
+        private static int entries(File dir) {
+            return dir.listFiles(File::isDirectory).length;
+        }
+
+        @Test
+        public void testRecompiledSourceReplacesItsEntry() throws Exception {
+            File dir = cacheDir.newFolder("cache");
+            GroovyCompiler compiler = new GroovyCompiler(dir);
+
+            compiler.compile("class test5 { } ", "test5");
+            compiler.compile("class test5 { int version = 2 } ", "test5");
+            assertEquals(1, entries(dir));
+        }
+
+        @Test
+        public void testPrunesUnusedEntriesOverMax() throws Exception {
+            File dir = cacheDir.newFolder("cache");
+            GroovyCompiler previous = new GroovyCompiler(dir, 2);
+            previous.compile("class test6 { } ", "test6");
+            previous.compile("class test7 { } ", "test7");
+            File[] previousEntries = dir.listFiles(File::isDirectory);
+            previousEntries[0].setLastModified(1000);
+            previousEntries[1].setLastModified(2000);
+
+            // As after a restart, with the entries of a filter that has since been removed still on disk.
+            GroovyCompiler compiler = new GroovyCompiler(dir, 2);
+            compiler.compile("class test8 { } ", "test8");
+
+            assertEquals(2, entries(dir));
+            assertFalse(previousEntries[0].exists());
+            assertTrue(previousEntries[1].exists());
+        }
+
+        @Test
+        public void testFingerprintIsStable() {
+            assertEquals(buildFingerprint(), BUILD_FINGERPRINT);
+        }
     }
 }
 
@@ -20,6 +20,7 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
+import com.netflix.zuul.context.ChangeJournal;
 import com.netflix.zuul.message.http.HttpHeaderNames;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -51,6 +52,7 @@ public class Headers implements Cloneable
 {
     private final ListMultimap<HeaderName, String> delegate;
     private final boolean immutable;
+    private ChangeJournal changeJournal;
 
     public Headers()
     {
@@ -70,7 +72,30 @@ public class Headers implements Cloneable
     }
 
     private boolean delegatePut(HeaderName hn, String value) {
-        return delegate.put(hn, stripMaliciousHeaderChars(value));
+        final String stripped = stripMaliciousHeaderChars(value);
+        if (changeJournal != null) {
+            changeJournal.record(ChangeJournal.Source.HEADER, ChangeJournal.Operation.ADDED, hn, stripped);
+        }
+        return delegate.put(hn, stripped);
+    }
+
+    private List<String> delegateRemoveAll(HeaderName hn) {
+        final List<String> removed = delegate.removeAll(hn);
+        if (changeJournal != null && !removed.isEmpty()) {
+            changeJournal.record(ChangeJournal.Source.HEADER, ChangeJournal.Operation.REMOVED, hn, removed);
+        }
+        return removed;
+    }
+
+    /**
+     * Records all subsequent mutations of these headers into the given journal. Used for debugRouting.
+     */
+    public void setChangeJournal(ChangeJournal changeJournal) {
+        this.changeJournal = changeJournal;
+    }
+
+    public ChangeJournal getChangeJournal() {
+        return changeJournal;
     }
 
     private void delegatePutAll(Headers headers) {
@@ -150,7 +175,7 @@ public class Headers implements Cloneable
     }
     public void set(HeaderName hn, String value)
     {
-        delegate.removeAll(hn);
+        delegateRemoveAll(hn);
         if (value != null) {
             delegatePut(hn, value);
         }
@@ -193,11 +218,21 @@ public class Headers implements Cloneable
     }
     public List<String> remove(HeaderName hn)
     {
-        return delegate.removeAll(hn);
+        return delegateRemoveAll(hn);
     }
 
     public boolean removeIf(Predicate<? super Map.Entry<HeaderName, String>> filter) {
-        return delegate.entries().removeIf(filter);
+        if (changeJournal == null) {
+            return delegate.entries().removeIf(filter);
+        }
+        return delegate.entries().removeIf(entry -> {
+            final boolean remove = filter.test(entry);
+            if (remove) {
+                changeJournal.record(ChangeJournal.Source.HEADER, ChangeJournal.Operation.REMOVED,
+                        entry.getKey(), entry.getValue());
+            }
+            return remove;
+        });
     }
 
     public Collection<Header> entries()
@@ -320,6 +355,24 @@ public class Headers implements Cloneable
             assertEquals("5", values.get(0));
         }
 
+        @Test
+        public void testChangeJournal()
+        {
+            Headers headers = new Headers();
+            headers.add("Content-Length", "5");
+
+            ChangeJournal journal = new ChangeJournal();
+            headers.setChangeJournal(journal);
+            headers.set("Content-Length", "10");
+            headers.remove("X-Missing");
+            headers.remove("Content-Length");
+
+            assertEquals(3, journal.size());
+            assertEquals("header removed Content-Length", journal.get(0).toString());
+            assertEquals("header added Content-Length=10", journal.get(1).toString());
+            assertEquals("header removed Content-Length", journal.get(2).toString());
+        }
+
         @Test
         public void testCaseInsensitiveKeys_PutAll()
         {
@@ -72,6 +72,9 @@ public class HttpHeaderNames
     public static final HeaderName CACHE_CONTROL = HEADER_NAME_CACHE.get("Cache-Control");
     public static final HeaderName EDGE_CONTROL = HEADER_NAME_CACHE.get("Edge-Control");
     public static final HeaderName PRAGMA = HEADER_NAME_CACHE.get("Pragma");
+    public static final HeaderName AGE = HEADER_NAME_CACHE.get("Age");
+    public static final HeaderName IF_NONE_MATCH = HEADER_NAME_CACHE.get("If-None-Match");
+    public static final HeaderName AUTHORIZATION = HEADER_NAME_CACHE.get("Authorization");
 
     public static final HeaderName X_FORWARDED_HOST = HEADER_NAME_CACHE.get("X-Forwarded-Host");
     public static final HeaderName X_FORWARDED_FOR = HEADER_NAME_CACHE.get("X-Forwarded-For");
@@ -0,0 +1,697 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.mirror;
+
+import com.google.common.collect.ImmutableSet;
+import com.netflix.config.CachedDynamicDoubleProperty;
+import com.netflix.config.CachedDynamicIntProperty;
+import com.netflix.config.DynamicStringProperty;
+import com.netflix.loadbalancer.Server;
+import com.netflix.netty.common.HttpLifecycleChannelHandler.CompleteEvent;
+import com.netflix.netty.common.HttpLifecycleChannelHandler.CompleteReason;
+import com.netflix.netty.common.time.ClockSource;
+import com.netflix.netty.common.time.CoarseClock;
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.DefaultRegistry;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.Spectator;
+import com.netflix.spectator.api.Timer;
+import com.netflix.zuul.context.CommonContextKeys;
+import com.netflix.zuul.context.SessionContext;
+import com.netflix.zuul.message.Header;
+import com.netflix.zuul.message.HeaderName;
+import com.netflix.zuul.message.Headers;
+import com.netflix.zuul.message.http.HttpHeaderNames;
+import com.netflix.zuul.message.http.HttpRequestMessage;
+import com.netflix.zuul.netty.SpectatorUtils;
+import com.netflix.zuul.netty.connectionpool.PooledConnection;
+import com.netflix.zuul.netty.server.OriginResponseReceiver;
+import com.netflix.zuul.origins.NettyOrigin;
+import com.netflix.zuul.origins.OriginManager;
+import com.netflix.zuul.passport.CurrentPassport;
+import com.netflix.zuul.util.VipUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoop;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.ReadTimeoutException;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Sends copies of requests to a shadow origin, eg. to try out a new build of a service against real traffic, and
+ * discards its responses.
+ *
+ * The shadow origin is the VIP in "zuul.mirror.vip", and "zuul.mirror.sample.rate" is the fraction of requests that
+ * RequestMirrorFilter copies to it. Each copy is made up front, headers and all, with its own reference to the
+ * request's buffered body, so the body isn't copied and the primary request is free to go on changing. The copy is
+ * then sent through the shadow origin's own connection pool, on the request's event loop, without the primary
+ * request waiting on any part of it. The copy leaves out the client's Host and hop-by-hop headers, and is sent with
+ * the shadow server as its Host and the buffered body's Content-Length.
+ *
+ * Copies that would exceed "zuul.mirror.max.concurrent" in flight are dropped, as are those whose body hasn't been
+ * buffered or is larger than "zuul.mirror.max.body.bytes". The shadow origin has "zuul.mirror.timeout.ms" to respond.
+ */
+public class RequestMirror
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RequestMirror.class);
+
+    private static final DynamicStringProperty VIP = new DynamicStringProperty("zuul.mirror.vip", "");
+    private static final CachedDynamicDoubleProperty SAMPLE_RATE =
+            new CachedDynamicDoubleProperty("zuul.mirror.sample.rate", 0d);
+
+    private static final Set<HeaderName> HEADERS_NOT_COPIED = ImmutableSet.of(HttpHeaderNames.HOST,
+            HttpHeaderNames.CONNECTION, HttpHeaderNames.KEEP_ALIVE, HttpHeaderNames.TE,
+            HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderNames.UPGRADE, HttpHeaderNames.CONTENT_LENGTH,
+            new HeaderName("Proxy-Connection"), new HeaderName("Proxy-Authorization"), new HeaderName("Trailer"));
+
+    private static final String METRIC_NAME = "zuul.mirror";
+    private static final String[] STATUS_CLASSES = {"other", "1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    private final ClockSource clock;
+    private final IntSupplier maxConcurrent;
+    private final IntSupplier timeoutMs;
+    private final IntSupplier maxBodyBytes;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final Counter sentCounter;
+    private final Counter rejectedCounter;
+    private final Counter skippedBodyCounter;
+    private final Counter errorCounter;
+    private final Counter timeoutCounter;
+    private final Counter completedCounter;
+    private final Counter[] statusCounters;
+    private final Timer latencyTimer;
+
+    public RequestMirror(ClockSource clock, int maxConcurrent, int timeoutMs, int maxBodyBytes)
+    {
+        this(clock, () -> maxConcurrent, () -> timeoutMs, () -> maxBodyBytes);
+    }
+
+    private RequestMirror(ClockSource clock, IntSupplier maxConcurrent, IntSupplier timeoutMs, IntSupplier maxBodyBytes)
+    {
+        this.clock = clock;
+        this.maxConcurrent = maxConcurrent;
+        this.timeoutMs = timeoutMs;
+        this.maxBodyBytes = maxBodyBytes;
+
+        this.sentCounter = SpectatorUtils.newCounter(METRIC_NAME, "sent");
+        this.rejectedCounter = SpectatorUtils.newCounter(METRIC_NAME, "rejected");
+        this.skippedBodyCounter = SpectatorUtils.newCounter(METRIC_NAME, "skipped_body");
+        this.errorCounter = SpectatorUtils.newCounter(METRIC_NAME, "error");
+        this.timeoutCounter = SpectatorUtils.newCounter(METRIC_NAME, "timeout");
+        this.completedCounter = SpectatorUtils.newCounter(METRIC_NAME, "completed");
+        this.statusCounters = new Counter[STATUS_CLASSES.length];
+        for (int i = 0; i < STATUS_CLASSES.length; i++) {
+            statusCounters[i] = SpectatorUtils.newCounter(METRIC_NAME + ".status", STATUS_CLASSES[i]);
+        }
+        this.latencyTimer = SpectatorUtils.newTimer(METRIC_NAME + ".latency", "completed");
+    }
+
+    /**
+     * The mirror used by RequestMirrorFilter, limited by "zuul.mirror.max.concurrent", "zuul.mirror.timeout.ms" and
+     * "zuul.mirror.max.body.bytes".
+     */
+    public static RequestMirror getDefault()
+    {
+        return DefaultHolder.INSTANCE;
+    }
+
+    private static final class DefaultHolder
+    {
+        static final RequestMirror INSTANCE = new RequestMirror(CoarseClock.INSTANCE,
+                new CachedDynamicIntProperty("zuul.mirror.max.concurrent", 100)::get,
+                new CachedDynamicIntProperty("zuul.mirror.timeout.ms", 1000)::get,
+                new CachedDynamicIntProperty("zuul.mirror.max.body.bytes", 64 * 1024)::get);
+    }
+
+    /**
+     * @return the VIP of the shadow origin, or empty if mirroring is off
+     */
+    public String getVip()
+    {
+        return VIP.get();
+    }
+
+    /**
+     * @return the fraction of requests to mirror, between 0 and 1
+     */
+    public double getSampleRate()
+    {
+        return SAMPLE_RATE.get();
+    }
+
+    public int getMaxBodyBytes()
+    {
+        return maxBodyBytes.getAsInt();
+    }
+
+    int getInFlight()
+    {
+        return inFlight.get();
+    }
+
+    /**
+     * Sends a copy of the request, as it is now, to the shadow origin. Must be called on the request's event loop.
+     *
+     * @return false if the copy was dropped
+     */
+    public boolean send(HttpRequestMessage request)
+    {
+        final String vip = getVip();
+        if (vip == null || vip.isEmpty()) {
+            return false;
+        }
+        if (request.hasBody() && !request.hasCompleteBody()) {
+            skippedBodyCounter.increment();
+            return false;
+        }
+        long bodyBytes = 0;
+        for (HttpContent chunk : request.getBodyContents()) {
+            bodyBytes += chunk.content().readableBytes();
+        }
+        if (bodyBytes > getMaxBodyBytes()) {
+            skippedBodyCounter.increment();
+            return false;
+        }
+
+        final SessionContext context = request.getContext();
+        final ChannelHandlerContext clientCtx = context.get(CommonContextKeys.NETTY_SERVER_CHANNEL_HANDLER_CONTEXT_KEY);
+        final OriginManager<NettyOrigin> originManager =
+                (OriginManager<NettyOrigin>) context.get(CommonContextKeys.ORIGIN_MANAGER);
+        if (clientCtx == null || originManager == null) {
+            errorCounter.increment();
+            return false;
+        }
+
+        if (inFlight.incrementAndGet() > maxConcurrent.getAsInt()) {
+            inFlight.decrementAndGet();
+            rejectedCounter.increment();
+            return false;
+        }
+
+        final MirroredRequest mirrored;
+        try {
+            final String name = VipUtils.getVIPPrefix(vip);
+            final String uri = request.reconstructURI();
+            NettyOrigin origin = originManager.getOrigin(name, vip, uri, context);
+            if (origin == null) {
+                origin = originManager.createOrigin(name, vip, uri, false, context);
+            }
+            if (origin == null) {
+                throw new IllegalStateException("No origin found for mirror vip " + vip);
+            }
+            mirrored = new MirroredRequest(request, origin, clientCtx.channel().eventLoop(), bodyBytes);
+        }
+        catch (Exception e) {
+            LOG.debug("Error mirroring request to {}", vip, e);
+            inFlight.decrementAndGet();
+            errorCounter.increment();
+            return false;
+        }
+
+        sentCounter.increment();
+        mirrored.connect();
+        return true;
+    }
+
+    /**
+     * @return the normalised names of the headers that the Connection header lists, which are hop-by-hop too
+     */
+    private static Set<String> connectionOptions(Headers headers)
+    {
+        final List<String> values = headers.get(HttpHeaderNames.CONNECTION);
+        if (values.isEmpty()) {
+            return Collections.emptySet();
+        }
+        final Set<String> names = new HashSet<>();
+        for (String value : values) {
+            for (String name : value.split(",")) {
+                names.add(name.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        return names;
+    }
+
+    private enum Result
+    {
+        COMPLETED, ERROR, TIMEOUT
+    }
+
+    /**
+     * A copy of a request, taken when it's mirrored, and its exchange with the shadow origin. Until the copy is
+     * written, it holds its own references to the request's body chunks.
+     */
+    private final class MirroredRequest implements GenericFutureListener<Future<PooledConnection>>
+    {
+        private final NettyOrigin origin;
+        private final EventLoop eventLoop;
+        private final HttpRequestMessage request;
+        private final DefaultHttpRequest nettyRequest;
+        private final CurrentPassport passport = CurrentPassport.create();
+        private final AtomicReference<Server> server = new AtomicReference<>();
+        private final long startNanos;
+        private List<HttpContent> body;
+        private int status = -1;
+        private boolean done;
+
+        MirroredRequest(HttpRequestMessage request, NettyOrigin origin, EventLoop eventLoop, long bodyBytes)
+        {
+            this.request = request;
+            this.origin = origin;
+            this.eventLoop = eventLoop;
+            this.startNanos = clock.nanoTime();
+
+            nettyRequest = new DefaultHttpRequest(HttpVersion.HTTP_1_1,
+                    HttpMethod.valueOf(request.getMethod().toUpperCase()), request.getPathAndQuery(), false);
+            final Headers headers = request.getHeaders();
+            final Set<String> connectionOptions = connectionOptions(headers);
+            for (Header h : headers.entries()) {
+                if (!HEADERS_NOT_COPIED.contains(h.getName())
+                        && !connectionOptions.contains(h.getName().getNormalised())) {
+                    nettyRequest.headers().add(h.getKey(), h.getValue());
+                }
+            }
+            // The body, if any, has been buffered in full, so is sent with its length whatever its framing was.
+            if (request.hasBody()) {
+                nettyRequest.headers().set(HttpHeaderNames.CONTENT_LENGTH.getName(), Long.toString(bodyBytes));
+            }
+
+            body = new ArrayList<>();
+            for (HttpContent chunk : request.getBodyContents()) {
+                body.add(chunk.retainedDuplicate());
+            }
+        }
+
+        void connect()
+        {
+            final Promise<PooledConnection> promise;
+            try {
+                promise = origin.connectToOrigin(request, eventLoop, 1, passport, server);
+            }
+            catch (Exception e) {
+                LOG.debug("Error connecting to mirror origin {}", origin.getName(), e);
+                finish(Result.ERROR);
+                return;
+            }
+            if (promise.isDone()) {
+                operationComplete(promise);
+            }
+            else {
+                promise.addListener(this);
+            }
+        }
+
+        @Override
+        public void operationComplete(Future<PooledConnection> connectResult)
+        {
+            if (!connectResult.isSuccess()) {
+                finish(Result.ERROR);
+                return;
+            }
+
+            final PooledConnection conn = connectResult.getNow();
+            final Channel ch = conn.getChannel();
+            passport.setOnChannel(ch);
+            final Server chosen = server.get() != null ? server.get() : conn.getServer();
+            if (chosen != null) {
+                nettyRequest.headers().set(HttpHeaderNames.HOST.getName(), chosen.getHostPort());
+            }
+            conn.startReadTimeoutHandler(timeoutMs.getAsInt());
+            ch.pipeline().addBefore("connectionPoolHandler", OriginResponseReceiver.CHANNEL_HANDLER_NAME,
+                    new MirrorResponseReceiver(this));
+
+            final List<HttpContent> chunks = body;
+            body = null;
+            boolean last = false;
+            ch.write(nettyRequest);
+            for (HttpContent chunk : chunks) {
+                last |= chunk instanceof LastHttpContent;
+                ch.write(chunk);
+            }
+            if (!last) {
+                ch.write(LastHttpContent.EMPTY_LAST_CONTENT);
+            }
+            ch.flush().read();
+        }
+
+        void onStatus(int status)
+        {
+            this.status = status;
+        }
+
+        void finish(Result result)
+        {
+            if (done) {
+                return;
+            }
+            done = true;
+            inFlight.decrementAndGet();
+
+            if (body != null) {
+                for (HttpContent chunk : body) {
+                    ReferenceCountUtil.safeRelease(chunk);
+                }
+                body = null;
+            }
+
+            switch (result) {
+                case COMPLETED:
+                    completedCounter.increment();
+                    statusCounters[status >= 100 && status < 600 ? status / 100 : 0].increment();
+                    latencyTimer.record(clock.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                    break;
+                case TIMEOUT:
+                    timeoutCounter.increment();
+                    break;
+                default:
+                    errorCounter.increment();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Takes the place of the OriginResponseReceiver in the shadow origin's channel, reading and dropping its response.
+     * The connection is released, or closed, by the ConnectionPoolHandler after it, as for any other request.
+     */
+    private static final class MirrorResponseReceiver extends ChannelInboundHandlerAdapter
+    {
+        private final MirroredRequest mirrored;
+
+        MirrorResponseReceiver(MirroredRequest mirrored)
+        {
+            this.mirrored = mirrored;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+        {
+            try {
+                if (msg instanceof HttpResponse) {
+                    mirrored.onStatus(((HttpResponse) msg).status().code());
+                }
+                if (msg instanceof LastHttpContent) {
+                    mirrored.finish(Result.COMPLETED);
+                }
+                else {
+                    ctx.channel().read();
+                }
+            }
+            finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception
+        {
+            if (evt instanceof IdleStateEvent
+                    || (evt instanceof CompleteEvent && ((CompleteEvent) evt).getReason() != CompleteReason.SESSION_COMPLETE)) {
+                mirrored.finish(Result.ERROR);
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception
+        {
+            mirrored.finish(cause instanceof ReadTimeoutException ? Result.TIMEOUT : Result.ERROR);
+            super.exceptionCaught(ctx, cause);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception
+        {
+            mirrored.finish(Result.ERROR);
+            super.channelInactive(ctx);
+        }
+    }
+
+    @RunWith(MockitoJUnitRunner.class)
+    public static class UnitTest
+    {
+        @Mock
+        private HttpRequestMessage request;
+        @Mock
+        private OriginManager<NettyOrigin> originManager;
+        @Mock
+        private NettyOrigin origin;
+        @Mock
+        private ChannelHandlerContext clientCtx;
+        @Mock
+        private Channel clientChannel;
+        @Mock
+        private EventLoop eventLoop;
+
+        private final Registry registry = new DefaultRegistry();
+        private SessionContext context;
+        private Headers headers;
+        private RequestMirror mirror;
+        private List<Promise<PooledConnection>> connects;
+
+        @Before
+        public void setup()
+        {
+            Spectator.globalRegistry().add(registry);
+            context = new SessionContext();
+            context.set(CommonContextKeys.NETTY_SERVER_CHANNEL_HANDLER_CONTEXT_KEY, clientCtx);
+            context.set(CommonContextKeys.ORIGIN_MANAGER, originManager);
+            when(clientCtx.channel()).thenReturn(clientChannel);
+            when(clientChannel.eventLoop()).thenReturn(eventLoop);
+
+            when(request.getContext()).thenReturn(context);
+            when(request.getMethod()).thenReturn("post");
+            when(request.getPathAndQuery()).thenReturn("/api?a=1");
+            headers = new Headers();
+            when(request.getHeaders()).thenReturn(headers);
+            when(request.getBodyContents()).thenReturn(Collections.emptyList());
+
+            when(originManager.getOrigin(anyString(), anyString(), anyString(), any(SessionContext.class)))
+                    .thenReturn(null);
+            when(originManager.createOrigin(anyString(), anyString(), anyString(), anyBoolean(),
+                    any(SessionContext.class))).thenReturn(origin);
+            connects = new ArrayList<>();
+            when(origin.connectToOrigin(any(HttpRequestMessage.class), any(EventLoop.class), anyInt(),
+                    any(CurrentPassport.class), any(AtomicReference.class))).thenAnswer(invocation -> {
+                        final Promise<PooledConnection> promise = ImmediateEventExecutor.INSTANCE.newPromise();
+                        connects.add(promise);
+                        return promise;
+                    });
+
+            mirror = new RequestMirror(ClockSource.SYSTEM, 1, 1000, 16) {
+                @Override
+                public String getVip()
+                {
+                    return "shadow.example.com:7001";
+                }
+            };
+        }
+
+        @After
+        public void teardown()
+        {
+            Spectator.globalRegistry().remove(registry);
+        }
+
+        private long count(String id)
+        {
+            return registry.counter(METRIC_NAME, "id", id).count();
+        }
+
+        private EmbeddedChannel connect(int attempt)
+        {
+            final EmbeddedChannel ch = new EmbeddedChannel();
+            ch.pipeline().addLast("connectionPoolHandler", new ChannelInboundHandlerAdapter() {
+                @Override
+                public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+                {
+                    // As the ConnectionPoolHandler does, rather than passing it on to the end of the pipeline.
+                    ctx.close();
+                }
+            });
+            final PooledConnection conn = mock(PooledConnection.class);
+            when(conn.getChannel()).thenReturn(ch);
+            when(conn.getServer()).thenReturn(new Server("shadow-1", 7001));
+            connects.get(attempt).setSuccess(conn);
+            return ch;
+        }
+
+        @Test
+        public void limitsConcurrency()
+        {
+            assertTrue(mirror.send(request));
+            assertFalse(mirror.send(request));
+            assertEquals(1, mirror.getInFlight());
+
+            connects.get(0).setFailure(new RuntimeException("connect failed"));
+            assertEquals(0, mirror.getInFlight());
+            assertTrue(mirror.send(request));
+        }
+
+        @Test
+        public void retainsBodyUntilSent()
+        {
+            final ByteBuf content = Unpooled.copiedBuffer("body", StandardCharsets.UTF_8);
+            when(request.hasBody()).thenReturn(true);
+            when(request.hasCompleteBody()).thenReturn(true);
+            when(request.getBodyContents()).thenReturn(Collections.singletonList(new DefaultLastHttpContent(content)));
+
+            assertTrue(mirror.send(request));
+            assertEquals(2, content.refCnt());
+
+            connects.get(0).setFailure(new RuntimeException("connect failed"));
+            assertEquals(1, content.refCnt());
+            content.release();
+        }
+
+        @Test
+        public void copiesOnlyEndToEndHeaders()
+        {
+            headers.add("Host", "api.example.com");
+            headers.add("Connection", "keep-alive, X-Hop");
+            headers.add("Keep-Alive", "timeout=5");
+            headers.add("X-Hop", "1");
+            headers.add("Transfer-Encoding", "chunked");
+            headers.add("Accept", "*/*");
+            final ByteBuf content = Unpooled.copiedBuffer("body", StandardCharsets.UTF_8);
+            when(request.hasBody()).thenReturn(true);
+            when(request.hasCompleteBody()).thenReturn(true);
+            when(request.getBodyContents()).thenReturn(Collections.singletonList(new DefaultLastHttpContent(content)));
+
+            assertTrue(mirror.send(request));
+            final EmbeddedChannel ch = connect(0);
+            final HttpRequest sent = ch.readOutbound();
+            assertEquals("shadow-1:7001", sent.headers().get("Host"));
+            assertEquals("*/*", sent.headers().get("Accept"));
+            assertEquals("4", sent.headers().get("Content-Length"));
+            assertFalse(sent.headers().contains("Connection"));
+            assertFalse(sent.headers().contains("Keep-Alive"));
+            assertFalse(sent.headers().contains("X-Hop"));
+            assertFalse(sent.headers().contains("Transfer-Encoding"));
+
+            ch.finishAndReleaseAll();
+            assertEquals(1, content.refCnt());
+            content.release();
+        }
+
+        @Test
+        public void completesOnLastContent()
+        {
+            assertTrue(mirror.send(request));
+            final EmbeddedChannel ch = connect(0);
+            assertFalse(ch.writeInbound(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)));
+            assertEquals(1, mirror.getInFlight());
+
+            ch.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("ok", StandardCharsets.UTF_8)));
+            assertEquals(0, mirror.getInFlight());
+            assertEquals(1, count("completed"));
+            assertEquals(1, registry.counter(METRIC_NAME + ".status", "id", "2xx").count());
+
+            ch.finishAndReleaseAll();
+            assertEquals("closing after completion isn't an error", 0, count("error"));
+        }
+
+        @Test
+        public void timesOutOnReadTimeout()
+        {
+            assertTrue(mirror.send(request));
+            final EmbeddedChannel ch = connect(0);
+            ch.pipeline().fireExceptionCaught(ReadTimeoutException.INSTANCE);
+
+            assertEquals(0, mirror.getInFlight());
+            assertEquals(1, count("timeout"));
+            assertEquals(0, count("error"));
+            ch.finishAndReleaseAll();
+        }
+
+        @Test
+        public void errorsWhenConnectionGoesInactive()
+        {
+            assertTrue(mirror.send(request));
+            final EmbeddedChannel ch = connect(0);
+            ch.close();
+
+            assertEquals(0, mirror.getInFlight());
+            assertEquals(1, count("error"));
+            assertEquals(0, count("completed"));
+            ch.finishAndReleaseAll();
+        }
+
+        @Test
+        public void skipsIncompleteAndLargeBodies()
+        {
+            when(request.hasBody()).thenReturn(true);
+            assertFalse(mirror.send(request));
+
+            final ByteBuf content = Unpooled.copiedBuffer("a body over sixteen bytes", StandardCharsets.UTF_8);
+            when(request.hasCompleteBody()).thenReturn(true);
+            when(request.getBodyContents()).thenReturn(Collections.singletonList(new DefaultLastHttpContent(content)));
+            assertFalse(mirror.send(request));
+            assertEquals(1, content.refCnt());
+            assertTrue(connects.isEmpty());
+            content.release();
+        }
+    }
+}
@@ -55,4 +55,20 @@ public interface ClientChannelManager
     int getConnsInUse();
 
     ConnectionPoolConfig getConfig();
+
+    /**
+     * Reports whether a request to the server failed, for managers that track server health. Does nothing by default.
+     */
+    default void recordRequestOutcome(Server server, boolean failed)
+    {
+    }
+
+    /**
+     * Called when a pooled connection's idle timeout fires, to decide whether to close it or keep it for longer.
+     * Closes it by default.
+     */
+    default boolean shouldEvictIdle(PooledConnection conn)
+    {
+        return true;
+    }
 }
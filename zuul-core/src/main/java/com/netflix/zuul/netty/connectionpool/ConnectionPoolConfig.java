@@ -38,6 +38,14 @@ public interface ConnectionPoolConfig {
     /* number of milliseconds connection can stay idle in a connection pool before it is closed */
     int getIdleTimeout();
 
+    /* number of idle connections per server, on each event loop, that are kept however long they've been idle */
+    int getMinIdle();
+
+    /* connections that have been idle in the pool for longer than this are checked before they are reused, and
+       discarded if the origin has closed them. Only the epoll transport exposes the TCP state that this reads, so
+       with NIO or kqueue nothing is checked, and a closed connection is only found by the request written to it */
+    int getValidateAfterIdleMs();
+
     int getTcpReceiveBufferSize();
 
     int getTcpSendBufferSize();
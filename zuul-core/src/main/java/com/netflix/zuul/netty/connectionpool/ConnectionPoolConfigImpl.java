@@ -36,6 +36,8 @@ public class ConnectionPoolConfigImpl implements ConnectionPoolConfig {
 
     private final CachedDynamicIntProperty MAX_REQUESTS_PER_CONNECTION;
     private final CachedDynamicIntProperty PER_SERVER_WATERLINE;
+    private final CachedDynamicIntProperty MIN_IDLE;
+    private final CachedDynamicIntProperty VALIDATE_AFTER_IDLE_MS;
 
     private final CachedDynamicBooleanProperty SOCKET_KEEP_ALIVE;
     private final CachedDynamicBooleanProperty TCP_NO_DELAY;
@@ -52,6 +54,10 @@ public class ConnectionPoolConfigImpl implements ConnectionPoolConfig {
 
         // NOTE that the each eventloop has it's own connection pool per host, and this is applied per event-loop.
         this.PER_SERVER_WATERLINE = new CachedDynamicIntProperty(originName+".netty.client.perServerWaterline", 4);
+        // Also applied per event-loop.
+        this.MIN_IDLE = new CachedDynamicIntProperty(originName+".netty.client.minIdle", 0);
+        // Only has an effect on the epoll transport, see ConnectionPoolConfig.getValidateAfterIdleMs().
+        this.VALIDATE_AFTER_IDLE_MS = new CachedDynamicIntProperty(originName+".netty.client.validateAfterIdleMs", 1000);
 
         this.SOCKET_KEEP_ALIVE = new CachedDynamicBooleanProperty(originName+".netty.client.TcpKeepAlive", false);
         this.TCP_NO_DELAY = new CachedDynamicBooleanProperty(originName+".netty.client.TcpNoDelay", false);
@@ -92,6 +98,16 @@ public class ConnectionPoolConfigImpl implements ConnectionPoolConfig {
         return clientConfig.getPropertyAsInteger(IClientConfigKey.Keys.ConnIdleEvictTimeMilliSeconds, DEFAULT_IDLE_TIMEOUT);
     }
 
+    @Override
+    public int getMinIdle() {
+        return MIN_IDLE.get();
+    }
+
+    @Override
+    public int getValidateAfterIdleMs() {
+        return VALIDATE_AFTER_IDLE_MS.get();
+    }
+
     @Override
     public boolean getTcpKeepAlive() {
         return SOCKET_KEEP_ALIVE.get();
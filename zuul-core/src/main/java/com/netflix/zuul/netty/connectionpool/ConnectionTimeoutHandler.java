@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.netty.connectionpool;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+/**
+ * Stays in an origin channel's pipeline for the life of the connection, recording reads on its PooledConnection's
+ * timeout, and marking where in the pipeline the timeout's ReadTimeoutException and IdleStateEvent are fired from
+ * (in place of the ReadTimeoutHandler and IdleStateHandler that used to be added and removed around each request).
+ */
+public class ConnectionTimeoutHandler extends ChannelInboundHandlerAdapter
+{
+    public static final String NAME = "connectionTimeoutHandler";
+
+    private PooledConnection conn;
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+    {
+        if (conn == null) {
+            // Set on the channel once connected, so not yet known when the handler is added.
+            conn = PooledConnection.getFromChannel(ctx.channel());
+        }
+        if (conn != null) {
+            conn.recordRead();
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception
+    {
+        final PooledConnection c = PooledConnection.getFromChannel(ctx.channel());
+        if (c != null) {
+            c.stopTimeout();
+        }
+        super.channelInactive(ctx);
+    }
+}
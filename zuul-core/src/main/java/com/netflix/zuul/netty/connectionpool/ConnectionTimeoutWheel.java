@@ -0,0 +1,347 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.netty.connectionpool;
+
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.netty.common.time.ClockSource;
+import com.netflix.netty.common.time.CoarseClock;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.FastThreadLocal;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A hashed timing wheel, one per event loop, that times out the origin connections on that loop: the reads of those
+ * in use, and the idleness of those in the pool.
+ *
+ * Each connection owns a single Timeout, which is linked into the wheel's slot for its deadline, so starting, moving
+ * and cancelling a timeout allocates nothing and doesn't touch the channel's pipeline. Reads only record the time on
+ * the Timeout; its deadline is pushed back lazily, when the wheel reaches its slot and finds that it isn't due yet.
+ * The wheel ticks every zuul.origin.timeout.tick.ms (10ms by default) while it has timeouts, so they fire up to a tick
+ * late.
+ *
+ * Not thread safe. Only use a wheel from its own event loop.
+ */
+public final class ConnectionTimeoutWheel
+{
+    private static final DynamicIntProperty TICK_MS = new DynamicIntProperty("zuul.origin.timeout.tick.ms", 10);
+    private static final int WHEEL_SIZE = 512;
+    private static final int MASK = WHEEL_SIZE - 1;
+
+    private static final FastThreadLocal<ConnectionTimeoutWheel> WHEELS = new FastThreadLocal<>();
+
+    private final EventExecutor executor;
+    private final ClockSource clock;
+    private final long tickNanos;
+    private final long originNanos;
+    private final Timeout[] slots = new Timeout[WHEEL_SIZE];
+    private final Runnable tickTask = this::tick;
+
+    private long processedTick;
+    private int size;
+    private boolean ticking;
+
+    ConnectionTimeoutWheel(EventExecutor executor, ClockSource clock, long tickMs)
+    {
+        this.executor = executor;
+        this.clock = clock;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMs));
+        this.originNanos = clock.nanoTime();
+    }
+
+    /**
+     * @return the wheel for the given event loop, which must be the calling thread's
+     */
+    public static ConnectionTimeoutWheel forEventLoop(EventExecutor executor)
+    {
+        ConnectionTimeoutWheel wheel = WHEELS.get();
+        if (wheel == null) {
+            wheel = new ConnectionTimeoutWheel(executor, CoarseClock.INSTANCE, TICK_MS.get());
+            WHEELS.set(wheel);
+        }
+        return wheel;
+    }
+
+    ClockSource getClock()
+    {
+        return clock;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * (Re)starts the timeout to fire once there has been no activity on it for the given time, replacing any deadline
+     * it already had.
+     */
+    public void schedule(Timeout timeout, long durationMs, boolean idle)
+    {
+        cancel(timeout);
+        timeout.idle = idle;
+        timeout.durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMs);
+        timeout.startNanos = clock.nanoTime();
+        add(timeout);
+    }
+
+    public void cancel(Timeout timeout)
+    {
+        if (timeout.slot < 0) {
+            return;
+        }
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        }
+        else {
+            slots[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.slot = -1;
+        size--;
+    }
+
+    private void add(Timeout timeout)
+    {
+        if (!ticking) {
+            ticking = true;
+            processedTick = (clock.nanoTime() - originNanos) / tickNanos;
+            executor.schedule(tickTask, tickNanos, TimeUnit.NANOSECONDS);
+        }
+
+        // Rounded up, so that a timeout is never found in its slot before it is due.
+        final long deadlineTick = (timeout.deadlineNanos() - originNanos + tickNanos - 1) / tickNanos;
+        final int slot = (int) (Math.max(deadlineTick, processedTick + 1) & MASK);
+        timeout.slot = slot;
+        timeout.prev = null;
+        timeout.next = slots[slot];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        slots[slot] = timeout;
+        size++;
+    }
+
+    void tick()
+    {
+        final long now = clock.nanoTime();
+        final long nowTick = (now - originNanos) / tickNanos;
+
+        // If the loop has been too busy to tick for a whole turn of the wheel, every slot is due, but only once.
+        final long last = Math.min(nowTick, processedTick + WHEEL_SIZE);
+        for (long t = processedTick + 1; t <= last; t++) {
+            processedTick = t;
+            final int slot = (int) (t & MASK);
+            Timeout timeout = slots[slot];
+            slots[slot] = null;
+            while (timeout != null) {
+                final Timeout next = timeout.next;
+                timeout.prev = null;
+                timeout.next = null;
+                timeout.slot = -1;
+                size--;
+                if (timeout.deadlineNanos() <= now) {
+                    timeout.expired(timeout.idle);
+                }
+                else {
+                    // Pushed back by activity, or a later turn of the wheel.
+                    add(timeout);
+                }
+                timeout = next;
+            }
+        }
+        processedTick = Math.max(processedTick, nowTick);
+
+        if (size > 0) {
+            executor.schedule(tickTask, tickNanos, TimeUnit.NANOSECONDS);
+        }
+        else {
+            ticking = false;
+        }
+    }
+
+    /**
+     * A deadline in the wheel, reused for all the timeouts of its owner. Activity is recorded with touch(), which
+     * pushes the deadline back to the timeout's duration after it.
+     */
+    public abstract static class Timeout
+    {
+        private Timeout prev;
+        private Timeout next;
+        private int slot = -1;
+
+        private boolean idle;
+        private long startNanos;
+        private long durationNanos;
+        private long lastActivityNanos = Long.MIN_VALUE;
+
+        public void touch(long nanoTime)
+        {
+            lastActivityNanos = nanoTime;
+        }
+
+        public boolean isScheduled()
+        {
+            return slot >= 0;
+        }
+
+        private long deadlineNanos()
+        {
+            return Math.max(startNanos, lastActivityNanos) + durationNanos;
+        }
+
+        /**
+         * Called on the wheel's event loop once the timeout is due, after it has been taken out of the wheel.
+         *
+         * @param idle as given to schedule()
+         */
+        protected abstract void expired(boolean idle);
+    }
+
+    @RunWith(MockitoJUnitRunner.class)
+    public static class UnitTest
+    {
+        @Mock
+        private EventExecutor executor;
+
+        private long nanos;
+        private ConnectionTimeoutWheel wheel;
+        private List<String> expired;
+
+        @Before
+        public void setup()
+        {
+            nanos = 0;
+            expired = new ArrayList<>();
+            wheel = new ConnectionTimeoutWheel(executor, new ClockSource() {
+                @Override
+                public long currentTimeMillis()
+                {
+                    return TimeUnit.NANOSECONDS.toMillis(nanos);
+                }
+
+                @Override
+                public long nanoTime()
+                {
+                    return nanos;
+                }
+            }, 10);
+        }
+
+        private Timeout timeout(String name)
+        {
+            return new Timeout() {
+                @Override
+                protected void expired(boolean idle)
+                {
+                    expired.add(name + (idle ? " idle" : " read"));
+                }
+            };
+        }
+
+        private void advanceMs(long ms)
+        {
+            for (long i = 0; i < ms; i += 10) {
+                nanos += TimeUnit.MILLISECONDS.toNanos(10);
+                wheel.tick();
+            }
+        }
+
+        @Test
+        public void expiresWhenDue()
+        {
+            wheel.schedule(timeout("a"), 100, false);
+            wheel.schedule(timeout("b"), 30, true);
+
+            advanceMs(20);
+            assertTrue(expired.isEmpty());
+            advanceMs(10);
+            assertEquals("[b idle]", expired.toString());
+            advanceMs(70);
+            assertEquals("[b idle, a read]", expired.toString());
+            assertEquals(0, wheel.size());
+        }
+
+        @Test
+        public void activityPushesBackDeadline()
+        {
+            final Timeout a = timeout("a");
+            wheel.schedule(a, 50, false);
+
+            advanceMs(40);
+            a.touch(nanos);
+            advanceMs(40);
+            assertTrue(expired.isEmpty());
+            advanceMs(10);
+            assertEquals("[a read]", expired.toString());
+        }
+
+        @Test
+        public void rescheduleAndCancel()
+        {
+            final Timeout a = timeout("a");
+            final Timeout b = timeout("b");
+            wheel.schedule(a, 50, true);
+            wheel.schedule(b, 50, false);
+            wheel.schedule(a, 200, false);
+            wheel.cancel(b);
+            assertEquals(1, wheel.size());
+
+            advanceMs(100);
+            assertTrue(expired.isEmpty());
+            advanceMs(100);
+            assertEquals("[a read]", expired.toString());
+            assertTrue(!a.isScheduled() && !b.isScheduled());
+        }
+
+        @Test
+        public void outlastsATurnOfTheWheel()
+        {
+            wheel.schedule(timeout("a"), 10 * WHEEL_SIZE + 500, true);
+
+            advanceMs(10 * WHEEL_SIZE);
+            assertTrue(expired.isEmpty());
+            advanceMs(500);
+            assertEquals("[a idle]", expired.toString());
+        }
+
+        @Test
+        public void catchesUpAfterABusyLoop()
+        {
+            wheel.schedule(timeout("a"), 50, false);
+            wheel.schedule(timeout("b"), 20 * WHEEL_SIZE, false);
+
+            nanos += TimeUnit.MILLISECONDS.toNanos(20 * WHEEL_SIZE);
+            wheel.tick();
+            assertEquals(2, expired.size());
+        }
+    }
+}
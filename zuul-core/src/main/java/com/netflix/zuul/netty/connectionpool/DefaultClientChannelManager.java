@@ -19,34 +19,48 @@ package com.netflix.zuul.netty.connectionpool;
 import com.google.common.collect.Sets;
 import com.netflix.appinfo.InstanceInfo;
 import com.netflix.client.config.IClientConfig;
+import com.netflix.config.CachedDynamicBooleanProperty;
 import com.netflix.loadbalancer.*;
+import com.netflix.netty.common.time.CoarseClock;
 import com.netflix.niws.loadbalancer.DiscoveryEnabledServer;
 import com.netflix.spectator.api.Counter;
 import com.netflix.spectator.api.Registry;
 import com.netflix.spectator.api.histogram.PercentileTimer;
 import com.netflix.zuul.exception.OutboundErrorType;
 import com.netflix.zuul.netty.SpectatorUtils;
-import com.netflix.zuul.netty.insights.PassportStateHttpClientHandler;
 import com.netflix.zuul.netty.server.OriginResponseReceiver;
 import com.netflix.zuul.passport.CurrentPassport;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoop;
-import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.util.concurrent.Promise;
+import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 
 import static com.netflix.client.config.CommonClientConfigKey.NFLoadBalancerClassName;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 /**
  * User: michaels@netflix.com
@@ -62,6 +76,7 @@ public class DefaultClientChannelManager implements ClientChannelManager {
     private final ConnectionPoolConfig connPoolConfig;
     private final IClientConfig clientConfig;
     private final Registry spectatorRegistry;
+    private final CachedDynamicBooleanProperty powerOfTwoChoicesEnabled;
 
     /* DeploymentContextBasedVIP for which to maintain this connection pool */
     private final String vip;
@@ -86,11 +101,15 @@ public class DefaultClientChannelManager implements ClientChannelManager {
     private final AtomicInteger connsInUse;
 
     private final ConcurrentHashMap<Server, PerServerConnectionPool> perServerPools;
+    private final OutlierDetector outlierDetector;
 
     private NettyClientConnectionFactory clientConnFactory;
     private OriginChannelInitializer channelInitializer;
 
+    /** @deprecated no longer added, as idle timeouts are run by the ConnectionTimeoutWheel */
+    @Deprecated
     public static final String IDLE_STATE_HANDLER_NAME = "idleStateHandler";
+    private static final int MAX_OUTLIER_REPICKS = 3;
 
     public DefaultClientChannelManager(String originName, String vip, IClientConfig clientConfig, Registry spectatorRegistry) {
         this.loadBalancer = createLoadBalancer(clientConfig);
@@ -99,11 +118,14 @@ public class DefaultClientChannelManager implements ClientChannelManager {
         this.clientConfig = clientConfig;
         this.spectatorRegistry = spectatorRegistry;
         this.perServerPools = new ConcurrentHashMap<>(200);
+        this.outlierDetector = new OutlierDetector(originName, perServerPools, CoarseClock.INSTANCE);
 
         // Setup a listener for Discovery serverlist changes.
         this.loadBalancer.addServerListChangeListener((oldList, newList) -> removeMissingServerConnectionPools(oldList, newList));
 
         this.connPoolConfig = new ConnectionPoolConfigImpl(originName, this.clientConfig);
+        this.powerOfTwoChoicesEnabled = new CachedDynamicBooleanProperty(
+                "zuul.origin." + originName + ".lb.power.of.two.choices.enabled", false);
 
         this.createNewConnCounter = SpectatorUtils.newCounter(METRIC_PREFIX + "_create", originName);
         this.createConnSucceededCounter = SpectatorUtils.newCounter(METRIC_PREFIX + "_create_success", originName);
@@ -215,7 +237,7 @@ public class DefaultClientChannelManager implements ClientChannelManager {
     @Override
     public boolean release(final PooledConnection conn) {
 
-        conn.stopRequestTimer();
+        final long responseTimeMs = conn.stopRequestTimer();
         releaseConnCounter.increment();
         connsInUse.decrementAndGet();
 
@@ -227,6 +249,11 @@ public class DefaultClientChannelManager implements ClientChannelManager {
             return false;
         }
 
+        final PerServerConnectionPool pool = perServerPools.get(conn.getServer());
+        if (pool != null) {
+            pool.recordResponseTime(responseTimeMs);
+        }
+
         boolean released = false;
 
         if (conn.isShouldClose() ||
@@ -242,6 +269,11 @@ public class DefaultClientChannelManager implements ClientChannelManager {
             conn.setInPool(false);
             conn.close();
         }
+        else if (outlierDetector.isEjected(pool)) {
+            // Nor for servers ejected as outliers, so they aren't reused once the server is back.
+            conn.setInPool(false);
+            conn.close();
+        }
         else if (!conn.isActive()) {
             // Connection is already closed, so discard.
             alreadyClosedCounter.increment();
@@ -252,12 +284,10 @@ public class DefaultClientChannelManager implements ClientChannelManager {
         else {
             final ChannelPipeline pipeline = conn.getChannel().pipeline();
             removeHandlerFromPipeline(OriginResponseReceiver.CHANNEL_HANDLER_NAME, pipeline);
-            pipeline.addAfter(PassportStateHttpClientHandler.PASSPORT_STATE_HTTP_CLIENT_HANDLER_NAME, IDLE_STATE_HANDLER_NAME,
-                new IdleStateHandler(0, 0, connPoolConfig.getIdleTimeout(), TimeUnit.MILLISECONDS));
+            conn.startIdleTimeout(connPoolConfig.getIdleTimeout());
 
 
             // Attempt to return connection to the pool.
-            PerServerConnectionPool pool = perServerPools.get(conn.getServer());
             if (pool != null) {
                 released = pool.release(conn);
             }
@@ -325,7 +355,7 @@ public class DefaultClientChannelManager implements ClientChannelManager {
         }
 
         // Choose the next load-balanced server.
-        final Server chosenServer = loadBalancer.chooseServer(key);
+        final Server chosenServer = chooseServer(key);
         if (chosenServer == null) {
             Promise<PooledConnection> promise = eventLoop.newPromise();
             promise.setFailure(new OriginConnectException("No servers available", OutboundErrorType.NO_AVAILABLE_SERVERS));
@@ -377,6 +407,134 @@ public class DefaultClientChannelManager implements ClientChannelManager {
         return pool.acquire(eventLoop, null, httpMethod, uri, attemptNum, passport);
     }
 
+    @Override
+    public void recordRequestOutcome(Server server, boolean failed) {
+        if (server != null) {
+            outlierDetector.recordOutcome(perServerPools.get(server), failed);
+        }
+    }
+
+    @Override
+    public boolean shouldEvictIdle(PooledConnection conn) {
+        final PerServerConnectionPool pool = perServerPools.get(conn.getServer());
+        return pool == null || pool.shouldEvictIdle(conn);
+    }
+
+    protected Server chooseServer(Object key) {
+        outlierDetector.checkLatenciesIfDue();
+
+        final Server server = pickServer(key);
+        if (server != null && powerOfTwoChoicesEnabled.get()) {
+            final Server lessLoaded = chooseLessLoadedOfTwo(
+                    serversInZone(loadBalancer.getReachableServers(), server.getZone()), perServerPools,
+                    outlierDetector::isEjected, ThreadLocalRandom.current());
+            if (lessLoaded != null) {
+                return lessLoaded;
+            }
+        }
+        return server;
+    }
+
+    /**
+     * Power of two choices: picks two different servers at random from the given ones, and goes with whichever of
+     * the two is less loaded. chooseServer() passes the reachable servers in the zone of the server the load balancer
+     * picked, so that a ZoneAwareLoadBalancer's zone affinity and avoidance still decide the zone, and the two
+     * choices only decide the server within it. Random picks are used rather than two from the load balancer's rule,
+     * as a round robin rule would always pair a server with its neighbour.
+     *
+     * Servers ejected as outliers are picked again a few times, as in pickServer().
+     *
+     * @return null if there are no servers
+     */
+    static Server chooseLessLoadedOfTwo(List<Server> servers, Map<Server, PerServerConnectionPool> pools,
+                                        Predicate<PerServerConnectionPool> ejected, Random random) {
+        final int size = servers.size();
+        if (size == 0) {
+            return null;
+        }
+        final int firstIdx = randomIndex(servers, -1, pools, ejected, random);
+        final Server first = servers.get(firstIdx);
+        if (size == 1) {
+            return first;
+        }
+        final Server second = servers.get(randomIndex(servers, firstIdx, pools, ejected, random));
+        return isLessLoaded(pools.get(second), pools.get(first)) ? second : first;
+    }
+
+    private static int randomIndex(List<Server> servers, int excludedIdx, Map<Server, PerServerConnectionPool> pools,
+                                   Predicate<PerServerConnectionPool> ejected, Random random) {
+        final int bound = excludedIdx < 0 ? servers.size() : servers.size() - 1;
+        int idx = 0;
+        for (int i = 0; i <= MAX_OUTLIER_REPICKS; i++) {
+            idx = random.nextInt(bound);
+            if (excludedIdx >= 0 && idx >= excludedIdx) {
+                idx++;
+            }
+            if (!ejected.test(pools.get(servers.get(idx)))) {
+                break;
+            }
+        }
+        return idx;
+    }
+
+    /**
+     * The servers in the given zone, compared ignoring case as ZoneAwareLoadBalancer does, or all of them if the zone
+     * isn't known. Returns the list itself, without copying, when all of its servers are in the zone.
+     */
+    static List<Server> serversInZone(List<Server> servers, String zone) {
+        if (zone == null) {
+            return servers;
+        }
+        int inZone = 0;
+        for (int i = 0; i < servers.size(); i++) {
+            if (zone.equalsIgnoreCase(servers.get(i).getZone())) {
+                inZone++;
+            }
+        }
+        if (inZone == servers.size()) {
+            return servers;
+        }
+        final List<Server> filtered = new ArrayList<>(inZone);
+        for (int i = 0; i < servers.size(); i++) {
+            final Server server = servers.get(i);
+            if (zone.equalsIgnoreCase(server.getZone())) {
+                filtered.add(server);
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * Picks a server from the load balancer, picking again a few times if it's one ejected as an outlier. If they all
+     * are, the last pick is used anyway rather than failing the request.
+     */
+    private Server pickServer(Object key) {
+        Server server = loadBalancer.chooseServer(key);
+        for (int i = 0; i < MAX_OUTLIER_REPICKS && server != null && outlierDetector.isEjected(perServerPools.get(server)); i++) {
+            server = loadBalancer.chooseServer(key);
+        }
+        return server;
+    }
+
+    /**
+     * Compares the live in-flight request counts of two servers' pools, falling back to their response time averages
+     * on a tie. A server without a pool yet has never been sent a request, so counts as idle.
+     */
+    static boolean isLessLoaded(PerServerConnectionPool candidate, PerServerConnectionPool current) {
+        if (current == null) {
+            return false;
+        }
+        if (candidate == null) {
+            return true;
+        }
+        final int candidateActive = candidate.getActiveRequestsCount();
+        final int currentActive = current.getActiveRequestsCount();
+        if (candidateActive != currentActive) {
+            return candidateActive < currentActive;
+        }
+        return candidate.getResponseTimeEwma() < current.getResponseTimeEwma();
+    }
+
     @Override
     public int getConnsInPool() {
         return connsInPool.get();
@@ -399,4 +557,103 @@ public class DefaultClientChannelManager implements ClientChannelManager {
     protected ConcurrentHashMap<Server, PerServerConnectionPool> getPerServerPools() {
         return perServerPools;
     }
+
+    public static class UnitTest {
+
+        private static PerServerConnectionPool pool(int activeRequests, double responseTimeEwma) {
+            PerServerConnectionPool pool = mock(PerServerConnectionPool.class);
+            when(pool.getActiveRequestsCount()).thenReturn(activeRequests);
+            when(pool.getResponseTimeEwma()).thenReturn(responseTimeEwma);
+            return pool;
+        }
+
+        @Test
+        public void prefersFewerActiveRequests() {
+            assertTrue(isLessLoaded(pool(1, 500), pool(3, 10)));
+            assertFalse(isLessLoaded(pool(3, 10), pool(1, 500)));
+        }
+
+        @Test
+        public void breaksTiesOnResponseTime() {
+            assertTrue(isLessLoaded(pool(2, 10), pool(2, 50)));
+            assertFalse(isLessLoaded(pool(2, 50), pool(2, 10)));
+            assertFalse(isLessLoaded(pool(2, 10), pool(2, 10)));
+        }
+
+        /** Returns the given values from nextInt(), checking each is within its bound. */
+        private static Random picks(int... values) {
+            return new Random() {
+                int next = 0;
+
+                @Override
+                public int nextInt(int bound) {
+                    final int value = values[next++];
+                    assertTrue(value < bound);
+                    return value;
+                }
+            };
+        }
+
+        @Test
+        public void picksTwoDifferentRandomServers() {
+            final Server a = new Server("a", 80), b = new Server("b", 80), c = new Server("c", 80), d = new Server("d", 80);
+            final List<Server> servers = Arrays.asList(a, b, c, d);
+            final Map<Server, PerServerConnectionPool> pools = new HashMap<>();
+            pools.put(a, pool(0, 10));
+            pools.put(b, pool(5, 10));
+            pools.put(c, pool(3, 10));
+            pools.put(d, pool(1, 10));
+
+            // b, then the second of the three others, c
+            assertEquals(c, chooseLessLoadedOfTwo(servers, pools, p -> false, picks(1, 1)));
+            // b, then the first of the three others, a
+            assertEquals(a, chooseLessLoadedOfTwo(servers, pools, p -> false, picks(1, 0)));
+            // d, then the last of the three others, c
+            assertEquals(d, chooseLessLoadedOfTwo(servers, pools, p -> false, picks(3, 2)));
+        }
+
+        @Test
+        public void repicksEjectedServers() {
+            final Server a = new Server("a", 80), b = new Server("b", 80), c = new Server("c", 80);
+            final List<Server> servers = Arrays.asList(a, b, c);
+            final Map<Server, PerServerConnectionPool> pools = new HashMap<>();
+            pools.put(a, pool(0, 10));
+            pools.put(b, pool(5, 10));
+            pools.put(c, pool(3, 10));
+            final PerServerConnectionPool ejected = pools.get(a);
+
+            // a is ejected, so is picked again both times: c, then b
+            assertEquals(c, chooseLessLoadedOfTwo(servers, pools, p -> p == ejected, picks(0, 2, 0, 1)));
+        }
+
+        @Test
+        public void handlesSmallServerLists() {
+            final Server a = new Server("a", 80);
+            final Map<Server, PerServerConnectionPool> pools = new HashMap<>();
+            assertNull(chooseLessLoadedOfTwo(Arrays.<Server>asList(), pools, p -> false, picks()));
+            assertEquals(a, chooseLessLoadedOfTwo(Arrays.asList(a), pools, p -> false, picks(0)));
+        }
+
+        @Test
+        public void keepsToTheChosenZone() {
+            final Server a = new Server("a", 80), b = new Server("b", 80), c = new Server("c", 80);
+            a.setZone("us-east-1a");
+            b.setZone("us-east-1b");
+            c.setZone("US-EAST-1A");
+            final List<Server> servers = Arrays.asList(a, b, c);
+
+            assertEquals(Arrays.asList(a, c), serversInZone(servers, "us-east-1a"));
+            assertEquals(Arrays.asList(b), serversInZone(servers, "us-east-1b"));
+            assertSame(servers, serversInZone(servers, null));
+            final List<Server> sameZone = Arrays.asList(a, c);
+            assertSame(sameZone, serversInZone(sameZone, "us-east-1a"));
+        }
+
+        @Test
+        public void serverWithoutPoolCountsAsIdle() {
+            assertTrue(isLessLoaded(null, pool(0, 10)));
+            assertFalse(isLessLoaded(pool(0, 10), null));
+            assertFalse(isLessLoaded(null, null));
+        }
+    }
 }
@@ -72,6 +72,7 @@ public class DefaultOriginChannelInitializer extends OriginChannelInitializer {
                 false
         ));
         pipeline.addLast(PassportStateHttpClientHandler.PASSPORT_STATE_HTTP_CLIENT_HANDLER_NAME, new PassportStateHttpClientHandler());
+        pipeline.addLast(ConnectionTimeoutHandler.NAME, new ConnectionTimeoutHandler());
         pipeline.addLast("originNettyLogger", nettyLogger);
         pipeline.addLast(httpMetricsHandler);
         addMethodBindingHandler(pipeline);
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.netty.connectionpool;
+
+import com.netflix.config.CachedDynamicBooleanProperty;
+import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.loadbalancer.Server;
+import com.netflix.netty.common.time.ClockSource;
+import com.netflix.spectator.api.Counter;
+import com.netflix.zuul.netty.SpectatorUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Passive outlier detection for the servers of one origin. A server is ejected from selection when it fails too many
+ * requests in a row, or when its response time average is too many standard deviations above the other servers'.
+ *
+ * Ejections last for a base time that doubles each time the same server is ejected again, up to a max, and the
+ * doubling resets once a server has stayed in for the max time. At most a max percentage of the servers are ejected
+ * at once, so a problem common to all of them can't empty the origin. Idle pooled connections to an ejected server
+ * are closed, and busy ones are closed when released.
+ *
+ * The per server state is kept in atomics on the server's connection pool, and the latency comparison runs at most
+ * once an interval, on whichever thread happens to be choosing a server at the time.
+ */
+public class OutlierDetector
+{
+    private static final Logger LOG = LoggerFactory.getLogger(OutlierDetector.class);
+
+    private final String originName;
+    private final Map<Server, PerServerConnectionPool> pools;
+    private final ClockSource clock;
+    private final BooleanSupplier enabled;
+    private final int consecutiveFailures;
+    private final double latencyZScore;
+    private final int latencyMinServers;
+    private final long baseEjectionNanos;
+    private final long maxEjectionNanos;
+    private final int maxEjectionPercent;
+    private final long intervalNanos;
+
+    private final AtomicLong nextLatencyCheck = new AtomicLong();
+    private final Counter failureEjections;
+    private final Counter latencyEjections;
+
+    public OutlierDetector(String originName, Map<Server, PerServerConnectionPool> pools, ClockSource clock)
+    {
+        this(originName, pools, clock,
+                new CachedDynamicBooleanProperty("zuul.origin." + originName + ".outlier.enabled", false)::get,
+                intProperty(originName, "consecutive.failures", 5),
+                DynamicPropertyFactory.getInstance()
+                        .getDoubleProperty("zuul.origin." + originName + ".outlier.latency.zscore", 3.0).get(),
+                intProperty(originName, "latency.min.servers", 10),
+                intProperty(originName, "ejection.base.ms", 30000),
+                intProperty(originName, "ejection.max.ms", 300000),
+                intProperty(originName, "ejection.max.percent", 20),
+                intProperty(originName, "interval.ms", 1000));
+    }
+
+    OutlierDetector(String originName, Map<Server, PerServerConnectionPool> pools, ClockSource clock,
+                    BooleanSupplier enabled, int consecutiveFailures, double latencyZScore, int latencyMinServers,
+                    long baseEjectionMs, long maxEjectionMs, int maxEjectionPercent, long intervalMs)
+    {
+        this.originName = originName;
+        this.pools = pools;
+        this.clock = clock;
+        this.enabled = enabled;
+        this.consecutiveFailures = consecutiveFailures;
+        this.latencyZScore = latencyZScore;
+        this.latencyMinServers = latencyMinServers;
+        this.baseEjectionNanos = TimeUnit.MILLISECONDS.toNanos(baseEjectionMs);
+        this.maxEjectionNanos = TimeUnit.MILLISECONDS.toNanos(maxEjectionMs);
+        this.maxEjectionPercent = maxEjectionPercent;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        this.failureEjections = SpectatorUtils.newCounter("zuul.origin.outlier.ejections", originName,
+                "reason", "failures");
+        this.latencyEjections = SpectatorUtils.newCounter("zuul.origin.outlier.ejections", originName,
+                "reason", "latency");
+    }
+
+    private static int intProperty(String originName, String name, int defaultValue)
+    {
+        return DynamicPropertyFactory.getInstance()
+                .getIntProperty("zuul.origin." + originName + ".outlier." + name, defaultValue).get();
+    }
+
+    public boolean isEjected(PerServerConnectionPool pool)
+    {
+        return pool != null && enabled.getAsBoolean() && pool.getOutlierState().isEjected(clock.nanoTime());
+    }
+
+    public void recordOutcome(PerServerConnectionPool pool, boolean failed)
+    {
+        if (pool == null || !enabled.getAsBoolean()) {
+            return;
+        }
+        final AtomicInteger failures = pool.getOutlierState().consecutiveFailures;
+        if (!failed) {
+            // Avoid writing to the shared counter on every success.
+            if (failures.get() != 0) {
+                failures.set(0);
+            }
+        }
+        else if (failures.incrementAndGet() >= consecutiveFailures) {
+            if (tryEject(pool, clock.nanoTime())) {
+                failureEjections.increment();
+            }
+        }
+    }
+
+    /**
+     * Compares the servers' response time averages, if it's been at least an interval since the last comparison.
+     */
+    public void checkLatenciesIfDue()
+    {
+        if (!enabled.getAsBoolean()) {
+            return;
+        }
+        final long now = clock.nanoTime();
+        final long next = nextLatencyCheck.get();
+        if (now - next < 0 || !nextLatencyCheck.compareAndSet(next, now + intervalNanos)) {
+            return;
+        }
+
+        int count = 0;
+        double sum = 0;
+        double sumOfSquares = 0;
+        for (PerServerConnectionPool pool : pools.values()) {
+            final double avg = pool.getResponseTimeEwma();
+            if (avg > 0 && !pool.getOutlierState().isEjected(now)) {
+                count++;
+                sum += avg;
+                sumOfSquares += avg * avg;
+            }
+        }
+        if (count < latencyMinServers) {
+            return;
+        }
+
+        final double mean = sum / count;
+        final double stdDev = Math.sqrt(Math.max(0, sumOfSquares / count - mean * mean));
+        if (stdDev == 0) {
+            return;
+        }
+        for (PerServerConnectionPool pool : pools.values()) {
+            final double avg = pool.getResponseTimeEwma();
+            if (avg > 0 && (avg - mean) / stdDev > latencyZScore && tryEject(pool, now)) {
+                latencyEjections.increment();
+            }
+        }
+    }
+
+    private boolean tryEject(PerServerConnectionPool pool, long now)
+    {
+        int ejected = 0;
+        for (PerServerConnectionPool p : pools.values()) {
+            if (p.getOutlierState().isEjected(now)) {
+                ejected++;
+            }
+        }
+        final int maxEjected = Math.max(1, pools.size() * maxEjectionPercent / 100);
+        if (pools.size() < 2 || ejected >= maxEjected) {
+            return false;
+        }
+
+        final ServerState state = pool.getOutlierState();
+        final long duration = state.eject(now, baseEjectionNanos, maxEjectionNanos);
+        if (duration < 0) {
+            return false;
+        }
+
+        LOG.warn("Ejecting outlier server {} of origin {} for {}ms", pool.getServer(), originName,
+                TimeUnit.NANOSECONDS.toMillis(duration));
+        // Start over once it's back, rather than be judged on the averages that got it ejected.
+        state.consecutiveFailures.set(0);
+        pool.resetResponseTimeEwma();
+        pool.drainIdleConnections();
+        return true;
+    }
+
+    /**
+     * The outlier detection state of one server.
+     */
+    public static final class ServerState
+    {
+        private static final long NEVER = Long.MIN_VALUE;
+
+        final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicLong ejectedUntil = new AtomicLong(NEVER);
+        private volatile int ejections;
+
+        public boolean isEjected(long now)
+        {
+            final long until = ejectedUntil.get();
+            return until != NEVER && now - until < 0;
+        }
+
+        /**
+         * @return how long the server is ejected for, or -1 if it already was
+         */
+        long eject(long now, long baseNanos, long maxNanos)
+        {
+            final long until = ejectedUntil.get();
+            if (until != NEVER && now - until < 0) {
+                return -1;
+            }
+            final int previous = (until != NEVER && now - until > maxNanos) ? 0 : ejections;
+            final long duration = Math.min(maxNanos, baseNanos << Math.min(previous, 20));
+            if (!ejectedUntil.compareAndSet(until, now + duration)) {
+                return -1;
+            }
+            ejections = previous + 1;
+            return duration;
+        }
+    }
+
+    public static class UnitTest
+    {
+        private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+        private final long[] now = {1000 * SECOND};
+        private final ClockSource clock = new ClockSource() {
+            @Override
+            public long currentTimeMillis()
+            {
+                return TimeUnit.NANOSECONDS.toMillis(now[0]);
+            }
+
+            @Override
+            public long nanoTime()
+            {
+                return now[0];
+            }
+        };
+
+        private Map<Server, PerServerConnectionPool> pools;
+        private OutlierDetector detector;
+
+        @Before
+        public void setup()
+        {
+            pools = new ConcurrentHashMap<>();
+            detector = new OutlierDetector("test", pools, clock, () -> true, 3, 2.0, 5, 1000, 4000, 20, 1000);
+        }
+
+        private PerServerConnectionPool addPool(int id, double responseTimeEwma)
+        {
+            PerServerConnectionPool pool = mock(PerServerConnectionPool.class);
+            when(pool.getOutlierState()).thenReturn(new ServerState());
+            when(pool.getResponseTimeEwma()).thenReturn(responseTimeEwma);
+            pools.put(new Server("host" + id, 7001), pool);
+            return pool;
+        }
+
+        @Test
+        public void ejectsAfterConsecutiveFailures()
+        {
+            PerServerConnectionPool bad = addPool(0, 0);
+            for (int i = 1; i < 10; i++) {
+                addPool(i, 0);
+            }
+
+            detector.recordOutcome(bad, true);
+            detector.recordOutcome(bad, true);
+            detector.recordOutcome(bad, false);
+            detector.recordOutcome(bad, true);
+            detector.recordOutcome(bad, true);
+            assertFalse("a success resets the count", detector.isEjected(bad));
+
+            detector.recordOutcome(bad, true);
+            assertTrue(detector.isEjected(bad));
+            verify(bad).drainIdleConnections();
+
+            now[0] += SECOND;
+            assertFalse(detector.isEjected(bad));
+        }
+
+        @Test
+        public void backsOffOnRepeatedEjections()
+        {
+            ServerState state = new ServerState();
+            assertEquals(1000, TimeUnit.NANOSECONDS.toMillis(state.eject(now[0], SECOND, 4 * SECOND)));
+            assertEquals("already ejected", -1, state.eject(now[0], SECOND, 4 * SECOND));
+
+            now[0] += SECOND;
+            assertEquals(2000, TimeUnit.NANOSECONDS.toMillis(state.eject(now[0], SECOND, 4 * SECOND)));
+            now[0] += 2 * SECOND;
+            assertEquals(4000, TimeUnit.NANOSECONDS.toMillis(state.eject(now[0], SECOND, 4 * SECOND)));
+            now[0] += 4 * SECOND;
+            assertEquals("capped", 4000, TimeUnit.NANOSECONDS.toMillis(state.eject(now[0], SECOND, 4 * SECOND)));
+
+            now[0] += 10 * SECOND;
+            assertEquals("reset after staying in", 1000,
+                    TimeUnit.NANOSECONDS.toMillis(state.eject(now[0], SECOND, 4 * SECOND)));
+        }
+
+        @Test
+        public void capsEjectedFraction()
+        {
+            PerServerConnectionPool[] all = new PerServerConnectionPool[10];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = addPool(i, 0);
+            }
+            for (PerServerConnectionPool pool : all) {
+                for (int i = 0; i < 3; i++) {
+                    detector.recordOutcome(pool, true);
+                }
+            }
+
+            int ejected = 0;
+            for (PerServerConnectionPool pool : all) {
+                if (detector.isEjected(pool)) {
+                    ejected++;
+                }
+            }
+            assertEquals(2, ejected);
+        }
+
+        @Test
+        public void ejectsLatencyOutliers()
+        {
+            for (int i = 0; i < 9; i++) {
+                addPool(i, 10 + i % 3);
+            }
+            PerServerConnectionPool slow = addPool(9, 100);
+
+            detector.checkLatenciesIfDue();
+            assertTrue(detector.isEjected(slow));
+            verify(slow).resetResponseTimeEwma();
+        }
+
+        @Test
+        public void needsEnoughServersToCompareLatencies()
+        {
+            for (int i = 0; i < 3; i++) {
+                addPool(i, 10);
+            }
+            PerServerConnectionPool slow = addPool(3, 1000);
+
+            detector.checkLatenciesIfDue();
+            assertFalse(detector.isEjected(slow));
+        }
+    }
+}
@@ -23,14 +23,27 @@ import com.netflix.loadbalancer.Server;
 import com.netflix.loadbalancer.ServerStats;
 import com.netflix.niws.loadbalancer.DiscoveryEnabledServer;
 import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.DefaultRegistry;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.Spectator;
 import com.netflix.spectator.api.Timer;
 import com.netflix.zuul.exception.OutboundErrorType;
+import com.netflix.zuul.netty.SpectatorUtils;
 import com.netflix.zuul.passport.CurrentPassport;
 import com.netflix.zuul.passport.PassportState;
 import com.netflix.zuul.stats.Timing;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.EventLoop;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
 import io.netty.util.concurrent.Promise;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,6 +52,18 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * User: michaels@netflix.com
@@ -66,6 +91,9 @@ public class PerServerConnectionPool implements IConnectionPool
     private final Counter reuseConnCounter;
     private final Counter connTakenFromPoolIsNotOpen;
     private final Counter maxConnsPerHostExceededCounter;
+    private final Counter evictedIdleCounter;
+    private final Counter evictedStaleCounter;
+    private final Counter evictedClosedCounter;
     private final Timer connEstablishTimer;
     private final AtomicInteger connsInPool;
     private final AtomicInteger connsInUse;
@@ -76,6 +104,12 @@ public class PerServerConnectionPool implements IConnectionPool
      */
     private final AtomicInteger connCreationsInProgress;
 
+    /** Moving average of this server's response times in ms, as double bits so that it can be updated lock-free. */
+    private final AtomicLong responseTimeEwma = new AtomicLong(Double.doubleToRawLongBits(0));
+    private static final double RESPONSE_TIME_EWMA_WEIGHT = 0.2;
+
+    private final OutlierDetector.ServerState outlierState = new OutlierDetector.ServerState();
+
     private static final Logger LOG = LoggerFactory.getLogger(PerServerConnectionPool.class);
 
 
@@ -110,6 +144,11 @@ public class PerServerConnectionPool implements IConnectionPool
         this.connEstablishTimer = connEstablishTimer;
         this.connsInPool = connsInPool;
         this.connsInUse = connsInUse;
+
+        final String evictedName = DefaultClientChannelManager.METRIC_PREFIX + "_evicted";
+        this.evictedIdleCounter = SpectatorUtils.newCounter(evictedName, config.getOriginName(), "cause", "idle");
+        this.evictedStaleCounter = SpectatorUtils.newCounter(evictedName, config.getOriginName(), "cause", "stale");
+        this.evictedClosedCounter = SpectatorUtils.newCounter(evictedName, config.getOriginName(), "cause", "closed");
         
         this.connCreationsInProgress = new AtomicInteger(0);
     }
@@ -142,7 +181,7 @@ public class PerServerConnectionPool implements IConnectionPool
                            int attemptNum, CurrentPassport passport)
     {
         passport.setOnChannel(conn.getChannel());
-        DefaultClientChannelManager.removeHandlerFromPipeline(DefaultClientChannelManager.IDLE_STATE_HANDLER_NAME, conn.getChannel().pipeline());
+        conn.stopTimeout();
 
         conn.setInUse();
         if (LOG.isDebugEnabled()) LOG.debug("PooledConnection acquired: " + conn.toString());
@@ -184,17 +223,24 @@ public class PerServerConnectionPool implements IConnectionPool
             conn.setInPool(false);
 
             /* Check that the connection is still open. */
-            if ((conn.isActive() && conn.getChannel().isOpen())) {
-                reuseConnCounter.increment();
-                connsInUse.incrementAndGet();
+            if (!(conn.isActive() && conn.getChannel().isOpen())) {
+                connTakenFromPoolIsNotOpen.increment();
+                evictedClosedCounter.increment();
                 connsInPool.decrementAndGet();
-                return conn;
+                conn.close();
             }
-            else {
-                connTakenFromPoolIsNotOpen.increment();
+            /* And that the origin hasn't closed it while idle, eg. on its own shorter idle timeout. */
+            else if (conn.getIdleTimeMs() >= config.getValidateAfterIdleMs() && conn.isClosedByOrigin()) {
+                evictedStaleCounter.increment();
                 connsInPool.decrementAndGet();
                 conn.close();
             }
+            else {
+                reuseConnCounter.increment();
+                connsInUse.incrementAndGet();
+                connsInPool.decrementAndGet();
+                return conn;
+            }
         }
         return null;
     }
@@ -360,8 +406,9 @@ public class PerServerConnectionPool implements IConnectionPool
             conn.setInPool(false);
             return false;
         }
-        // Attempt to return connection to the pool.
-        else if (connections.offer(conn)) {
+        // Attempt to return connection to the pool. The most recently used connections are reused first, so that the
+        // least recently used ones are left to go idle and be closed when there are more than needed.
+        else if (connections.offerFirst(conn)) {
             conn.setInPool(true);
             connsInPool.incrementAndGet();
             passport.add(PassportState.ORIGIN_CH_POOL_RETURNED);
@@ -375,6 +422,21 @@ public class PerServerConnectionPool implements IConnectionPool
         }
     }
 
+    /**
+     * Called when a pooled connection's idle timeout fires.
+     *
+     * @return false if closing it would leave fewer than the min idle connections on its event loop
+     */
+    public boolean shouldEvictIdle(PooledConnection conn)
+    {
+        final int minIdle = config.getMinIdle();
+        if (minIdle > 0 && getPoolForEventLoop(conn.getChannel().eventLoop()).size() <= minIdle) {
+            return false;
+        }
+        evictedIdleCounter.increment();
+        return true;
+    }
+
     @Override
     public boolean remove(PooledConnection conn)
     {
@@ -410,6 +472,52 @@ public class PerServerConnectionPool implements IConnectionPool
         }
     }
 
+    /**
+     * @return the number of requests currently acquiring or holding a connection to this server
+     */
+    public int getActiveRequestsCount() {
+        return stats.getActiveRequestsCount();
+    }
+
+    public void recordResponseTime(long responseTimeMs) {
+        long prev;
+        double updated;
+        do {
+            prev = responseTimeEwma.get();
+            final double avg = Double.longBitsToDouble(prev);
+            updated = avg == 0 ? responseTimeMs : avg + (responseTimeMs - avg) * RESPONSE_TIME_EWMA_WEIGHT;
+        } while (!responseTimeEwma.compareAndSet(prev, Double.doubleToRawLongBits(updated)));
+    }
+
+    /**
+     * @return the exponentially weighted moving average of this server's response times in ms, or 0 if none yet
+     */
+    public double getResponseTimeEwma() {
+        return Double.longBitsToDouble(responseTimeEwma.get());
+    }
+
+    public void resetResponseTimeEwma() {
+        responseTimeEwma.set(Double.doubleToRawLongBits(0));
+    }
+
+    public OutlierDetector.ServerState getOutlierState() {
+        return outlierState;
+    }
+
+    /**
+     * Closes all of this server's idle pooled connections, leaving the ones in use alone.
+     */
+    public void drainIdleConnections() {
+        for (Deque<PooledConnection> connections : connectionsPerEventLoop.values()) {
+            PooledConnection conn;
+            while ((conn = connections.poll()) != null) {
+                conn.setInPool(false);
+                connsInPool.decrementAndGet();
+                conn.close();
+            }
+        }
+    }
+
     @Override
     public int getConnsInPool() {
         return connsInPool.get();
@@ -420,4 +528,118 @@ public class PerServerConnectionPool implements IConnectionPool
         return connsInUse.get();
     }
 
+    @RunWith(MockitoJUnitRunner.class)
+    public static class UnitTest
+    {
+        @Mock
+        private ServerStats stats;
+        @Mock
+        private InstanceInfo instanceInfo;
+        @Mock
+        private NettyClientConnectionFactory connectionFactory;
+        @Mock
+        private PooledConnectionFactory pooledConnectionFactory;
+        @Mock
+        private ConnectionPoolConfig config;
+        @Mock
+        private IClientConfig niwsClientConfig;
+        @Mock
+        private Counter counter;
+        @Mock
+        private Timer timer;
+        @Mock
+        private EventLoop eventLoop;
+
+        private final Registry registry = new DefaultRegistry();
+        private final AtomicInteger connsInPool = new AtomicInteger();
+        private final AtomicInteger connsInUse = new AtomicInteger();
+        private PerServerConnectionPool pool;
+
+        @Before
+        public void setup()
+        {
+            Spectator.globalRegistry().add(registry);
+            when(config.getOriginName()).thenReturn("api");
+            when(config.perServerWaterline()).thenReturn(-1);
+            when(config.getValidateAfterIdleMs()).thenReturn(1000);
+            pool = new PerServerConnectionPool(new Server("api", 7001), stats, instanceInfo, connectionFactory,
+                    pooledConnectionFactory, config, niwsClientConfig, counter, counter, counter, counter, counter,
+                    counter, counter, timer, connsInPool, connsInUse);
+        }
+
+        @After
+        public void teardown()
+        {
+            Spectator.globalRegistry().remove(registry);
+        }
+
+        private PooledConnection connection()
+        {
+            final Channel channel = mock(Channel.class);
+            when(channel.eventLoop()).thenReturn(eventLoop);
+            when(channel.attr(any(AttributeKey.class))).thenReturn(mock(Attribute.class));
+            when(channel.isOpen()).thenReturn(true);
+            final PooledConnection conn = mock(PooledConnection.class);
+            when(conn.getChannel()).thenReturn(channel);
+            when(conn.isActive()).thenReturn(true);
+            return conn;
+        }
+
+        private long evicted(String cause)
+        {
+            return registry.counter(DefaultClientChannelManager.METRIC_PREFIX + "_evicted",
+                    "id", "api", "cause", cause).count();
+        }
+
+        @Test
+        public void reusesMostRecentlyUsedFirst()
+        {
+            final PooledConnection first = connection();
+            final PooledConnection second = connection();
+            pool.release(first);
+            pool.release(second);
+            assertEquals(2, connsInPool.get());
+
+            assertSame(second, pool.tryGettingFromConnectionPool(eventLoop));
+            assertSame(first, pool.tryGettingFromConnectionPool(eventLoop));
+            assertNull(pool.tryGettingFromConnectionPool(eventLoop));
+            assertEquals(0, connsInPool.get());
+            assertEquals(2, connsInUse.get());
+        }
+
+        @Test
+        public void keepsMinIdleConnections()
+        {
+            when(config.getMinIdle()).thenReturn(1);
+            final PooledConnection first = connection();
+            pool.release(first);
+            assertFalse(pool.shouldEvictIdle(first));
+            assertEquals(0, evicted("idle"));
+
+            pool.release(connection());
+            assertTrue(pool.shouldEvictIdle(first));
+            assertEquals(1, evicted("idle"));
+        }
+
+        @Test
+        public void discardsConnectionsClosedByOriginWhileIdle()
+        {
+            final PooledConnection stale = connection();
+            when(stale.getIdleTimeMs()).thenReturn(5000L);
+            when(stale.isClosedByOrigin()).thenReturn(true);
+            final PooledConnection recent = connection();
+            when(recent.getIdleTimeMs()).thenReturn(10L);
+            pool.release(recent);
+            pool.release(stale);
+
+            assertSame(recent, pool.tryGettingFromConnectionPool(eventLoop));
+            verify(stale).close();
+            assertEquals(1, evicted("stale"));
+            assertEquals(0, connsInPool.get());
+
+            // Not idle for long enough to be worth checking.
+            verify(recent, never()).isClosedByOrigin();
+            verify(recent, never()).close();
+        }
+    }
 }
@@ -19,26 +19,56 @@ package com.netflix.zuul.netty.connectionpool;
 import com.netflix.appinfo.InstanceInfo;
 import com.netflix.loadbalancer.Server;
 import com.netflix.loadbalancer.ServerStats;
+import com.netflix.netty.common.time.CoarseClock;
 import com.netflix.spectator.api.Counter;
 import com.netflix.zuul.passport.CurrentPassport;
+import com.netflix.netty.common.time.ClockSource;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInboundInvoker;
 import io.netty.channel.ChannelPipeline;
-import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.channel.EventLoop;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.ReadTimeoutException;
 import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.EventExecutor;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
 /**
  * Created by saroskar on 3/15/16.
  */
 public class PooledConnection {
 
     private static final AttributeKey<PooledConnection> CHANNEL_ATTR = AttributeKey.newInstance("_pooled_connection");
+    /** @deprecated no longer added, as read timeouts are run by the ConnectionTimeoutWheel */
+    @Deprecated
     public static final String READ_TIMEOUT_HANDLER_NAME = "readTimeoutHandler";
 
+    /** TCP_ESTABLISHED from linux's tcp_states.h */
+    private static final int TCP_ESTABLISHED = 1;
+
     private final Server server;
     private final Channel channel;
     private final ClientChannelManager channelManager;
@@ -71,6 +101,17 @@ public class PooledConnection {
     private boolean inPool = false;
     private boolean shouldClose = false;
     private boolean released = false;
+    private long pooledAtNanos;
+    private int idleTimeoutMs;
+
+    private final ConnectionTimeoutWheel.Timeout timeout = new ConnectionTimeoutWheel.Timeout() {
+        @Override
+        protected void expired(boolean idle)
+        {
+            onTimeout(idle);
+        }
+    };
+    private ConnectionTimeoutWheel timeoutWheel;
 
     PooledConnection(final Channel channel, final Server server, final ClientChannelManager channelManager,
                      final InstanceInfo serverKey,
@@ -170,6 +211,30 @@ public class PooledConnection {
     public void setInPool(boolean inPool)
     {
         this.inPool = inPool;
+        if (inPool) {
+            pooledAtNanos = CoarseClock.INSTANCE.nanoTime();
+        }
+    }
+
+    /**
+     * @return how long the connection has been in the pool, in ms, or 0 if it isn't in the pool
+     */
+    public long getIdleTimeMs()
+    {
+        return inPool ? TimeUnit.NANOSECONDS.toMillis(CoarseClock.INSTANCE.nanoTime() - pooledAtNanos) : 0;
+    }
+
+    /**
+     * Checks whether the origin has closed its end of the connection. With auto read off, a FIN that arrives while
+     * the connection sits in the pool isn't seen until the connection's next read, ie. after a request has been
+     * written to it. This is only detectable on the epoll transport, so is always false on others.
+     */
+    public boolean isClosedByOrigin()
+    {
+        if (channel instanceof EpollSocketChannel) {
+            return ((EpollSocketChannel) channel).tcpInfo().state() != TCP_ESTABLISHED;
+        }
+        return false;
     }
 
     public boolean isShouldClose()
@@ -220,7 +285,8 @@ public class PooledConnection {
             this.shouldClose = true;
         }
 
-        removeReadTimeoutHandler();
+        // Don't time out reads while the connection isn't in use.
+        stopTimeout();
 
         // reset the connectionState
         connectionState = ConnectionState.WRITE_READY;
@@ -228,24 +294,86 @@ public class PooledConnection {
         channelManager.release(this);
     }
 
-    private void removeReadTimeoutHandler()
+    /**
+     * Starts timing out the response once nothing has been read for readTimeout ms, as ReadTimeoutHandler would.
+     */
+    public void startReadTimeoutHandler(int readTimeout)
+    {
+        startTimeout(readTimeout, false);
+    }
+
+    /**
+     * Starts timing out the connection while it sits in the pool, once it's been idle for idleTimeout ms, as
+     * IdleStateHandler would.
+     */
+    public void startIdleTimeout(int idleTimeout)
     {
-        // Remove (and therefore destroy) the readTimeoutHandler when we release the
-        // channel back to the pool. As don't want it timing-out when it's not in use.
-        final ChannelPipeline pipeline = getChannel().pipeline();
-        removeHandlerFromPipeline(READ_TIMEOUT_HANDLER_NAME, pipeline);
+        idleTimeoutMs = idleTimeout;
+        startTimeout(idleTimeout, true);
     }
 
-    private void removeHandlerFromPipeline(String handlerName, ChannelPipeline pipeline)
+    private void startTimeout(int timeoutMs, boolean idle)
     {
-        if (pipeline.get(handlerName) != null) {
-            pipeline.remove(handlerName);
+        final EventLoop eventLoop = channel.eventLoop();
+        if (!eventLoop.inEventLoop()) {
+            eventLoop.execute(() -> startTimeout(timeoutMs, idle));
+            return;
         }
+        if (timeoutMs <= 0) {
+            // Disabled, as with a zero timeout on ReadTimeoutHandler or IdleStateHandler.
+            stopTimeout();
+            return;
+        }
+        if (timeoutWheel == null) {
+            timeoutWheel = ConnectionTimeoutWheel.forEventLoop(eventLoop);
+        }
+        timeoutWheel.schedule(timeout, timeoutMs, idle);
     }
 
-    public void startReadTimeoutHandler(int readTimeout)
+    /**
+     * Stops any read or idle timeout.
+     */
+    public void stopTimeout()
+    {
+        if (timeoutWheel == null) {
+            return;
+        }
+        final EventLoop eventLoop = channel.eventLoop();
+        if (!eventLoop.inEventLoop()) {
+            eventLoop.execute(this::stopTimeout);
+            return;
+        }
+        timeoutWheel.cancel(timeout);
+    }
+
+    void recordRead()
+    {
+        if (timeoutWheel != null && timeout.isScheduled()) {
+            timeout.touch(timeoutWheel.getClock().nanoTime());
+        }
+    }
+
+    private void onTimeout(boolean idle)
     {
-        channel.pipeline().addBefore("originNettyLogger", READ_TIMEOUT_HANDLER_NAME, new ReadTimeoutHandler(readTimeout, TimeUnit.MILLISECONDS));
+        if (!channel.isActive()) {
+            return;
+        }
+        // Fired from where the timeout handlers used to sit, so the rest of the pipeline sees the same as before.
+        final ChannelPipeline pipeline = channel.pipeline();
+        final ChannelHandlerContext ctx = pipeline.context(ConnectionTimeoutHandler.NAME);
+        final ChannelInboundInvoker invoker = ctx != null ? ctx : pipeline;
+        if (idle) {
+            if (channelManager.shouldEvictIdle(this)) {
+                invoker.fireUserEventTriggered(IdleStateEvent.ALL_IDLE_STATE_EVENT);
+            }
+            else {
+                startTimeout(idleTimeoutMs, true);
+            }
+        }
+        else {
+            invoker.fireExceptionCaught(ReadTimeoutException.INSTANCE);
+            channel.close();
+        }
     }
 
 
@@ -258,4 +386,89 @@ public class PooledConnection {
                 ", usageCount=" + usageCount +
                 '}';
     }
+
+    @RunWith(MockitoJUnitRunner.class)
+    public static class UnitTest
+    {
+        @Mock
+        private ClientChannelManager channelManager;
+        @Mock
+        private ServerStats serverStats;
+        @Mock
+        private Counter counter;
+        @Mock
+        private EventExecutor executor;
+
+        private long nanos;
+        private final List<Object> events = new ArrayList<>();
+        private EmbeddedChannel channel;
+        private PooledConnection conn;
+
+        @Before
+        public void setup()
+        {
+            channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter() {
+                @Override
+                public void userEventTriggered(ChannelHandlerContext ctx, Object evt)
+                {
+                    events.add(evt);
+                }
+            });
+            conn = new PooledConnection(channel, new Server("api", 7001), channelManager, null, serverStats,
+                    counter, counter);
+            conn.timeoutWheel = new ConnectionTimeoutWheel(executor, new ClockSource() {
+                @Override
+                public long currentTimeMillis()
+                {
+                    return TimeUnit.NANOSECONDS.toMillis(nanos);
+                }
+
+                @Override
+                public long nanoTime()
+                {
+                    return nanos;
+                }
+            }, 10);
+        }
+
+        private void advanceMs(long ms)
+        {
+            for (long i = 0; i < ms; i += 10) {
+                nanos += TimeUnit.MILLISECONDS.toNanos(10);
+                conn.timeoutWheel.tick();
+            }
+        }
+
+        @Test
+        public void keepsIdleConnectionWhileAtMinIdle()
+        {
+            when(channelManager.shouldEvictIdle(conn)).thenReturn(false);
+            conn.startIdleTimeout(100);
+
+            advanceMs(100);
+            assertTrue(events.isEmpty());
+            assertTrue("rescheduled", conn.timeout.isScheduled());
+
+            when(channelManager.shouldEvictIdle(conn)).thenReturn(true);
+            advanceMs(100);
+            assertEquals(Collections.singletonList(IdleStateEvent.ALL_IDLE_STATE_EVENT), events);
+            verify(channelManager, times(2)).shouldEvictIdle(conn);
+        }
+
+        @Test
+        public void zeroTimeoutDisablesTimeout()
+        {
+            conn.startReadTimeoutHandler(100);
+            assertTrue(conn.timeout.isScheduled());
+
+            conn.startIdleTimeout(0);
+            assertFalse(conn.timeout.isScheduled());
+            assertEquals(0, conn.timeoutWheel.size());
+
+            conn.startReadTimeoutHandler(0);
+            advanceMs(200);
+            assertTrue(events.isEmpty());
+            assertTrue(channel.isOpen());
+        }
+    }
 }
@@ -16,6 +16,9 @@
 
 package com.netflix.zuul.netty.filter;
 
+import com.netflix.config.CachedDynamicBooleanProperty;
+import com.netflix.netty.common.time.ClockSource;
+import com.netflix.netty.common.time.CoarseClock;
 import com.netflix.spectator.impl.Preconditions;
 import com.netflix.zuul.ExecutionStatus;
 import com.netflix.zuul.FilterUsageNotifier;
@@ -40,6 +43,7 @@ import rx.Observer;
 import rx.schedulers.Schedulers;
 
 import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -48,7 +52,7 @@ import static com.netflix.zuul.ExecutionStatus.DISABLED;
 import static com.netflix.zuul.ExecutionStatus.FAILED;
 import static com.netflix.zuul.ExecutionStatus.SKIPPED;
 import static com.netflix.zuul.ExecutionStatus.SUCCESS;
-import static com.netflix.zuul.context.CommonContextKeys.NETTY_SERVER_CHANNEL_HANDLER_CONTEXT;
+import static com.netflix.zuul.context.CommonContextKeys.NETTY_SERVER_CHANNEL_HANDLER_CONTEXT_KEY;
 import static com.netflix.zuul.filters.FilterType.ENDPOINT;
 import static com.netflix.zuul.filters.FilterType.INBOUND;
 
@@ -67,6 +71,17 @@ public abstract class BaseZuulFilterRunner<I extends ZuulMessage, O extends Zuul
     private final String AWAITING_BODY_FLAG_SESSION_CTX_KEY;
     private static final Logger LOG = LoggerFactory.getLogger(BaseZuulFilterRunner.class);
 
+    /**
+     * Time filters with the per event loop CoarseClock instead of nanoTime. Cheaper, but filters that run within
+     * the clock's resolution are recorded as taking 0ms.
+     */
+    private static final CachedDynamicBooleanProperty USE_COARSE_CLOCK = new CachedDynamicBooleanProperty(
+            "zuul.filter.timing.clock.coarse", false);
+
+    private static ClockSource filterClock() {
+        return USE_COARSE_CLOCK.get() ? CoarseClock.INSTANCE : ClockSource.SYSTEM;
+    }
+
 
     protected BaseZuulFilterRunner(FilterType filterType, FilterUsageNotifier usageNotifier,
             FilterRunner<O, ?> nextStage) {
@@ -78,7 +93,7 @@ public abstract class BaseZuulFilterRunner<I extends ZuulMessage, O extends Zuul
 
     // TODO: 2018/7/10 by zmyer
     public static final ChannelHandlerContext getChannelHandlerContext(final ZuulMessage mesg) {
-        return (ChannelHandlerContext) checkNotNull(mesg.getContext().get(NETTY_SERVER_CHANNEL_HANDLER_CONTEXT),
+        return checkNotNull(mesg.getContext().get(NETTY_SERVER_CHANNEL_HANDLER_CONTEXT_KEY),
                 "channel handler context");
     }
 
@@ -130,8 +145,19 @@ public abstract class BaseZuulFilterRunner<I extends ZuulMessage, O extends Zuul
 
     // TODO: 2018/7/10 by zmyer
     protected final O filter(final ZuulFilter<I, O> filter, final I inMesg) {
-        final long startTime = System.currentTimeMillis();
-        final ZuulMessage snapshot = inMesg.getContext().debugRouting() ? inMesg.clone() : null;
+        return filter(filter, inMesg, filter.getSyncType() == FilterSyncType.SYNC, true);
+    }
+
+    /**
+     * Runs the filter using flags pre-resolved by its FilterChain, rather than asking the filter per request.
+     *
+     * @param isSync whether the filter is a SyncZuulFilter
+     * @param mayNeedBodyBuffered false if the filter's needsBodyBuffered() is known to always return false
+     */
+    protected final O filter(final ZuulFilter<I, O> filter, final I inMesg, final boolean isSync,
+            final boolean mayNeedBodyBuffered) {
+        final long startTime = filterClock().nanoTime();
+        final int debugJournalMark = inMesg.getContext().debugRouting() ? Debug.startChangeTracking(inMesg) : -1;
         FilterChainResumer resumer = null;
 
         try {
@@ -150,18 +176,18 @@ public abstract class BaseZuulFilterRunner<I extends ZuulMessage, O extends Zuul
             }
 
             if (filterRunStatus != null) {
-                recordFilterCompletion(filterRunStatus, filter, startTime, inMesg, snapshot);
+                recordFilterCompletion(filterRunStatus, filter, startTime, inMesg, debugJournalMark);
                 return filter.getDefaultOutput(inMesg);
             }
 
-            if (!isMessageBodyReadyForFilter(filter, inMesg)) {
+            if (mayNeedBodyBuffered && !isMessageBodyReadyForFilter(filter, inMesg)) {
                 setFilterAwaitingBody(inMesg, true);
                 LOG.debug("Filter {} waiting for body, UUID {}", filter.filterName(), inMesg.getContext().getUUID());
                 return null;  //wait for whole body to be buffered
             }
             setFilterAwaitingBody(inMesg, false);
 
-            if (snapshot != null) {
+            if (debugJournalMark >= 0) {
                 Debug.addRoutingDebug(inMesg.getContext(),
                         "Filter " + filter.filterType().toString() + " " + filter.filterOrder() + " " +
                                 filter.filterName());
@@ -170,16 +196,16 @@ public abstract class BaseZuulFilterRunner<I extends ZuulMessage, O extends Zuul
             //run body contents accumulated so far through this filter
             inMesg.runBufferedBodyContentThroughFilter(filter);
 
-            if (filter.getSyncType() == FilterSyncType.SYNC) {
+            if (isSync) {
                 final SyncZuulFilter<I, O> syncFilter = (SyncZuulFilter) filter;
                 final O outMesg = syncFilter.apply(inMesg);
-                recordFilterCompletion(SUCCESS, filter, startTime, inMesg, snapshot);
+                recordFilterCompletion(SUCCESS, filter, startTime, inMesg, debugJournalMark);
                 return (outMesg != null) ? outMesg : filter.getDefaultOutput(inMesg);
             }
 
             // async filter
             filter.incrementConcurrency();
-            resumer = new FilterChainResumer(inMesg, filter, snapshot, startTime);
+            resumer = new FilterChainResumer(inMesg, filter, debugJournalMark, startTime);
             filter.applyAsync(inMesg)
                     .observeOn(Schedulers.from(getChannelHandlerContext(inMesg).executor()))
                     .doOnUnsubscribe(resumer::decrementConcurrency)
@@ -192,7 +218,7 @@ public abstract class BaseZuulFilterRunner<I extends ZuulMessage, O extends Zuul
             }
             final O outMesg = handleFilterException(inMesg, filter, t);
             outMesg.finishBufferedBodyIfIncomplete();
-            recordFilterCompletion(FAILED, filter, startTime, inMesg, snapshot);
+            recordFilterCompletion(FAILED, filter, startTime, inMesg, debugJournalMark);
             return outMesg;
         }
     }
@@ -252,11 +278,16 @@ public abstract class BaseZuulFilterRunner<I extends ZuulMessage, O extends Zuul
     }
 
     // TODO: 2018/7/10 by zmyer
+    /**
+     * @param startTime filter start time, as returned by filterClock().nanoTime()
+     * @param debugJournalMark size of the context's ChangeJournal when the filter started, or -1 if not debugRouting
+     */
     protected void recordFilterCompletion(final ExecutionStatus status, final ZuulFilter<I, O> filter, long startTime,
-            final ZuulMessage zuulMesg, final ZuulMessage startSnapshot) {
+            final ZuulMessage zuulMesg, final int debugJournalMark) {
 
         final SessionContext zuulCtx = zuulMesg.getContext();
-        final long execTime = System.currentTimeMillis() - startTime;
+        final long execTimeNanos = filterClock().nanoTime() - startTime;
+        final long execTime = TimeUnit.NANOSECONDS.toMillis(execTimeNanos);
 
         // Record the execution summary in context.
         switch (status) {
@@ -265,12 +296,12 @@ public abstract class BaseZuulFilterRunner<I extends ZuulMessage, O extends Zuul
             break;
         case SUCCESS:
             zuulCtx.addFilterExecutionSummary(filter.filterName(), SUCCESS.name(), execTime);
-            if (startSnapshot != null) {
+            if (debugJournalMark >= 0) {
                 //debugRouting == true
                 Debug.addRoutingDebug(zuulCtx,
                         "Filter {" + filter.filterName() + " TYPE:" + filter.filterType().toString()
                                 + " ORDER:" + filter.filterOrder() + "} Execution time = " + execTime + "ms");
-                Debug.compareContextState(filter.filterName(), zuulCtx, startSnapshot.getContext());
+                Debug.addRoutingDebugForChanges(filter.filterName(), zuulCtx, debugJournalMark);
             }
             break;
         default:
@@ -280,7 +311,7 @@ public abstract class BaseZuulFilterRunner<I extends ZuulMessage, O extends Zuul
         LOG.debug("Filter {} completed with status {}, UUID {}", filter.filterName(), status.name(),
                 zuulMesg.getContext().getUUID());
         // Notify configured listener.
-        usageNotifier.notify(filter, status);
+        usageNotifier.notify(filter, status, execTimeNanos);
     }
 
 
@@ -316,14 +347,14 @@ public abstract class BaseZuulFilterRunner<I extends ZuulMessage, O extends Zuul
     private final class FilterChainResumer implements Observer<O> {
         private final I inMesg;
         private final ZuulFilter<I, O> filter;
-        private ZuulMessage snapshot;
+        private final int debugJournalMark;
         private final long startTime;
         private AtomicBoolean concurrencyDecremented;
 
-        public FilterChainResumer(I inMesg, ZuulFilter<I, O> filter, ZuulMessage snapshot, long startTime) {
+        public FilterChainResumer(I inMesg, ZuulFilter<I, O> filter, int debugJournalMark, long startTime) {
             this.inMesg = Preconditions.checkNotNull(inMesg, "input message");
             this.filter = Preconditions.checkNotNull(filter, "filter");
-            this.snapshot = snapshot;
+            this.debugJournalMark = debugJournalMark;
             this.startTime = startTime;
             this.concurrencyDecremented = new AtomicBoolean(false);
         }
@@ -337,7 +368,7 @@ public abstract class BaseZuulFilterRunner<I extends ZuulMessage, O extends Zuul
         @Override
         public void onNext(O outMesg) {
             try {
-                recordFilterCompletion(SUCCESS, filter, startTime, inMesg, snapshot);
+                recordFilterCompletion(SUCCESS, filter, startTime, inMesg, debugJournalMark);
                 if (outMesg == null) {
                     outMesg = filter.getDefaultOutput(inMesg);
                 }
@@ -353,7 +384,7 @@ public abstract class BaseZuulFilterRunner<I extends ZuulMessage, O extends Zuul
         public void onError(Throwable ex) {
             try {
                 decrementConcurrency();
-                recordFilterCompletion(FAILED, filter, startTime, inMesg, snapshot);
+                recordFilterCompletion(FAILED, filter, startTime, inMesg, debugJournalMark);
                 final O outMesg = handleFilterException(inMesg, filter, ex);
                 resumeInBindingContext(outMesg, filter.filterName());
             } catch (Exception e) {
@@ -39,7 +39,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.concurrent.ThreadSafe;
 
-import static com.netflix.zuul.context.CommonContextKeys.ZUUL_ENDPOINT;
+import static com.netflix.zuul.context.CommonContextKeys.ZUUL_ENDPOINT_KEY;
 
 
 /**
@@ -66,14 +66,14 @@ public class ZuulEndPointRunner extends BaseZuulFilterRunner<HttpRequestMessage,
 
     public static ZuulFilter<HttpRequestMessage, HttpResponseMessage> getEndpoint(final HttpRequestMessage zuulReq) {
         if (zuulReq != null) {
-            return (ZuulFilter<HttpRequestMessage, HttpResponseMessage>) zuulReq.getContext().get(ZUUL_ENDPOINT);
+            return (ZuulFilter<HttpRequestMessage, HttpResponseMessage>) zuulReq.getContext().get(ZUUL_ENDPOINT_KEY);
         }
         return null;
     }
 
     public static void setEndpoint(HttpRequestMessage zuulReq,
             ZuulFilter<HttpRequestMessage, HttpResponseMessage> endpoint) {
-        zuulReq.getContext().set(ZUUL_ENDPOINT, endpoint);
+        zuulReq.getContext().set(ZUUL_ENDPOINT_KEY, endpoint);
     }
 
     // TODO: 2018/7/10 by zmyer
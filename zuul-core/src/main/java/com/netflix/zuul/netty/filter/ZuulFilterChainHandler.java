@@ -42,7 +42,7 @@ import org.slf4j.LoggerFactory;
 import java.nio.channels.ClosedChannelException;
 
 import static com.netflix.netty.common.HttpLifecycleChannelHandler.CompleteReason.SESSION_COMPLETE;
-import static com.netflix.zuul.context.CommonContextKeys.NETTY_SERVER_CHANNEL_HANDLER_CONTEXT;
+import static com.netflix.zuul.context.CommonContextKeys.NETTY_SERVER_CHANNEL_HANDLER_CONTEXT_KEY;
 import static com.netflix.zuul.context.CommonContextKeys.ZUUL_FILTER_CHAIN;
 import static com.netflix.zuul.stats.status.ZuulStatusCategory.FAILURE_CLIENT_CANCELLED;
 import static com.netflix.zuul.stats.status.ZuulStatusCategory.FAILURE_CLIENT_PIPELINE_REJECT;
@@ -76,7 +76,7 @@ public class ZuulFilterChainHandler extends ChannelInboundHandlerAdapter {
 
             //Replace NETTY_SERVER_CHANNEL_HANDLER_CONTEXT in SessionContext
             final SessionContext zuulCtx = zuulRequest.getContext();
-            zuulCtx.put(NETTY_SERVER_CHANNEL_HANDLER_CONTEXT, ctx);
+            zuulCtx.set(NETTY_SERVER_CHANNEL_HANDLER_CONTEXT_KEY, ctx);
             zuulCtx.put(ZUUL_FILTER_CHAIN, requestFilterChain);
 
             requestFilterChain.filter(zuulRequest);
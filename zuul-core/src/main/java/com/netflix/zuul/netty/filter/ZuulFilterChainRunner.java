@@ -18,6 +18,8 @@ package com.netflix.zuul.netty.filter;
 
 import com.netflix.spectator.impl.Preconditions;
 import com.netflix.zuul.FilterUsageNotifier;
+import com.netflix.zuul.filters.FilterChain;
+import com.netflix.zuul.filters.FilterType;
 import com.netflix.zuul.filters.ZuulFilter;
 import com.netflix.zuul.message.ZuulMessage;
 import com.netflix.zuul.message.http.HttpRequestMessage;
@@ -28,6 +30,7 @@ import io.netty.handler.codec.http.HttpContent;
 
 import javax.annotation.concurrent.ThreadSafe;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * This class is supposed to be thread safe and hence should not have any non final member variables
@@ -37,12 +40,23 @@ import java.util.concurrent.atomic.AtomicInteger;
 @ThreadSafe
 public class ZuulFilterChainRunner<T extends ZuulMessage> extends BaseZuulFilterRunner<T, T> {
 
-    private final ZuulFilter<T, T>[] filters;
+    private final Supplier<FilterChain<T>> filterChainSupplier;
+    private final String FILTER_CHAIN_SESSION_CTX_KEY;
+
+    /**
+     * @param filterChainSupplier read once at the start of each request, so that every request runs the latest
+     *                            published chain while keeping the same chain for its whole lifetime
+     */
+    public ZuulFilterChainRunner(FilterType filterType, Supplier<FilterChain<T>> filterChainSupplier,
+            FilterUsageNotifier usageNotifier, FilterRunner<T, ?> nextStage) {
+        super(filterType, usageNotifier, nextStage);
+        this.filterChainSupplier = Preconditions.checkNotNull(filterChainSupplier, "filter chain supplier");
+        this.FILTER_CHAIN_SESSION_CTX_KEY = filterType + "RunningFilterChain";
+    }
 
     public ZuulFilterChainRunner(ZuulFilter<T, T>[] zuulFilters, FilterUsageNotifier usageNotifier,
             FilterRunner<T, ?> nextStage) {
-        super(zuulFilters[0].filterType(), usageNotifier, nextStage);
-        this.filters = zuulFilters;
+        this(zuulFilters[0].filterType(), fixedChain(zuulFilters), usageNotifier, nextStage);
     }
 
     // TODO: 2018/7/10 by zmyer
@@ -50,29 +64,41 @@ public class ZuulFilterChainRunner<T extends ZuulMessage> extends BaseZuulFilter
         this(zuulFilters, usageNotifier, null);
     }
 
+    private static <T extends ZuulMessage> Supplier<FilterChain<T>> fixedChain(ZuulFilter<T, T>[] zuulFilters) {
+        final FilterChain<T> chain = FilterChain.fixed(zuulFilters);
+        return () -> chain;
+    }
+
+    private FilterChain<T> getRunningFilterChain(T zuulMesg) {
+        return (FilterChain<T>) Preconditions.checkNotNull(zuulMesg.getContext().get(FILTER_CHAIN_SESSION_CTX_KEY),
+                "runningFilterChain");
+    }
+
     @Override
     public void filter(final T inMesg) {
-        runFilters(inMesg, initRunningFilterIndex(inMesg));
+        final FilterChain<T> chain = filterChainSupplier.get();
+        inMesg.getContext().put(FILTER_CHAIN_SESSION_CTX_KEY, chain);
+        runFilters(inMesg, chain, initRunningFilterIndex(inMesg));
     }
 
     @Override
     protected void resume(final T inMesg) {
         final AtomicInteger runningFilterIdx = getRunningFilterIndex(inMesg);
         runningFilterIdx.incrementAndGet();
-        runFilters(inMesg, runningFilterIdx);
+        runFilters(inMesg, getRunningFilterChain(inMesg), runningFilterIdx);
     }
 
-    private final void runFilters(final T mesg, final AtomicInteger runningFilterIdx) {
+    private final void runFilters(final T mesg, final FilterChain<T> chain, final AtomicInteger runningFilterIdx) {
         T inMesg = mesg;
         String filterName = "-";
         try {
             Preconditions.checkNotNull(mesg, "Input message");
             int i = runningFilterIdx.get();
 
-            while (i < filters.length) {
-                final ZuulFilter<T, T> filter = filters[i];
+            while (i < chain.size()) {
+                final ZuulFilter<T, T> filter = chain.get(i);
                 filterName = filter.filterName();
-                final T outMesg = filter(filter, inMesg);
+                final T outMesg = filter(filter, inMesg, chain.isSync(i), chain.mayNeedBodyBuffered(i));
                 if (outMesg == null) {
                     return; //either async filter or waiting for the message body to be buffered
                 }
@@ -93,10 +119,11 @@ public class ZuulFilterChainRunner<T extends ZuulMessage> extends BaseZuulFilter
         try {
             Preconditions.checkNotNull(inMesg, "input message");
 
+            final FilterChain<T> chain = getRunningFilterChain(inMesg);
             final AtomicInteger runningFilterIdx = getRunningFilterIndex(inMesg);
             final int limit = runningFilterIdx.get();
             for (int i = 0; i < limit; i++) {
-                final ZuulFilter<T, T> filter = filters[i];
+                final ZuulFilter<T, T> filter = chain.get(i);
                 filterName = filter.filterName();
                 if ((!filter.isDisabled()) && (!shouldSkipFilter(inMesg, filter))) {
                     final HttpContent newChunk = filter.processContentChunk(inMesg, chunk);
@@ -112,7 +139,7 @@ public class ZuulFilterChainRunner<T extends ZuulMessage> extends BaseZuulFilter
                 }
             }
 
-            if (limit >= filters.length) {
+            if (limit >= chain.size()) {
                 //Filter chain has run to end, pass down the channel pipeline
                 invokeNextStage(inMesg, chunk);
             } else {
@@ -140,7 +167,7 @@ public class ZuulFilterChainRunner<T extends ZuulMessage> extends BaseZuulFilter
 
                 if (isAwaitingBody && inMesg.hasCompleteBody()) {
                     //whole body has arrived, resume filter chain
-                    runFilters(inMesg, runningFilterIdx);
+                    runFilters(inMesg, chain, runningFilterIdx);
                 }
             }
         } catch (Exception ex) {
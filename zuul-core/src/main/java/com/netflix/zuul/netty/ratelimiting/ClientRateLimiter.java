@@ -0,0 +1,281 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.netty.ratelimiting;
+
+import com.netflix.netty.common.time.ClockSource;
+import io.netty.util.concurrent.FastThreadLocal;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Token bucket request rate limiting per client key, with the buckets kept per event loop so that taking a token
+ * never touches state shared with other threads.
+ *
+ * The only shared state is, per key, a bitmask of the event loops that currently have a bucket for it. It's only
+ * written when a loop first sees a key or drops its bucket, and each loop's bucket refills at the key's rate divided
+ * by the number of loops sharing it, so that the client's total rate across all of its connections is still about
+ * the configured one. Buckets idle for longer than the idle timeout, or beyond the max keys per loop, are dropped, so
+ * both the per-loop and the shared maps stay bounded.
+ */
+public class ClientRateLimiter
+{
+    private static final AtomicInteger NEXT_LOOP_INDEX = new AtomicInteger();
+    private static final int EXPIRY_CHECK_INTERVAL = 256;
+
+    private final ClockSource clock;
+    private final IntSupplier ratePerSecond;
+    private final IntSupplier burst;
+    private final int maxKeysPerLoop;
+    private final long idleNanos;
+
+    private final ConcurrentHashMap<String, AtomicLong> activeLoops = new ConcurrentHashMap<>();
+    private final FastThreadLocal<LoopBuckets> loopBuckets = new FastThreadLocal<LoopBuckets>() {
+        @Override
+        protected LoopBuckets initialValue()
+        {
+            // More than 64 loops share bits, which only makes their share of the rate a bit smaller.
+            return new LoopBuckets(1L << (NEXT_LOOP_INDEX.getAndIncrement() & 63));
+        }
+    };
+
+    public ClientRateLimiter(ClockSource clock, IntSupplier ratePerSecond, IntSupplier burst, int maxKeysPerLoop,
+                             long idleTimeout, TimeUnit unit)
+    {
+        this.clock = clock;
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.maxKeysPerLoop = maxKeysPerLoop;
+        this.idleNanos = unit.toNanos(idleTimeout);
+    }
+
+    /**
+     * @return true if the client identified by key is within its rate, and its request can go ahead
+     */
+    public boolean tryAcquire(String key)
+    {
+        final LoopBuckets buckets = loopBuckets.get();
+        final long now = clock.nanoTime();
+        buckets.expireIdle(now);
+
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new Bucket(key, joinLoops(key, buckets.loopBit), buckets.loopBit, now);
+            buckets.put(key, bucket);
+        }
+        return bucket.tryTake(now);
+    }
+
+    int getTrackedKeyCount()
+    {
+        return activeLoops.size();
+    }
+
+    private AtomicLong joinLoops(String key, long loopBit)
+    {
+        AtomicLong loops = activeLoops.get(key);
+        if (loops == null) {
+            final AtomicLong created = new AtomicLong();
+            loops = activeLoops.putIfAbsent(key, created);
+            if (loops == null) {
+                loops = created;
+            }
+        }
+        final long bit = loopBit;
+        loops.getAndUpdate(mask -> mask | bit);
+        return loops;
+    }
+
+    private void leaveLoops(Bucket bucket)
+    {
+        final long bit = bucket.loopBit;
+        if (bucket.loops.updateAndGet(mask -> mask & ~bit) == 0) {
+            activeLoops.remove(bucket.key, bucket.loops);
+        }
+    }
+
+    private final class Bucket
+    {
+        final String key;
+        final AtomicLong loops;
+        final long loopBit;
+        double tokens;
+        long lastRefillNanos;
+
+        Bucket(String key, AtomicLong loops, long loopBit, long now)
+        {
+            this.key = key;
+            this.loops = loops;
+            this.loopBit = loopBit;
+            this.tokens = capacity(sharingLoops());
+            this.lastRefillNanos = now;
+        }
+
+        boolean tryTake(long now)
+        {
+            final int sharing = sharingLoops();
+            final double rate = ratePerSecond.getAsInt() / (double) sharing;
+            tokens = Math.min(capacity(sharing), tokens + (now - lastRefillNanos) * rate / 1e9);
+            lastRefillNanos = now;
+
+            if (tokens >= 1) {
+                tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+
+        private int sharingLoops()
+        {
+            return Math.max(1, Long.bitCount(loops.get()));
+        }
+
+        private double capacity(int sharing)
+        {
+            return Math.max(1, burst.getAsInt() / (double) sharing);
+        }
+    }
+
+    /**
+     * One event loop's buckets, least recently used first.
+     */
+    private final class LoopBuckets extends LinkedHashMap<String, Bucket>
+    {
+        final long loopBit;
+        int callsSinceExpiryCheck;
+
+        LoopBuckets(long loopBit)
+        {
+            super(64, 0.75f, true);
+            this.loopBit = loopBit;
+        }
+
+        void expireIdle(long now)
+        {
+            if (++callsSinceExpiryCheck < EXPIRY_CHECK_INTERVAL) {
+                return;
+            }
+            callsSinceExpiryCheck = 0;
+
+            final Iterator<Bucket> it = values().iterator();
+            while (it.hasNext()) {
+                final Bucket bucket = it.next();
+                if (now - bucket.lastRefillNanos < idleNanos) {
+                    break;
+                }
+                leaveLoops(bucket);
+                it.remove();
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest)
+        {
+            if (size() > maxKeysPerLoop) {
+                leaveLoops(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public static class UnitTest
+    {
+        private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+        private static class FakeClock implements ClockSource
+        {
+            long nanos = 1000 * SECOND;
+
+            @Override
+            public long currentTimeMillis()
+            {
+                return TimeUnit.NANOSECONDS.toMillis(nanos);
+            }
+
+            @Override
+            public long nanoTime()
+            {
+                return nanos;
+            }
+        }
+
+        @Test
+        public void allowsBurstThenRate()
+        {
+            FakeClock clock = new FakeClock();
+            ClientRateLimiter limiter = new ClientRateLimiter(clock, () -> 10, () -> 3, 100, 1, TimeUnit.MINUTES);
+
+            assertTrue(limiter.tryAcquire("a"));
+            assertTrue(limiter.tryAcquire("a"));
+            assertTrue(limiter.tryAcquire("a"));
+            assertFalse(limiter.tryAcquire("a"));
+            assertTrue("other keys have their own bucket", limiter.tryAcquire("b"));
+
+            clock.nanos += SECOND / 10;
+            assertTrue(limiter.tryAcquire("a"));
+            assertFalse(limiter.tryAcquire("a"));
+        }
+
+        @Test
+        public void splitsRateBetweenLoops() throws Exception
+        {
+            FakeClock clock = new FakeClock();
+            ClientRateLimiter limiter = new ClientRateLimiter(clock, () -> 10, () -> 4, 100, 1, TimeUnit.MINUTES);
+
+            // Another thread taking a token for the key stands in for a second event loop.
+            Thread other = new Thread(() -> limiter.tryAcquire("a"));
+            other.start();
+            other.join();
+
+            int allowed = 0;
+            while (limiter.tryAcquire("a")) {
+                allowed++;
+            }
+            assertEquals("half of the burst", 2, allowed);
+
+            clock.nanos += SECOND / 5;
+            assertTrue("at half the rate", limiter.tryAcquire("a"));
+            assertFalse(limiter.tryAcquire("a"));
+        }
+
+        @Test
+        public void dropsLeastRecentlyUsedBeyondMaxKeys()
+        {
+            FakeClock clock = new FakeClock();
+            ClientRateLimiter limiter = new ClientRateLimiter(clock, () -> 10, () -> 1, 2, 1, TimeUnit.MINUTES);
+
+            limiter.tryAcquire("a");
+            limiter.tryAcquire("b");
+            limiter.tryAcquire("c");
+            assertEquals(2, limiter.getTrackedKeyCount());
+
+            assertTrue("a was dropped, so starts with a full bucket", limiter.tryAcquire("a"));
+        }
+    }
+}
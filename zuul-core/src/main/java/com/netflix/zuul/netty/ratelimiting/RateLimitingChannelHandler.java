@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.netty.ratelimiting;
+
+import com.netflix.config.DynamicStringProperty;
+import com.netflix.config.DynamicStringSetProperty;
+import com.netflix.netty.common.SourceAddressChannelHandler;
+import com.netflix.spectator.api.Counter;
+import com.netflix.zuul.netty.SpectatorUtils;
+import com.netflix.zuul.passport.CurrentPassport;
+import com.netflix.zuul.passport.PassportState;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Rejects requests from clients over their rate limit with a 429, as soon as the request headers are decoded, so that
+ * none of the filters run and none of the body is buffered for them. The connection is closed after the rejection,
+ * and anything else the client sends on it is discarded.
+ *
+ * Clients are identified by their IP address. If "zuul.ratelimit.key.header" is set, requests from the addresses in
+ * "zuul.ratelimit.key.header.trusted.sources" are identified by the value of that header instead, where present.
+ * Override extractKey() to use something else.
+ */
+@ChannelHandler.Sharable
+public class RateLimitingChannelHandler extends ChannelInboundHandlerAdapter
+{
+    private static final AttributeKey<Boolean> ATTR_RATE_LIMITED = AttributeKey.newInstance("_rate_limited");
+    private static final DynamicStringProperty KEY_HEADER = new DynamicStringProperty("zuul.ratelimit.key.header", "");
+
+    /**
+     * The source addresses that KEY_HEADER is trusted from, such as the proxies in front of Zuul that set it. Requests
+     * from any other address are limited by that address whatever they send in the header, as otherwise a client
+     * could get a fresh bucket for every request by changing the header's value, and evict other clients' buckets
+     * from the limiter while doing so.
+     */
+    private static final DynamicStringSetProperty KEY_HEADER_TRUSTED_SOURCES =
+            new DynamicStringSetProperty("zuul.ratelimit.key.header.trusted.sources", "");
+
+    private final ClientRateLimiter limiter;
+    private final Counter rejectedCounter;
+
+    public RateLimitingChannelHandler(ClientRateLimiter limiter)
+    {
+        this.limiter = limiter;
+        this.rejectedCounter = SpectatorUtils.newCounter("zuul.ratelimit.rejected", "client");
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+    {
+        final Channel channel = ctx.channel();
+        if (channel.attr(ATTR_RATE_LIMITED).get() != null) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+
+        if (msg instanceof HttpRequest) {
+            final HttpRequest request = (HttpRequest) msg;
+            final String key = extractKey(channel, request);
+            if (key != null && !limiter.tryAcquire(key)) {
+                ReferenceCountUtil.release(msg);
+                reject(ctx, request);
+                return;
+            }
+        }
+
+        super.channelRead(ctx, msg);
+    }
+
+    /**
+     * @return the key to rate limit this request by, or null to not limit it
+     */
+    protected String extractKey(Channel channel, HttpRequest request)
+    {
+        String address = channel.attr(SourceAddressChannelHandler.ATTR_SOURCE_ADDRESS).get();
+        if (address == null && channel.parent() != null) {
+            // An HTTP/2 stream, so the address is on the connection.
+            address = channel.parent().attr(SourceAddressChannelHandler.ATTR_SOURCE_ADDRESS).get();
+        }
+
+        final String headerName = KEY_HEADER.get();
+        if (StringUtils.isNotEmpty(headerName) && address != null
+                && KEY_HEADER_TRUSTED_SOURCES.get().contains(address)) {
+            final String value = request.headers().get(headerName);
+            if (value != null) {
+                return value;
+            }
+        }
+        return address;
+    }
+
+    protected void reject(ChannelHandlerContext ctx, HttpRequest request)
+    {
+        final Channel channel = ctx.channel();
+        channel.attr(ATTR_RATE_LIMITED).set(Boolean.TRUE);
+        rejectedCounter.increment();
+        CurrentPassport.fromChannel(channel).add(PassportState.IN_REQ_REJECTED);
+
+        final FullHttpResponse response = new DefaultFullHttpResponse(request.protocolVersion(),
+                HttpResponseStatus.TOO_MANY_REQUESTS);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+}
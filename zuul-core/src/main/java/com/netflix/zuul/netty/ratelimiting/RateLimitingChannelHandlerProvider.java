@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.netty.ratelimiting;
+
+import com.netflix.config.CachedDynamicIntProperty;
+import com.netflix.config.DynamicBooleanProperty;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.netty.common.time.CoarseClock;
+import io.netty.channel.ChannelHandler;
+
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides the built-in per-client RateLimitingChannelHandler when "zuul.ratelimit.enabled" is set, and otherwise no
+ * handler. All channels share the one handler, and so the same buckets.
+ */
+@Singleton
+public class RateLimitingChannelHandlerProvider implements Provider<ChannelHandler>
+{
+    private static final DynamicBooleanProperty ENABLED = new DynamicBooleanProperty("zuul.ratelimit.enabled", false);
+
+    private RateLimitingChannelHandler handler;
+
+    @Override
+    public synchronized ChannelHandler get()
+    {
+        if (!ENABLED.get()) {
+            return null;
+        }
+        if (handler == null) {
+            handler = new RateLimitingChannelHandler(createLimiter());
+        }
+        return handler;
+    }
+
+    protected ClientRateLimiter createLimiter()
+    {
+        final CachedDynamicIntProperty rate = new CachedDynamicIntProperty("zuul.ratelimit.requests.per.second", 100);
+        final CachedDynamicIntProperty burst = new CachedDynamicIntProperty("zuul.ratelimit.burst", 200);
+        final int maxKeysPerLoop = new DynamicIntProperty("zuul.ratelimit.max.keys.per.eventloop", 10000).get();
+        final int idleTimeoutMs = new DynamicIntProperty("zuul.ratelimit.idle.timeout.ms", 60000).get();
+
+        return new ClientRateLimiter(CoarseClock.INSTANCE, rate::get, burst::get, maxKeysPerLoop, idleTimeoutMs,
+                TimeUnit.MILLISECONDS);
+    }
+}
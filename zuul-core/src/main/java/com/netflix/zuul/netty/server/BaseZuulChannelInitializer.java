@@ -43,6 +43,8 @@ import com.netflix.zuul.FilterLoader;
 import com.netflix.zuul.FilterUsageNotifier;
 import com.netflix.zuul.RequestCompleteHandler;
 import com.netflix.zuul.context.SessionContextDecorator;
+import com.netflix.zuul.filters.FilterChain;
+import com.netflix.zuul.filters.FilterType;
 import com.netflix.zuul.filters.ZuulFilter;
 import com.netflix.zuul.filters.passport.InboundPassportStampingFilter;
 import com.netflix.zuul.filters.passport.OutboundPassportStampingFilter;
@@ -67,9 +69,11 @@ import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.timeout.IdleStateHandler;
 
-import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
+import static com.netflix.zuul.filters.FilterType.INBOUND;
+import static com.netflix.zuul.filters.FilterType.OUTBOUND;
 import static com.netflix.zuul.passport.PassportState.FILTERS_INBOUND_END;
 import static com.netflix.zuul.passport.PassportState.FILTERS_INBOUND_START;
 import static com.netflix.zuul.passport.PassportState.FILTERS_OUTBOUND_END;
@@ -125,6 +129,8 @@ public abstract class BaseZuulChannelInitializer extends ChannelInitializer<Chan
     protected final FilterLoader filterLoader;
     protected final FilterUsageNotifier filterUsageNotifier;
     protected final ServerStatusHeaderHandler serverStatusHeaderHandler;
+    protected final Supplier<FilterChain<HttpRequestMessage>> inboundFilterChain;
+    protected final Supplier<FilterChain<HttpResponseMessage>> outboundFilterChain;
 
     /** A collection of all the active channels that we can use to things like graceful shutdown */
     protected final ChannelGroup channels;
@@ -185,6 +191,13 @@ public abstract class BaseZuulChannelInitializer extends ChannelInitializer<Chan
 
         ServerStatusManager serverStatusManager = channelDependencies.get(ZuulDependencyKeys.serverStatusManager);
         this.serverStatusHeaderHandler = new ServerStatusHeaderHandler(serverStatusManager);
+
+        this.inboundFilterChain = FilterChain.bracketed(() -> filterLoader.getFilterChain(INBOUND),
+                new InboundPassportStampingFilter(FILTERS_INBOUND_START),
+                new InboundPassportStampingFilter(FILTERS_INBOUND_END));
+        this.outboundFilterChain = FilterChain.bracketed(() -> filterLoader.getFilterChain(OUTBOUND),
+                new OutboundPassportStampingFilter(FILTERS_OUTBOUND_START),
+                new OutboundPassportStampingFilter(FILTERS_OUTBOUND_END));
     }
 
     // TODO: 2018/7/4 by zmyer
@@ -285,25 +298,17 @@ public abstract class BaseZuulChannelInitializer extends ChannelInitializer<Chan
 
     // TODO: 2018/7/9 by zmyer
     protected void addZuulFilterChainHandler(final ChannelPipeline pipeline) {
-        final ZuulFilter<HttpResponseMessage, HttpResponseMessage>[] responseFilters = getFilters(
-                new OutboundPassportStampingFilter(FILTERS_OUTBOUND_START),
-                new OutboundPassportStampingFilter(FILTERS_OUTBOUND_END));
-
         // response filter chain
-        final ZuulFilterChainRunner<HttpResponseMessage> responseFilterChain = getFilterChainRunner(responseFilters,
-                filterUsageNotifier);
+        final ZuulFilterChainRunner<HttpResponseMessage> responseFilterChain = getFilterChainRunner(OUTBOUND,
+                outboundFilterChain, filterUsageNotifier, null);
 
         // endpoint | response filter chain
         final FilterRunner<HttpRequestMessage, HttpResponseMessage> endPoint = getEndpointRunner(responseFilterChain,
                 filterUsageNotifier, filterLoader);
 
-        final ZuulFilter<HttpRequestMessage, HttpRequestMessage>[] requestFilters = getFilters(
-                new InboundPassportStampingFilter(FILTERS_INBOUND_START),
-                new InboundPassportStampingFilter(FILTERS_INBOUND_END));
-
         // request filter chain | end point | response filter chain
-        final ZuulFilterChainRunner<HttpRequestMessage> requestFilterChain = getFilterChainRunner(requestFilters,
-                filterUsageNotifier, endPoint);
+        final ZuulFilterChainRunner<HttpRequestMessage> requestFilterChain = getFilterChainRunner(INBOUND,
+                inboundFilterChain, filterUsageNotifier, endPoint);
 
         pipeline.addLast(new ZuulFilterChainHandler(requestFilterChain, responseFilterChain));
     }
@@ -328,15 +333,23 @@ public abstract class BaseZuulChannelInitializer extends ChannelInitializer<Chan
         return new ZuulFilterChainRunner<>(filters, filterUsageNotifier, filterRunner);
     }
 
+    /**
+     * Returns a runner that picks up the latest published filter chain at the start of each request.
+     */
+    protected <T extends ZuulMessage, R extends ZuulMessage> ZuulFilterChainRunner<T> getFilterChainRunner(
+            FilterType filterType,
+            Supplier<FilterChain<T>> filterChain,
+            FilterUsageNotifier filterUsageNotifier,
+            FilterRunner<T, R> filterRunner) {
+        return new ZuulFilterChainRunner<>(filterType, filterChain, filterUsageNotifier, filterRunner);
+    }
+
+    /**
+     * Returns a snapshot of the currently loaded filters of start's type, bracketed by start and stop.
+     */
     public <T extends ZuulMessage> ZuulFilter<T, T>[] getFilters(final ZuulFilter start, final ZuulFilter stop) {
-        final List<ZuulFilter> zuulFilters = filterLoader.getFiltersByType(start.filterType());
-        final ZuulFilter[] filters = new ZuulFilter[zuulFilters.size() + 2];
-        filters[0] = start;
-        for (int i = 1, j = 0; i < filters.length && j < zuulFilters.size(); i++, j++) {
-            filters[i] = zuulFilters.get(j);
-        }
-        filters[filters.length - 1] = stop;
-        return filters;
+        final FilterChain<T> chain = filterLoader.<T>getFilterChain(start.filterType()).bracketedBy(start, stop);
+        return chain.asList().toArray(new ZuulFilter[chain.size()]);
     }
 
 }
@@ -155,8 +155,10 @@ public class ClientRequestReceiver extends ChannelDuplexHandler {
     // TODO: 2018/7/9 by zmyer
     @Override
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        SessionContext completedContext = null;
         if (evt instanceof CompleteEvent) {
             final CompleteReason reason = ((CompleteEvent) evt).getReason();
+            completedContext = zuulRequest != null ? zuulRequest.getContext() : null;
             if (zuulRequest != null) {
                 zuulRequest.getContext().cancel();
                 zuulRequest.disposeBufferedBody();
@@ -200,6 +202,13 @@ public class ClientRequestReceiver extends ChannelDuplexHandler {
             channel.attr(ATTR_ZUUL_REQ).set(null);
             channel.attr(ATTR_ZUUL_RESP).set(null);
             channel.attr(ATTR_LAST_CONTENT_RECEIVED).set(null);
+
+            // Only hand a pooled context back once the response has been fully sent, by which point ZuulFilterChainHandler
+            // has finished the endpoint. Otherwise, eg. on a disconnect, origin callbacks may still use the context, so
+            // it's left to the garbage collector.
+            if (completedContext != null && ((CompleteEvent) evt).getReason() == SESSION_COMPLETE) {
+                completedContext.recycle();
+            }
         }
     }
 
@@ -230,12 +239,12 @@ public class ClientRequestReceiver extends ChannelDuplexHandler {
         // Setup the context for this request.
         final SessionContext context;
         if (decorator != null) { // Optionally decorate the context.
-            SessionContext tempContext = new SessionContext();
+            SessionContext tempContext = SessionContext.newInstance();
             // Store the netty channel in SessionContext.
-            tempContext.set(CommonContextKeys.NETTY_SERVER_CHANNEL_HANDLER_CONTEXT, clientCtx);
+            tempContext.set(CommonContextKeys.NETTY_SERVER_CHANNEL_HANDLER_CONTEXT_KEY, clientCtx);
             context = decorator.decorate(tempContext);
         } else {
-            context = new SessionContext();
+            context = SessionContext.newInstance();
         }
 
         // Get the client IP (ignore XFF headers at this point, as that can be app specific).
@@ -215,7 +215,7 @@ public class OriginResponseReceiver extends ChannelDuplexHandler {
     protected void preWriteHook(ChannelHandlerContext ctx, HttpRequestMessage zuulReq) {
     }
 
-    private void fireWriteError(String requestPart, Throwable cause, ChannelHandlerContext ctx) throws Exception {
+    protected void fireWriteError(String requestPart, Throwable cause, ChannelHandlerContext ctx) throws Exception {
         String errMesg = "Error while proxying " + requestPart + " to origin ";
         if (edgeProxy != null) {
             final ProxyEndpoint ep = edgeProxy;
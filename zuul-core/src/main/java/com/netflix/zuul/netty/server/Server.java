@@ -21,6 +21,7 @@ import com.netflix.config.DynamicBooleanProperty;
 import com.netflix.netty.common.CategorizedThreadFactory;
 import com.netflix.netty.common.LeastConnsEventLoopChooserFactory;
 import com.netflix.netty.common.metrics.EventLoopGroupMetrics;
+import com.netflix.netty.common.time.CoarseClock;
 import com.netflix.netty.common.status.ServerStatusManager;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
@@ -260,6 +261,9 @@ public class Server {
                 ((NioEventLoopGroup) clientToProxyWorkerPool).setIoRatio(90);
             }
 
+            // Origin connections share the worker loops, so this covers both sides of a proxied request.
+            CoarseClock.install(clientToProxyWorkerPool);
+
             postEventLoopCreationHook(clientToProxyBossPool, clientToProxyWorkerPool);
         }
 
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.origins;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Additive increase, multiplicative decrease: the limit grows by one for each successful attempt while the origin is
+ * using at least half of it, and is cut by the backoff ratio whenever an attempt is dropped or takes longer than the
+ * timeout.
+ */
+public class AimdConcurrencyLimiter extends ConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long timeoutNanos;
+    private final AtomicInteger limit;
+
+    AimdConcurrencyLimiter(String propertyPrefix) {
+        this(intProperty(propertyPrefix + "max.requests", 200),
+                intProperty(propertyPrefix + "limit.min", 10),
+                intProperty(propertyPrefix + "limit.max", 1000),
+                doubleProperty(propertyPrefix + "aimd.backoff.ratio", 0.9),
+                TimeUnit.MILLISECONDS.toNanos(intProperty(propertyPrefix + "aimd.timeout.ms", 5000)));
+    }
+
+    AimdConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio, long timeoutNanos) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.timeoutNanos = timeoutNanos;
+        this.limit = new AtomicInteger(Math.max(minLimit, Math.min(maxLimit, initialLimit)));
+    }
+
+    @Override
+    public int getLimit() {
+        return limit.get();
+    }
+
+    @Override
+    public void onSample(long rttNanos, boolean dropped) {
+        int current;
+        int next;
+        do {
+            current = limit.get();
+            if (dropped || rttNanos > timeoutNanos) {
+                next = Math.max(minLimit, (int) (current * backoffRatio));
+            }
+            else if (getInFlight() * 2 >= current) {
+                next = Math.min(maxLimit, current + 1);
+            }
+            else {
+                // Not using the limit we have, so no evidence that the origin could take more.
+                return;
+            }
+        } while (next != current && !limit.compareAndSet(current, next));
+    }
+
+    public static class UnitTest {
+
+        private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+        @Test
+        public void tryAcquireRejectsAtLimit() {
+            AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(2, 1, 10, 0.5, 1000 * MS);
+
+            assertTrue(limiter.tryAcquire());
+            assertTrue(limiter.tryAcquire());
+            assertFalse(limiter.tryAcquire());
+            assertEquals(2, limiter.getInFlight());
+
+            limiter.release();
+            assertTrue(limiter.tryAcquire());
+        }
+
+        @Test
+        public void growsWhileLimitIsUsed() {
+            AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(4, 1, 5, 0.5, 1000 * MS);
+            limiter.acquire();
+            limiter.acquire();
+            limiter.acquire();
+
+            limiter.onSample(10 * MS, false);
+            assertEquals(5, limiter.getLimit());
+
+            limiter.onSample(10 * MS, false);
+            assertEquals("capped at the max", 5, limiter.getLimit());
+        }
+
+        @Test
+        public void doesNotGrowWhenIdle() {
+            AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(4, 1, 10, 0.5, 1000 * MS);
+            limiter.acquire();
+
+            limiter.onSample(10 * MS, false);
+            assertEquals(4, limiter.getLimit());
+        }
+
+        @Test
+        public void backsOffOnDropsAndTimeouts() {
+            AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(8, 3, 10, 0.5, 1000 * MS);
+
+            limiter.onSample(10 * MS, true);
+            assertEquals(4, limiter.getLimit());
+
+            limiter.onSample(2000 * MS, false);
+            assertEquals("floored at the min", 3, limiter.getLimit());
+        }
+    }
+}
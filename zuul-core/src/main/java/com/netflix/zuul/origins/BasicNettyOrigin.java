@@ -29,6 +29,8 @@ import com.netflix.spectator.api.Registry;
 import com.netflix.zuul.context.CommonContextKeys;
 import com.netflix.zuul.context.SessionContext;
 import com.netflix.zuul.exception.ErrorType;
+import com.netflix.zuul.exception.OutboundErrorType;
+import com.netflix.zuul.exception.OutboundException;
 import com.netflix.zuul.message.http.HttpRequestMessage;
 import com.netflix.zuul.message.http.HttpResponseMessage;
 import com.netflix.zuul.netty.NettyRequestAttemptFactory;
@@ -37,6 +39,7 @@ import com.netflix.zuul.netty.connectionpool.ClientChannelManager;
 import com.netflix.zuul.netty.connectionpool.DefaultClientChannelManager;
 import com.netflix.zuul.netty.connectionpool.PooledConnection;
 import com.netflix.zuul.niws.RequestAttempt;
+import com.netflix.zuul.niws.RequestAttempts;
 import com.netflix.zuul.passport.CurrentPassport;
 import com.netflix.zuul.stats.Timing;
 import com.netflix.zuul.stats.status.StatusCategory;
@@ -45,7 +48,7 @@ import io.netty.channel.EventLoop;
 import io.netty.util.concurrent.Promise;
 import org.apache.commons.lang3.StringUtils;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static com.netflix.zuul.stats.status.ZuulStatusCategory.FAILURE_ORIGIN;
@@ -68,11 +71,17 @@ public class BasicNettyOrigin implements NettyOrigin {
     private final ClientChannelManager clientChannelManager;
     private final NettyRequestAttemptFactory requestAttemptFactory;
 
-    private final AtomicInteger concurrentRequests;
+    private final ConcurrencyLimiter concurrencyLimiter;
     private final Counter rejectedRequests;
-    private final CachedDynamicIntProperty concurrencyMax;
     private final CachedDynamicBooleanProperty concurrencyProtectionEnabled;
 
+    private final RetryBudget retryBudget;
+    private final Counter retryBudgetExhausted;
+    private final LatencyHistogram attemptLatencies;
+    private final CachedDynamicBooleanProperty hedgeEnabled;
+    private final CachedDynamicIntProperty hedgePercentile;
+    private final CachedDynamicIntProperty hedgeMinDelayMs;
+
     public BasicNettyOrigin(String name, String vip, Registry registry) {
         this.name = name;
         this.vip = vip;
@@ -82,10 +91,20 @@ public class BasicNettyOrigin implements NettyOrigin {
         this.clientChannelManager.init();
         this.requestAttemptFactory = new NettyRequestAttemptFactory();
 
-        this.concurrentRequests = SpectatorUtils.newGauge("zuul.origin.concurrent.requests", name, new AtomicInteger(0));
+        this.concurrencyLimiter = ConcurrencyLimiter.create(name);
+        registry.gauge(registry.createId("zuul.origin.concurrent.requests", "id", name),
+                concurrencyLimiter, ConcurrencyLimiter::getInFlight);
+        registry.gauge(registry.createId("zuul.origin.concurrency.limit", "id", name),
+                concurrencyLimiter, ConcurrencyLimiter::getLimit);
         this.rejectedRequests = SpectatorUtils.newCounter("zuul.origin.rejected.requests", name);
-        this.concurrencyMax = new CachedDynamicIntProperty("zuul.origin." + name + ".concurrency.max.requests", 200);
         this.concurrencyProtectionEnabled = new CachedDynamicBooleanProperty("zuul.origin." + name + ".concurrency.protect.enabled", true);
+
+        this.retryBudget = new RetryBudget(name);
+        this.retryBudgetExhausted = SpectatorUtils.newCounter("zuul.origin.retry.budget.exhausted", name);
+        this.attemptLatencies = new LatencyHistogram();
+        this.hedgeEnabled = new CachedDynamicBooleanProperty("zuul.origin." + name + ".hedge.enabled", false);
+        this.hedgePercentile = new CachedDynamicIntProperty("zuul.origin." + name + ".hedge.percentile", 95);
+        this.hedgeMinDelayMs = new CachedDynamicIntProperty("zuul.origin." + name + ".hedge.delay.min.ms", 10);
     }
 
     protected IClientConfig setupClientConfig(String name) {
@@ -124,7 +143,8 @@ public class BasicNettyOrigin implements NettyOrigin {
 
     @Override
     public Timing getProxyTiming(HttpRequestMessage zuulReq) {
-        return new Timing(name);
+        // The request's own proxy timing, so that the start and end calls land on the same timing, and get published.
+        return zuulReq.getContext().getTimings().getRequestProxy();
     }
 
     @Override
@@ -205,7 +225,7 @@ public class BasicNettyOrigin implements NettyOrigin {
 
             // Store the status code of final attempt response.
             int originStatusCode = resp.getStatus();
-            zuulCtx.set(CommonContextKeys.ORIGIN_STATUS, originStatusCode);
+            zuulCtx.set(CommonContextKeys.ORIGIN_STATUS_KEY, originStatusCode);
 
             // Mark origin StatusCategory based on http status code.
             StatusCategory originNfs = SUCCESS;
@@ -224,17 +244,72 @@ public class BasicNettyOrigin implements NettyOrigin {
 
     @Override
     public void preRequestChecks(HttpRequestMessage zuulRequest) {
-        if (concurrencyProtectionEnabled.get() && concurrentRequests.get() > concurrencyMax.get()) {
+        if (!concurrencyProtectionEnabled.get()) {
+            concurrencyLimiter.acquire();
+        }
+        else if (!concurrencyLimiter.tryAcquire()) {
             rejectedRequests.increment();
             throw new OriginConcurrencyExceededException(getName());
         }
-
-        concurrentRequests.incrementAndGet();
     }
 
     @Override
     public void recordProxyRequestEnd() {
-        concurrentRequests.decrementAndGet();
+        concurrencyLimiter.release();
+    }
+
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Feeds the round-trip time of the given attempt, which has just completed, to the concurrency limiter.
+     */
+    protected void sampleRequestAttempt(HttpRequestMessage zuulReq, int attemptNum, boolean dropped) {
+        final RequestAttempts attempts = RequestAttempts.getFromSessionContext(zuulReq.getContext());
+        final RequestAttempt attempt = attempts != null ? findAttempt(attempts, attemptNum) : null;
+        if (attempt != null) {
+            concurrencyLimiter.onSample(TimeUnit.MILLISECONDS.toNanos(attempt.getDuration()), dropped);
+            if (!dropped) {
+                attemptLatencies.record(attempt.getDuration());
+            }
+        }
+    }
+
+    private static RequestAttempt findAttempt(RequestAttempts attempts, int attemptNum) {
+        for (int i = attempts.size() - 1; i >= 0; i--) {
+            final RequestAttempt attempt = attempts.get(i);
+            if (attempt.getAttempt() == attemptNum) {
+                return attempt;
+            }
+        }
+        return attempts.getFinalAttempt();
+    }
+
+    /**
+     * Hedges after the configured percentile of recent successful attempt latencies, once enough are known.
+     */
+    @Override
+    public long getHedgeDelayMs(HttpRequestMessage zuulRequest) {
+        if (!hedgeEnabled.get()) {
+            return -1;
+        }
+        final long delay = attemptLatencies.percentile(hedgePercentile.get());
+        return delay < 0 ? -1 : Math.max(delay, hedgeMinDelayMs.get());
+    }
+
+    @Override
+    public boolean tryAcquireRetryPermit() {
+        if (retryBudget.tryWithdraw()) {
+            return true;
+        }
+        retryBudgetExhausted.increment();
+        return false;
+    }
+
+    @Override
+    public void releaseRetryPermit() {
+        retryBudget.refund();
     }
 
     /* Not required for basic operation */
@@ -251,6 +326,7 @@ public class BasicNettyOrigin implements NettyOrigin {
 
     @Override
     public void onRequestExecutionStart(HttpRequestMessage zuulReq, int attempt) {
+        retryBudget.deposit();
     }
 
     @Override
@@ -259,10 +335,18 @@ public class BasicNettyOrigin implements NettyOrigin {
 
     @Override
     public void onRequestExceptionWithServer(HttpRequestMessage zuulReq, Server originServer, int attemptNum, Throwable t) {
+        // Called once for each failed, throttled or retried attempt, unlike onRequestExecutionFailed() which only sees
+        // the last. A 5xx response is a full round trip, so only the others count as dropped.
+        final boolean errorResponse = t instanceof OutboundException
+                && ((OutboundException) t).getOutboundErrorType() == OutboundErrorType.ERROR_STATUS_RESPONSE;
+        sampleRequestAttempt(zuulReq, attemptNum, !errorResponse);
+        clientChannelManager.recordRequestOutcome(originServer, true);
     }
 
     @Override
     public void onRequestExecutionSuccess(HttpRequestMessage zuulReq, HttpResponseMessage zuulResp, Server originServer, int attemptNum) {
+        sampleRequestAttempt(zuulReq, attemptNum, false);
+        clientChannelManager.recordRequestOutcome(originServer, zuulResp.getStatus() >= 500);
     }
 
     @Override
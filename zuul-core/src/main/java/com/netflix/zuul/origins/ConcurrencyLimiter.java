@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.origins;
+
+import com.netflix.config.DynamicPropertyFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Gates the number of requests in flight to an origin. Subclasses decide the limit, and may adapt it from the
+ * round-trip time and outcome of each completed request attempt, fed in through onSample().
+ *
+ * Which limiter an origin uses is chosen by the "zuul.origin.[name].concurrency.limiter" property: "fixed" (the
+ * default), "aimd" or "gradient".
+ */
+public abstract class ConcurrencyLimiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+    private final StripedCounter inFlight = new StripedCounter();
+
+    public static ConcurrencyLimiter create(String originName) {
+        final String prefix = "zuul.origin." + originName + ".concurrency.";
+        final String type = DynamicPropertyFactory.getInstance().getStringProperty(prefix + "limiter", "fixed").get();
+        switch (type) {
+            case "fixed":
+                return new FixedConcurrencyLimiter(prefix);
+            case "aimd":
+                return new AimdConcurrencyLimiter(prefix);
+            case "gradient":
+                return new GradientConcurrencyLimiter(prefix);
+            default:
+                LOG.warn("Unknown concurrency limiter '{}' for origin {}, using fixed", type, originName);
+                return new FixedConcurrencyLimiter(prefix);
+        }
+    }
+
+    /**
+     * Counts a request as in flight if the limit allows it.
+     *
+     * @return false if the origin is already at its limit, in which case the request should be rejected
+     */
+    public boolean tryAcquire() {
+        if (inFlight.sum() >= getLimit()) {
+            return false;
+        }
+        inFlight.increment();
+        return true;
+    }
+
+    /**
+     * Counts a request as in flight regardless of the limit.
+     */
+    public void acquire() {
+        inFlight.increment();
+    }
+
+    public void release() {
+        inFlight.decrement();
+    }
+
+    public int getInFlight() {
+        return (int) inFlight.sum();
+    }
+
+    public abstract int getLimit();
+
+    /**
+     * Records a completed request attempt.
+     *
+     * @param rttNanos the time the attempt took
+     * @param dropped true if the origin throttled or failed the attempt (eg. a 503, a timeout, or a connect error)
+     */
+    public abstract void onSample(long rttNanos, boolean dropped);
+
+    static int intProperty(String name, int defaultValue) {
+        return DynamicPropertyFactory.getInstance().getIntProperty(name, defaultValue).get();
+    }
+
+    static double doubleProperty(String name, double defaultValue) {
+        return DynamicPropertyFactory.getInstance().getDoubleProperty(name, defaultValue).get();
+    }
+}
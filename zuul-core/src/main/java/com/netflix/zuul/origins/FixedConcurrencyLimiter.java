@@ -0,0 +1,40 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.origins;
+
+import com.netflix.config.CachedDynamicIntProperty;
+
+/**
+ * The hand-tuned limit of "zuul.origin.[name].concurrency.max.requests", ignoring how the origin is doing.
+ */
+public class FixedConcurrencyLimiter extends ConcurrencyLimiter {
+
+    private final CachedDynamicIntProperty maxRequests;
+
+    FixedConcurrencyLimiter(String propertyPrefix) {
+        this.maxRequests = new CachedDynamicIntProperty(propertyPrefix + "max.requests", 200);
+    }
+
+    @Override
+    public int getLimit() {
+        return maxRequests.get();
+    }
+
+    @Override
+    public void onSample(long rttNanos, boolean dropped) {
+    }
+}
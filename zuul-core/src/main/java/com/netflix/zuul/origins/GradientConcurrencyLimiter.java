@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.origins;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tracks a short and a long term average of the origin's round-trip time, and scales the limit by their ratio: while
+ * the recent RTT stays within the tolerance of the long term one, the limit keeps growing by a queue allowance of
+ * sqrt(limit); once requests start queueing at the origin the recent RTT rises and the limit shrinks, by at most half
+ * per sample. Dropped attempts always shrink it.
+ */
+public class GradientConcurrencyLimiter extends ConcurrencyLimiter {
+
+    private static final double SHORT_RTT_FACTOR = 2.0 / (10 + 1);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double smoothing;
+    private final double tolerance;
+    private final double longRttFactor;
+
+    /** Samples arrive from every event loop, but only one at a time needs to update the estimate. */
+    private final ReentrantLock lock = new ReentrantLock();
+    private double estimatedLimit;
+    private double shortRtt;
+    private double longRtt;
+
+    private volatile int limit;
+
+    GradientConcurrencyLimiter(String propertyPrefix) {
+        this(intProperty(propertyPrefix + "max.requests", 200),
+                intProperty(propertyPrefix + "limit.min", 10),
+                intProperty(propertyPrefix + "limit.max", 1000),
+                doubleProperty(propertyPrefix + "gradient.smoothing", 0.2),
+                doubleProperty(propertyPrefix + "gradient.rtt.tolerance", 1.5),
+                intProperty(propertyPrefix + "gradient.long.window", 600));
+    }
+
+    GradientConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double smoothing, double tolerance,
+                               int longWindow) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.smoothing = smoothing;
+        this.tolerance = tolerance;
+        this.longRttFactor = 2.0 / (longWindow + 1);
+        this.estimatedLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.limit = (int) estimatedLimit;
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public void onSample(long rttNanos, boolean dropped) {
+        // If another event loop is already updating, skip this sample rather than wait for it.
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            final double rtt = Math.max(1, rttNanos);
+            if (longRtt == 0) {
+                shortRtt = rtt;
+                longRtt = rtt;
+            }
+            shortRtt += (rtt - shortRtt) * SHORT_RTT_FACTOR;
+            longRtt += (rtt - longRtt) * longRttFactor;
+
+            // The long term average lags well behind a recovery from high latency, so pull it down faster.
+            if (longRtt / shortRtt > 2) {
+                longRtt *= 0.95;
+            }
+
+            // Not using the limit we have, so no evidence that the origin could take more.
+            if (!dropped && getInFlight() * 2 < estimatedLimit) {
+                return;
+            }
+
+            final double gradient = dropped ? 0.5 : Math.max(0.5, Math.min(1.0, tolerance * longRtt / shortRtt));
+            final double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+            estimatedLimit = Math.max(minLimit, Math.min(maxLimit,
+                    estimatedLimit * (1 - smoothing) + newLimit * smoothing));
+            limit = (int) estimatedLimit;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public static class UnitTest {
+
+        private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+        private static GradientConcurrencyLimiter busyLimiter(int initialLimit) {
+            GradientConcurrencyLimiter limiter = new GradientConcurrencyLimiter(initialLimit, 5, 1000, 0.2, 1.5, 600);
+            for (int i = 0; i < 1000; i++) {
+                limiter.acquire();
+            }
+            return limiter;
+        }
+
+        @Test
+        public void growsWhileRttIsSteady() {
+            GradientConcurrencyLimiter limiter = busyLimiter(100);
+            for (int i = 0; i < 20; i++) {
+                limiter.onSample(10 * MS, false);
+            }
+            assertTrue(limiter.getLimit() > 100);
+        }
+
+        @Test
+        public void shrinksWhenRttRises() {
+            GradientConcurrencyLimiter limiter = busyLimiter(100);
+            for (int i = 0; i < 100; i++) {
+                limiter.onSample(10 * MS, false);
+            }
+            int steady = limiter.getLimit();
+
+            for (int i = 0; i < 50; i++) {
+                limiter.onSample(100 * MS, false);
+            }
+            assertTrue(limiter.getLimit() < steady / 2);
+        }
+
+        @Test
+        public void shrinksOnDropsDownToTheMin() {
+            GradientConcurrencyLimiter limiter = busyLimiter(100);
+            limiter.onSample(10 * MS, true);
+            assertTrue(limiter.getLimit() < 100);
+
+            for (int i = 0; i < 100; i++) {
+                limiter.onSample(10 * MS, true);
+            }
+            assertEquals(5, limiter.getLimit());
+        }
+
+        @Test
+        public void doesNotGrowWhenIdle() {
+            GradientConcurrencyLimiter limiter = new GradientConcurrencyLimiter(100, 5, 1000, 0.2, 1.5, 600);
+            for (int i = 0; i < 20; i++) {
+                limiter.onSample(10 * MS, false);
+            }
+            assertEquals(100, limiter.getLimit());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.origins;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A lock-free histogram of recent latencies in ms, in buckets that grow by 20% each (so percentiles are accurate to
+ * within 20%), from 1ms up to about 100s.
+ *
+ * Every decayInterval samples, all the counts are halved, so that the percentiles follow the origin's current
+ * latency rather than its all-time distribution. The halving isn't atomic with respect to concurrent records, which
+ * only skews the counts by a few samples.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+    private static final double GROWTH = 1.2;
+    private static final double LOG_GROWTH = Math.log(GROWTH);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong samplesSinceDecay = new AtomicLong();
+    private final int decayInterval;
+    private final int minSamples;
+
+    public LatencyHistogram() {
+        this(1000, 100);
+    }
+
+    LatencyHistogram(int decayInterval, int minSamples) {
+        this.decayInterval = decayInterval;
+        this.minSamples = minSamples;
+    }
+
+    public void record(long latencyMs) {
+        counts.incrementAndGet(bucketFor(latencyMs));
+
+        if (samplesSinceDecay.incrementAndGet() >= decayInterval) {
+            samplesSinceDecay.set(0);
+            for (int i = 0; i < BUCKETS; i++) {
+                final long count = counts.get(i);
+                if (count > 0) {
+                    counts.addAndGet(i, -(count / 2));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param percentile eg. 95
+     * @return the upper bound of the bucket holding that percentile, or -1 if there aren't enough samples yet
+     */
+    public long percentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total < minSamples) {
+            return -1;
+        }
+
+        final long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    static int bucketFor(long latencyMs) {
+        if (latencyMs <= 1) {
+            return 0;
+        }
+        return (int) Math.min(BUCKETS - 1, Math.ceil(Math.log(latencyMs) / LOG_GROWTH));
+    }
+
+    static long upperBound(int bucket) {
+        return (long) Math.ceil(Math.pow(GROWTH, bucket));
+    }
+
+    public static class UnitTest {
+
+        @Test
+        public void bucketsCoverTheirLatency() {
+            for (long ms = 0; ms < 90_000; ms += 37) {
+                assertTrue(upperBound(bucketFor(ms)) >= ms);
+            }
+        }
+
+        @Test
+        public void noPercentileUntilEnoughSamples() {
+            LatencyHistogram histogram = new LatencyHistogram(1000, 10);
+            for (int i = 0; i < 9; i++) {
+                histogram.record(10);
+            }
+            assertEquals(-1, histogram.percentile(95));
+
+            histogram.record(10);
+            assertEquals(upperBound(bucketFor(10)), histogram.percentile(95));
+        }
+
+        @Test
+        public void percentileSplitsTheDistribution() {
+            LatencyHistogram histogram = new LatencyHistogram(1000, 1);
+            for (int i = 0; i < 90; i++) {
+                histogram.record(10);
+            }
+            for (int i = 0; i < 10; i++) {
+                histogram.record(500);
+            }
+
+            assertEquals(upperBound(bucketFor(10)), histogram.percentile(90));
+            assertEquals(upperBound(bucketFor(500)), histogram.percentile(95));
+        }
+
+        @Test
+        public void decayFollowsRecentLatency() {
+            LatencyHistogram histogram = new LatencyHistogram(100, 1);
+            for (int i = 0; i < 99; i++) {
+                histogram.record(500);
+            }
+            for (int i = 0; i < 500; i++) {
+                histogram.record(10);
+            }
+            assertEquals(upperBound(bucketFor(10)), histogram.percentile(95));
+        }
+    }
+}
@@ -75,4 +75,28 @@ public interface NettyOrigin extends InstrumentedOrigin {
     Registry getSpectatorRegistry();
 
     ExecutionContext<?> getExecutionContext(HttpRequestMessage zuulRequest, int attemptNum);
+
+    /**
+     * @return how long to wait for a response to the first attempt before sending a hedged copy of the request to
+     * another server, or -1 to not hedge it
+     */
+    default long getHedgeDelayMs(HttpRequestMessage zuulRequest) {
+        return -1;
+    }
+
+    /**
+     * Asks the origin's retry budget for permission to make an extra attempt, ie. a retry or a hedged request.
+     *
+     * @return false if the budget is spent, in which case the attempt should not be made
+     */
+    default boolean tryAcquireRetryPermit() {
+        return true;
+    }
+
+    /**
+     * Hands back a permit from tryAcquireRetryPermit() for an extra attempt that was dropped before anything was sent
+     * to the origin.
+     */
+    default void releaseRetryPermit() {
+    }
 }
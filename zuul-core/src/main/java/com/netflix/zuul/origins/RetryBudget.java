@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.origins;
+
+import com.netflix.config.CachedDynamicBooleanProperty;
+import com.netflix.config.CachedDynamicIntProperty;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A token bucket capping the extra attempts (retries and hedges) made to an origin to a percentage of its base
+ * request rate. Each request deposits that percentage of a token, up to a maximum balance which also allows a burst
+ * of retries when the origin is otherwise idle, and each extra attempt needs a whole token.
+ *
+ * So when an origin browns out and starts failing most requests, retries can only add a bounded fraction on top of
+ * the load it's already getting, rather than multiplying it by the per-request retry count.
+ */
+public class RetryBudget {
+
+    /** Balances are kept in thousandths of a token, so that small percentages still add up. */
+    private static final long TOKEN = 1000;
+
+    private final BooleanSupplier enabled;
+    private final IntSupplier percent;
+    private final IntSupplier maxTokens;
+    private final AtomicLong balance;
+
+    public RetryBudget(String originName) {
+        this(new CachedDynamicBooleanProperty("zuul.origin." + originName + ".retry.budget.enabled", true)::get,
+                new CachedDynamicIntProperty("zuul.origin." + originName + ".retry.budget.percent", 20)::get,
+                new CachedDynamicIntProperty("zuul.origin." + originName + ".retry.budget.max.tokens", 100)::get);
+    }
+
+    RetryBudget(BooleanSupplier enabled, IntSupplier percent, IntSupplier maxTokens) {
+        this.enabled = enabled;
+        this.percent = percent;
+        this.maxTokens = maxTokens;
+        this.balance = new AtomicLong(maxTokens.getAsInt() * TOKEN);
+    }
+
+    /**
+     * Called once for each request to the origin, not counting its retries.
+     */
+    public void deposit() {
+        final long deposit = percent.getAsInt() * TOKEN / 100;
+        final long max = maxTokens.getAsInt() * TOKEN;
+        long current;
+        do {
+            current = balance.get();
+            if (current >= max) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(max, current + deposit)));
+    }
+
+    /**
+     * @return true if there was a token for an extra attempt, which is now used
+     */
+    public boolean tryWithdraw() {
+        if (!enabled.getAsBoolean()) {
+            return true;
+        }
+        long current;
+        do {
+            current = balance.get();
+            if (current < TOKEN) {
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - TOKEN));
+        return true;
+    }
+
+    /**
+     * Returns the token taken by tryWithdraw() for an extra attempt that was not made after all.
+     */
+    public void refund() {
+        if (!enabled.getAsBoolean()) {
+            return;
+        }
+        final long max = maxTokens.getAsInt() * TOKEN;
+        long current;
+        do {
+            current = balance.get();
+            if (current >= max) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(max, current + TOKEN)));
+    }
+
+    public double getBalance() {
+        return balance.get() / (double) TOKEN;
+    }
+
+    public static class UnitTest {
+
+        @Test
+        public void startsWithBurstAllowance() {
+            RetryBudget budget = new RetryBudget(() -> true, () -> 20, () -> 2);
+
+            assertTrue(budget.tryWithdraw());
+            assertTrue(budget.tryWithdraw());
+            assertFalse(budget.tryWithdraw());
+        }
+
+        @Test
+        public void refillsByPercentOfRequests() {
+            RetryBudget budget = new RetryBudget(() -> true, () -> 20, () -> 1);
+            budget.tryWithdraw();
+
+            for (int i = 0; i < 4; i++) {
+                budget.deposit();
+            }
+            assertFalse(budget.tryWithdraw());
+
+            budget.deposit();
+            assertTrue(budget.tryWithdraw());
+        }
+
+        @Test
+        public void balanceIsCapped() {
+            RetryBudget budget = new RetryBudget(() -> true, () -> 50, () -> 1);
+            for (int i = 0; i < 10; i++) {
+                budget.deposit();
+            }
+            assertEquals(1.0, budget.getBalance(), 0.0);
+        }
+
+        @Test
+        public void refundReturnsToken() {
+            RetryBudget budget = new RetryBudget(() -> true, () -> 20, () -> 1);
+            assertTrue(budget.tryWithdraw());
+            assertFalse(budget.tryWithdraw());
+
+            budget.refund();
+            assertTrue(budget.tryWithdraw());
+
+            budget.refund();
+            budget.refund();
+            assertEquals(1.0, budget.getBalance(), 0.0);
+        }
+
+        @Test
+        public void disabledAlwaysAllows() {
+            RetryBudget budget = new RetryBudget(() -> false, () -> 20, () -> 0);
+            assertTrue(budget.tryWithdraw());
+            assertTrue(budget.tryWithdraw());
+        }
+    }
+}
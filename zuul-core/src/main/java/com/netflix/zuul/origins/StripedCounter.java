@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.origins;
+
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter split into cache-line padded stripes, with each thread (ie. each event loop) pinned to its own stripe, so
+ * that the per-request increments and decrements of all the event loops don't contend on a single shared value.
+ *
+ * Reads sum all of the stripes, so are not atomic with respect to concurrent updates, which is fine for a
+ * concurrency gate. A value may be decremented on a different thread to the one it was incremented on, in which case
+ * individual stripes go negative but the sum stays correct.
+ */
+final class StripedCounter {
+
+    /** 16 longs = 128 bytes between stripes, so that adjacent stripes never share a cache line (or prefetch pair). */
+    private static final int PAD = 16;
+
+    private static final int STRIPES = stripeCount(Runtime.getRuntime().availableProcessors());
+    private static final AtomicInteger NEXT_STRIPE = new AtomicInteger();
+    private static final FastThreadLocal<Integer> STRIPE = new FastThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            return (NEXT_STRIPE.getAndIncrement() & (STRIPES - 1)) * PAD;
+        }
+    };
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+    static int stripeCount(int processors) {
+        // The worker event loop count defaults to the processor count, so give each its own stripe when we can.
+        int stripes = Integer.highestOneBit(Math.max(1, processors * 2 - 1));
+        return Math.min(stripes, 64);
+    }
+
+    public void increment() {
+        cells.getAndIncrement(STRIPE.get());
+    }
+
+    public void decrement() {
+        cells.getAndDecrement(STRIPE.get());
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PAD) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+}
@@ -18,6 +18,7 @@ package com.netflix.zuul.passport;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Ticker;
+import com.netflix.netty.common.time.CoarseClock;
 import com.google.common.collect.Sets;
 import com.netflix.config.CachedDynamicBooleanProperty;
 import com.netflix.servo.DefaultMonitorRegistry;
@@ -54,6 +55,9 @@ public class CurrentPassport {
     );
     private static final CachedDynamicBooleanProperty CONTENT_STATE_ENABLED = new CachedDynamicBooleanProperty(
             "zuul.passport.state.content.enabled", false);
+    /** Stamp passport states from the per event loop CoarseClock, at millisecond resolution, instead of nanoTime. */
+    private static final CachedDynamicBooleanProperty USE_COARSE_CLOCK = new CachedDynamicBooleanProperty(
+            "zuul.passport.clock.coarse", false);
 
     private final Ticker ticker;
     private final LinkedList<PassportItem> history;
@@ -61,7 +65,7 @@ public class CurrentPassport {
     private final long creationTimeSinceEpochMs;
 
     CurrentPassport() {
-        this(SYSTEM_TICKER);
+        this(USE_COARSE_CLOCK.get() ? CoarseClock.TICKER : SYSTEM_TICKER);
     }
 
     @VisibleForTesting
@@ -69,7 +73,8 @@ public class CurrentPassport {
         this.ticker = ticker;
         this.history = new LinkedList<>();
         this.statesAdded = new HashSet<>();
-        this.creationTimeSinceEpochMs = System.currentTimeMillis();
+        this.creationTimeSinceEpochMs = ticker == CoarseClock.TICKER
+                ? CoarseClock.INSTANCE.currentTimeMillis() : System.currentTimeMillis();
     }
 
     public static CurrentPassport create() {
@@ -80,7 +85,7 @@ public class CurrentPassport {
     }
 
     public static CurrentPassport fromSessionContext(SessionContext ctx) {
-        return (CurrentPassport) ctx.get(CommonContextKeys.PASSPORT);
+        return ctx.get(CommonContextKeys.PASSPORT_KEY);
     }
 
     public static CurrentPassport createForChannel(Channel ch) {
@@ -88,4 +88,5 @@ public enum PassportState {
     ORIGIN_CH_READ_TIMEOUT,
     ORIGIN_CH_IO_EX,
     ORIGIN_RETRY_START,
+    ORIGIN_HEDGE_START,
 }
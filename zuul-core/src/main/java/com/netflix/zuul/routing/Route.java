@@ -0,0 +1,319 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.routing;
+
+import com.google.common.collect.ImmutableMap;
+import com.netflix.zuul.message.Headers;
+import com.netflix.zuul.message.http.HttpRequestInfo;
+import com.netflix.zuul.netty.filter.ZuulEndPointRunner;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A declarative route: which requests it matches, and the endpoint and origin VIP they are sent to.
+ *
+ * The path is one of
+ * - an exact path, eg. "/healthcheck"
+ * - a prefix, ending in "/**", eg. "/api/**", which matches the prefix itself and anything below it
+ * - a regex, starting with "~", eg. "~/users/[0-9]+/profile", which must match the whole path
+ *
+ * Paths are compared segment by segment, case-sensitively, ignoring empty segments (so trailing slashes don't matter).
+ * Regexes are matched against the path with its empty segments removed, and can start with "(?i)" after the leading
+ * "/" to match case-insensitively, eg. "~/(?i)healthcheck".
+ * The host, if set, matches case-insensitively, and may start with "*." to match any subdomain. The method, if set,
+ * matches case-insensitively. Each header matcher requires the header to have the given value, or if the value is
+ * null, just to be present.
+ *
+ * A route with a VIP but no endpoint goes to the proxy endpoint.
+ */
+public final class Route
+{
+    private static final String PREFIX_SUFFIX = "/**";
+    private static final String REGEX_MARKER = "~";
+    private static final String REGEX_META_CHARS = ".[]{}()*+?^$|\\";
+
+    private final String name;
+    private final String host;
+    private final String path;
+    private final String method;
+    private final Map<String, String> headers;
+    private final String endpoint;
+    private final String vip;
+
+    private final String literalPath;
+    private final Pattern pattern;
+    private final boolean prefix;
+
+    public Route(String name, String host, String path, String method, Map<String, String> headers, String endpoint,
+                 String vip)
+    {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Route must have a name");
+        }
+        if (path == null || !(path.startsWith("/") || path.startsWith(REGEX_MARKER + "/"))) {
+            throw new IllegalArgumentException("Route " + name + " must have a path starting with / or ~/");
+        }
+        if (endpoint == null && vip == null) {
+            throw new IllegalArgumentException("Route " + name + " must have an endpoint or a vip");
+        }
+
+        this.name = name;
+        this.host = host;
+        this.path = path;
+        this.method = method;
+        this.headers = headers == null ? ImmutableMap.of() : new LinkedHashMap<>(headers);
+        this.endpoint = endpoint != null ? endpoint : ZuulEndPointRunner.PROXY_ENDPOINT_FILTER_NAME;
+        this.vip = vip;
+
+        if (path.startsWith(REGEX_MARKER)) {
+            final String regex = path.substring(REGEX_MARKER.length());
+            try {
+                this.pattern = Pattern.compile(regex);
+            }
+            catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Route " + name + " has an invalid path regex", e);
+            }
+            this.literalPath = literalPrefixOf(regex);
+            this.prefix = false;
+        }
+        else if (path.endsWith(PREFIX_SUFFIX)) {
+            this.pattern = null;
+            this.literalPath = path.substring(0, path.length() - PREFIX_SUFFIX.length());
+            this.prefix = true;
+        }
+        else {
+            this.pattern = null;
+            this.literalPath = path;
+            this.prefix = false;
+        }
+    }
+
+    /**
+     * @return the leading directories of the regex that have no special characters, which any path it matches must
+     * start with
+     */
+    static String literalPrefixOf(String regex)
+    {
+        int end = 0;
+        while (end < regex.length() && REGEX_META_CHARS.indexOf(regex.charAt(end)) < 0) {
+            end++;
+        }
+        return end == regex.length() ? regex : regex.substring(0, regex.lastIndexOf('/', end) + 1);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getPath()
+    {
+        return path;
+    }
+
+    public String getEndpoint()
+    {
+        return endpoint;
+    }
+
+    public String getVip()
+    {
+        return vip;
+    }
+
+    String getLiteralPath()
+    {
+        return literalPath;
+    }
+
+    boolean isPrefix()
+    {
+        return prefix;
+    }
+
+    boolean isPattern()
+    {
+        return pattern != null;
+    }
+
+    boolean matchesPattern(String requestPath)
+    {
+        return pattern.matcher(requestPath).matches();
+    }
+
+    /**
+     * @return whether the request matches everything about this route other than its path
+     */
+    boolean matchesRequest(HttpRequestInfo request)
+    {
+        if (method != null && !method.equalsIgnoreCase(request.getMethod())) {
+            return false;
+        }
+        if (host != null && !matchesHost(request.getOriginalHost())) {
+            return false;
+        }
+        if (!headers.isEmpty()) {
+            final Headers requestHeaders = request.getHeaders();
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (header.getValue() == null
+                        ? !requestHeaders.contains(header.getKey())
+                        : !requestHeaders.contains(header.getKey(), header.getValue())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean matchesHost(String requestHost)
+    {
+        if (requestHost == null) {
+            return false;
+        }
+        if (host.startsWith("*.")) {
+            final String suffix = host.substring(1);
+            return requestHost.length() > suffix.length()
+                    && requestHost.regionMatches(true, requestHost.length() - suffix.length(), suffix, 0, suffix.length());
+        }
+        return host.equalsIgnoreCase(requestHost);
+    }
+
+    /**
+     * Parses routes from their text form: routes separated by ";", each a name followed by space separated key=value
+     * attributes, eg.
+     *
+     *   healthcheck path=/healthcheck endpoint=com.example.Healthcheck;
+     *   api host=api.example.com path=/api/** method=GET header.X-Api-Version=2 vip=api
+     *
+     * "header.Name" with no value requires just that the header is present.
+     *
+     * @throws IllegalArgumentException if a route is malformed
+     */
+    public static List<Route> parse(String text)
+    {
+        final List<Route> routes = new ArrayList<>();
+        if (text == null) {
+            return routes;
+        }
+        for (String definition : text.split(";")) {
+            final String[] tokens = definition.trim().split("\\s+");
+            if (tokens[0].isEmpty()) {
+                continue;
+            }
+
+            final String name = tokens[0];
+            String host = null;
+            String path = null;
+            String method = null;
+            String endpoint = null;
+            String vip = null;
+            final Map<String, String> headers = new LinkedHashMap<>();
+            for (int i = 1; i < tokens.length; i++) {
+                final int eq = tokens[i].indexOf('=');
+                final String key = eq < 0 ? tokens[i] : tokens[i].substring(0, eq);
+                final String value = eq < 0 ? null : tokens[i].substring(eq + 1);
+                if (key.startsWith("header.")) {
+                    headers.put(key.substring("header.".length()), value);
+                    continue;
+                }
+                if (value == null) {
+                    throw new IllegalArgumentException("Route " + name + " has no value for " + key);
+                }
+                switch (key) {
+                    case "host":
+                        host = value;
+                        break;
+                    case "path":
+                        path = value;
+                        break;
+                    case "method":
+                        method = value;
+                        break;
+                    case "endpoint":
+                        endpoint = value;
+                        break;
+                    case "vip":
+                        vip = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Route " + name + " has an unknown attribute " + key);
+                }
+            }
+            routes.add(new Route(name, host, path, method, headers, endpoint, vip));
+        }
+        return routes;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + " " + path;
+    }
+
+    public static class UnitTest
+    {
+        @Test
+        public void parsesRoutes()
+        {
+            final List<Route> routes = Route.parse(
+                    " healthcheck path=/healthcheck endpoint=com.example.Healthcheck ;\n" +
+                    "api host=*.example.com path=/api/** method=GET header.X-Api-Version=2 header.X-Debug vip=api;");
+
+            assertEquals(2, routes.size());
+            assertEquals("com.example.Healthcheck", routes.get(0).getEndpoint());
+            assertNull(routes.get(0).getVip());
+
+            final Route api = routes.get(1);
+            assertEquals(ZuulEndPointRunner.PROXY_ENDPOINT_FILTER_NAME, api.getEndpoint());
+            assertEquals("api", api.getVip());
+            assertEquals("/api", api.getLiteralPath());
+            assertTrue(api.isPrefix());
+            assertEquals("2", api.headers.get("X-Api-Version"));
+            assertNull(api.headers.get("X-Debug"));
+        }
+
+        @Test(expected = IllegalArgumentException.class)
+        public void rejectsUnknownAttributes()
+        {
+            Route.parse("api path=/api/** vip=api timeout=10");
+        }
+
+        @Test(expected = IllegalArgumentException.class)
+        public void requiresADestination()
+        {
+            Route.parse("api path=/api/**");
+        }
+
+        @Test
+        public void findsLiteralPrefixOfRegex()
+        {
+            assertEquals("/users/", literalPrefixOf("/users/[0-9]+/profile"));
+            assertEquals("/", literalPrefixOf("/v[12]/catalog"));
+            assertEquals("/exact/path", literalPrefixOf("/exact/path"));
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.routing;
+
+import com.netflix.zuul.message.Headers;
+import com.netflix.zuul.message.http.HttpRequestInfo;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.when;
+
+/**
+ * An immutable set of routes compiled into a trie of path segments, so that matching a request walks its path once,
+ * rather than checking every route in turn.
+ *
+ * The most specific matching route wins: an exact path, then regex routes and then prefix routes, from the deepest
+ * trie node on the request's path up to the root. Regex routes are placed at the node for the directories they start
+ * with, so only those sharing the request's path are tried. Among routes at the same node, the first declared wins.
+ */
+public final class RouteTable
+{
+    public static final RouteTable EMPTY = compile(Collections.emptyList());
+
+    private final Node root;
+    private final List<Route> routes;
+
+    private RouteTable(Node root, List<Route> routes)
+    {
+        this.root = root;
+        this.routes = routes;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a route is invalid
+     */
+    public static RouteTable compile(List<Route> routes)
+    {
+        final Node root = new Node();
+        for (Route route : routes) {
+            Node node = root;
+            for (String segment : route.getLiteralPath().split("/")) {
+                if (!segment.isEmpty()) {
+                    node = node.child(segment);
+                }
+            }
+            if (route.isPattern()) {
+                node.patterns.add(route);
+            }
+            else if (route.isPrefix()) {
+                node.prefixes.add(route);
+            }
+            else {
+                node.exact.add(route);
+            }
+        }
+        return new RouteTable(root, Collections.unmodifiableList(new ArrayList<>(routes)));
+    }
+
+    public boolean isEmpty()
+    {
+        return routes.isEmpty();
+    }
+
+    public List<Route> getRoutes()
+    {
+        return routes;
+    }
+
+    /**
+     * @return the most specific route matching the request, or null if none do
+     */
+    public Route match(HttpRequestInfo request)
+    {
+        final String path = request.getPath();
+        return path == null ? null : match(root, normalize(path), 0, request);
+    }
+
+    /**
+     * @return the path without empty segments, so that regex routes see the same path the trie is walked by, eg.
+     * "/api/users/1" for "//api/users/1/". The path itself is returned if it has none.
+     */
+    static String normalize(String path)
+    {
+        final int length = path.length();
+        boolean normal = length > 0 && path.charAt(0) == '/' && (length == 1 || path.charAt(length - 1) != '/');
+        for (int i = 1; normal && i < length; i++) {
+            normal = path.charAt(i) != '/' || path.charAt(i - 1) != '/';
+        }
+        if (normal) {
+            return path;
+        }
+
+        final StringBuilder normalized = new StringBuilder(length);
+        int start = 0;
+        while (start < length) {
+            while (start < length && path.charAt(start) == '/') {
+                start++;
+            }
+            if (start == length) {
+                break;
+            }
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            normalized.append('/').append(path, start, end);
+            start = end;
+        }
+        return normalized.length() == 0 ? "/" : normalized.toString();
+    }
+
+    private static Route match(Node node, String path, int from, HttpRequestInfo request)
+    {
+        int start = from;
+        while (start < path.length() && path.charAt(start) == '/') {
+            start++;
+        }
+
+        if (start == path.length()) {
+            final Route route = first(node.exact, request, null);
+            if (route != null) {
+                return route;
+            }
+        }
+        else if (node.children != null) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            final Node child = node.children.get(path.substring(start, end));
+            if (child != null) {
+                final Route route = match(child, path, end, request);
+                if (route != null) {
+                    return route;
+                }
+            }
+        }
+
+        final Route route = first(node.patterns, request, path);
+        return route != null ? route : first(node.prefixes, request, null);
+    }
+
+    private static Route first(List<Route> candidates, HttpRequestInfo request, String patternPath)
+    {
+        for (int i = 0; i < candidates.size(); i++) {
+            final Route route = candidates.get(i);
+            if ((patternPath == null || route.matchesPattern(patternPath)) && route.matchesRequest(request)) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    private static final class Node
+    {
+        Map<String, Node> children;
+        final List<Route> exact = new ArrayList<>(1);
+        final List<Route> patterns = new ArrayList<>(1);
+        final List<Route> prefixes = new ArrayList<>(1);
+
+        Node child(String segment)
+        {
+            if (children == null) {
+                children = new HashMap<>();
+            }
+            return children.computeIfAbsent(segment, s -> new Node());
+        }
+    }
+
+    @RunWith(MockitoJUnitRunner.class)
+    public static class UnitTest
+    {
+        @Mock
+        private HttpRequestInfo request;
+
+        private Headers headers;
+        private RouteTable table;
+
+        @Before
+        public void setup()
+        {
+            headers = new Headers();
+            when(request.getHeaders()).thenReturn(headers);
+            when(request.getMethod()).thenReturn("GET");
+            when(request.getOriginalHost()).thenReturn("api.example.com");
+
+            table = compile(Route.parse(
+                    "default path=/** vip=default;" +
+                    "healthcheck path=/healthcheck endpoint=Healthcheck;" +
+                    "api-v2 path=/api/** header.X-Api-Version=2 vip=api-v2;" +
+                    "other-host host=*.other.com path=/api/** vip=other;" +
+                    "api path=/api/** vip=api;" +
+                    "users path=~/api/users/[0-9]+ vip=users;" +
+                    "catalog-post path=/api/catalog method=POST vip=catalog-writer;" +
+                    "catalog path=/api/catalog vip=catalog"));
+        }
+
+        private String route(String path)
+        {
+            when(request.getPath()).thenReturn(path);
+            final Route route = table.match(request);
+            return route == null ? null : route.getName();
+        }
+
+        @Test
+        public void prefersMostSpecificPath()
+        {
+            assertEquals("healthcheck", route("/healthcheck"));
+            assertEquals("catalog", route("/api/catalog"));
+            assertEquals("catalog", route("/api/catalog/"));
+            assertEquals("api", route("/api/catalog/items"));
+            assertEquals("api", route("/api"));
+            assertEquals("users", route("/api/users/123"));
+            assertEquals("api", route("/api/users/abc"));
+            assertEquals("default", route("/"));
+            assertEquals("default", route("/healthcheck/deep"));
+        }
+
+        @Test
+        public void matchesRegexAgainstNormalizedPath()
+        {
+            assertEquals("users", route("//api/users/123"));
+            assertEquals("users", route("/api//users/123/"));
+            assertEquals("catalog", route("//api//catalog"));
+        }
+
+        @Test
+        public void normalizesOnlyWhenNeeded()
+        {
+            final String path = "/api/users/1";
+            assertSame(path, normalize(path));
+            assertSame("/", normalize("/"));
+            assertEquals("/api/users/1", normalize("//api//users/1/"));
+            assertEquals("/api", normalize("api"));
+            assertEquals("/", normalize("//"));
+            assertEquals("/", normalize(""));
+        }
+
+        @Test
+        public void matchesCaseInsensitiveRegex()
+        {
+            final RouteTable ci = compile(Route.parse(
+                    "healthcheck path=~/(?i)healthcheck endpoint=Healthcheck;" +
+                    "default path=/** vip=default"));
+            when(request.getPath()).thenReturn("/HealthCheck");
+            assertEquals("healthcheck", ci.match(request).getName());
+            when(request.getPath()).thenReturn("/healthcheck/");
+            assertEquals("healthcheck", ci.match(request).getName());
+            when(request.getPath()).thenReturn("/other");
+            assertEquals("default", ci.match(request).getName());
+        }
+
+        @Test
+        public void matchesMethodHostAndHeaders()
+        {
+            when(request.getMethod()).thenReturn("post");
+            assertEquals("catalog-post", route("/api/catalog"));
+
+            headers.set("X-Api-Version", "2");
+            assertEquals("api-v2", route("/api/movies"));
+
+            headers.remove("X-Api-Version");
+            when(request.getOriginalHost()).thenReturn("www.other.com");
+            assertEquals("other-host", route("/api/movies"));
+        }
+
+        @Test
+        public void noMatchWithoutCatchAll()
+        {
+            final RouteTable small = compile(Route.parse("api path=/api/** vip=api"));
+            when(request.getPath()).thenReturn("/other");
+            assertNull(small.match(request));
+            assertNull(EMPTY.match(request));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.scriptManager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The result of ZuulFilterDAO.getFilterChangesSince(): the filters whose active or canary revision has changed since
+ * a given version of the filter store, and the version they bring a poller up to.
+ *
+ * A snapshot lists every active and canary filter, and replaces whatever the poller had before; it is returned when
+ * the store can't tell what changed since the requested version (eg. on the first poll). Otherwise, only the filter
+ * ids in changedFilterIds are affected, and any of those that are in neither list are no longer active or canary.
+ */
+public final class FilterChanges {
+
+    private final long version;
+    private final boolean snapshot;
+    private final List<FilterInfo> activeFilters;
+    private final List<FilterInfo> canaryFilters;
+    private final Set<String> changedFilterIds;
+
+    private FilterChanges(long version, boolean snapshot, List<FilterInfo> activeFilters, List<FilterInfo> canaryFilters,
+                          Set<String> changedFilterIds) {
+        this.version = version;
+        this.snapshot = snapshot;
+        this.activeFilters = activeFilters;
+        this.canaryFilters = canaryFilters;
+        this.changedFilterIds = changedFilterIds;
+    }
+
+    public static FilterChanges snapshot(long version, List<FilterInfo> activeFilters, List<FilterInfo> canaryFilters) {
+        return new FilterChanges(version, true, nonNull(activeFilters), nonNull(canaryFilters),
+                Collections.<String>emptySet());
+    }
+
+    public static FilterChanges delta(long version, Collection<String> changedFilterIds, List<FilterInfo> activeFilters,
+                                      List<FilterInfo> canaryFilters) {
+        return new FilterChanges(version, false, nonNull(activeFilters), nonNull(canaryFilters),
+                Collections.unmodifiableSet(new HashSet<>(changedFilterIds)));
+    }
+
+    public static FilterChanges none(long version) {
+        return new FilterChanges(version, false, Collections.<FilterInfo>emptyList(),
+                Collections.<FilterInfo>emptyList(), Collections.<String>emptySet());
+    }
+
+    /**
+     * @return the version of the filter store these changes are up to date with, to pass to the next call
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    public boolean isEmpty() {
+        return !snapshot && changedFilterIds.isEmpty();
+    }
+
+    /**
+     * @return the current active revision of each changed filter that has one
+     */
+    public List<FilterInfo> getActiveFilters() {
+        return activeFilters;
+    }
+
+    /**
+     * @return the current canary revision of each changed filter that has one
+     */
+    public List<FilterInfo> getCanaryFilters() {
+        return canaryFilters;
+    }
+
+    /**
+     * @return the filter ids affected by a delta; empty for a snapshot, which affects all filters
+     */
+    public Set<String> getChangedFilterIds() {
+        return changedFilterIds;
+    }
+
+    private static List<FilterInfo> nonNull(List<FilterInfo> filters) {
+        return filters != null ? Collections.unmodifiableList(filters) : Collections.<FilterInfo>emptyList();
+    }
+
+    @Override
+    public String toString() {
+        return "FilterChanges{version=" + version + ", snapshot=" + snapshot + ", active=" + activeFilters.size()
+                + ", canary=" + canaryFilters.size() + ", changed=" + changedFilterIds + "}";
+    }
+}
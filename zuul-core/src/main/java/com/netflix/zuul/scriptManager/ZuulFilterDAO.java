@@ -133,4 +133,18 @@ public interface ZuulFilterDAO {
      */
     List<String> getFilterIdsIndex(String index);
 
+    /**
+     * Returns the filters whose active or canary revision has changed since the given version of the store, so that
+     * pollers only need to fetch what changed. Pass a negative version to get a snapshot of all active and canary
+     * filters, and the version from each result to the next call.
+     *
+     * The default implementation can't track changes, and always returns a snapshot.
+     *
+     * @param sinceVersion version returned by the previous call, or -1
+     * @return the changes
+     */
+    default FilterChanges getFilterChangesSince(long sinceVersion) {
+        return FilterChanges.snapshot(0, getAllActiveFilters(), getAllCanaryFilters());
     }
+
+}
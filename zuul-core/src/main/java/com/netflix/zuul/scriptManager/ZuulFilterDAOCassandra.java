@@ -22,6 +22,8 @@ import com.netflix.astyanax.model.ColumnList;
 import com.netflix.astyanax.model.Row;
 import com.netflix.astyanax.model.Rows;
 import com.netflix.zuul.ZuulApplicationInfo;
+import com.netflix.zuul.dependency.cassandra.CassandraCache;
+import com.netflix.zuul.dependency.cassandra.DefaultCassandraCache;
 import com.netflix.zuul.dependency.cassandra.hystrix.HystrixCassandraGetRowsByKeys;
 import com.netflix.zuul.dependency.cassandra.hystrix.HystrixCassandraGetRowsByQuery;
 import com.netflix.zuul.dependency.cassandra.hystrix.HystrixCassandraPut;
@@ -30,6 +32,7 @@ import com.netflix.zuul.filters.FilterType;
 import net.jcip.annotations.ThreadSafe;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -57,6 +60,13 @@ public class ZuulFilterDAOCassandra extends Observable implements ZuulFilterDAO
     private final static String CANARY_SCRIPTS = "CANARY_";
     private final static String SCRIPTS_FOR_FILTER = "FILTERSCRIPTS_";
     private final static String FILTER_ID = "FILTER_ID_";
+    private final static String FILTER_CHANGES = "FILTERCHANGES_";
+
+    /**
+     * The number of most recent active/canary changes kept in the change log index. Pollers that fall further behind
+     * than this get a full snapshot instead of a delta.
+     */
+    private final static int MAX_FILTER_CHANGES = 1000;
 
     static Keyspace keyspace;
 
@@ -66,7 +76,18 @@ public class ZuulFilterDAOCassandra extends Observable implements ZuulFilterDAO
 
 
     public ZuulFilterDAOCassandra(Keyspace keyspace) {
-        this(new CassandraGatewayProd(keyspace));
+        this(keyspace, new DefaultCassandraCache<Rows<String, String>>());
+    }
+
+    /**
+     * @param cache holds the result of every filter store read, and is read from instead if Cassandra can't be
+     *              reached, so that filters keep loading through an outage. Reads don't go to the cache first: the
+     *              indices and the filter rows (their active and canary flags) are rewritten in place, and the admin
+     *              operations read them back before writing, so they need what is in Cassandra rather than what was
+     *              there when the entry was loaded.
+     */
+    public ZuulFilterDAOCassandra(Keyspace keyspace, CassandraCache<Rows<String, String>> cache) {
+        this(new CassandraGatewayProd(keyspace, cache));
         this.keyspace = keyspace;
     }
 
@@ -356,6 +377,7 @@ public class ZuulFilterDAOCassandra extends Observable implements ZuulFilterDAO
                 cassandraGateway.upsert(filter_id + "_" + revisionToDeactivate, attributesForDeactivation);
             }
         }
+        recordFilterChange(filter_id);
         setChanged();
         notifyObservers(new ZuulEvent("ZUUL_SCRIPT_CHANGE", "CANARY FILTER SET id = " + filter_id + "revision = " + revision));
         return getFilterInfoForFilter(filter_id, revision);
@@ -426,6 +448,7 @@ public class ZuulFilterDAOCassandra extends Observable implements ZuulFilterDAO
                 cassandraGateway.upsert(filter_id + "_" + revisionToDeactivate, attributesForDeactivation);
             }
         }
+        recordFilterChange(filter_id);
         setChanged();
         notifyObservers(new ZuulEvent("ZUUL_SCRIPT_CHANGE", "ACTIVATED NEW ZUUL FILTER id = " + filter_id + " revision = " + revision));
         return getFilterInfoForFilter(filter_id, revision);
@@ -450,12 +473,112 @@ public class ZuulFilterDAOCassandra extends Observable implements ZuulFilterDAO
         attributesForActivation.put("active", false);
         attributesForActivation.put("canary", false);
         cassandraGateway.upsert(filter_id + "_" + revision, attributesForActivation);
+        recordFilterChange(filter_id);
         setChanged();
         notifyObservers(new ZuulEvent("ZUUL_SCRIPT_CHANGE", "DEACTIVATED ZUUL FILTER id = " + filter_id + " revision = " + revision));
 
         return getFilterInfoForFilter(filter_id, revision);
     }
 
+    /**
+     * Returns deltas from the change log index, which holds the ids of the filters whose active or canary revision
+     * changed, each with a sequence number: "seq=filter_id|seq=filter_id|...". A poller that is up to date costs a
+     * single read of that index; otherwise only the rows for the changed filters' current revisions are read.
+     */
+    @Override
+    public FilterChanges getFilterChangesSince(long sinceVersion) {
+        final List<FilterChange> changes = getFilterChanges();
+        final long latest = changes.isEmpty() ? 0 : changes.get(changes.size() - 1).seq;
+        final long oldest = changes.isEmpty() ? 0 : changes.get(0).seq;
+
+        if (sinceVersion < 0 || sinceVersion > latest || (sinceVersion < oldest - 1)) {
+            return FilterChanges.snapshot(latest, getAllActiveFilters(), getAllCanaryFilters());
+        }
+        if (sinceVersion == latest) {
+            return FilterChanges.none(latest);
+        }
+
+        final Set<String> changedIds = new HashSet<String>();
+        for (FilterChange change : changes) {
+            if (change.seq > sinceVersion) {
+                changedIds.add(change.filterId);
+            }
+        }
+
+        final Set<String> activeKeys = keysForFilterIds(ACTIVE_SCRIPTS + ZuulApplicationInfo.getApplicationName(), changedIds);
+        final Set<String> canaryKeys = keysForFilterIds(CANARY_SCRIPTS + ZuulApplicationInfo.getApplicationName(), changedIds);
+        final List<FilterInfo> active = new ArrayList<FilterInfo>();
+        final List<FilterInfo> canary = new ArrayList<FilterInfo>();
+        if (!activeKeys.isEmpty() || !canaryKeys.isEmpty()) {
+            final Set<String> keys = new HashSet<String>(activeKeys);
+            keys.addAll(canaryKeys);
+            final Rows<String, String> result = cassandraGateway.getByFilterIds(new ArrayList<String>(keys));
+            if (result != null && !result.isEmpty()) {
+                for (Row<String, String> row : result) {
+                    final FilterInfo filterInfo = getFilterScriptFromCassandraRow(row);
+                    if (filterInfo == null) continue;
+                    final String key = filterInfo.getFilterID() + "_" + filterInfo.getRevision();
+                    if (activeKeys.contains(key)) active.add(filterInfo);
+                    if (canaryKeys.contains(key)) canary.add(filterInfo);
+                }
+            }
+        }
+        return FilterChanges.delta(latest, changedIds, active, canary);
+    }
+
+    private Set<String> keysForFilterIds(String index, Set<String> filterIds) {
+        final Set<String> keys = new HashSet<String>();
+        for (String key : getFilterIdsIndex(index)) {
+            final int revisionIdx = key.lastIndexOf('_');
+            if (revisionIdx > 0 && filterIds.contains(key.substring(0, revisionIdx))) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private List<FilterChange> getFilterChanges() {
+        final List<FilterChange> changes = new ArrayList<FilterChange>();
+        for (String entry : getFilterIdsIndex(FILTER_CHANGES + ZuulApplicationInfo.getApplicationName())) {
+            final int eqIdx = entry.indexOf('=');
+            if (eqIdx <= 0) continue;
+            try {
+                changes.add(new FilterChange(Long.parseLong(entry.substring(0, eqIdx)), entry.substring(eqIdx + 1)));
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring malformed filter change log entry " + entry);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Appends to the change log index, trimming it to the most recent MAX_FILTER_CHANGES entries. Like the other
+     * indices, this is a read-modify-write of the index row, so concurrent changes can lose an entry, or give two
+     * changes the same sequence number. ZuulFilterPoller therefore reconciles against a full snapshot every
+     * zuul.filter.reconcile.interval.ms, which picks up any change the log missed.
+     */
+    private void recordFilterChange(String filter_id) {
+        final List<FilterChange> changes = getFilterChanges();
+        final long seq = changes.isEmpty() ? 1 : changes.get(changes.size() - 1).seq + 1;
+        changes.add(new FilterChange(seq, filter_id));
+
+        final List<String> entries = new ArrayList<String>();
+        for (FilterChange change : changes.subList(Math.max(0, changes.size() - MAX_FILTER_CHANGES), changes.size())) {
+            entries.add(change.seq + "=" + change.filterId);
+        }
+        cassandraGateway.updateFilterIndex(FILTER_CHANGES + ZuulApplicationInfo.getApplicationName(), toFilterList(entries));
+    }
+
+    private static final class FilterChange {
+        final long seq;
+        final String filterId;
+
+        FilterChange(long seq, String filterId) {
+            this.seq = seq;
+            this.filterId = filterId;
+        }
+    }
+
     /**
      * Gateway to our usage of Cassandra so we encapsulate the calls and can stub these out for unit testing.
      */
@@ -475,14 +598,24 @@ public class ZuulFilterDAOCassandra extends Observable implements ZuulFilterDAO
         private static final String COLUMN_FAMILY = "zuul_filters";
 
         private final Keyspace keyspace;
+        private final CassandraCache<Rows<String, String>> cache;
 
 
         public CassandraGatewayProd(AstyanaxContext<Keyspace> context) {
-            keyspace = context.getClient();
+            this(context.getClient());
         }
 
         public CassandraGatewayProd(Keyspace keyspace) {
+            this(keyspace, new DefaultCassandraCache<Rows<String, String>>());
+        }
+
+        public CassandraGatewayProd(AstyanaxContext<Keyspace> context, CassandraCache<Rows<String, String>> cache) {
+            this(context.getClient(), cache);
+        }
+
+        public CassandraGatewayProd(Keyspace keyspace, CassandraCache<Rows<String, String>> cache) {
             this.keyspace = keyspace;
+            this.cache = cache;
         }
 
         public void updateFilterIndex(String rowKey, String filter_ids) {
@@ -510,7 +643,7 @@ public class ZuulFilterDAOCassandra extends Observable implements ZuulFilterDAO
          * @return
          */
         public Rows<String, String> select(String cql) {
-            return new HystrixCassandraGetRowsByQuery<String>(keyspace, COLUMN_FAMILY, String.class, cql).execute();
+            return new HystrixCassandraGetRowsByQuery<String>(keyspace, COLUMN_FAMILY, String.class, cql).setCache(cache).execute();
         }
 
         public Rows<String, String> getByFilterIds(List<String> filterIds) {
@@ -518,7 +651,7 @@ public class ZuulFilterDAOCassandra extends Observable implements ZuulFilterDAO
             for (int i = 0; i < filterIds.size(); i++) {
                 list[i] = filterIds.get(i);
             }
-            return new HystrixCassandraGetRowsByKeys<String>(keyspace, COLUMN_FAMILY, list).execute();
+            return new HystrixCassandraGetRowsByKeys<String>(keyspace, COLUMN_FAMILY, list).setCache(cache).execute();
         }
     }
 
@@ -1373,6 +1506,51 @@ public class ZuulFilterDAOCassandra extends Observable implements ZuulFilterDAO
             return columnList;
         }
 
+        @Test
+        public void testGetFilterChangesSinceLatestIsEmpty() {
+            ZuulFilterDAOCassandra dao = spy(new ZuulFilterDAOCassandra(gateway));
+            doReturn("").when(dao).getFilterIdsRaw(anyString());
+            doReturn("1=a|2=b|3=a").when(dao).getFilterIdsRaw(startsWith("FILTERCHANGES_"));
+
+            FilterChanges changes = dao.getFilterChangesSince(3);
+
+            assertTrue(changes.isEmpty());
+            assertEquals(3, changes.getVersion());
+            verify(gateway, never()).getByFilterIds(anyList());
+        }
+
+        @SuppressWarnings("unchecked")
+        @Test
+        public void testGetFilterChangesSinceReadsOnlyChangedFilters() {
+            ZuulFilterDAOCassandra dao = spy(new ZuulFilterDAOCassandra(gateway));
+            doReturn("").when(dao).getFilterIdsRaw(anyString());
+            doReturn("1=a|2=b|3=c").when(dao).getFilterIdsRaw(startsWith("FILTERCHANGES_"));
+            doReturn("a_2|b_1|c_4").when(dao).getFilterIdsRaw(startsWith("ACTIVE_"));
+            doReturn("d_1").when(dao).getFilterIdsRaw(startsWith("CANARY_"));
+
+            FilterChanges changes = dao.getFilterChangesSince(1);
+
+            assertFalse(changes.isSnapshot());
+            assertEquals(3, changes.getVersion());
+            assertEquals(new HashSet<String>(Arrays.asList("b", "c")), changes.getChangedFilterIds());
+            ArgumentCaptor<List> keys = ArgumentCaptor.forClass(List.class);
+            verify(gateway).getByFilterIds(keys.capture());
+            assertEquals(new HashSet<String>(Arrays.asList("b_1", "c_4")), new HashSet<String>(keys.getValue()));
+        }
+
+        @Test
+        public void testGetFilterChangesSinceTrimmedVersionIsSnapshot() {
+            ZuulFilterDAOCassandra dao = spy(new ZuulFilterDAOCassandra(gateway));
+            doReturn("").when(dao).getFilterIdsRaw(anyString());
+            doReturn("5=a|6=b").when(dao).getFilterIdsRaw(startsWith("FILTERCHANGES_"));
+
+            assertTrue(dao.getFilterChangesSince(2).isSnapshot());
+            assertTrue(dao.getFilterChangesSince(-1).isSnapshot());
+            assertTrue(dao.getFilterChangesSince(7).isSnapshot());
+            assertFalse(dao.getFilterChangesSince(4).isSnapshot());
+            assertEquals(6, dao.getFilterChangesSince(2).getVersion());
+        }
+
         /**
          * Utility for creating Cassandra responses
          *
@@ -0,0 +1,659 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+package com.netflix.zuul.scriptManager;
+
+import com.netflix.zuul.ZuulApplicationInfo;
+import com.netflix.zuul.event.ZuulEvent;
+import com.netflix.zuul.filters.FilterType;
+import net.jcip.annotations.ThreadSafe;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+/**
+ * A ZuulFilterDAO that keeps filters in a local, append-only log file instead of Cassandra, for running without a
+ * filter store cluster (eg. small deployments, tests and benchmarks).
+ *
+ * Every new filter revision, and every change to a revision's active/canary state, is appended to the log as a
+ * checksummed record and synced to disk. On startup the log is replayed into an in-memory index that serves all
+ * queries; a partially written record at the end of the log (eg. after a crash) is discarded.
+ *
+ * Active, canary and revision handling follow ZuulFilterDAOCassandra: a filter has at most one active and one canary
+ * revision, activating a revision ends its canary, and the version returned from getFilterChangesSince() counts the
+ * state changes in the log.
+ */
+@ThreadSafe
+public class ZuulFilterDAOFile extends Observable implements ZuulFilterDAO, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZuulFilterDAOFile.class);
+
+    private final static int MAGIC = 0x5A464C31; // "ZFL1"
+
+    private final static byte TYPE_REVISION = 1;
+    private final static byte TYPE_STATE = 2;
+
+    private final static String ACTIVE_SCRIPTS = "ACTIVE_";
+    private final static String CANARY_SCRIPTS = "CANARY_";
+    private final static String SCRIPTS_FOR_FILTER = "FILTERSCRIPTS_";
+    private final static String FILTER_ID = "FILTER_ID_";
+
+    private final File file;
+    private final FileChannel channel;
+
+    /** filter_id -> revision -> that revision's current state, in order of first revision */
+    private final Map<String, TreeMap<Integer, Revision>> filters = new LinkedHashMap<String, TreeMap<Integer, Revision>>();
+
+    /** filter_id of each state change in the log, in order; the store version is the size of this list */
+    private final List<String> stateChanges = new ArrayList<String>();
+
+    public ZuulFilterDAOFile(File file) throws IOException {
+        this.file = file;
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            replay();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized List<String> getAllFilterIDs() {
+        return new ArrayList<String>(filters.keySet());
+    }
+
+    @Override
+    public synchronized List<FilterInfo> getZuulFiltersForFilterId(String filter_id) {
+        TreeMap<Integer, Revision> revisions = filters.get(filter_id);
+        if (revisions == null) return new ArrayList<FilterInfo>();
+        List<FilterInfo> filterInfos = new ArrayList<FilterInfo>(revisions.size());
+        for (Revision revision : revisions.values()) {
+            filterInfos.add(revision.toFilterInfo());
+        }
+        Collections.sort(filterInfos);
+        return filterInfos;
+    }
+
+    @Override
+    public synchronized FilterInfo getFilterInfo(String filter_id, int revision) {
+        Revision r = getRevision(filter_id, revision);
+        return r == null ? null : r.toFilterInfo();
+    }
+
+    @Override
+    public FilterInfo getFilterInfoForFilter(String filter_id, int revision) {
+        return getFilterInfo(filter_id, revision);
+    }
+
+    @Override
+    public synchronized FilterInfo getLatestFilterInfoForFilter(String filter_id) {
+        TreeMap<Integer, Revision> revisions = filters.get(filter_id);
+        if (revisions == null || revisions.isEmpty()) return null;
+        return revisions.lastEntry().getValue().toFilterInfo();
+    }
+
+    @Override
+    public synchronized FilterInfo getActiveFilterInfoForFilter(String filter_id) {
+        Revision r = findRevision(filter_id, true);
+        return r == null ? null : r.toFilterInfo();
+    }
+
+    public synchronized FilterInfo getCanaryScriptForFilter(String filter_id) {
+        Revision r = findRevision(filter_id, false);
+        return r == null ? null : r.toFilterInfo();
+    }
+
+    @Override
+    public synchronized List<FilterInfo> getAllCanaryFilters() {
+        return getFilters(false, null);
+    }
+
+    @Override
+    public synchronized List<FilterInfo> getAllActiveFilters() {
+        return getFilters(true, null);
+    }
+
+    @Override
+    public synchronized FilterInfo setCanaryFilter(String filter_id, int revision) {
+        Revision r = getRevision(filter_id, revision);
+        if (r == null) {
+            logger.warn("Filter not Found " + filter_id + " revision:" + revision);
+            return null;
+        }
+
+        Revision previous = findRevision(filter_id, false);
+        appendState(r, false, true);
+        if (previous != null && previous != r) {
+            appendState(previous, false, false);
+        }
+
+        setChanged();
+        notifyObservers(new ZuulEvent("ZUUL_SCRIPT_CHANGE", "CANARY FILTER SET id = " + filter_id + "revision = " + revision));
+        return r.toFilterInfo();
+    }
+
+    @Override
+    public synchronized FilterInfo setFilterActive(String filter_id, int revision) throws Exception {
+        Revision r = getRevision(filter_id, revision);
+        if (r == null) throw new Exception("Filter not Found " + filter_id + "revision:" + revision);
+
+        //make filters be canaried before they are activated
+        if ("prod".equals(System.getenv("netflix.environment"))) {
+            if (!r.canary) {
+                throw new Exception("Filter must be canaried before activated " + filter_id + "revision:" + revision);
+            }
+        }
+
+        // activate before deactivating the previous revision, as ZuulFilterDAOCassandra does
+        Revision previous = findRevision(filter_id, true);
+        appendState(r, true, false);
+        if (previous != null && previous != r) {
+            appendState(previous, false, false);
+        }
+
+        setChanged();
+        notifyObservers(new ZuulEvent("ZUUL_SCRIPT_CHANGE", "ACTIVATED NEW ZUUL FILTER id = " + filter_id + " revision = " + revision));
+        return r.toFilterInfo();
+    }
+
+    @Override
+    public synchronized FilterInfo deActivateFilter(String filter_id, int revision) throws Exception {
+        Revision r = getRevision(filter_id, revision);
+        if (r == null) throw new Exception("Filter not Found " + filter_id + "revision:" + revision);
+
+        if (!r.canary && !r.active) {
+            throw new Exception("Filter must be canary or active to deactivate" + filter_id + "revision:" + revision);
+        }
+        appendState(r, false, false);
+
+        setChanged();
+        notifyObservers(new ZuulEvent("ZUUL_SCRIPT_CHANGE", "DEACTIVATED ZUUL FILTER id = " + filter_id + " revision = " + revision));
+        return r.toFilterInfo();
+    }
+
+    @Override
+    public synchronized FilterInfo addFilter(String filtercode, FilterType filter_type, String filter_name, String disableFilterPropertyName, String filter_order) {
+        String application_name = ZuulApplicationInfo.getApplicationName();
+        String filter_id = FilterInfo.buildFilterID(application_name, filter_type, filter_name);
+        TreeMap<Integer, Revision> revisions = filters.get(filter_id);
+        int revision = revisions == null || revisions.isEmpty() ? 1 : revisions.lastKey() + 1;
+
+        Revision r = new Revision(filter_id, revision, System.currentTimeMillis(), filtercode, filter_type,
+                filter_name, disableFilterPropertyName, filter_order, application_name);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(filtercode.length() + 256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(TYPE_REVISION);
+            r.write(out);
+            append(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to add filter " + filter_id + " to " + file, e);
+        }
+        applyRevision(r);
+        return r.toFilterInfo();
+    }
+
+    /**
+     * Supports the same indices as ZuulFilterDAOCassandra for the current application: FILTER_ID_, ACTIVE_,
+     * CANARY_ and FILTERSCRIPTS_.
+     */
+    @Override
+    public String getFilterIdsRaw(String index) {
+        StringBuilder sb = new StringBuilder();
+        for (String filterId : getFilterIdsIndex(index)) {
+            if (sb.length() > 0) sb.append('|');
+            sb.append(filterId);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public synchronized List<String> getFilterIdsIndex(String index) {
+        String application_name = ZuulApplicationInfo.getApplicationName();
+        List<String> ids = new ArrayList<String>();
+        if ((FILTER_ID + application_name).equals(index)) {
+            ids.addAll(filters.keySet());
+        } else if ((ACTIVE_SCRIPTS + application_name).equals(index)) {
+            for (FilterInfo filterInfo : getFilters(true, null)) {
+                ids.add(filterInfo.getFilterID() + "_" + filterInfo.getRevision());
+            }
+        } else if ((CANARY_SCRIPTS + application_name).equals(index)) {
+            for (FilterInfo filterInfo : getFilters(false, null)) {
+                ids.add(filterInfo.getFilterID() + "_" + filterInfo.getRevision());
+            }
+        } else if (index != null && index.startsWith(SCRIPTS_FOR_FILTER + application_name + "_")) {
+            String filter_id = index.substring((SCRIPTS_FOR_FILTER + application_name + "_").length());
+            TreeMap<Integer, Revision> revisions = filters.get(filter_id);
+            if (revisions != null) {
+                for (Integer revision : revisions.keySet()) {
+                    ids.add(filter_id + "_" + revision);
+                }
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public synchronized FilterChanges getFilterChangesSince(long sinceVersion) {
+        final long latest = stateChanges.size();
+        if (sinceVersion < 0 || sinceVersion > latest) {
+            return FilterChanges.snapshot(latest, getFilters(true, null), getFilters(false, null));
+        }
+        if (sinceVersion == latest) {
+            return FilterChanges.none(latest);
+        }
+        Set<String> changedIds = new HashSet<String>(stateChanges.subList((int) sinceVersion, (int) latest));
+        return FilterChanges.delta(latest, changedIds, getFilters(true, changedIds), getFilters(false, changedIds));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private Revision getRevision(String filter_id, int revision) {
+        TreeMap<Integer, Revision> revisions = filters.get(filter_id);
+        return revisions == null ? null : revisions.get(revision);
+    }
+
+    private Revision findRevision(String filter_id, boolean active) {
+        TreeMap<Integer, Revision> revisions = filters.get(filter_id);
+        if (revisions == null) return null;
+        for (Revision r : revisions.descendingMap().values()) {
+            if (active ? r.active : r.canary) return r;
+        }
+        return null;
+    }
+
+    private List<FilterInfo> getFilters(boolean active, Set<String> filterIds) {
+        List<FilterInfo> filterInfos = new ArrayList<FilterInfo>();
+        for (Map.Entry<String, TreeMap<Integer, Revision>> entry : filters.entrySet()) {
+            if (filterIds != null && !filterIds.contains(entry.getKey())) continue;
+            for (Revision r : entry.getValue().values()) {
+                if (active ? r.active : r.canary) filterInfos.add(r.toFilterInfo());
+            }
+        }
+        Collections.sort(filterInfos);
+        return filterInfos;
+    }
+
+    private void appendState(Revision r, boolean active, boolean canary) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(TYPE_STATE);
+            out.writeUTF(r.filterId);
+            out.writeInt(r.revision);
+            out.writeBoolean(active);
+            out.writeBoolean(canary);
+            append(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to update filter " + r.filterId + " in " + file, e);
+        }
+        applyState(r.filterId, r.revision, active, canary);
+    }
+
+    private void applyRevision(Revision r) {
+        TreeMap<Integer, Revision> revisions = filters.get(r.filterId);
+        if (revisions == null) {
+            revisions = new TreeMap<Integer, Revision>();
+            filters.put(r.filterId, revisions);
+        }
+        revisions.put(r.revision, r);
+    }
+
+    private void applyState(String filter_id, int revision, boolean active, boolean canary) {
+        Revision r = getRevision(filter_id, revision);
+        if (r == null) {
+            logger.warn("Ignoring state change for unknown filter " + filter_id + " revision:" + revision);
+        } else {
+            r.active = active;
+            r.canary = canary;
+        }
+        stateChanges.add(filter_id);
+    }
+
+    /**
+     * Appends a record as: length, crc32 of the payload, payload. The record is forced to disk before returning, so
+     * that an acknowledged change survives a crash.
+     */
+    private void append(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        ByteBuffer buf = ByteBuffer.allocate(8 + payload.length);
+        buf.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        buf.flip();
+        long position = channel.size();
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+        channel.force(false);
+    }
+
+    private void replay() throws IOException {
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(4).putInt(MAGIC);
+            header.flip();
+            channel.write(header, 0);
+            channel.force(false);
+            return;
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0))));
+        if (channel.size() < 4 || in.readInt() != MAGIC) {
+            throw new IOException("Not a filter log: " + file);
+        }
+
+        long validLength = 4;
+        int records = 0;
+        while (true) {
+            byte[] payload;
+            try {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < 0 || validLength + 8 + length > channel.size()) break;
+                payload = new byte[length];
+                in.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) break;
+            } catch (EOFException e) {
+                break;
+            }
+            applyRecord(new DataInputStream(new ByteArrayInputStream(payload)));
+            validLength += 8 + payload.length;
+            records++;
+        }
+
+        if (validLength < channel.size()) {
+            logger.warn("Discarding " + (channel.size() - validLength) + " bytes of incomplete records at the end of " + file);
+            channel.truncate(validLength);
+            channel.force(false);
+        }
+        logger.info("Loaded " + records + " filter log records from " + file + ", version = " + stateChanges.size());
+    }
+
+    private void applyRecord(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_REVISION:
+                applyRevision(Revision.read(in));
+                break;
+            case TYPE_STATE:
+                String filter_id = in.readUTF();
+                int revision = in.readInt();
+                boolean active = in.readBoolean();
+                boolean canary = in.readBoolean();
+                applyState(filter_id, revision, active, canary);
+                break;
+            default:
+                throw new IOException("Unknown filter log record type " + type + " in " + file);
+        }
+    }
+
+    /**
+     * The current state of one filter revision. FilterInfos handed out are copies, so that callers comparing them
+     * with equals() (eg. ZuulFilterPoller) see state changes.
+     */
+    private static final class Revision {
+        final String filterId;
+        final int revision;
+        final long creationTime;
+        final String code;
+        final FilterType type;
+        final String name;
+        final String disablePropertyName;
+        final String order;
+        final String applicationName;
+        boolean active;
+        boolean canary;
+
+        Revision(String filterId, int revision, long creationTime, String code, FilterType type, String name,
+                 String disablePropertyName, String order, String applicationName) {
+            this.filterId = filterId;
+            this.revision = revision;
+            this.creationTime = creationTime;
+            this.code = code;
+            this.type = type;
+            this.name = name;
+            this.disablePropertyName = disablePropertyName;
+            this.order = order;
+            this.applicationName = applicationName;
+        }
+
+        FilterInfo toFilterInfo() {
+            return new FilterInfo(filterId, revision, new Date(creationTime), active, canary, code, type, name,
+                    disablePropertyName, order, applicationName);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            writeString(out, filterId);
+            out.writeInt(revision);
+            out.writeLong(creationTime);
+            writeString(out, type.name());
+            writeString(out, name);
+            writeString(out, disablePropertyName);
+            writeString(out, order);
+            writeString(out, applicationName);
+            writeString(out, code);
+        }
+
+        static Revision read(DataInputStream in) throws IOException {
+            String filterId = readString(in);
+            int revision = in.readInt();
+            long creationTime = in.readLong();
+            FilterType type = FilterType.valueOf(readString(in));
+            String name = readString(in);
+            String disablePropertyName = readString(in);
+            String order = readString(in);
+            String applicationName = readString(in);
+            String code = readString(in);
+            return new Revision(filterId, revision, creationTime, code, type, name, disablePropertyName, order,
+                    applicationName);
+        }
+
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            if (s == null) {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) return null;
+            byte[] utf8 = new byte[length];
+            in.readFully(utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+    }
+
+
+    public static class UnitTest {
+
+        @Rule
+        public TemporaryFolder tmp = new TemporaryFolder();
+
+        File logFile;
+        ZuulFilterDAOFile dao;
+
+        @Before
+        public void before() throws IOException {
+            ZuulApplicationInfo.setApplicationName("app");
+            logFile = new File(tmp.getRoot(), "filters.log");
+            dao = new ZuulFilterDAOFile(logFile);
+        }
+
+        @After
+        public void after() throws IOException {
+            dao.close();
+        }
+
+        @Test
+        public void testAddFilterIncrementsRevision() {
+            FilterInfo r1 = dao.addFilter("code1", FilterType.INBOUND, "name", "disable", "1");
+            FilterInfo r2 = dao.addFilter("code2", FilterType.INBOUND, "name", "disable", "1");
+
+            assertEquals("app:name:INBOUND", r1.getFilterID());
+            assertEquals(1, r1.getRevision());
+            assertEquals(2, r2.getRevision());
+            assertFalse(r2.isActive());
+            assertFalse(r2.isCanary());
+            assertEquals("code2", dao.getLatestFilterInfoForFilter(r1.getFilterID()).getFilterCode());
+            assertEquals(2, dao.getZuulFiltersForFilterId(r1.getFilterID()).size());
+            assertEquals(Collections.singletonList(r1.getFilterID()), dao.getAllFilterIDs());
+            assertEquals("app:name:INBOUND_1|app:name:INBOUND_2", dao.getFilterIdsRaw("FILTERSCRIPTS_app_app:name:INBOUND"));
+        }
+
+        @Test
+        public void testCanaryThenActivate() throws Exception {
+            String id = dao.addFilter("code1", FilterType.INBOUND, "name", "disable", "1").getFilterID();
+            dao.addFilter("code2", FilterType.INBOUND, "name", "disable", "1");
+
+            dao.setFilterActive(id, 1);
+            dao.setCanaryFilter(id, 2);
+            assertEquals(1, dao.getActiveFilterInfoForFilter(id).getRevision());
+            assertEquals(2, dao.getCanaryScriptForFilter(id).getRevision());
+            assertEquals(1, dao.getAllActiveFilters().size());
+            assertEquals(1, dao.getAllCanaryFilters().size());
+
+            FilterInfo activated = dao.setFilterActive(id, 2);
+            assertTrue(activated.isActive());
+            assertFalse(activated.isCanary());
+            assertEquals(2, dao.getActiveFilterInfoForFilter(id).getRevision());
+            assertFalse(dao.getFilterInfo(id, 1).isActive());
+            assertNull(dao.getCanaryScriptForFilter(id));
+            assertEquals("app:name:INBOUND_2", dao.getFilterIdsRaw("ACTIVE_app"));
+        }
+
+        @Test
+        public void testDeactivate() throws Exception {
+            String id = dao.addFilter("code1", FilterType.INBOUND, "name", "disable", "1").getFilterID();
+            try {
+                dao.deActivateFilter(id, 1);
+                fail("should not deactivate a filter that isn't active or canary");
+            } catch (Exception e) {
+                // expected
+            }
+            dao.setFilterActive(id, 1);
+            dao.deActivateFilter(id, 1);
+            assertNull(dao.getActiveFilterInfoForFilter(id));
+            assertTrue(dao.getAllActiveFilters().isEmpty());
+        }
+
+        @Test(expected = Exception.class)
+        public void testActivateUnknownRevision() throws Exception {
+            String id = dao.addFilter("code1", FilterType.INBOUND, "name", "disable", "1").getFilterID();
+            dao.setFilterActive(id, 2);
+        }
+
+        @Test
+        public void testReplaysLogOnReopen() throws Exception {
+            String id = dao.addFilter("code1", FilterType.INBOUND, "name", null, "1").getFilterID();
+            dao.addFilter("code2", FilterType.INBOUND, "name", null, "1");
+            dao.setFilterActive(id, 2);
+            FilterInfo before = dao.getActiveFilterInfoForFilter(id);
+            dao.close();
+
+            dao = new ZuulFilterDAOFile(logFile);
+            assertEquals(before, dao.getActiveFilterInfoForFilter(id));
+            assertNull(dao.getActiveFilterInfoForFilter(id).getFilterDisablePropertyName());
+            assertEquals(2, dao.getZuulFiltersForFilterId(id).size());
+            assertEquals(1, dao.getFilterChangesSince(-1).getVersion());
+        }
+
+        @Test
+        public void testDiscardsIncompleteRecord() throws Exception {
+            String id = dao.addFilter("code1", FilterType.INBOUND, "name", "disable", "1").getFilterID();
+            dao.setFilterActive(id, 1);
+            dao.close();
+
+            long validLength = logFile.length();
+            try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+                raf.seek(validLength);
+                raf.writeInt(100);
+                raf.writeInt(0);
+                raf.write(new byte[10]);
+            }
+
+            dao = new ZuulFilterDAOFile(logFile);
+            assertEquals(validLength, logFile.length());
+            assertTrue(dao.getActiveFilterInfoForFilter(id).isActive());
+
+            dao.deActivateFilter(id, 1);
+            dao.close();
+            dao = new ZuulFilterDAOFile(logFile);
+            assertNull(dao.getActiveFilterInfoForFilter(id));
+        }
+
+        @Test
+        public void testFilterChangesSince() throws Exception {
+            String a = dao.addFilter("a", FilterType.INBOUND, "a", "disable", "1").getFilterID();
+            String b = dao.addFilter("b", FilterType.INBOUND, "b", "disable", "1").getFilterID();
+            dao.setFilterActive(a, 1);
+            dao.setFilterActive(b, 1);
+
+            FilterChanges snapshot = dao.getFilterChangesSince(-1);
+            assertTrue(snapshot.isSnapshot());
+            assertEquals(2, snapshot.getActiveFilters().size());
+            assertTrue(dao.getFilterChangesSince(snapshot.getVersion()).isEmpty());
+
+            dao.deActivateFilter(b, 1);
+            FilterChanges delta = dao.getFilterChangesSince(snapshot.getVersion());
+            assertFalse(delta.isSnapshot());
+            assertEquals(Collections.singleton(b), delta.getChangedFilterIds());
+            assertTrue(delta.getActiveFilters().isEmpty());
+            assertEquals(snapshot.getVersion() + 1, delta.getVersion());
+        }
+    }
+}
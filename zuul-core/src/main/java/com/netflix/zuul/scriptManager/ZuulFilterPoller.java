@@ -16,17 +16,36 @@
 package com.netflix.zuul.scriptManager;
 
 import com.netflix.config.DynamicBooleanProperty;
+import com.netflix.config.DynamicLongProperty;
 import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.zuul.FilterLoader;
 import com.netflix.zuul.constants.ZuulConstants;
 import com.netflix.zuul.filters.FilterType;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
 
 /**
  * Polls a persistent store for new or changes Filters
@@ -37,18 +56,32 @@ import java.util.Map;
  */
 public class ZuulFilterPoller {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ZuulFilterPoller.class);
+
     Map<String, FilterInfo> runningFilters = new HashMap<String, FilterInfo>();
     ZuulFilterDAO dao;
+    FilterLoader filterLoader;
+
+    /** The filter store version that runningFilters is up to date with, or -1 before the first successful poll. */
+    long syncedVersion = -1;
+
+    /** When runningFilters was last reconciled against a full snapshot, in millis. */
+    long lastSnapshotTime;
 
     DynamicBooleanProperty active = DynamicPropertyFactory.getInstance().getBooleanProperty(ZuulConstants.ZUUL_USE_ACTIVE_FILTERS, true);
     DynamicBooleanProperty canary = DynamicPropertyFactory.getInstance().getBooleanProperty(ZuulConstants.ZUUL_USE_CANARY_FILTERS, false);
 
+    // The change log can lose an entry to concurrent admin changes, so the deltas are periodically checked against a
+    // full snapshot. Zero or less disables this.
+    DynamicLongProperty reconcileIntervalMs = DynamicPropertyFactory.getInstance().getLongProperty(ZuulConstants.ZUUL_FILTER_RECONCILE_INTERVAL_MS, 10 * 60 * 1000);
+
 
     private static ZuulFilterPoller INSTANCE;
 
 
     /**
-     * Starts the check against the ZuulFilter data store for changed or new filters.
+     * Starts the check against the ZuulFilter data store for changed or new filters, writing them to the filter
+     * directories for a FilterFileManager to pick up.
      *
      * @param dao
      */
@@ -58,6 +91,19 @@ public class ZuulFilterPoller {
 
     }
 
+    /**
+     * Starts the check against the ZuulFilter data store for changed or new filters, compiling and loading them
+     * directly into the given FilterLoader.
+     *
+     * @param dao
+     * @param filterLoader
+     */
+    public static void start(ZuulFilterDAO dao, FilterLoader filterLoader) {
+
+        INSTANCE = new ZuulFilterPoller(dao, filterLoader);
+
+    }
+
 
     /**
      * constructor that passes in a dao
@@ -65,9 +111,25 @@ public class ZuulFilterPoller {
      * @param dao
      */
     public ZuulFilterPoller(ZuulFilterDAO dao) {
-        this.dao = dao;
-        checkerThread.start();
+        this(dao, null, true);
+    }
 
+    /**
+     * constructor that passes in a dao, and the FilterLoader to load changed filters into
+     *
+     * @param dao
+     * @param filterLoader
+     */
+    public ZuulFilterPoller(ZuulFilterDAO dao, FilterLoader filterLoader) {
+        this(dao, filterLoader, true);
+    }
+
+    ZuulFilterPoller(ZuulFilterDAO dao, FilterLoader filterLoader, boolean startPolling) {
+        this.dao = dao;
+        this.filterLoader = filterLoader;
+        if (startPolling) {
+            checkerThread.start();
+        }
     }
 
     /**
@@ -84,36 +146,9 @@ public class ZuulFilterPoller {
         public void run() {
             while (running) {
                 try {
-
-                    if (canary.get()) {
-                        HashMap<String, FilterInfo> setFilters = new HashMap<String, FilterInfo>();
-
-                        List<FilterInfo> activeScripts = dao.getAllActiveFilters();
-                        if (activeScripts != null) {
-                            for (FilterInfo newFilter : activeScripts) {
-                                setFilters.put(newFilter.getFilterID(), newFilter);
-                            }
-                        }
-
-                        List<FilterInfo> canaryScripts = dao.getAllCanaryFilters();
-                        if (canaryScripts != null) {
-                            for (FilterInfo newFilter : canaryScripts) {
-                                setFilters.put(newFilter.getFilterID(), newFilter);
-                            }
-                        }
-                        for (FilterInfo next : setFilters.values()) {
-                            doFilterCheck(next);
-                        }
-                    } else if (active.get()) {
-                        List<FilterInfo> newFilters = dao.getAllActiveFilters();
-                        if (newFilters == null) continue;
-                        for (FilterInfo newFilter : newFilters) {
-                            doFilterCheck(newFilter);
-                        }
-
-                    }
+                    poll();
                 } catch (Throwable e) {
-                    e.printStackTrace();
+                    LOG.error("Error polling for filter changes", e);
                 }
 
                 try {
@@ -126,33 +161,241 @@ public class ZuulFilterPoller {
         }
     };
 
-    private void doFilterCheck(FilterInfo newFilter) throws IOException {
+    /**
+     * Fetches the filter changes since the last synced version, and applies them. When nothing has changed this is
+     * a single cheap call to the DAO; otherwise only the changed filters are compared, and (re)loaded or unloaded.
+     * Every zuul.filter.reconcile.interval.ms, a full snapshot is fetched instead, to pick up any change the change
+     * log missed.
+     */
+    void poll() throws Exception {
+        if (!canary.get() && !active.get()) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final long interval = reconcileIntervalMs.get();
+        final boolean reconcile = interval > 0 && now - lastSnapshotTime >= interval;
+        FilterChanges changes = dao.getFilterChangesSince(reconcile ? -1 : syncedVersion);
+        if (changes == null || changes.isEmpty()) {
+            if (changes != null) syncedVersion = changes.getVersion();
+            return;
+        }
+
+        Map<String, FilterInfo> desiredFilters = new HashMap<String, FilterInfo>();
+        for (FilterInfo newFilter : changes.getActiveFilters()) {
+            desiredFilters.put(newFilter.getFilterID(), newFilter);
+        }
+        if (canary.get()) {
+            for (FilterInfo newFilter : changes.getCanaryFilters()) {
+                desiredFilters.put(newFilter.getFilterID(), newFilter);
+            }
+        }
+
+        if (changes.isSnapshot() && desiredFilters.isEmpty() && !runningFilters.isEmpty()) {
+            // Far more likely a failed read than every filter having been deactivated, so don't unload everything.
+            LOG.warn("Ignoring empty filter snapshot, version = " + changes.getVersion());
+            return;
+        }
+
+        Set<String> affectedIds = new HashSet<String>();
+        if (changes.isSnapshot()) {
+            affectedIds.addAll(runningFilters.keySet());
+            affectedIds.addAll(desiredFilters.keySet());
+        } else {
+            affectedIds.addAll(changes.getChangedFilterIds());
+        }
+
+        boolean complete = true;
+        if (filterLoader != null) filterLoader.beginUpdateBatch();
+        try {
+            for (String filterId : affectedIds) {
+                FilterInfo newFilter = desiredFilters.get(filterId);
+                try {
+                    if (newFilter != null) {
+                        doFilterCheck(newFilter);
+                    } else if (runningFilters.containsKey(filterId)) {
+                        removeFilter(runningFilters.remove(filterId));
+                    }
+                } catch (Exception e) {
+                    // Leave the watermark where it is, so that this filter is retried on the next poll.
+                    LOG.error("Error applying filter change for " + filterId, e);
+                    complete = false;
+                }
+            }
+        } finally {
+            if (filterLoader != null) filterLoader.endUpdateBatch();
+        }
+
+        if (complete) {
+            syncedVersion = changes.getVersion();
+            if (changes.isSnapshot()) lastSnapshotTime = now;
+        } else if (!changes.isSnapshot()) {
+            // A delta can't be replayed once the watermark has moved on in the store, so fall back to a snapshot.
+            syncedVersion = -1;
+        }
+    }
+
+    private void doFilterCheck(FilterInfo newFilter) throws Exception {
         FilterInfo existingFilter = runningFilters.get(newFilter.getFilterID());
         if (existingFilter == null || !existingFilter.equals(newFilter)) {
-            System.out.println("adding filter to disk" + newFilter.toString());
-            writeFilterToDisk(newFilter);
+            if (filterLoader != null) {
+                LOG.info("loading filter " + newFilter);
+                filterLoader.putFilter(newFilter.getFilterID(), newFilter.getFilterCode());
+            } else {
+                LOG.info("adding filter to disk " + newFilter);
+                writeFilterToDisk(newFilter);
+            }
             runningFilters.put(newFilter.getFilterID(), newFilter);
         }
     }
 
-    private void writeFilterToDisk(FilterInfo newFilter) throws IOException {
+    private void removeFilter(FilterInfo oldFilter) {
+        if (filterLoader != null) {
+            filterLoader.removeFilter(oldFilter.getFilterID());
+        } else {
+            File f = filterFile(oldFilter);
+            if (f.delete()) {
+                LOG.info("filter removed from disk " + f.getPath());
+            }
+        }
+    }
 
+    private File filterFile(FilterInfo filter) {
         String path = DynamicPropertyFactory.getInstance().getStringProperty(ZuulConstants.ZUUL_FILTER_PRE_PATH, null).get();
-        if (newFilter.getFilterType().equals(FilterType.OUTBOUND)) {
+        if (filter.getFilterType().equals(FilterType.OUTBOUND)) {
             path = DynamicPropertyFactory.getInstance().getStringProperty(ZuulConstants.ZUUL_FILTER_POST_PATH, null).get();
         }
-        if (newFilter.getFilterType().equals(FilterType.ENDPOINT)) {
+        if (filter.getFilterType().equals(FilterType.ENDPOINT)) {
             path = DynamicPropertyFactory.getInstance().getStringProperty(ZuulConstants.ZUUL_FILTER_ROUTING_PATH, null).get();
         }
+        return new File(path, filter.getFilterName() + ".groovy");
+    }
 
-        File f = new File(path, newFilter.getFilterName() + ".groovy");
-        FileWriter file = new FileWriter(f);
+    private void writeFilterToDisk(FilterInfo newFilter) throws IOException {
+
+        // Write to a temp file and move it into place, so that a watching FilterFileManager never sees a partial file.
+        File f = filterFile(newFilter);
+        File tmp = new File(f.getParentFile(), f.getName() + ".tmp");
+        FileWriter file = new FileWriter(tmp);
         BufferedWriter out = new BufferedWriter(file);
         out.write(newFilter.getFilterCode());
         out.close();
         file.close();
-        System.out.println("filter written " + f.getPath());
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOG.info("filter written " + f.getPath());
     }
 
+    public static class UnitTest {
+
+        @Mock
+        ZuulFilterDAO dao;
+        @Mock
+        FilterLoader filterLoader;
+
+        ZuulFilterPoller poller;
+
+        @Before
+        public void before() {
+            MockitoAnnotations.initMocks(this);
+            poller = new ZuulFilterPoller(dao, filterLoader, false);
+        }
+
+        private static FilterInfo filter(String id, int revision, boolean isActive, boolean isCanary) {
+            return new FilterInfo(id, revision, new Date(1000), isActive, isCanary, "code_" + id + "_" + revision,
+                    FilterType.INBOUND, id, "disable", "1", "app");
+        }
+
+        @Test
+        public void loadsSnapshotThenOnlyChangedFilters() throws Exception {
+            FilterInfo a1 = filter("a", 1, true, false);
+            FilterInfo b1 = filter("b", 1, true, false);
+            FilterInfo a2 = filter("a", 2, true, false);
+            when(dao.getFilterChangesSince(-1)).thenReturn(FilterChanges.snapshot(5, Arrays.asList(a1, b1), null));
+            when(dao.getFilterChangesSince(5)).thenReturn(FilterChanges.none(5));
+            when(dao.getFilterChangesSince(6)).thenReturn(FilterChanges.none(6));
+
+            poller.poll();
+            verify(filterLoader).putFilter("a", a1.getFilterCode());
+            verify(filterLoader).putFilter("b", b1.getFilterCode());
+            assertEquals(5, poller.syncedVersion);
+
+            poller.poll();
+            verify(filterLoader, times(2)).putFilter(anyString(), anyString());
+
+            when(dao.getFilterChangesSince(5)).thenReturn(
+                    FilterChanges.delta(6, Arrays.asList("a"), Collections.singletonList(a2), null));
+            poller.poll();
+            verify(filterLoader).putFilter("a", a2.getFilterCode());
+            verify(filterLoader, times(3)).putFilter(anyString(), anyString());
+            verify(filterLoader, times(2)).beginUpdateBatch();
+            verify(filterLoader, times(2)).endUpdateBatch();
+            assertEquals(6, poller.syncedVersion);
+        }
+
+        @Test
+        public void unloadsDeactivatedFilters() throws Exception {
+            FilterInfo a1 = filter("a", 1, true, false);
+            FilterInfo b1 = filter("b", 1, true, false);
+            when(dao.getFilterChangesSince(-1)).thenReturn(FilterChanges.snapshot(1, Arrays.asList(a1, b1), null));
+            when(dao.getFilterChangesSince(1)).thenReturn(
+                    FilterChanges.delta(2, Arrays.asList("b"), Collections.<FilterInfo>emptyList(), null));
+
+            poller.poll();
+            poller.poll();
+
+            verify(filterLoader).removeFilter("b");
+            verify(filterLoader, never()).removeFilter("a");
+            assertEquals(Collections.singleton("a"), poller.runningFilters.keySet());
+        }
+
+        @Test
+        public void keepsWatermarkWhenLoadFails() throws Exception {
+            FilterInfo a1 = filter("a", 1, true, false);
+            when(dao.getFilterChangesSince(-1)).thenReturn(FilterChanges.snapshot(3, Arrays.asList(a1), null));
+            when(filterLoader.putFilter("a", a1.getFilterCode())).thenThrow(new RuntimeException("compile error"));
+
+            poller.poll();
 
+            assertEquals(-1, poller.syncedVersion);
+            assertTrue(poller.runningFilters.isEmpty());
+            verify(filterLoader).endUpdateBatch();
+        }
+
+        @Test
+        public void reconcilesAgainstSnapshotPeriodically() throws Exception {
+            FilterInfo a1 = filter("a", 1, true, false);
+            FilterInfo b1 = filter("b", 1, true, false);
+            when(dao.getFilterChangesSince(-1)).thenReturn(
+                    FilterChanges.snapshot(1, Arrays.asList(a1), null),
+                    FilterChanges.snapshot(2, Arrays.asList(a1, b1), null));
+            // the change that loaded b was lost from the change log
+            when(dao.getFilterChangesSince(1)).thenReturn(FilterChanges.none(2));
+            when(dao.getFilterChangesSince(2)).thenReturn(FilterChanges.none(2));
+
+            poller.poll();
+            poller.poll();
+            verify(filterLoader, never()).putFilter("b", b1.getFilterCode());
+
+            poller.lastSnapshotTime -= poller.reconcileIntervalMs.get();
+            poller.poll();
+            verify(filterLoader).putFilter("b", b1.getFilterCode());
+            verify(filterLoader, times(1)).putFilter("a", a1.getFilterCode());
+            assertEquals(2, poller.syncedVersion);
+        }
+
+        @Test
+        public void ignoresEmptySnapshotWhenFiltersAreRunning() throws Exception {
+            FilterInfo a1 = filter("a", 1, true, false);
+            when(dao.getFilterChangesSince(-1)).thenReturn(
+                    FilterChanges.snapshot(1, Arrays.asList(a1), null),
+                    FilterChanges.snapshot(1, Collections.<FilterInfo>emptyList(), null));
+
+            poller.poll();
+            poller.syncedVersion = -1;
+            poller.poll();
+
+            verify(filterLoader, never()).removeFilter(anyString());
+            assertEquals(Collections.singleton("a"), poller.runningFilters.keySet());
+        }
+    }
 }
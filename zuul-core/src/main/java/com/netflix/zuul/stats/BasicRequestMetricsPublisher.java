@@ -16,23 +16,58 @@
 
 package com.netflix.zuul.stats;
 
-import com.netflix.servo.monitor.DynamicTimer;
-import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.spectator.api.DefaultRegistry;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.Spectator;
+import com.netflix.spectator.api.Timer;
 import com.netflix.zuul.context.SessionContext;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.inject.Inject;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
 
 /**
+ * Publishes the request timings to timers that are looked up once, up front, so that publishing a request's
+ * timings doesn't build metric names or configs.
+ *
  * User: michaels@netflix.com
  * Date: 6/4/15
  * Time: 4:22 PM
  */
 public class BasicRequestMetricsPublisher implements RequestMetricsPublisher
 {
+    private static final String METRIC_TIMINGS_REQ_PREFIX = "zuul.timings.request.";
+
+    private final Timer totalTimer;
+    private final Timer proxyTimer;
+    private final Timer internalTimer;
+    private final Timer addedTimer;
+
+    public BasicRequestMetricsPublisher()
+    {
+        this(Spectator.globalRegistry());
+    }
+
+    @Inject
+    public BasicRequestMetricsPublisher(Registry registry)
+    {
+        this.totalTimer = registry.timer(METRIC_TIMINGS_REQ_PREFIX + "total");
+        this.proxyTimer = registry.timer(METRIC_TIMINGS_REQ_PREFIX + "proxy");
+        this.internalTimer = registry.timer(METRIC_TIMINGS_REQ_PREFIX + "internal");
+        this.addedTimer = registry.timer(METRIC_TIMINGS_REQ_PREFIX + "added");
+    }
+
     @Override
     public void collectAndPublish(SessionContext context)
     {
         // Request timings.
-        long totalRequestTime = context.getTimings().getRequest().getDuration();
-        long requestProxyTime = context.getTimings().getRequestProxy().getDuration();
+        final Timings timings = context.getTimings();
+        long totalRequestTime = timings.getDuration(Timings.REQUEST);
+        long requestProxyTime = timings.getDuration(Timings.REQUEST_PROXY);
         int originReportedDuration = context.getOriginReportedDuration();
 
         // Approximation of time spent just within Zuul's own processing of the request.
@@ -47,18 +82,39 @@ public class BasicRequestMetricsPublisher implements RequestMetricsPublisher
         }
 
         // Publish
-        final String METRIC_TIMINGS_REQ_PREFIX = "zuul.timings.request.";
-        recordRequestTiming(METRIC_TIMINGS_REQ_PREFIX + "total", totalRequestTime);
-        recordRequestTiming(METRIC_TIMINGS_REQ_PREFIX + "proxy", requestProxyTime);
-        recordRequestTiming(METRIC_TIMINGS_REQ_PREFIX + "internal", totalInternalTime);
-        recordRequestTiming(METRIC_TIMINGS_REQ_PREFIX + "added", totalTimeAddedToOrigin);
+        recordRequestTiming(totalTimer, totalRequestTime);
+        recordRequestTiming(proxyTimer, requestProxyTime);
+        recordRequestTiming(internalTimer, totalInternalTime);
+        recordRequestTiming(addedTimer, totalTimeAddedToOrigin);
     }
 
-    private void recordRequestTiming(String name, long timeNs)
+    private static void recordRequestTiming(Timer timer, long timeNs)
     {
         long timeMs = timeNs / 1000000;
         if(timeMs > -1) {
-            DynamicTimer.record(MonitorConfig.builder(name).build(), timeMs);
+            timer.record(timeMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @RunWith(MockitoJUnitRunner.class)
+    public static class UnitTest
+    {
+        @Test
+        public void recordsEndedTimings()
+        {
+            Registry registry = new DefaultRegistry();
+            BasicRequestMetricsPublisher publisher = new BasicRequestMetricsPublisher(registry);
+
+            SessionContext context = new SessionContext();
+            context.getTimings().start(Timings.REQUEST);
+            context.getTimings().end(Timings.REQUEST);
+            publisher.collectAndPublish(context);
+
+            assertEquals(1, registry.timer("zuul.timings.request.total").count());
+            assertEquals(1, registry.timer("zuul.timings.request.proxy").count());
+            assertEquals(1, registry.timer("zuul.timings.request.internal").count());
+            // no origin reported duration
+            assertEquals(0, registry.timer("zuul.timings.request.added").count());
         }
     }
 }
@@ -23,7 +23,7 @@ import com.netflix.servo.tag.TagList;
 import com.netflix.zuul.stats.monitoring.MonitorRegistry;
 import com.netflix.zuul.stats.monitoring.NamedCount;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Simple Epic counter with a name and a count.
@@ -39,7 +39,7 @@ public class NamedCountingMonitor implements NamedCount{
     TagList tagList;
 
     @Monitor(name = "count", type = DataSourceType.COUNTER)
-    private final AtomicLong count = new AtomicLong();
+    private final LongAdder count = new LongAdder();
 
     public NamedCountingMonitor(String name) {
         this.name = name;
@@ -57,10 +57,18 @@ public class NamedCountingMonitor implements NamedCount{
 
     /**
      * increments the counter
-     * @return
+     * @return the count after incrementing
      */
     public long increment() {
-        return this.count.incrementAndGet();
+        this.count.increment();
+        return this.count.sum();
+    }
+
+    /**
+     * increments the counter, without reading it back
+     */
+    public void update() {
+        this.count.increment();
     }
 
     @Override
@@ -73,7 +81,7 @@ public class NamedCountingMonitor implements NamedCount{
      * @return the current count
      */
     public long getCount() {
-        return this.count.get();
+        return this.count.sum();
     }
 
 }
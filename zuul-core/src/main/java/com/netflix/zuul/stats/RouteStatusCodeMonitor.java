@@ -26,7 +26,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import static org.junit.Assert.*;
 
@@ -49,7 +49,7 @@ public class RouteStatusCodeMonitor implements NamedCount {
     int status_code;
 
     @Monitor(name = "count", type = DataSourceType.COUNTER)
-    private final AtomicLong count = new AtomicLong();
+    private final LongAdder count = new LongAdder();
 
 
     public RouteStatusCodeMonitor(String route, int status_code) {
@@ -87,14 +87,14 @@ public class RouteStatusCodeMonitor implements NamedCount {
     }
 
     public long getCount() {
-        return count.get();
+        return count.sum();
     }
 
     /**
      * increment the count
      */
     public void update() {
-        count.incrementAndGet();
+        count.increment();
     }
 
     @RunWith(MockitoJUnitRunner.class)
@@ -105,9 +105,9 @@ public class RouteStatusCodeMonitor implements NamedCount {
             RouteStatusCodeMonitor sd = new RouteStatusCodeMonitor("test", 200);
             assertEquals(sd.route, "test");
             sd.update();
-            assertEquals(sd.count.get(), 1);
+            assertEquals(sd.count.sum(), 1);
             sd.update();
-            assertEquals(sd.count.get(), 2);
+            assertEquals(sd.count.sum(), 2);
         }
 
 
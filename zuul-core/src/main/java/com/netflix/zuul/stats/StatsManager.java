@@ -28,6 +28,7 @@ import org.slf4j.LoggerFactory;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -61,6 +62,15 @@ public class StatsManager {
 
     private static final String X_FORWARDED_PROTO_HEADER = "x-forwarded-proto";
 
+    // status codes below this have their counters indexed in arrays, anything else falls back to the maps.
+    private static final int MAX_INDEXED_STATUS = 600;
+
+    // upper bound on the distinct raw host header values memoized, to protect against garbage hosts.
+    private static final int MAX_HOST_CACHE_SIZE = 1000;
+
+    // upper bound on the distinct raw routes memoized, routes past it are counted through routeStatusMap directly.
+    private static final int MAX_ROUTE_CACHE_SIZE = 1000;
+
     private final ConcurrentMap<String, ConcurrentHashMap<Integer, RouteStatusCodeMonitor>> routeStatusMap =
             new ConcurrentHashMap<String, ConcurrentHashMap<Integer, RouteStatusCodeMonitor>>();
 
@@ -76,6 +86,30 @@ public class StatsManager {
     private final ConcurrentMap<String, NamedCountingMonitor> ipVersionCounterMap =
             new ConcurrentHashMap<String, NamedCountingMonitor>();
 
+    // Hot path lookups, resolved to the same monitors as the maps above on first use.
+    private final AtomicReferenceArray<NamedCountingMonitor> statusMonitors =
+            new AtomicReferenceArray<NamedCountingMonitor>(MAX_INDEXED_STATUS);
+
+    private final AtomicReferenceArray<NamedCountingMonitor> statusBucketMonitors =
+            new AtomicReferenceArray<NamedCountingMonitor>(MAX_INDEXED_STATUS / 100);
+
+    private final ConcurrentMap<String, RouteStats> routeStatsByRawRoute = new ConcurrentHashMap<String, RouteStats>();
+
+    // keyed by the raw host header, with separate caches for ipv4 and ipv6 clients as the port is stripped differently.
+    private final ConcurrentMap<String, NamedCountingMonitor> ipv4HostMonitorCache =
+            new ConcurrentHashMap<String, NamedCountingMonitor>();
+
+    private final ConcurrentMap<String, NamedCountingMonitor> ipv6HostMonitorCache =
+            new ConcurrentHashMap<String, NamedCountingMonitor>();
+
+    private final ConcurrentMap<String, NamedCountingMonitor> protocolMonitorCache =
+            new ConcurrentHashMap<String, NamedCountingMonitor>();
+
+    // resolved on first use rather than on construction, as monitors are only registered once a publisher is set.
+    private volatile NamedCountingMonitor ipv4Monitor;
+
+    private volatile NamedCountingMonitor ipv6Monitor;
+
 
     protected static StatsManager INSTANCE = new StatsManager();
 
@@ -120,12 +154,12 @@ public class StatsManager {
         } catch (Exception e) {
             LOG.error(e.getMessage(), e);
         } finally {
-            return String.format("host_%s", host);
+            return "host_" + host;
         }
     }
 
     private static final String protocolKey(String proto) {
-        return String.format("protocol_%s", proto);
+        return "protocol_" + proto;
     }
 
 
@@ -137,7 +171,7 @@ public class StatsManager {
      */
     public void collectRequestStats(HttpRequestInfo req) {
         // ipv4/ipv6 tracking
-        String clientIp;
+        final String clientIp;
         final String xForwardedFor = req.getHeaders().getFirst(X_FORWARDED_FOR_HEADER);
         if (xForwardedFor == null) {
             clientIp = req.getClientIp();
@@ -146,13 +180,37 @@ public class StatsManager {
         }
 
         final boolean isIPv6 = (clientIp != null) ? isIPv6(clientIp) : false;
-
-        final String ipVersionKey = isIPv6 ? "ipv6" : "ipv4";
-        incrementNamedCountingMonitor(ipVersionKey, ipVersionCounterMap);
+        ipVersionMonitor(isIPv6).update();
 
         // host header
-        String host = req.getHeaders().getFirst(HOST_HEADER);
+        final String host = req.getHeaders().getFirst(HOST_HEADER);
         if (host != null) {
+            hostMonitor(host, isIPv6).update();
+        }
+
+        // http vs. https
+        String protocol = req.getHeaders().getFirst(X_FORWARDED_PROTO_HEADER);
+        if (protocol == null) protocol = req.getScheme();
+        protocolMonitor(protocol).update();
+    }
+
+    private NamedCountingMonitor ipVersionMonitor(boolean isIPv6) {
+        NamedCountingMonitor monitor = isIPv6 ? ipv6Monitor : ipv4Monitor;
+        if (monitor == null) {
+            if (isIPv6) {
+                monitor = ipv6Monitor = getNamedCountingMonitor("ipv6", ipVersionCounterMap);
+            } else {
+                monitor = ipv4Monitor = getNamedCountingMonitor("ipv4", ipVersionCounterMap);
+            }
+        }
+        return monitor;
+    }
+
+    private NamedCountingMonitor hostMonitor(String rawHost, boolean isIPv6) {
+        final ConcurrentMap<String, NamedCountingMonitor> cache = isIPv6 ? ipv6HostMonitorCache : ipv4HostMonitorCache;
+        NamedCountingMonitor monitor = cache.get(rawHost);
+        if (monitor == null) {
+            String host = rawHost;
             int colonIdx;
             if (isIPv6) {
                 // an ipv6 host might be a raw IP with 7+ colons
@@ -162,29 +220,54 @@ public class StatsManager {
                 colonIdx = host.indexOf(":");
             }
             if (colonIdx > -1) host = host.substring(0, colonIdx);
-            incrementNamedCountingMonitor(hostKey(host), this.hostCounterMap);
+            monitor = getNamedCountingMonitor(hostKey(host), this.hostCounterMap);
+            if (cache.size() < MAX_HOST_CACHE_SIZE) {
+                cache.putIfAbsent(rawHost, monitor);
+            }
         }
+        return monitor;
+    }
 
-        // http vs. https
-        String protocol = req.getHeaders().getFirst(X_FORWARDED_PROTO_HEADER);
-        if (protocol == null) protocol = req.getScheme();
-        incrementNamedCountingMonitor(protocolKey(protocol), this.protocolCounterMap);
-
-
+    private NamedCountingMonitor protocolMonitor(String protocol) {
+        if (protocol == null) {
+            return getNamedCountingMonitor(protocolKey(null), this.protocolCounterMap);
+        }
+        NamedCountingMonitor monitor = protocolMonitorCache.get(protocol);
+        if (monitor == null) {
+            monitor = getNamedCountingMonitor(protocolKey(protocol), this.protocolCounterMap);
+            if (protocolMonitorCache.size() < MAX_HOST_CACHE_SIZE) {
+                protocolMonitorCache.putIfAbsent(protocol, monitor);
+            }
+        }
+        return monitor;
     }
 
+    /**
+     * An ipv6 address in full form has exactly 7 colons.
+     */
     private static final boolean isIPv6(String ip) {
-        return ip.split(":").length == 8;
+        int colons = 0;
+        for (int i = 0; i < ip.length(); i++) {
+            if (ip.charAt(i) == ':' && ++colons > 7) {
+                return false;
+            }
+        }
+        return colons == 7;
     }
 
     private static final String extractClientIpFromXForwardedFor(String xForwardedFor) {
-        return xForwardedFor.split(",")[0];
+        final int commaIdx = xForwardedFor.indexOf(',');
+        return commaIdx < 0 ? xForwardedFor : xForwardedFor.substring(0, commaIdx);
     }
 
     /**
      * helper method to create new monitor, place into map, and register wtih Epic, if necessary
      */
     protected void incrementNamedCountingMonitor(String name, ConcurrentMap<String, NamedCountingMonitor> map) {
+        getNamedCountingMonitor(name, map).update();
+    }
+
+    private NamedCountingMonitor getNamedCountingMonitor(String name, ConcurrentMap<String, NamedCountingMonitor> map) {
         NamedCountingMonitor monitor = map.get(name);
         if (monitor == null) {
             monitor = new NamedCountingMonitor(name);
@@ -192,7 +275,55 @@ public class StatsManager {
             if (conflict != null) monitor = conflict;
             else MonitorRegistry.getInstance().registerObject(monitor);
         }
-        monitor.increment();
+        return monitor;
+    }
+
+    private NamedCountingMonitor statusMonitor(int statusCode) {
+        if (statusCode < 0 || statusCode >= MAX_INDEXED_STATUS) {
+            return getNamedCountingMonitor("status_" + statusCode, namedStatusMap);
+        }
+        NamedCountingMonitor monitor = statusMonitors.get(statusCode);
+        if (monitor == null) {
+            monitor = getNamedCountingMonitor("status_" + statusCode, namedStatusMap);
+            statusMonitors.lazySet(statusCode, monitor);
+        }
+        return monitor;
+    }
+
+    private NamedCountingMonitor statusBucketMonitor(int statusCode) {
+        final int bucket = statusCode / 100;
+        if (statusCode < 0 || statusCode >= MAX_INDEXED_STATUS) {
+            return getNamedCountingMonitor("status_" + bucket + "xx", namedStatusMap);
+        }
+        NamedCountingMonitor monitor = statusBucketMonitors.get(bucket);
+        if (monitor == null) {
+            monitor = getNamedCountingMonitor("status_" + bucket + "xx", namedStatusMap);
+            statusBucketMonitors.lazySet(bucket, monitor);
+        }
+        return monitor;
+    }
+
+    private RouteStats routeStats(String rawRoute, int statusCode) {
+        RouteStats stats = routeStatsByRawRoute.get(rawRoute);
+        if (stats == null) {
+            final String route = rawRoute.replace("/", "_");
+            ConcurrentHashMap<Integer, RouteStatusCodeMonitor> statsMap = routeStatusMap.get(route);
+            if (statsMap == null) {
+                //don't register only 404 status codes (these are garbage endpoints)
+                if (statusCode == 404) {
+                    return null;
+                }
+                statsMap = new ConcurrentHashMap<Integer, RouteStatusCodeMonitor>();
+                ConcurrentHashMap<Integer, RouteStatusCodeMonitor> found = routeStatusMap.putIfAbsent(route, statsMap);
+                if (found != null) statsMap = found;
+            }
+            stats = new RouteStats(route, statsMap);
+            if (routeStatsByRawRoute.size() < MAX_ROUTE_CACHE_SIZE) {
+                RouteStats found = routeStatsByRawRoute.putIfAbsent(rawRoute, stats);
+                if (found != null) stats = found;
+            }
+        }
+        return stats;
     }
 
     /**
@@ -204,53 +335,76 @@ public class StatsManager {
     public void collectRouteStats(String route, int statusCode) {
 
         // increments 200, 301, 401, 503, etc. status counters
-        final String preciseStatusString = String.format("status_%d", statusCode);
-        NamedCountingMonitor preciseStatus = namedStatusMap.get(preciseStatusString);
-        if (preciseStatus == null) {
-            preciseStatus = new NamedCountingMonitor(preciseStatusString);
-            NamedCountingMonitor found = namedStatusMap.putIfAbsent(preciseStatusString, preciseStatus);
-            if (found != null) preciseStatus = found;
-            else MonitorRegistry.getInstance().registerObject(preciseStatus);
-        }
-        preciseStatus.increment();
+        statusMonitor(statusCode).update();
 
         // increments 2xx, 3xx, 4xx, 5xx status counters
-        final String summaryStatusString = String.format("status_%dxx", statusCode / 100);
-        NamedCountingMonitor summaryStatus = namedStatusMap.get(summaryStatusString);
-        if (summaryStatus == null) {
-            summaryStatus = new NamedCountingMonitor(summaryStatusString);
-            NamedCountingMonitor found = namedStatusMap.putIfAbsent(summaryStatusString, summaryStatus);
-            if (found != null) summaryStatus = found;
-            else MonitorRegistry.getInstance().registerObject(summaryStatus);
-        }
-        summaryStatus.increment();
+        statusBucketMonitor(statusCode).update();
 
         // increments route and status counter
         if (route == null) route = "ROUTE_NOT_FOUND";
-        route = route.replace("/", "_");
-        ConcurrentHashMap<Integer, RouteStatusCodeMonitor> statsMap = routeStatusMap.get(route);
-        if (statsMap == null) {
-            statsMap = new ConcurrentHashMap<Integer, RouteStatusCodeMonitor>();
-            routeStatusMap.putIfAbsent(route, statsMap);
+        final RouteStats stats = routeStats(route, statusCode);
+        if (stats == null) {
+            return;
         }
-        RouteStatusCodeMonitor sd = statsMap.get(statusCode);
+        RouteStatusCodeMonitor sd = stats.get(statusCode);
         if (sd == null) {
             //don't register only 404 status codes (these are garbage endpoints)
             if (statusCode == 404) {
-                if (statsMap.size() == 0) {
+                if (stats.statsMap.size() == 0) {
                     return;
                 }
             }
+            sd = stats.getOrCreate(statusCode);
+        }
+        sd.update();
+    }
 
-            sd = new RouteStatusCodeMonitor(route, statusCode);
-            RouteStatusCodeMonitor sd1 = statsMap.putIfAbsent(statusCode, sd);
-            if (sd1 != null) {
-                sd = sd1;
-            } else {
-                MonitorRegistry.getInstance().registerObject(sd);
+    /**
+     * The status code monitors of one route, indexed by status class and then by status code so that counting a
+     * request is two array reads and a striped counter increment. The table for a status class is only allocated
+     * once the route has seen a status in it. Backed by the route's entry in routeStatusMap.
+     */
+    private static final class RouteStats {
+        final String route;
+        final ConcurrentHashMap<Integer, RouteStatusCodeMonitor> statsMap;
+        final AtomicReferenceArray<AtomicReferenceArray<RouteStatusCodeMonitor>> byStatusClass =
+                new AtomicReferenceArray<AtomicReferenceArray<RouteStatusCodeMonitor>>(MAX_INDEXED_STATUS / 100);
+
+        RouteStats(String route, ConcurrentHashMap<Integer, RouteStatusCodeMonitor> statsMap) {
+            this.route = route;
+            this.statsMap = statsMap;
+        }
+
+        RouteStatusCodeMonitor get(int statusCode) {
+            if (statusCode < 0 || statusCode >= MAX_INDEXED_STATUS) {
+                return statsMap.get(statusCode);
             }
+            final AtomicReferenceArray<RouteStatusCodeMonitor> byStatus = byStatusClass.get(statusCode / 100);
+            return byStatus == null ? null : byStatus.get(statusCode % 100);
+        }
+
+        RouteStatusCodeMonitor getOrCreate(int statusCode) {
+            RouteStatusCodeMonitor sd = statsMap.get(statusCode);
+            if (sd == null) {
+                sd = new RouteStatusCodeMonitor(route, statusCode);
+                RouteStatusCodeMonitor sd1 = statsMap.putIfAbsent(statusCode, sd);
+                if (sd1 != null) {
+                    sd = sd1;
+                } else {
+                    MonitorRegistry.getInstance().registerObject(sd);
+                }
+            }
+            if (statusCode >= 0 && statusCode < MAX_INDEXED_STATUS) {
+                final int statusClass = statusCode / 100;
+                AtomicReferenceArray<RouteStatusCodeMonitor> byStatus = byStatusClass.get(statusClass);
+                if (byStatus == null) {
+                    byStatusClass.compareAndSet(statusClass, null, new AtomicReferenceArray<RouteStatusCodeMonitor>(100));
+                    byStatus = byStatusClass.get(statusClass);
+                }
+                byStatus.lazySet(statusCode % 100, sd);
+            }
+            return sd;
         }
-        sd.update();
     }
 
 
@@ -339,6 +493,79 @@ public class StatsManager {
             assertTrue(StatsManager.isIPv6("2607:fb10:2:232:72f3:95ff:fe03:a6e7"));
             assertFalse(StatsManager.isIPv6("127.0.0.1"));
             assertFalse(StatsManager.isIPv6("10.2.233.134"));
+            assertFalse(StatsManager.isIPv6("::1"));
+            assertFalse(StatsManager.isIPv6("0:0:0:0:0:0:0:0:1"));
+        }
+
+        @Test
+        public void countsIndexedAndUnindexedStatusCodes() {
+            final StatsManager sm = new StatsManager();
+            sm.collectRouteStats("a/b", 503);
+            sm.collectRouteStats("a/b", 503);
+            sm.collectRouteStats("a/b", 999);
+
+            assertEquals(2, sm.getRouteStatusCodeMonitor("a_b", 503).getCount());
+            assertEquals(1, sm.getRouteStatusCodeMonitor("a_b", 999).getCount());
+            assertEquals(2, sm.namedStatusMap.get("status_503").getCount());
+            assertEquals(2, sm.namedStatusMap.get("status_5xx").getCount());
+            assertEquals(1, sm.namedStatusMap.get("status_9xx").getCount());
+        }
+
+        @Test
+        public void doesNotTrackRoutesThatOnlyReturn404() {
+            final StatsManager sm = new StatsManager();
+            sm.collectRouteStats("junk", 404);
+            sm.collectRouteStats("junk", 404);
+
+            assertNull(sm.routeStatusMap.get("junk"));
+            assertTrue(sm.routeStatsByRawRoute.isEmpty());
+            assertEquals(2, sm.namedStatusMap.get("status_404").getCount());
+
+            sm.collectRouteStats("junk", 200);
+            sm.collectRouteStats("junk", 404);
+            assertEquals(1, sm.getRouteStatusCodeMonitor("junk", 404).getCount());
+        }
+
+        @Test
+        public void allocatesStatusClassesOnFirstUse() {
+            final StatsManager sm = new StatsManager();
+            sm.collectRouteStats("a", 200);
+            sm.collectRouteStats("a", 204);
+
+            final RouteStats stats = sm.routeStatsByRawRoute.get("a");
+            assertNotNull(stats.byStatusClass.get(2));
+            assertNull(stats.byStatusClass.get(5));
+            assertEquals(1, stats.get(204).getCount());
+            assertNull(stats.get(503));
+        }
+
+        @Test
+        public void boundsMemoizedRoutes() {
+            final StatsManager sm = new StatsManager();
+            for (int i = 0; i < MAX_ROUTE_CACHE_SIZE + 10; i++) {
+                sm.collectRouteStats("route" + i, 200);
+            }
+            assertEquals(MAX_ROUTE_CACHE_SIZE, sm.routeStatsByRawRoute.size());
+
+            final String last = "route" + (MAX_ROUTE_CACHE_SIZE + 9);
+            sm.collectRouteStats(last, 200);
+            assertEquals(2, sm.getRouteStatusCodeMonitor(last, 200).getCount());
+        }
+
+        @Test
+        public void countsCachedHostsUnderNormalizedKey() {
+            final StatsManager sm = new StatsManager();
+            final HttpRequestInfo req = Mockito.mock(HttpRequestInfo.class);
+            Headers headers = new Headers();
+            when(req.getHeaders()).thenReturn(headers);
+            when(req.getClientIp()).thenReturn("127.0.0.1");
+            headers.set(HOST_HEADER, "ip-10-86-83-168:7001");
+
+            sm.collectRequestStats(req);
+            sm.collectRequestStats(req);
+
+            assertEquals(2, sm.hostCounterMap.get("host_IP").getCount());
+            assertEquals(2, sm.ipVersionCounterMap.get("ipv4").getCount());
         }
 
     }
@@ -16,53 +16,264 @@
 
 package com.netflix.zuul.stats;
 
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
 /**
+ * The timings of one request, held as start/end pairs of System.nanoTime() in a single long[], indexed by timing id.
+ *
+ * The standard Zuul timings have fixed ids (REQUEST etc). Other timings get an id from register(), once per name for
+ * the life of the process, and can then be started and ended per request without any lookup or allocation. A request
+ * only runs on one event loop at a time, so this is not threadsafe.
+ *
  * User: michaels@netflix.com
  * Date: 6/15/15
  * Time: 4:16 PM
  */
 public class Timings
 {
-    private final Timing request = new Timing("_requestTiming");
-    private final Timing requestProxy = new Timing("_requestProxyTiming");
-    private final Timing requestBodyRead = new Timing("_requestBodyReadTiming");
-    private final Timing responseBodyRead = new Timing("_responseBodyReadTiming");
-    private final Timing requestBodyWrite = new Timing("_requestBodyWriteTiming");
-    private final Timing responseBodyWrite = new Timing("_responseBodyWriteTiming");
+    /* Following are some standard Zuul timings: */
+    public static final int REQUEST = 0;
+    public static final int REQUEST_PROXY = 1;
+    public static final int REQUEST_BODY_READ = 2;
+    public static final int RESPONSE_BODY_READ = 3;
+    public static final int REQUEST_BODY_WRITE = 4;
+    public static final int RESPONSE_BODY_WRITE = 5;
 
-    protected final ConcurrentHashMap<String, Timing> additionalTimings = new ConcurrentHashMap<>();
+    private static final String[] STANDARD_NAMES = {
+            "_requestTiming", "_requestProxyTiming", "_requestBodyReadTiming", "_responseBodyReadTiming",
+            "_requestBodyWriteTiming", "_responseBodyWriteTiming"
+    };
 
-    public Timing get(String name)
+    private static final ConcurrentHashMap<String, Integer> IDS_BY_NAME = new ConcurrentHashMap<>();
+    private static volatile String[] names = STANDARD_NAMES;
+    static {
+        for (int i = 0; i < STANDARD_NAMES.length; i++) {
+            IDS_BY_NAME.put(STANDARD_NAMES[i], i);
+        }
+    }
+
+    /** start and end of each timing id, at [id * 2] and [id * 2 + 1]; 0 when not yet started or ended */
+    private long[] times = new long[STANDARD_NAMES.length * 2];
+
+    /** Timing views handed out by the Timing-returning getters, created on first use */
+    private Timing[] views;
+
+    /**
+     * Returns the id for the named timing, registering it if needed. Ids are global, so call this once (eg. into a
+     * static field) rather than per request.
+     */
+    public static int register(String name)
     {
-        return additionalTimings.computeIfAbsent(name, (newName) -> new Timing(newName));
+        Integer id = IDS_BY_NAME.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (IDS_BY_NAME) {
+            id = IDS_BY_NAME.get(name);
+            if (id == null) {
+                final String[] newNames = Arrays.copyOf(names, names.length + 1);
+                id = names.length;
+                newNames[id] = name;
+                names = newNames;
+                IDS_BY_NAME.put(name, id);
+            }
+            return id;
+        }
     }
 
-    /* Following are some standard Zuul timings: */
+    public static String nameOf(int id)
+    {
+        return names[id];
+    }
+
+    public void start(int id)
+    {
+        ensureCapacity(id);
+        times[id * 2] = System.nanoTime();
+    }
+
+    public void end(int id)
+    {
+        ensureCapacity(id);
+        times[id * 2 + 1] = System.nanoTime();
+    }
+
+    public long getStartTime(int id)
+    {
+        final int idx = id * 2;
+        return idx < times.length ? times[idx] : 0;
+    }
+
+    public long getEndTime(int id)
+    {
+        final int idx = id * 2 + 1;
+        return idx < times.length ? times[idx] : 0;
+    }
+
+    /**
+     * @return the duration in nanoseconds, or 0 if the timing hasn't ended
+     */
+    public long getDuration(int id)
+    {
+        final long end = getEndTime(id);
+        return end == 0 ? 0 : end - getStartTime(id);
+    }
+
+    private void ensureCapacity(int id)
+    {
+        if (id * 2 + 1 >= times.length) {
+            times = Arrays.copyOf(times, Math.max(times.length * 2, (id + 1) * 2));
+        }
+    }
+
+    /**
+     * Returns a Timing for the named timing, backed by this Timings. Prefer register() and the id-based methods.
+     */
+    public Timing get(String name)
+    {
+        return view(register(name));
+    }
 
     public Timing getRequest()
     {
-        return request;
+        return view(REQUEST);
     }
     public Timing getRequestProxy()
     {
-        return requestProxy;
+        return view(REQUEST_PROXY);
     }
     public Timing getRequestBodyRead()
     {
-        return requestBodyRead;
+        return view(REQUEST_BODY_READ);
     }
     public Timing getResponseBodyRead()
     {
-        return responseBodyRead;
+        return view(RESPONSE_BODY_READ);
     }
     public Timing getRequestBodyWrite()
     {
-        return requestBodyWrite;
+        return view(REQUEST_BODY_WRITE);
     }
     public Timing getResponseBodyWrite()
     {
-        return responseBodyWrite;
+        return view(RESPONSE_BODY_WRITE);
+    }
+
+    private Timing view(int id)
+    {
+        if (views == null || id >= views.length) {
+            views = views == null ? new Timing[Math.max(STANDARD_NAMES.length, id + 1)]
+                    : Arrays.copyOf(views, Math.max(views.length * 2, id + 1));
+        }
+        Timing view = views[id];
+        if (view == null) {
+            view = new View(this, id);
+            views[id] = view;
+        }
+        return view;
+    }
+
+    /**
+     * A Timing that reads and writes one id of a Timings.
+     */
+    private static final class View extends Timing
+    {
+        private final Timings timings;
+        private final int id;
+
+        View(Timings timings, int id)
+        {
+            super(nameOf(id));
+            this.timings = timings;
+            this.id = id;
+        }
+
+        @Override
+        public void start()
+        {
+            timings.start(id);
+        }
+
+        @Override
+        public void end()
+        {
+            timings.end(id);
+        }
+
+        @Override
+        public long getStartTime()
+        {
+            return timings.getStartTime(id);
+        }
+
+        @Override
+        public long getEndTime()
+        {
+            return timings.getEndTime(id);
+        }
+
+        @Override
+        public long getDuration()
+        {
+            return timings.getDuration(id);
+        }
+
+        @Override
+        public String toString()
+        {
+            return Long.toString(getDuration());
+        }
+    }
+
+    @RunWith(MockitoJUnitRunner.class)
+    public static class UnitTest
+    {
+        @Test
+        public void durationIsZeroUntilEnded()
+        {
+            Timings timings = new Timings();
+            timings.start(REQUEST);
+            assertEquals(0, timings.getDuration(REQUEST));
+            timings.end(REQUEST);
+            assertTrue(timings.getDuration(REQUEST) >= 0);
+            assertEquals(timings.getEndTime(REQUEST) - timings.getStartTime(REQUEST), timings.getDuration(REQUEST));
+        }
+
+        @Test
+        public void registeredTimingsGrowTheArray()
+        {
+            int id = register("_testTiming");
+            assertEquals(id, register("_testTiming"));
+            assertEquals("_testTiming", nameOf(id));
+
+            Timings timings = new Timings();
+            assertEquals(0, timings.getDuration(id));
+            timings.start(id);
+            timings.end(id);
+            assertTrue(timings.getEndTime(id) > 0);
+        }
+
+        @Test
+        public void viewsShareTheArray()
+        {
+            Timings timings = new Timings();
+            Timing request = timings.getRequest();
+            assertSame(request, timings.getRequest());
+            assertEquals("_requestTiming", request.getName());
+
+            request.start();
+            request.end();
+            assertEquals(timings.getDuration(REQUEST), request.getDuration());
+            assertEquals(timings.getEndTime(REQUEST), timings.get("_requestTiming").getEndTime());
+        }
     }
 }
@@ -67,7 +67,7 @@ public class ZuulSampleModule extends AbstractModule {
         bind(RequestMetricsPublisher.class).to(BasicRequestMetricsPublisher.class); // timings publisher
 
         // access logger, including request ID generator
-        bind(AccessLogPublisher.class).toInstance(new AccessLogPublisher("ACCESS",
+        bind(AccessLogPublisher.class).toInstance(AccessLogPublisher.fromConfig("ACCESS",
                 (channel, httpRequest) -> ClientRequestReceiver.getRequestFromChannel(channel).getContext().getUUID()));
     }
 }